@@ -0,0 +1,511 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.Fst;
+import com.github.steveash.jopenfst.MutableFst;
+import com.github.steveash.jopenfst.State;
+
+import java.util.*;
+
+/**
+ * A DFA that is edited one arc or final state at a time and reclassified after each edit without starting over.
+ *
+ * The session keeps the SCCs and the reachability relation of the transition graph up to date as arcs change: adding
+ * an arc extends the reachable sets of the states that reach its source and merges the SCCs it closes a cycle
+ * through; removing one first checks whether its target is still reachable another way, and otherwise only
+ * recomputes the reachable sets of the states that reached its source.
+ *
+ * Classification results are reused at two levels. Verdicts are remembered per language (the canonical minimal DFA),
+ * so an edit that does not change the language, or one that is undone, costs no check at all. While the edited DFA is
+ * itself minimal, the locally testable and piecewise testable checks are also split into the conditions they are made
+ * of, and only the conditions whose inputs an edit touched are checked again:
+ * <ul>
+ * <li>pairwise s-locality of an SCC, which depends on the arcs leaving the states of the SCC;</li>
+ * <li>TS-locality with respect to an SCC, which depends on the arcs leaving the SCC and the states that reach it;</li>
+ * <li>the piecewise testable condition at a state p, which depends on the arcs labeled by the letters p is stable
+ * under.</li>
+ * </ul>
+ * The star free and locally threshold testable checks have no such decomposition and are rerun when the language
+ * changes. A session is not thread-safe.
+ *
+ * @author Elliot Tuck
+ */
+public final class AnalysisSession {
+
+    private static final int LANGUAGE_CACHE_CAPACITY = 256;
+
+    private static final byte UNCHECKED = 0;
+    private static final byte HOLDS = 1;
+    private static final byte FAILS = 2;
+
+    private final int stateCount;
+    private final int start;
+    private final String[] symbols;
+    private final int[] delta;
+    private final boolean[] finals;
+
+    // reach[s] holds the states reachable from s, s included; the states of one SCC may share a single bitset
+    private final BitSet[] reach;
+    // the representative state of the SCC of each state, and the size of the SCC of each representative
+    private final int[] componentOf;
+    private final int[] componentSize;
+    private Condensation condensation;
+
+    private final Map<BitSet, Boolean> pairwiseSLocal = new HashMap<>();
+    private final Map<List<BitSet>, Boolean> tsLocal = new HashMap<>();
+    private final byte[] piecewiseTestableAt;
+    private final Map<DfaHash, EnumMap<LanguageClass, Boolean>> verdicts =
+            new LinkedHashMap<DfaHash, EnumMap<LanguageClass, Boolean>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<DfaHash, EnumMap<LanguageClass, Boolean>> eldest) {
+                    return size() > LANGUAGE_CACHE_CAPACITY;
+                }
+            };
+
+    /**
+     * Start a session on a copy of the given DFA.
+     *
+     * @param dfa The DFA to edit; it is not modified.
+     */
+    public AnalysisSession(CompactDfa dfa) {
+        this.stateCount = dfa.getStateCount();
+        this.start = dfa.getStart();
+        this.symbols = new String[dfa.getAlphabetSize()];
+        for (int a = 0; a < symbols.length; a++) {
+            symbols[a] = dfa.getSymbol(a);
+        }
+        this.delta = new int[stateCount * symbols.length];
+        this.finals = new boolean[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            finals[s] = dfa.isFinal(s);
+            for (int a = 0; a < symbols.length; a++) {
+                delta[s * symbols.length + a] = dfa.next(s, a);
+            }
+        }
+        this.reach = new BitSet[stateCount];
+        this.componentOf = new int[stateCount];
+        this.componentSize = new int[stateCount];
+        this.piecewiseTestableAt = new byte[stateCount];
+        rebuild(null);
+    }
+
+    /**
+     * Start a session on a snapshot of the given FST.
+     *
+     * @param fst The DFA to edit, represented as an FST with identical input/output labels.
+     * @return The session.
+     */
+    public static AnalysisSession of(Fst fst) {
+        return new AnalysisSession(CompactDfa.fromFst(fst));
+    }
+
+    /**
+     * @return A snapshot of the DFA as edited so far.
+     */
+    public CompactDfa getDfa() {
+        return new CompactDfa(stateCount, start, symbols.clone(), delta.clone(), finals.clone());
+    }
+
+    /**
+     * Add the transition from state on symbol to target, replacing the transition state had on symbol, if any.
+     *
+     * @param state  The source state.
+     * @param symbol The input symbol.
+     * @param target The target state.
+     */
+    public void setArc(int state, String symbol, int target) {
+        checkState(target);
+        int a = symbolIndex(state, symbol);
+        int old = delta[state * symbols.length + a];
+        if (old == target) {
+            return;
+        }
+        delta[state * symbols.length + a] = target;
+        invalidate(state, a);
+        if (old != CompactDfa.NONE) {
+            removeEdge(state, old);
+        }
+        addEdge(state, target);
+    }
+
+    /**
+     * Remove the transition from state on symbol, if there is one.
+     *
+     * @param state  The source state.
+     * @param symbol The input symbol.
+     */
+    public void removeArc(int state, String symbol) {
+        int a = symbolIndex(state, symbol);
+        int old = delta[state * symbols.length + a];
+        if (old == CompactDfa.NONE) {
+            return;
+        }
+        delta[state * symbols.length + a] = CompactDfa.NONE;
+        invalidate(state, a);
+        removeEdge(state, old);
+    }
+
+    /**
+     * Make a state final or non-final. This changes no graph condition, only the language.
+     *
+     * @param state   The state.
+     * @param isFinal Whether the state should be final.
+     */
+    public void setFinal(int state, boolean isFinal) {
+        checkState(state);
+        finals[state] = isFinal;
+    }
+
+    /**
+     * @param p A state.
+     * @param q A state.
+     * @return true if q is reachable from p (every state reaches itself), false otherwise.
+     */
+    public boolean canReach(int p, int q) {
+        checkState(p);
+        checkState(q);
+        return reach[p].get(q);
+    }
+
+    /**
+     * @param state A state.
+     * @return The representative of the SCC of state, which is the same for every state of the SCC.
+     */
+    public int getComponentOf(int state) {
+        checkState(state);
+        return componentOf[state];
+    }
+
+    /**
+     * @param state A state.
+     * @return true if state lies on a cycle, i.e. its SCC has more than one state or it has a self-loop.
+     */
+    public boolean isSCCNode(int state) {
+        checkState(state);
+        return componentSize[componentOf[state]] > 1 || hasSelfLoop(state);
+    }
+
+    /**
+     * @return The condensation of the current transition graph. It is built on first use after an edit that changed
+     * the SCCs.
+     */
+    public Condensation getCondensation() {
+        if (condensation == null) {
+            condensation = Condensation.of(graph());
+        }
+        return condensation;
+    }
+
+    /**
+     * Test the language of the edited DFA for membership in a language class.
+     *
+     * @param languageClass The language class to test for.
+     * @return The result of the test; its metrics count the conditions that were checked and reused.
+     */
+    public ClassificationResult classify(LanguageClass languageClass) {
+        return classify(languageClass, Budget.UNLIMITED);
+    }
+
+    /**
+     * Test the language of the edited DFA for membership in a language class within a budget. Verdicts cut short by
+     * the budget are not remembered, but the conditions checked before it ran out are.
+     *
+     * @param languageClass The language class to test for.
+     * @param budget        Limits the time and space of the test.
+     * @return The result of the test, whose verdict is UNKNOWN if the budget ran out.
+     */
+    public ClassificationResult classify(LanguageClass languageClass, Budget budget) {
+        Metrics metrics = new Metrics();
+        CompactDfa dfa = getDfa();
+        CompactDfa canonical = dfa.canonical();
+        DfaHash hash = DfaHash.of(canonical);
+        EnumMap<LanguageClass, Boolean> known = verdicts.get(hash);
+        if (known != null && known.containsKey(languageClass)) {
+            metrics.count(Instrumentation.Counter.CONDITIONS_REUSED, 1);
+            return new ClassificationResult(languageClass, known.get(languageClass), metrics);
+        }
+
+        ClassificationResult result;
+        boolean minimal = dfa.isComplete() && canonical.getStateCount() == stateCount;
+        if (minimal && (languageClass == LanguageClass.LOCALLY_TESTABLE
+                || languageClass == LanguageClass.PIECEWISE_TESTABLE)) {
+            try (Stage check = Stage.beginCheck(languageClass, dfa)) {
+                try {
+                    boolean member = languageClass == LanguageClass.LOCALLY_TESTABLE
+                            ? isLocallyTestable(dfa, metrics, budget)
+                            : isPiecewiseTestable(dfa, metrics, budget);
+                    result = new ClassificationResult(languageClass, member, metrics);
+                } catch (BudgetExceededException e) {
+                    result = ClassificationResult.unknown(languageClass, e.getMessage(), metrics);
+                }
+                check.setResult(result.getVerdict(), metrics);
+            }
+        } else {
+            result = new Classifier(canonical).classify(languageClass, metrics, budget);
+        }
+
+        if (result.getVerdict() != Verdict.UNKNOWN) {
+            if (known == null) {
+                known = new EnumMap<>(LanguageClass.class);
+                verdicts.put(hash, known);
+            }
+            known.put(languageClass, result.isMember());
+        }
+        return result;
+    }
+
+    /**
+     * The locally testable check of Utils.isLocallyTestable, condition by condition. The TS-locality of the graph
+     * with respect to an SCC only depends on the SCC and the states that reach it, since those are never peeled off
+     * before it, so it can be checked on the whole graph in any order.
+     */
+    private boolean isLocallyTestable(CompactDfa dfa, Metrics metrics, Budget budget) {
+        Map<Integer, BitSet> components = new LinkedHashMap<>();
+        for (int s = 0; s < stateCount; s++) {
+            if (isSCCNode(s)) {
+                BitSet component = components.get(componentOf[s]);
+                if (component == null) {
+                    component = new BitSet(stateCount);
+                    components.put(componentOf[s], component);
+                }
+                component.set(s);
+            }
+        }
+
+        Fst fst = null;
+        for (Map.Entry<Integer, BitSet> entry : components.entrySet()) {
+            budget.poll();
+            BitSet component = entry.getValue();
+            Boolean sLocal = pairwiseSLocal.get(component);
+            if (sLocal == null) {
+                metrics.count(Instrumentation.Counter.CONDITIONS_CHECKED, 1);
+                sLocal = Utils.isPairwiseSLocal(dfa, component, component, budget);
+                pairwiseSLocal.put(component, sLocal);
+            } else {
+                metrics.count(Instrumentation.Counter.CONDITIONS_REUSED, 1);
+            }
+            if (!sLocal) {
+                return false;
+            }
+
+            BitSet ancestors = new BitSet(stateCount);
+            int representative = entry.getKey();
+            for (int s = 0; s < stateCount; s++) {
+                if (reach[s].get(representative)) {
+                    ancestors.set(s);
+                }
+            }
+            List<BitSet> key = Arrays.asList(component, ancestors);
+            Boolean local = tsLocal.get(key);
+            if (local == null) {
+                metrics.count(Instrumentation.Counter.CONDITIONS_CHECKED, 1);
+                if (fst == null) {
+                    fst = dfa.toFst();
+                }
+                ArrayList<State> scc = new ArrayList<>();
+                for (int s = component.nextSetBit(0); s >= 0; s = component.nextSetBit(s + 1)) {
+                    scc.add(fst.getState(s));
+                }
+                local = Utils.isTSLocalWRT(scc, fst, budget);
+                tsLocal.put(key, local);
+            } else {
+                metrics.count(Instrumentation.Counter.CONDITIONS_REUSED, 1);
+            }
+            if (!local) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The piecewise testable check of Utils.isPiecewiseTestable, condition by condition.
+     */
+    private boolean isPiecewiseTestable(CompactDfa dfa, Metrics metrics, Budget budget) {
+        // the graph is acyclic apart from self-loops exactly when every SCC is a single state
+        for (int s = 0; s < stateCount; s++) {
+            if (componentSize[componentOf[s]] > 1) {
+                return false;
+            }
+        }
+        MutableFst fst = null;
+        for (int p = 0; p < stateCount; p++) {
+            if (piecewiseTestableAt[p] == UNCHECKED) {
+                budget.poll();
+                metrics.count(Instrumentation.Counter.CONDITIONS_CHECKED, 1);
+                if (fst == null) {
+                    fst = dfa.toFst();
+                }
+                piecewiseTestableAt[p] = Utils.isPiecewiseTestableAt(fst, p) ? HOLDS : FAILS;
+            } else {
+                metrics.count(Instrumentation.Counter.CONDITIONS_REUSED, 1);
+            }
+            if (piecewiseTestableAt[p] == FAILS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget the conditions that depend on the transition of state on symbol a, which has just changed.
+     */
+    private void invalidate(int state, int a) {
+        pairwiseSLocal.keySet().removeIf(component -> component.get(state));
+        tsLocal.keySet().removeIf(key -> key.get(1).get(state));
+        piecewiseTestableAt[state] = UNCHECKED;
+        for (int p = 0; p < stateCount; p++) {
+            if (delta[p * symbols.length + a] == p) {
+                piecewiseTestableAt[p] = UNCHECKED;
+            }
+        }
+    }
+
+    /**
+     * Update reachability and SCCs after an arc from s to t was added.
+     */
+    private void addEdge(int s, int t) {
+        if (reach[s].get(t)) {
+            // t was already reachable from s, so nothing is reachable that was not before
+            return;
+        }
+        BitSet fromT = reach[t];
+        for (int u = 0; u < stateCount; u++) {
+            if (reach[u].get(s)) {
+                reach[u].or(fromT);
+            }
+        }
+        if (fromT.get(s)) {
+            // the arc closes a cycle: the states reachable from s that reach s form the new SCC of s
+            int representative = componentOf[s];
+            int size = 0;
+            BitSet fromS = reach[s];
+            for (int u = fromS.nextSetBit(0); u >= 0; u = fromS.nextSetBit(u + 1)) {
+                if (reach[u].get(s)) {
+                    componentOf[u] = representative;
+                    size++;
+                }
+            }
+            componentSize[representative] = size;
+        }
+        condensation = null;
+    }
+
+    /**
+     * Update reachability and SCCs after the arc on one symbol from s to t was removed.
+     */
+    private void removeEdge(int s, int t) {
+        for (int a = 0; a < symbols.length; a++) {
+            if (delta[s * symbols.length + a] == t) {
+                // s still has an arc to t on another symbol, so the graph is unchanged
+                return;
+            }
+        }
+        if (s == t || isStillReachable(s, t)) {
+            // every path through the removed arc can be rerouted, so reachability and SCCs are unchanged
+            return;
+        }
+        BitSet affected = new BitSet(stateCount);
+        for (int u = 0; u < stateCount; u++) {
+            if (reach[u].get(s)) {
+                affected.set(u);
+            }
+        }
+        rebuild(affected);
+    }
+
+    private boolean isStillReachable(int s, int t) {
+        BitSet visited = new BitSet(stateCount);
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        visited.set(s);
+        queue[tail++] = s;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int a = 0; a < symbols.length; a++) {
+                int v = delta[u * symbols.length + a];
+                if (v == t) {
+                    return true;
+                }
+                if (v != CompactDfa.NONE && !visited.get(v)) {
+                    visited.set(v);
+                    queue[tail++] = v;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Recompute the SCCs from the condensation of the graph, and the reachable sets of the given states (or of every
+     * state if affected is null). The components are numbered in topological order, so going through them backwards
+     * sees every successor of a component before the component itself.
+     */
+    private void rebuild(BitSet affected) {
+        condensation = Condensation.of(graph());
+        for (int c = condensation.getComponentCount() - 1; c >= 0; c--) {
+            int[] states = condensation.getStates(c);
+            int representative = states[0];
+            for (int s : states) {
+                componentOf[s] = representative;
+            }
+            componentSize[representative] = states.length;
+            if (affected != null && !affected.get(representative)) {
+                continue;
+            }
+            BitSet reachable = new BitSet(stateCount);
+            for (int s : states) {
+                reachable.set(s);
+            }
+            for (int d : condensation.getSuccessors(c)) {
+                reachable.or(reach[condensation.getStates(d)[0]]);
+            }
+            for (int s : states) {
+                reach[s] = reachable;
+            }
+        }
+    }
+
+    private IntGraph graph() {
+        return new IntGraph() {
+            @Override
+            public int getStateCount() {
+                return stateCount;
+            }
+
+            @Override
+            public int getArcCount(int state) {
+                return symbols.length;
+            }
+
+            @Override
+            public int getTarget(int state, int arc) {
+                return delta[state * symbols.length + arc];
+            }
+        };
+    }
+
+    private boolean hasSelfLoop(int state) {
+        for (int a = 0; a < symbols.length; a++) {
+            if (delta[state * symbols.length + a] == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int symbolIndex(int state, String symbol) {
+        checkState(state);
+        int a = Arrays.binarySearch(symbols, symbol);
+        if (a < 0) {
+            throw new IllegalArgumentException("Symbol " + symbol + " is not part of the alphabet");
+        }
+        return a;
+    }
+
+    private void checkState(int state) {
+        if (state < 0 || state >= stateCount) {
+            throw new IllegalArgumentException("State " + state + " does not exist");
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package sbfst;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Decides membership of many strings in the language of a DFA, e.g. to label a data set. Every symbol of the DFA must
+ * be a single character, and a string is read one character per symbol; characters outside the alphabet lead to
+ * rejection. Byte input is read as ISO-8859-1, so byte b is the character with code b.
+ *
+ * The transition table is flattened into one int array whose entries are already multiplied by the row width, with
+ * an extra column for characters outside the alphabet and an extra dead state for missing transitions, so reading a
+ * character is a single array lookup with no branches. Batches are split across the common fork/join pool. An
+ * acceptor is immutable and can be shared between threads.
+ *
+ * @author Elliot Tuck
+ */
+public final class BatchAcceptor {
+
+    /**
+     * The number of bytes of input labeled by one task of labelFile.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 23;
+
+    private static final byte[] TRUE_LABEL = "\tTRUE\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE_LABEL = "\tFALSE\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final int width;
+    private final int start;
+    private final int[] table;
+    private final boolean[] accepting;
+    private final int[] charClass;
+
+    /**
+     * @param dfa The DFA whose language to decide; every symbol must be a single character.
+     */
+    public BatchAcceptor(CompactDfa dfa) {
+        int n = dfa.getStateCount();
+        int k = dfa.getAlphabetSize();
+        int outside = k;
+        int dead = n;
+        this.width = k + 1;
+
+        // map each character to its symbol index, and everything else to the extra column
+        int maxChar = 0;
+        for (int a = 0; a < k; a++) {
+            String symbol = dfa.getSymbol(a);
+            if (symbol.length() != 1) {
+                throw new IllegalArgumentException("Batch acceptance needs single-character symbols, not "
+                        + symbol);
+            }
+            maxChar = Math.max(maxChar, symbol.charAt(0));
+        }
+        this.charClass = new int[Math.max(maxChar + 1, 256)];
+        Arrays.fill(charClass, outside);
+        for (int a = 0; a < k; a++) {
+            charClass[dfa.getSymbol(a).charAt(0)] = a;
+        }
+
+        this.table = new int[(n + 1) * width];
+        this.accepting = new boolean[n + 1];
+        for (int s = 0; s <= n; s++) {
+            for (int c = 0; c < width; c++) {
+                int t = s == dead || c == outside ? CompactDfa.NONE : dfa.next(s, c);
+                table[s * width + c] = (t == CompactDfa.NONE ? dead : t) * width;
+            }
+            accepting[s] = s != dead && dfa.isFinal(s);
+        }
+        this.start = n == 0 ? 0 : dfa.getStart() * width;
+    }
+
+    /**
+     * @param word A string of ISO-8859-1 bytes.
+     * @return true if the DFA accepts word, false otherwise.
+     */
+    public boolean accepts(byte[] word) {
+        return accepts(word, 0, word.length);
+    }
+
+    /**
+     * @param bytes  An array holding a string of ISO-8859-1 bytes.
+     * @param offset The index of the first byte of the string.
+     * @param length The number of bytes in the string.
+     * @return true if the DFA accepts the string, false otherwise.
+     */
+    public boolean accepts(byte[] bytes, int offset, int length) {
+        int s = start;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            s = table[s + charClass[bytes[i] & 0xff]];
+        }
+        return accepting[s / width];
+    }
+
+    /**
+     * @param word A string.
+     * @return true if the DFA accepts word, false otherwise.
+     */
+    public boolean accepts(CharSequence word) {
+        int s = start;
+        int outside = width - 1;
+        for (int i = 0, end = word.length(); i < end; i++) {
+            char c = word.charAt(i);
+            s = table[s + (c < charClass.length ? charClass[c] : outside)];
+        }
+        return accepting[s / width];
+    }
+
+    /**
+     * Decide a batch of strings in parallel.
+     *
+     * @param words Strings of ISO-8859-1 bytes.
+     * @return For each word, whether the DFA accepts it.
+     */
+    public boolean[] acceptAll(byte[][] words) {
+        boolean[] result = new boolean[words.length];
+        IntStream.range(0, words.length).parallel().forEach(i -> result[i] = accepts(words[i]));
+        return result;
+    }
+
+    /**
+     * Decide a batch of strings in parallel.
+     *
+     * @param words Strings; the list should support fast random access.
+     * @return For each word, whether the DFA accepts it.
+     */
+    public boolean[] acceptAll(List<? extends CharSequence> words) {
+        boolean[] result = new boolean[words.size()];
+        IntStream.range(0, result.length).parallel().forEach(i -> result[i] = accepts(words.get(i)));
+        return result;
+    }
+
+    /**
+     * Label every line of a newline-delimited file. Each line is written to output followed by a tab and TRUE or
+     * FALSE, the format data-gen.py writes; a carriage return before a newline is not part of the line. The file is
+     * memory mapped and labeled in chunks in parallel, and the labels are written in input order as soon as the
+     * chunks before them are done, with only a few chunks in flight at a time.
+     *
+     * @param input  The file to label.
+     * @param output Receives the labeled lines; it is not closed.
+     * @return The number of lines labeled.
+     * @throws IOException if reading input or writing output fails.
+     */
+    public long labelFile(Path input, OutputStream output) throws IOException {
+        return labelFile(input, output, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Label every line of a newline-delimited file into another file (see labelFile(Path, OutputStream)).
+     *
+     * @param input  The file to label.
+     * @param output The file to write the labeled lines to, replacing it if it exists.
+     * @return The number of lines labeled.
+     * @throws IOException if reading input or writing output fails.
+     */
+    public long labelFile(Path input, Path output) throws IOException {
+        try (OutputStream out = Files.newOutputStream(output)) {
+            return labelFile(input, out);
+        }
+    }
+
+    long labelFile(Path input, OutputStream output, int chunkSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            List<long[]> chunks = split(channel, chunkSize);
+            int window = Math.max(2, 2 * ForkJoinPool.getCommonPoolParallelism());
+            ArrayDeque<CompletableFuture<Chunk>> pending = new ArrayDeque<>();
+            long lines = 0;
+            for (final long[] chunk : chunks) {
+                if (pending.size() == window) {
+                    lines += write(pending.poll(), output);
+                }
+                pending.add(CompletableFuture.supplyAsync(() -> label(channel, chunk[0], chunk[1])));
+            }
+            while (!pending.isEmpty()) {
+                lines += write(pending.poll(), output);
+            }
+            output.flush();
+            return lines;
+        }
+    }
+
+    /**
+     * Cut a file into chunks of about chunkSize bytes that end right after a newline (or at the end of the file).
+     */
+    private static List<long[]> split(FileChannel channel, int chunkSize) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        long size = channel.size();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long from = 0;
+        while (from < size) {
+            long to = Math.min(from + chunkSize, size);
+            // extend the chunk to the end of the line it stops in
+            while (to < size) {
+                probe.clear();
+                int read = channel.read(probe, to - 1);
+                int newline = -1;
+                for (int i = 0; i < read && newline < 0; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                    }
+                }
+                if (newline >= 0) {
+                    to = Math.min(to - 1 + newline + 1, size);
+                    break;
+                }
+                to = Math.min(to - 1 + read + 1, size);
+            }
+            chunks.add(new long[]{from, to});
+            from = to;
+        }
+        return chunks;
+    }
+
+    private Chunk label(FileChannel channel, long from, long to) {
+        MappedByteBuffer bytes;
+        try {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int length = (int) (to - from);
+        Chunk chunk = new Chunk(length + length / 2 + 16);
+        int s = start;
+        int before = start;
+        int lineStart = chunk.size;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes.get(i);
+            if (b == '\n') {
+                boolean carriageReturn = chunk.size > lineStart && chunk.bytes[chunk.size - 1] == '\r';
+                if (carriageReturn) {
+                    chunk.size--;
+                }
+                chunk.endLine(accepting[(carriageReturn ? before : s) / width]);
+                s = start;
+                before = start;
+                lineStart = chunk.size;
+            } else {
+                chunk.add(b);
+                before = s;
+                s = table[s + charClass[b & 0xff]];
+            }
+        }
+        if (chunk.size > lineStart) {
+            // the last line of the file has no newline
+            chunk.endLine(accepting[s / width]);
+        }
+        return chunk;
+    }
+
+    private static long write(CompletableFuture<Chunk> pending, OutputStream output) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        output.write(chunk.bytes, 0, chunk.size);
+        return chunk.lines;
+    }
+
+    /**
+     * The labeled lines of one chunk of input.
+     */
+    private static final class Chunk {
+        private byte[] bytes;
+        private int size;
+        private long lines;
+
+        Chunk(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void add(byte b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+            }
+            bytes[size++] = b;
+        }
+
+        void endLine(boolean accepted) {
+            for (byte b : accepted ? TRUE_LABEL : FALSE_LABEL) {
+                add(b);
+            }
+            lines++;
+        }
+    }
+}
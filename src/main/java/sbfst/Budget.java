@@ -0,0 +1,111 @@
+package sbfst;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the work a classification may do: a deadline, a maximum number of syntactic monoid elements, a maximum
+ * number of product or pair graph states, and a cancellation token. Budgets are immutable; the with* methods return a
+ * copy with one more limit. The expensive loops of the classifiers call poll() and the size checks, which throw a
+ * BudgetExceededException as soon as a limit is hit. Polling costs one volatile read plus, when a deadline is set, one
+ * call to System.nanoTime().
+ *
+ * @author Elliot Tuck
+ */
+public final class Budget {
+
+    /**
+     * A budget without any limits.
+     */
+    public static final Budget UNLIMITED = new Budget(false, 0, Long.MAX_VALUE, Long.MAX_VALUE, null);
+
+    private final boolean hasDeadline;
+    private final long deadline;
+    private final long maxMonoidElements;
+    private final long maxProductStates;
+    private final CancellationToken cancellationToken;
+
+    private Budget(boolean hasDeadline, long deadline, long maxMonoidElements, long maxProductStates,
+                   CancellationToken cancellationToken) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+        this.maxMonoidElements = maxMonoidElements;
+        this.maxProductStates = maxProductStates;
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * @param timeout The time allowed from now on.
+     * @param unit    The unit of timeout.
+     * @return A copy of this budget that runs out when the timeout has elapsed.
+     */
+    public Budget withTimeout(long timeout, TimeUnit unit) {
+        return new Budget(true, System.nanoTime() + unit.toNanos(timeout), maxMonoidElements, maxProductStates,
+                cancellationToken);
+    }
+
+    /**
+     * @param maxMonoidElements The largest syntactic monoid that may be built.
+     * @return A copy of this budget with the given monoid size limit.
+     */
+    public Budget withMaxMonoidElements(long maxMonoidElements) {
+        return new Budget(hasDeadline, deadline, maxMonoidElements, maxProductStates, cancellationToken);
+    }
+
+    /**
+     * @param maxProductStates The largest direct product or pair graph that may be built.
+     * @return A copy of this budget with the given product size limit.
+     */
+    public Budget withMaxProductStates(long maxProductStates) {
+        return new Budget(hasDeadline, deadline, maxMonoidElements, maxProductStates, cancellationToken);
+    }
+
+    /**
+     * @param cancellationToken A token that stops the classification when cancelled.
+     * @return A copy of this budget that also polls the given token.
+     */
+    public Budget withCancellation(CancellationToken cancellationToken) {
+        return new Budget(hasDeadline, deadline, maxMonoidElements, maxProductStates, cancellationToken);
+    }
+
+    /**
+     * @return The largest syntactic monoid that may be built.
+     */
+    long getMaxMonoidElements() {
+        return maxMonoidElements;
+    }
+
+    /**
+     * Check the deadline and the cancellation token.
+     *
+     * @throws BudgetExceededException if the classification was cancelled or the deadline has passed.
+     */
+    public void poll() {
+        if (cancellationToken != null && cancellationToken.isCancelled()) {
+            throw new BudgetExceededException("cancelled");
+        }
+        if (hasDeadline && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededException("deadline exceeded");
+        }
+    }
+
+    /**
+     * @param elements The number of syntactic monoid elements built so far.
+     * @throws BudgetExceededException if elements is over the monoid size limit.
+     */
+    public void checkMonoidElements(long elements) {
+        if (elements > maxMonoidElements) {
+            throw new BudgetExceededException("syntactic monoid has more than " + maxMonoidElements + " elements");
+        }
+    }
+
+    /**
+     * @param states The number of product or pair graph states about to be built.
+     * @throws BudgetExceededException if states is over the product size limit.
+     */
+    public void checkProductStates(long states) {
+        if (states > maxProductStates) {
+            throw new BudgetExceededException("product graph would have " + states + " states, more than "
+                    + maxProductStates);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package sbfst;
+
+/**
+ * Thrown by a Budget when a classification runs out of time or space or is cancelled. Classifier.classify turns it
+ * into an UNKNOWN verdict; the static checks in Utils let it propagate.
+ *
+ * @author Elliot Tuck
+ */
+public class BudgetExceededException extends RuntimeException {
+
+    /**
+     * @param reason Why the classification was stopped.
+     */
+    public BudgetExceededException(String reason) {
+        super(reason);
+    }
+}
@@ -0,0 +1,26 @@
+package sbfst;
+
+/**
+ * A flag that lets one thread ask the classifications of other threads to stop. A token can be shared by any number
+ * of budgets; once cancelled it stays cancelled.
+ *
+ * @author Elliot Tuck
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Ask every classification whose budget uses this token to stop at its next poll.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if cancel() has been called, false otherwise.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
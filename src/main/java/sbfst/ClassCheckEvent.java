@@ -0,0 +1,41 @@
+package sbfst;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event for one call to Classifier.classify, carrying the verdict and the counters collected
+ * by its instrumentation.
+ *
+ * @author Elliot Tuck
+ */
+@Name("sbfst.ClassCheck")
+@Label("Language Class Check")
+@Category("SBFST")
+@Description("A test of a minimal DFA for membership in a language class")
+@StackTrace(false)
+final class ClassCheckEvent extends Event {
+
+    @Label("Language Class")
+    String languageClass;
+
+    @Label("Verdict")
+    String verdict;
+
+    @Label("DFA States")
+    int dfaStates;
+
+    @Label("Alphabet Size")
+    int alphabetSize;
+
+    @Label("Tuples Examined")
+    long tuplesExamined;
+
+    @Label("Tuples Pruned")
+    long tuplesPruned;
+
+    @Label("TSCC Computations")
+    long tsccComputations;
+
+    @Label("TSCC Cache Hits")
+    long tsccCacheHits;
+}
@@ -0,0 +1,207 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.Fst;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.ToIntFunction;
+
+/**
+ * A content-addressed cache of classification results. Results are keyed by the 128-bit hash of the canonical
+ * minimal DFA of the input, so isomorphic inputs (and inputs that only differ by unreachable or redundant states)
+ * share a single entry. Entries are kept in an in-memory LRU map and, optionally, in a directory on disk with one
+ * properties file per DFA so that results survive across runs.
+ *
+ * Every check runs through a Classifier on the canonical minimal DFA, so the inputs passed in are never modified and
+ * the cache can be shared between threads.
+ *
+ * Each file records the format it was written in, and files of any other format are ignored and overwritten, so that
+ * results computed by an older version of a check are never reused.
+ *
+ * @author Elliot Tuck
+ */
+public class ClassificationCache {
+
+    private static final String APERIODIC = "aperiodic";
+    private static final String LOCALLY_TESTABLE = "locallyTestable";
+    private static final String PIECEWISE_TESTABLE = "piecewiseTestable";
+    private static final String LOCALLY_THRESHOLD_TESTABLE = "locallyThresholdTestable";
+
+    // bump whenever a check changes its answers; 2 is the corrected piecewise testability check
+    static final String FORMAT = "format";
+    static final String FORMAT_VERSION = "2";
+
+    private final File directory;
+    private final Map<DfaHash, Properties> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * Create an in-memory cache.
+     *
+     * @param capacity The maximum number of DFAs to keep results for.
+     */
+    public ClassificationCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Create a cache that is backed by a directory on disk.
+     *
+     * @param capacity  The maximum number of DFAs to keep results for in memory.
+     * @param directory The directory to persist results in, or null to only keep results in memory.
+     */
+    public ClassificationCache(final int capacity, File directory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive but was " + capacity);
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new UncheckedIOException(new IOException("Could not create cache directory " + directory));
+        }
+        this.directory = directory;
+        this.entries = new LinkedHashMap<DfaHash, Properties>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DfaHash, Properties> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Determine the period of the syntactic monoid of the given DFA (see Utils.isAperiodic).
+     *
+     * @param dfa The input DFA.
+     * @return -1 if the language of dfa is aperiodic, otherwise the period.
+     */
+    public int isAperiodic(Fst dfa) {
+        return classify(dfa, APERIODIC, Classifier::getPeriod);
+    }
+
+    /**
+     * @param dfa The input DFA.
+     * @return true if the language of dfa is locally testable, false otherwise.
+     */
+    public boolean isLocallyTestable(Fst dfa) {
+        return classify(dfa, LOCALLY_TESTABLE, c -> c.isLocallyTestable() ? 1 : 0) == 1;
+    }
+
+    /**
+     * @param dfa The input DFA.
+     * @return true if the language of dfa is piecewise testable, false otherwise.
+     */
+    public boolean isPiecewiseTestable(Fst dfa) {
+        return classify(dfa, PIECEWISE_TESTABLE, c -> c.isPiecewiseTestable() ? 1 : 0) == 1;
+    }
+
+    /**
+     * @param dfa The input DFA.
+     * @return true if the language of dfa is locally threshold testable, false otherwise.
+     */
+    public boolean isLocallyThresholdTestable(Fst dfa) {
+        return classify(dfa, LOCALLY_THRESHOLD_TESTABLE, c -> c.isLocallyThresholdTestable() ? 1 : 0) == 1;
+    }
+
+    /**
+     * @return The number of DFAs currently held in memory.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of lookups answered without running a check.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups that had to run a check.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Look up a result, running the check on the canonical minimal DFA on a miss. The check runs without holding the
+     * cache lock, so concurrent callers may occasionally compute the same result twice.
+     */
+    private int classify(Fst dfa, String classifier, ToIntFunction<Classifier> check) {
+        CompactDfa canonical = CompactDfa.fromFst(dfa).canonical();
+        DfaHash hash = DfaHash.of(canonical);
+        String cached = lookup(hash, classifier);
+        if (cached != null) {
+            return Integer.parseInt(cached);
+        }
+        int result = check.applyAsInt(new Classifier(canonical));
+        store(hash, classifier, Integer.toString(result));
+        return result;
+    }
+
+    private synchronized String lookup(DfaHash hash, String classifier) {
+        Properties entry = entries.get(hash);
+        if (entry == null && directory != null) {
+            entry = read(hash);
+            if (entry != null) {
+                entries.put(hash, entry);
+            }
+        }
+        String result = entry == null ? null : entry.getProperty(classifier);
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    private synchronized void store(DfaHash hash, String classifier, String result) {
+        Properties entry = entries.get(hash);
+        if (entry == null) {
+            // the entry may have been evicted since the lookup, so start from the persisted results to keep them
+            entry = directory != null ? read(hash) : null;
+            if (entry == null) {
+                entry = new Properties();
+                entry.setProperty(FORMAT, FORMAT_VERSION);
+            }
+            entries.put(hash, entry);
+        }
+        entry.setProperty(classifier, result);
+        if (directory != null) {
+            write(hash, entry);
+        }
+    }
+
+    private Properties read(DfaHash hash) {
+        File file = new File(directory, hash + ".properties");
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties entry = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            entry.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return FORMAT_VERSION.equals(entry.getProperty(FORMAT)) ? entry : null;
+    }
+
+    private void write(DfaHash hash, Properties entry) {
+        // write to a temporary file first so readers never see a partially written entry
+        File file = new File(directory, hash + ".properties");
+        File tmp = new File(directory, hash + ".properties.tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            entry.store(out, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new UncheckedIOException(new IOException("Could not write cache entry " + file));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package sbfst;
+
+/**
+ * The outcome of testing a language for membership in a language class, together with the metrics collected while
+ * testing it. The verdict is UNKNOWN if the test was stopped by its budget, in which case getReason() says why. A FALSE
+ * verdict may come with a witness word that certifies it.
+ *
+ * @author Elliot Tuck
+ */
+public final class ClassificationResult {
+
+    private final LanguageClass languageClass;
+    private final Verdict verdict;
+    private final String reason;
+    private final String witness;
+    private final Metrics metrics;
+
+    public ClassificationResult(LanguageClass languageClass, boolean member, Metrics metrics) {
+        this(languageClass, member ? Verdict.TRUE : Verdict.FALSE, null, null, metrics);
+    }
+
+    private ClassificationResult(LanguageClass languageClass, Verdict verdict, String reason, String witness,
+                                 Metrics metrics) {
+        this.languageClass = languageClass;
+        this.verdict = verdict;
+        this.reason = reason;
+        this.witness = witness;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Create the result of a test that was stopped before it reached a verdict.
+     *
+     * @param languageClass The language class that was tested for.
+     * @param reason        Why the test was stopped.
+     * @param metrics       The metrics collected until the test was stopped.
+     * @return A result with an UNKNOWN verdict.
+     */
+    public static ClassificationResult unknown(LanguageClass languageClass, String reason, Metrics metrics) {
+        return new ClassificationResult(languageClass, Verdict.UNKNOWN, reason, null, metrics);
+    }
+
+    /**
+     * Create the result of a test that found a word proving the language is not in the language class.
+     *
+     * @param languageClass The language class that was tested for.
+     * @param witness       The word with its symbols joined by Utils.DELIMITER, e.g. a counter word for STAR_FREE.
+     * @param metrics       The metrics collected by the test.
+     * @return A result with a FALSE verdict.
+     */
+    public static ClassificationResult refuted(LanguageClass languageClass, String witness, Metrics metrics) {
+        return new ClassificationResult(languageClass, Verdict.FALSE, null, witness, metrics);
+    }
+
+    /**
+     * @return The language class that was tested for.
+     */
+    public LanguageClass getLanguageClass() {
+        return languageClass;
+    }
+
+    /**
+     * @return TRUE or FALSE if the test finished, UNKNOWN if it was stopped by its budget.
+     */
+    public Verdict getVerdict() {
+        return verdict;
+    }
+
+    /**
+     * @return true if the language is known to belong to the language class, false otherwise (including when the
+     * verdict is UNKNOWN).
+     */
+    public boolean isMember() {
+        return verdict == Verdict.TRUE;
+    }
+
+    /**
+     * @return Why the test was stopped if the verdict is UNKNOWN, otherwise null.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return A word that certifies a FALSE verdict if the test found one, otherwise null.
+     */
+    public String getWitness() {
+        return witness;
+    }
+
+    /**
+     * @return The phase timings, counters and trace events of the test.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return languageClass + ": " + verdict + (reason == null ? "" : " (" + reason + ")")
+                + (witness == null ? "" : " (witness \"" + witness + "\")") + "\n" + metrics;
+    }
+}
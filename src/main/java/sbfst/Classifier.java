@@ -0,0 +1,322 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.Fst;
+import com.github.steveash.jopenfst.MutableFst;
+
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A thread-safe entry point to the classifiers in Utils. A classifier holds an immutable snapshot of the minimal DFA
+ * of its input and never exposes or modifies it: every check works on its own private FST built from the snapshot,
+ * and no global state (such as the Convert settings) is read or written. One classifier can therefore be shared by
+ * any number of threads without copying or locking.
+ *
+ * @author Elliot Tuck
+ */
+public final class Classifier {
+
+    // measured on random DFAs: the algebraic local testability check beats the graph one up to about 8 n^2 elements
+    static final int LT_MONOID_ELEMENTS_PER_SQUARED_STATE = 8;
+
+    // measured on random DFAs: the J-triviality check beats the graph one up to about n^2 elements
+    static final int PT_MONOID_ELEMENTS_PER_SQUARED_STATE = 1;
+
+    // above this many monoid elements star-freeness is decided by the counter search instead of the monoid
+    static final int SF_MONOID_ELEMENTS = 1000;
+
+    // the seed of the words sampled by the star-free screen, so that verdicts and witnesses are reproducible
+    private static final long SCREEN_SEED = 0x5bf57L;
+
+    private final CompactDfa dfa;
+    private final int starFreeSamples;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a classifier for the language of the given DFA.
+     *
+     * @param dfa The input DFA; it is minimized, so it need not be minimal.
+     */
+    public Classifier(CompactDfa dfa) {
+        this(dfa.minimize(), 0, null);
+    }
+
+    private Classifier(CompactDfa minimal, int starFreeSamples, ForkJoinPool pool) {
+        this.dfa = minimal;
+        this.starFreeSamples = starFreeSamples;
+        this.pool = pool;
+    }
+
+    /**
+     * Get a classifier for the same language that screens for star-freeness by sampling random words before the
+     * exact check (see CounterSearch.sampleCounter). A sampled counter word gives a FALSE verdict right away, with the
+     * word as its witness; otherwise the exact check runs as usual.
+     *
+     * @param samples The number of words to sample, or 0 to turn the screen off.
+     * @return The classifier.
+     */
+    public Classifier withStarFreeScreen(int samples) {
+        if (samples < 0) {
+            throw new IllegalArgumentException("The number of samples must not be negative, not " + samples);
+        }
+        return new Classifier(dfa, samples, pool);
+    }
+
+    /**
+     * Get a classifier for the same language that builds syntactic monoids in parallel on the given pool (see
+     * TransitionMonoid.ofParallel). The monoids and verdicts are the same as without a pool.
+     *
+     * @param pool The pool that multiplies the monoid elements, or null to build monoids on the calling thread.
+     * @return The classifier.
+     */
+    public Classifier withPool(ForkJoinPool pool) {
+        return new Classifier(dfa, starFreeSamples, pool);
+    }
+
+    /**
+     * Create a classifier from a snapshot of the given FST. The FST is read once and can be modified afterwards
+     * without affecting the classifier.
+     *
+     * @param fst The input DFA, represented as an FST with identical input/output labels.
+     * @return The classifier.
+     */
+    public static Classifier of(Fst fst) {
+        return new Classifier(CompactDfa.fromFst(fst));
+    }
+
+    /**
+     * Create a classifier for a DFA in AT&T FSM text format (see CompactDfa.importDfa).
+     *
+     * @param baseName The file name without the .fst.txt extension.
+     * @return The classifier.
+     */
+    public static Classifier importDfa(String baseName) {
+        return new Classifier(CompactDfa.importDfa(baseName));
+    }
+
+    /**
+     * @return The minimal DFA this classifier works on.
+     */
+    public CompactDfa getDfa() {
+        return dfa;
+    }
+
+    /**
+     * @return -1 if the language is aperiodic, otherwise the period of its syntactic monoid.
+     */
+    public int getPeriod() {
+        return getMonoid(Integer.MAX_VALUE, Budget.UNLIMITED).getPeriod();
+    }
+
+    /**
+     * @return true if the language is star free (i.e. its syntactic monoid is aperiodic), false otherwise.
+     */
+    public boolean isStarFree() {
+        return classify(LanguageClass.STAR_FREE).isMember();
+    }
+
+    /**
+     * @return true if the language is locally testable, false otherwise.
+     */
+    public boolean isLocallyTestable() {
+        return classify(LanguageClass.LOCALLY_TESTABLE).isMember();
+    }
+
+    /**
+     * @return true if the language is piecewise testable, false otherwise.
+     */
+    public boolean isPiecewiseTestable() {
+        return classify(LanguageClass.PIECEWISE_TESTABLE).isMember();
+    }
+
+    /**
+     * @return true if the language is locally threshold testable, false otherwise.
+     */
+    public boolean isLocallyThresholdTestable() {
+        return classify(LanguageClass.LOCALLY_THRESHOLD_TESTABLE).isMember();
+    }
+
+    /**
+     * @return The order of local testability of the language, or -1 if it is not locally testable.
+     */
+    public int getLocalTestabilityOrder() {
+        return getLocalTestabilityOrder(Budget.UNLIMITED);
+    }
+
+    /**
+     * @param budget Limits the time, pair graph size and monoid size of the computation.
+     * @return The order of local testability of the language, or -1 if it is not locally testable.
+     * @throws BudgetExceededException if the budget runs out before the order is found.
+     */
+    public int getLocalTestabilityOrder(Budget budget) {
+        return Utils.localTestabilityOrder(dfa, budget);
+    }
+
+    /**
+     * @return true if the language is strictly k-local for some k, false otherwise.
+     */
+    public boolean isStrictlyLocal() {
+        return classify(LanguageClass.STRICTLY_LOCAL).isMember();
+    }
+
+    /**
+     * @return The smallest k for which the language is strictly k-local, or -1 if it is not strictly local.
+     */
+    public int getStrictlyLocalOrder() {
+        return Utils.getStrictlyLocalOrder(dfa, Budget.UNLIMITED);
+    }
+
+    /**
+     * @return true if the language is strictly piecewise, false otherwise.
+     */
+    public boolean isStrictlyPiecewise() {
+        return classify(LanguageClass.STRICTLY_PIECEWISE).isMember();
+    }
+
+    /**
+     * Test the language for membership in a language class, collecting phase timings and counters.
+     *
+     * @param languageClass The language class to test for.
+     * @return The result of the test.
+     */
+    public ClassificationResult classify(LanguageClass languageClass) {
+        return classify(languageClass, new Metrics());
+    }
+
+    /**
+     * Test the language for membership in a language class within a budget, collecting phase timings and counters.
+     *
+     * @param languageClass The language class to test for.
+     * @param budget        Limits the time and space of the test.
+     * @return The result of the test, whose verdict is UNKNOWN if the budget ran out.
+     */
+    public ClassificationResult classify(LanguageClass languageClass, Budget budget) {
+        return classify(languageClass, new Metrics(), budget);
+    }
+
+    /**
+     * Test the language for membership in a language class. The test is recorded as an sbfst.ClassCheck event when
+     * JDK Flight Recorder is recording.
+     *
+     * @param languageClass The language class to test for.
+     * @param metrics       Collects the metrics of the test; use new Metrics(true) to also collect trace events.
+     * @return The result of the test.
+     */
+    public ClassificationResult classify(LanguageClass languageClass, Metrics metrics) {
+        return classify(languageClass, metrics, Budget.UNLIMITED);
+    }
+
+    /**
+     * Test the language for membership in a language class within a budget. The test is recorded as an
+     * sbfst.ClassCheck event when JDK Flight Recorder is recording.
+     *
+     * @param languageClass The language class to test for.
+     * @param metrics       Collects the metrics of the test; use new Metrics(true) to also collect trace events.
+     * @param budget        Limits the time and space of the test.
+     * @return The result of the test, whose verdict is UNKNOWN if the budget ran out.
+     */
+    public ClassificationResult classify(LanguageClass languageClass, Metrics metrics, Budget budget) {
+        ClassificationResult result;
+        try (Stage check = Stage.beginCheck(languageClass, dfa);
+             Instrumentation.Phase phase = metrics.startPhase(languageClass.name())) {
+            try {
+                String witness = languageClass == LanguageClass.STAR_FREE ? screenStarFree(metrics, budget) : null;
+                result = witness != null ? ClassificationResult.refuted(languageClass, witness, metrics)
+                        : new ClassificationResult(languageClass, test(languageClass, metrics, budget), metrics);
+            } catch (BudgetExceededException e) {
+                result = ClassificationResult.unknown(languageClass, e.getMessage(), metrics);
+            }
+            check.setResult(result.getVerdict(), metrics);
+        }
+        return result;
+    }
+
+    private boolean test(LanguageClass languageClass, Metrics metrics, Budget budget) {
+        switch (languageClass) {
+            case STAR_FREE: {
+                TransitionMonoid monoid = getSmallMonoid(SF_MONOID_ELEMENTS, "counter search", metrics, budget);
+                return monoid != null ? monoid.isAperiodic() : CounterSearch.isCounterFree(dfa, budget);
+            }
+            case LOCALLY_TESTABLE: {
+                long n = dfa.getStateCount();
+                TransitionMonoid monoid = getSmallMonoid(LT_MONOID_ELEMENTS_PER_SQUARED_STATE * n * n, "graph",
+                        metrics, budget);
+                return monoid != null ? monoid.isLocallyIdempotentAndCommutative(budget)
+                        : Utils.isLocallyTestable(newFst(), budget);
+            }
+            case PIECEWISE_TESTABLE: {
+                long n = dfa.getStateCount();
+                TransitionMonoid monoid = getSmallMonoid(PT_MONOID_ELEMENTS_PER_SQUARED_STATE * n * n, "graph",
+                        metrics, budget);
+                return monoid != null ? monoid.isJTrivial() : Utils.isPiecewiseTestable(newFst(), budget);
+            }
+            case LOCALLY_THRESHOLD_TESTABLE:
+                return Utils.isLocallyThresholdTestable(newFst(), metrics, budget);
+            case STRICTLY_LOCAL:
+                return Utils.getStrictlyLocalOrder(dfa, budget) != -1;
+            case STRICTLY_PIECEWISE:
+                return Utils.isStrictlyPiecewise(dfa, budget);
+            default:
+                throw new IllegalArgumentException("Unknown language class " + languageClass);
+        }
+    }
+
+    /**
+     * @return A counter word sampled by the star-free screen, with its symbols joined by Utils.DELIMITER, or null if
+     * the screen is off or found none.
+     */
+    private String screenStarFree(Metrics metrics, Budget budget) {
+        if (starFreeSamples == 0) {
+            return null;
+        }
+        int[] word;
+        try (Instrumentation.Phase phase = metrics.startPhase("starFreeScreen")) {
+            word = CounterSearch.sampleCounter(dfa, starFreeSamples, new Random(SCREEN_SEED), budget);
+        }
+        if (word == null) {
+            return null;
+        }
+        StringJoiner witness = new StringJoiner(Utils.DELIMITER);
+        for (int a : word) {
+            witness.add(dfa.getSymbol(a));
+        }
+        if (metrics.isTracing()) {
+            metrics.trace("starFreeScreen", "counter word " + witness);
+        }
+        return witness.toString();
+    }
+
+    /**
+     * Pick the monoid backend over another backend by building the syntactic monoid as long as it stays small.
+     *
+     * @param fallback The name of the other backend, for the trace.
+     * @return The syntactic monoid, or null if it has more than maxElements elements.
+     */
+    private TransitionMonoid getSmallMonoid(long maxElements, String fallback, Metrics metrics, Budget budget) {
+        // stay within the budget, so that a large monoid falls back to the graph backend instead of failing
+        long limit = Math.min(maxElements, Math.min(budget.getMaxMonoidElements(), Integer.MAX_VALUE));
+        TransitionMonoid monoid = getMonoid((int) limit, budget);
+        if (metrics.isTracing()) {
+            metrics.trace("backend", monoid != null ? "monoid with " + monoid.getSize() + " elements" : fallback);
+        }
+        return monoid;
+    }
+
+    /**
+     * Build the syntactic monoid on the pool if there is one, otherwise on the calling thread.
+     *
+     * @return The syntactic monoid, or null if it has more than maxElements elements.
+     */
+    private TransitionMonoid getMonoid(int maxElements, Budget budget) {
+        return pool != null ? TransitionMonoid.ofParallelAtMost(dfa, pool, maxElements, budget)
+                : TransitionMonoid.ofAtMost(dfa, maxElements, budget);
+    }
+
+    /**
+     * Build a complete FST from the snapshot that belongs to the calling thread alone.
+     */
+    private MutableFst newFst() {
+        return dfa.complete().toFst();
+    }
+}
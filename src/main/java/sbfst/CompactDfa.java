@@ -0,0 +1,889 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.*;
+import com.github.steveash.jopenfst.semiring.Semiring;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An immutable DFA stored as an integer transition table. States are numbered 0..n-1 and input symbols are numbered
+ * 0..k-1 in lexicographic order of their names, so two DFAs over the same alphabet always agree on symbol indices no
+ * matter how their symbol tables were numbered.
+ *
+ * The table has one of two layouts, picked from the alphabet size and the fill ratio (the number of transitions over
+ * n * k) whenever a DFA is created. The dense layout is an n * k array with NONE for a missing transition, so a lookup
+ * is a single array access. The sparse layout, used for large alphabets where most states have only a few outgoing
+ * symbols, keeps the transitions of each state in a row sorted by symbol index, so it takes space in proportion to the
+ * number of transitions and a lookup is a binary search of one row. Either way a missing transition goes to an
+ * implicit sink: it is never stored and next() returns NONE for it. minimize() keeps the sink implicit when the
+ * minimal DFA is sparse and makes it an explicit state otherwise. The layout is invisible to callers apart from
+ * isSparse().
+ *
+ * @author Elliot Tuck
+ */
+public final class CompactDfa {
+
+    /**
+     * Marks a missing transition in a partial DFA.
+     */
+    public static final int NONE = -1;
+
+    // the sparse layout is only used for alphabets at least this large...
+    static final int SPARSE_MIN_ALPHABET = 16;
+
+    // ...that are filled to less than this percentage, where it also takes less than half the space of a dense table
+    static final int SPARSE_MAX_FILL_PERCENT = 25;
+
+    private final int stateCount;
+    private final int start;
+    private final String[] symbols;
+    // the dense layout, or null if the DFA is sparse
+    private final int[] delta;
+    // the sparse layout, or null if the DFA is dense: the transitions of state s are at firstArc[s]..firstArc[s+1]-1,
+    // sorted by their symbols in labels
+    private final int[] firstArc;
+    private final int[] labels;
+    private final int[] targets;
+    private final boolean[] finals;
+    private volatile ReverseAdjacency reverseAdjacency;
+
+    /**
+     * Create a DFA from its raw tables. The arrays are not copied, so callers must not modify them afterwards.
+     *
+     * @param stateCount The number of states.
+     * @param start      The index of the start state.
+     * @param symbols    The input symbols, in the order used to index delta.
+     * @param delta      The transition table, where delta[s * symbols.length + a] is the target of state s on
+     *                   symbol a, or NONE if there is no such transition.
+     * @param finals     Marks which states are final.
+     */
+    CompactDfa(int stateCount, int start, String[] symbols, int[] delta, boolean[] finals) {
+        this.stateCount = stateCount;
+        this.start = start;
+        this.symbols = symbols;
+        this.finals = finals;
+        int k = symbols.length;
+        int arcCount = 0;
+        for (int t : delta) {
+            if (t != NONE) {
+                arcCount++;
+            }
+        }
+        if (isSparse(stateCount, k, arcCount)) {
+            this.delta = null;
+            this.firstArc = new int[stateCount + 1];
+            this.labels = new int[arcCount];
+            this.targets = new int[arcCount];
+            int arc = 0;
+            for (int s = 0; s < stateCount; s++) {
+                firstArc[s] = arc;
+                for (int a = 0; a < k; a++) {
+                    if (delta[s * k + a] != NONE) {
+                        labels[arc] = a;
+                        targets[arc++] = delta[s * k + a];
+                    }
+                }
+            }
+            firstArc[stateCount] = arc;
+        } else {
+            this.delta = delta;
+            this.firstArc = null;
+            this.labels = null;
+            this.targets = null;
+        }
+    }
+
+    /**
+     * Create a DFA from the rows of a sparse table (see the class comment). The arrays are not copied.
+     */
+    private CompactDfa(int stateCount, int start, String[] symbols, int[] firstArc, int[] labels, int[] targets,
+                       boolean[] finals) {
+        this.stateCount = stateCount;
+        this.start = start;
+        this.symbols = symbols;
+        this.finals = finals;
+        int k = symbols.length;
+        if (isSparse(stateCount, k, labels.length)) {
+            this.delta = null;
+            this.firstArc = firstArc;
+            this.labels = labels;
+            this.targets = targets;
+        } else {
+            this.delta = new int[stateCount * k];
+            Arrays.fill(delta, NONE);
+            for (int s = 0; s < stateCount; s++) {
+                for (int arc = firstArc[s]; arc < firstArc[s + 1]; arc++) {
+                    delta[s * k + labels[arc]] = targets[arc];
+                }
+            }
+            this.firstArc = null;
+            this.labels = null;
+            this.targets = null;
+        }
+    }
+
+    /**
+     * Pick the layout of a table. The choice only depends on its size and number of transitions, so equal DFAs always
+     * have the same layout.
+     */
+    private static boolean isSparse(int stateCount, int k, int arcCount) {
+        return k >= SPARSE_MIN_ALPHABET && 100L * arcCount < (long) SPARSE_MAX_FILL_PERCENT * stateCount * k;
+    }
+
+    /**
+     * Create a DFA from a list of transitions in any order, checking that it is deterministic.
+     *
+     * @param stateNames The names of the states for error messages, or null to use their indices.
+     * @throws IllegalArgumentException if a state has transitions to two different states on the same symbol.
+     */
+    static CompactDfa ofArcs(int stateCount, int start, String[] symbols, boolean[] finals,
+                             int[] arcSources, int[] arcLabels, int[] arcTargets, int arcCount,
+                             String[] stateNames) {
+        // bucket the transitions by source state, then sort each row by symbol and drop duplicates
+        int[] firstArc = new int[stateCount + 1];
+        for (int i = 0; i < arcCount; i++) {
+            firstArc[arcSources[i] + 1]++;
+        }
+        for (int s = 0; s < stateCount; s++) {
+            firstArc[s + 1] += firstArc[s];
+        }
+        int[] fill = Arrays.copyOf(firstArc, stateCount);
+        long[] row = new long[arcCount];
+        for (int i = 0; i < arcCount; i++) {
+            row[fill[arcSources[i]]++] = (long) arcLabels[i] << 32 | arcTargets[i];
+        }
+        int[] labels = new int[arcCount];
+        int[] targets = new int[arcCount];
+        int arc = 0;
+        for (int s = 0; s < stateCount; s++) {
+            int begin = firstArc[s];
+            int end = firstArc[s + 1];
+            firstArc[s] = arc;
+            Arrays.sort(row, begin, end);
+            for (int i = begin; i < end; i++) {
+                int a = (int) (row[i] >>> 32);
+                int t = (int) row[i];
+                if (arc > firstArc[s] && labels[arc - 1] == a) {
+                    if (targets[arc - 1] != t) {
+                        throw new IllegalArgumentException("State " + (stateNames == null ? s : stateNames[s])
+                                + " has more than one transition on " + symbols[a]);
+                    }
+                    continue;
+                }
+                labels[arc] = a;
+                targets[arc++] = t;
+            }
+        }
+        firstArc[stateCount] = arc;
+        return new CompactDfa(stateCount, start, symbols, firstArc, Arrays.copyOf(labels, arc),
+                Arrays.copyOf(targets, arc), finals);
+    }
+
+    /**
+     * Build a compact DFA from an FST whose arcs have identical input/output labels. Epsilon is never part of the
+     * alphabet.
+     *
+     * @param fst The FST to convert, which is not modified.
+     * @return The compact DFA.
+     * @throws IllegalArgumentException if fst has no start state, has epsilon arcs, or is not deterministic.
+     */
+    public static CompactDfa fromFst(Fst fst) {
+        if (fst.getStartState() == null) {
+            throw new IllegalArgumentException("The FST has no start state");
+        }
+        Stage stage = Stage.begin(Stage.IMPORT, fst);
+        SymbolTable.InvertedSymbolTable inputSyms = fst.getInputSymbols().invert();
+
+        // sort the alphabet by name so that symbol indices do not depend on symbol table numbering
+        List<String> alphabet = new ArrayList<>();
+        for (String symbol : fst.getInputSymbols().symbols()) {
+            if (!symbol.equals(Fst.EPS)) {
+                alphabet.add(symbol);
+            }
+        }
+        Collections.sort(alphabet);
+        String[] symbols = alphabet.toArray(new String[0]);
+        Map<Integer, Integer> labelToIndex = new HashMap<>();
+        for (int a = 0; a < symbols.length; a++) {
+            labelToIndex.put(fst.getInputSymbols().get(symbols[a]), a);
+        }
+
+        int n = fst.getStateCount();
+        int arcCount = 0;
+        for (int s = 0; s < n; s++) {
+            arcCount += fst.getState(s).getArcCount();
+        }
+        int[] arcSources = new int[arcCount];
+        int[] arcLabels = new int[arcCount];
+        int[] arcTargets = new int[arcCount];
+        boolean[] finals = new boolean[n];
+        Semiring semiring = fst.getSemiring();
+        int arcIndex = 0;
+        for (int s = 0; s < n; s++) {
+            State state = fst.getState(s);
+            finals[s] = semiring.isNotZero(state.getFinalWeight());
+            for (int i = 0; i < state.getArcCount(); i++) {
+                Arc arc = state.getArc(i);
+                Integer a = labelToIndex.get(arc.getIlabel());
+                if (a == null) {
+                    throw new IllegalArgumentException("State " + s + " has an arc labeled "
+                            + inputSyms.keyForId(arc.getIlabel()) + ", which is not a DFA transition");
+                }
+                arcSources[arcIndex] = s;
+                arcLabels[arcIndex] = a;
+                arcTargets[arcIndex++] = arc.getNextState().getId();
+            }
+        }
+        CompactDfa dfa = ofArcs(n, fst.getStartState().getId(), symbols, finals, arcSources, arcLabels, arcTargets,
+                arcCount, null);
+        stage.close();
+        return dfa;
+    }
+
+    /**
+     * Read a DFA in AT&T FSM text format. Unlike Convert.importFst this does not depend on any global settings:
+     * fields may be separated by any whitespace, and the state and input labels are taken from the text itself, so
+     * the .syms files are not needed. The first arc's source state is the start state. If every state label is a
+     * non-negative integer the labels are used as state indices, otherwise states are numbered in order of
+     * appearance. A line with just a state, or a state and a weight other than infinity (the tropical zero that
+     * Convert.export writes for non-final states), marks a final state.
+     *
+     * @param baseName The file name without the .fst.txt extension, looked up on the file system first and on the
+     *                 classpath second.
+     * @return The DFA.
+     * @throws UncheckedIOException if the file cannot be found or read.
+     * @throws IllegalArgumentException if the file does not describe a DFA.
+     */
+    public static CompactDfa importDfa(String baseName) {
+        String fileName = baseName + ".fst.txt";
+        try (Stage stage = Stage.begin(Stage.IMPORT); InputStream in = openStream(fileName)) {
+            CompactDfa dfa = read(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+            stage.setDfaSize(dfa.stateCount, dfa.symbols.length);
+            return dfa;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + fileName, e);
+        }
+    }
+
+    private static InputStream openStream(String fileName) throws IOException {
+        File file = new File(fileName);
+        if (file.isFile()) {
+            return new FileInputStream(file);
+        }
+        InputStream in = CompactDfa.class.getClassLoader().getResourceAsStream(fileName);
+        if (in == null) {
+            throw new FileNotFoundException(fileName);
+        }
+        return in;
+    }
+
+    /**
+     * Read a DFA in AT&T FSM text format (see importDfa).
+     *
+     * @param reader The text to read.
+     * @return The DFA.
+     * @throws IOException if reader fails.
+     */
+    public static CompactDfa read(BufferedReader reader) throws IOException {
+        List<String[]> arcs = new ArrayList<>();
+        List<String> finalStates = new ArrayList<>();
+        LinkedHashSet<String> stateLabels = new LinkedHashSet<>();
+        TreeSet<String> alphabet = new TreeSet<>();
+        String startLabel = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length >= 3) {
+                if (fields[2].equals(Fst.EPS)) {
+                    throw new IllegalArgumentException("Epsilon arcs are not allowed in a DFA: " + line);
+                }
+                if (startLabel == null) {
+                    startLabel = fields[0];
+                }
+                stateLabels.add(fields[0]);
+                stateLabels.add(fields[1]);
+                alphabet.add(fields[2]);
+                arcs.add(fields);
+            } else {
+                if (startLabel == null) {
+                    startLabel = fields[0];
+                }
+                stateLabels.add(fields[0]);
+                // Convert.export lists every state, giving the non-final ones the tropical zero weight
+                if (fields.length == 1 || !isZeroWeight(fields[1])) {
+                    finalStates.add(fields[0]);
+                }
+            }
+        }
+        if (startLabel == null) {
+            throw new IllegalArgumentException("The DFA has no states");
+        }
+
+        // number the states
+        Map<String, Integer> stateIds = new HashMap<>();
+        boolean numeric = true;
+        int maxLabel = -1;
+        for (String label : stateLabels) {
+            if (!label.matches("\\d{1,9}")) {
+                numeric = false;
+                break;
+            }
+            maxLabel = Math.max(maxLabel, Integer.parseInt(label));
+        }
+        int n;
+        if (numeric) {
+            for (String label : stateLabels) {
+                stateIds.put(label, Integer.parseInt(label));
+            }
+            n = maxLabel + 1;
+        } else {
+            for (String label : stateLabels) {
+                stateIds.put(label, stateIds.size());
+            }
+            n = stateIds.size();
+        }
+
+        String[] symbols = alphabet.toArray(new String[0]);
+        String[] stateNames = new String[n];
+        for (Map.Entry<String, Integer> entry : stateIds.entrySet()) {
+            stateNames[entry.getValue()] = entry.getKey();
+        }
+        boolean[] finals = new boolean[n];
+        for (String label : finalStates) {
+            finals[stateIds.get(label)] = true;
+        }
+        int[] arcSources = new int[arcs.size()];
+        int[] arcLabels = new int[arcs.size()];
+        int[] arcTargets = new int[arcs.size()];
+        for (int i = 0; i < arcs.size(); i++) {
+            String[] arc = arcs.get(i);
+            arcSources[i] = stateIds.get(arc[0]);
+            arcLabels[i] = Arrays.binarySearch(symbols, arc[2]);
+            arcTargets[i] = stateIds.get(arc[1]);
+        }
+        return ofArcs(n, stateIds.get(startLabel), symbols, finals, arcSources, arcLabels, arcTargets, arcs.size(),
+                stateNames);
+    }
+
+    /**
+     * @param weight A final weight in AT&T FSM text format.
+     * @return true if weight is the zero of the tropical semiring (infinity), i.e. the state is not final.
+     */
+    private static boolean isZeroWeight(String weight) {
+        String w = weight.toLowerCase(Locale.ROOT);
+        return w.equals("infinity") || w.equals("inf") || w.equals("+infinity") || w.equals("+inf");
+    }
+
+    /**
+     * Build a mutable FST equivalent to this DFA. State i becomes state i of the FST with state symbol "i", and the
+     * input symbol table has epsilon at id 0 followed by the alphabet at ids 1..k, which is the layout getSM expects.
+     *
+     * @return A new FST; every call returns a fresh copy.
+     */
+    public MutableFst toFst() {
+        MutableFst fst = new MutableFst();
+        fst.useStateSymbols();
+        Semiring semiring = fst.getSemiring();
+        fst.getInputSymbols().getOrAdd(Fst.EPS);
+        fst.getOutputSymbols().getOrAdd(Fst.EPS);
+        int[] symbolIds = new int[symbols.length];
+        for (int a = 0; a < symbols.length; a++) {
+            symbolIds[a] = fst.getInputSymbols().getOrAdd(symbols[a]);
+            fst.getOutputSymbols().getOrAdd(symbols[a]);
+        }
+        for (int s = 0; s < stateCount; s++) {
+            MutableState state = fst.addState(new MutableState(), Integer.toString(s));
+            state.setFinalWeight(finals[s] ? semiring.one() : semiring.zero());
+        }
+        for (int s = 0; s < stateCount; s++) {
+            for (int i = 0; i < getArcCount(s); i++) {
+                int t = getArcTarget(s, i);
+                if (t != NONE) {
+                    int label = symbolIds[getArcLabel(s, i)];
+                    fst.addArc(fst.getState(s), label, label, fst.getState(t), semiring.one());
+                }
+            }
+        }
+        if (stateCount > 0) {
+            fst.setStart(fst.getState(start));
+        }
+        return fst;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public int getAlphabetSize() {
+        return symbols.length;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public boolean isFinal(int s) {
+        return finals[s];
+    }
+
+    /**
+     * @param a The index of an input symbol.
+     * @return The name of the input symbol.
+     */
+    public String getSymbol(int a) {
+        return symbols[a];
+    }
+
+    /**
+     * @param symbol The name of an input symbol.
+     * @return The index of symbol, or NONE if it is not part of the alphabet.
+     */
+    public int getSymbolIndex(String symbol) {
+        int a = Arrays.binarySearch(symbols, symbol);
+        return a < 0 ? NONE : a;
+    }
+
+    /**
+     * @param s A state.
+     * @param a The index of an input symbol.
+     * @return The state reached from s on a, or NONE if the transition is missing.
+     */
+    public int next(int s, int a) {
+        if (delta != null) {
+            return delta[s * symbols.length + a];
+        }
+        int arc = Arrays.binarySearch(labels, firstArc[s], firstArc[s + 1], a);
+        return arc < 0 ? NONE : targets[arc];
+    }
+
+    /**
+     * Find the next symbol that a state has a transition on. Walking a state's symbols in increasing order with this
+     * method visits only its transitions in the sparse layout, and intersecting the symbols of several states (as in a
+     * product) can leapfrog from one state's next symbol to another's.
+     *
+     * @param s A state.
+     * @param a The index of an input symbol, or getAlphabetSize().
+     * @return The smallest symbol index b >= a such that s has a transition on b, or NONE if there is none.
+     */
+    public int nextSymbol(int s, int a) {
+        int k = symbols.length;
+        if (delta != null) {
+            for (int b = a; b < k; b++) {
+                if (delta[s * k + b] != NONE) {
+                    return b;
+                }
+            }
+            return NONE;
+        }
+        // gallop from the front of the row, which is cheap when a is small, then binary search the last step
+        int begin = firstArc[s];
+        int end = firstArc[s + 1];
+        int low = begin;
+        int step = 1;
+        while (low < end && labels[low] < a) {
+            begin = low + 1;
+            low += step;
+            step <<= 1;
+        }
+        int arc = Arrays.binarySearch(labels, begin, Math.min(low, end), a);
+        if (arc < 0) {
+            arc = -arc - 1;
+        }
+        return arc < end ? labels[arc] : NONE;
+    }
+
+    /**
+     * @return true if this DFA uses the sparse layout (see the class comment), false if it uses the dense one.
+     */
+    public boolean isSparse() {
+        return delta == null;
+    }
+
+    /**
+     * @param s A state.
+     * @return The number of symbols that s has a transition on.
+     */
+    public int getOutDegree(int s) {
+        if (delta == null) {
+            return firstArc[s + 1] - firstArc[s];
+        }
+        int degree = 0;
+        for (int a = 0; a < symbols.length; a++) {
+            if (delta[s * symbols.length + a] != NONE) {
+                degree++;
+            }
+        }
+        return degree;
+    }
+
+    /**
+     * Get the number of arc slots of a state, which is the number of its transitions in the sparse layout and the
+     * alphabet size in the dense one. Together with getArcLabel and getArcTarget this walks the stored table without
+     * any search.
+     *
+     * @param s A state.
+     * @return The number of arc slots of s.
+     */
+    int getArcCount(int s) {
+        return delta != null ? symbols.length : firstArc[s + 1] - firstArc[s];
+    }
+
+    /**
+     * @param s A state.
+     * @param i An arc slot of s.
+     * @return The symbol index of slot i of s.
+     */
+    int getArcLabel(int s, int i) {
+        return delta != null ? i : labels[firstArc[s] + i];
+    }
+
+    /**
+     * @param s A state.
+     * @param i An arc slot of s.
+     * @return The target of slot i of s, which is NONE for an empty slot of the dense layout.
+     */
+    int getArcTarget(int s, int i) {
+        return delta != null ? delta[s * symbols.length + i] : targets[firstArc[s] + i];
+    }
+
+    /**
+     * Get the incoming arcs of every state, labeled by symbol index. They are computed on first use and kept with the
+     * DFA, which is safe because the DFA never changes.
+     *
+     * @return The reverse adjacency of this DFA.
+     */
+    public ReverseAdjacency getReverseAdjacency() {
+        ReverseAdjacency result = reverseAdjacency;
+        if (result == null) {
+            // racing threads build equal copies, so there is no need to lock
+            result = ReverseAdjacency.of(this);
+            reverseAdjacency = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if every state has a transition on every symbol.
+     */
+    public boolean isComplete() {
+        if (delta == null) {
+            return (long) labels.length == (long) stateCount * symbols.length;
+        }
+        for (int t : delta) {
+            if (t == NONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the minimal DFA for the language of this DFA. Unreachable states are dropped and equivalent states are
+     * merged by partition refinement over the stored transitions, with the sink as one extra state that a missing
+     * transition goes to, so each round takes time in proportion to the number of transitions rather than n * k. If
+     * the minimal DFA has the sparse layout the sink stays implicit and the result is partial; otherwise missing
+     * transitions go to a sink state (added only when needed) and the result is complete. The numbering of the result
+     * is arbitrary; use canonical() for a numbering that only depends on the language.
+     *
+     * @return The minimal DFA.
+     */
+    public CompactDfa minimize() {
+        Stage stage = Stage.begin(Stage.MINIMIZE).setDfaSize(stateCount, symbols.length);
+        int k = symbols.length;
+
+        // keep only the states reachable from the start state, numbered in order of discovery
+        int[] reachable = new int[stateCount];
+        Arrays.fill(reachable, NONE);
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        int arcCount = 0;
+        reachable[start] = tail;
+        queue[tail++] = start;
+        while (head < tail) {
+            int s = queue[head++];
+            for (int i = 0; i < getArcCount(s); i++) {
+                int t = getArcTarget(s, i);
+                if (t == NONE) {
+                    continue;
+                }
+                arcCount++;
+                if (reachable[t] == NONE) {
+                    reachable[t] = tail;
+                    queue[tail++] = t;
+                }
+            }
+        }
+        int m = tail;
+        int[] rowStart = new int[m + 2];
+        int[] rowLabels = new int[arcCount];
+        int[] rowTargets = new int[arcCount];
+        int arc = 0;
+        for (int s = 0; s < m; s++) {
+            int old = queue[s];
+            rowStart[s] = arc;
+            for (int i = 0; i < getArcCount(old); i++) {
+                int t = getArcTarget(old, i);
+                if (t != NONE) {
+                    rowLabels[arc] = getArcLabel(old, i);
+                    rowTargets[arc++] = reachable[t];
+                }
+            }
+        }
+        // the sink, state m, has an empty row
+        rowStart[m] = arc;
+        rowStart[m + 1] = arc;
+
+        // refine the final/non-final partition until no block can be split any further. The signature of a state lists its transitions that leave the block of the sink, so
+        // a missing transition and one into that block look the same
+        int[] block = new int[m + 1];
+        int blockCount = 1;
+        for (int s = 0; s < m; s++) {
+            if (finals[queue[s]]) {
+                block[s] = 1;
+                blockCount = 2;
+            }
+        }
+        while (true) {
+            Map<IntArrayKey, Integer> signatures = new HashMap<>();
+            int[] newBlock = new int[m + 1];
+            int sinkBlock = block[m];
+            for (int s = 0; s <= m; s++) {
+                int length = 1;
+                for (arc = rowStart[s]; arc < rowStart[s + 1]; arc++) {
+                    if (block[rowTargets[arc]] != sinkBlock) {
+                        length += 2;
+                    }
+                }
+                int[] signature = new int[length];
+                signature[0] = block[s];
+                int i = 1;
+                for (arc = rowStart[s]; arc < rowStart[s + 1]; arc++) {
+                    if (block[rowTargets[arc]] != sinkBlock) {
+                        signature[i++] = rowLabels[arc];
+                        signature[i++] = block[rowTargets[arc]];
+                    }
+                }
+                IntArrayKey key = new IntArrayKey(signature);
+                Integer id = signatures.get(key);
+                if (id == null) {
+                    id = signatures.size();
+                    signatures.put(key, id);
+                }
+                newBlock[s] = id;
+            }
+            block = newBlock;
+            if (signatures.size() == blockCount) {
+                break;
+            }
+            blockCount = signatures.size();
+        }
+
+        // build the quotient automaton from the transitions that leave the block of the sink, numbering that block
+        // last; if the language is empty it is the only block, and the result is the complete one-state DFA
+        int sinkBlock = block[m];
+        int[] newId = new int[blockCount];
+        int[] representative = new int[blockCount];
+        Arrays.fill(representative, NONE);
+        int id = 0;
+        for (int s = 0; s <= m; s++) {
+            if (representative[block[s]] == NONE) {
+                representative[block[s]] = s;
+                newId[block[s]] = block[s] == sinkBlock ? blockCount - 1 : id++;
+            }
+        }
+        int[] arcSources = new int[arcCount];
+        int[] arcLabels = new int[arcCount];
+        int[] arcTargets = new int[arcCount];
+        boolean[] minFinals = new boolean[blockCount];
+        int minArcCount = 0;
+        for (int b = 0; b < blockCount; b++) {
+            int s = representative[b];
+            if (b == sinkBlock) {
+                continue;
+            }
+            minFinals[newId[b]] = finals[queue[s]];
+            for (arc = rowStart[s]; arc < rowStart[s + 1]; arc++) {
+                if (block[rowTargets[arc]] != sinkBlock) {
+                    arcSources[minArcCount] = newId[b];
+                    arcLabels[minArcCount] = rowLabels[arc];
+                    arcTargets[minArcCount++] = newId[block[rowTargets[arc]]];
+                }
+            }
+        }
+        int partialCount = Math.max(blockCount - 1, 1);
+        int minStart = newId[block[0]];
+        stage.close();
+        if (blockCount > 1 && isSparse(partialCount, k, minArcCount)) {
+            return ofArcs(partialCount, minStart, symbols, Arrays.copyOf(minFinals, partialCount), arcSources,
+                    arcLabels, arcTargets, minArcCount, null);
+        }
+
+        // the dense layout is complete, so the sink becomes a state if some transition is missing
+        int minCount = blockCount > 1 && minArcCount == (long) partialCount * k ? partialCount : blockCount;
+        int[] minDelta = new int[minCount * k];
+        Arrays.fill(minDelta, minCount - 1);
+        for (int i = 0; i < minArcCount; i++) {
+            minDelta[arcSources[i] * k + arcLabels[i]] = arcTargets[i];
+        }
+        return new CompactDfa(minCount, minStart, symbols, minDelta, Arrays.copyOf(minFinals, minCount));
+    }
+
+    /**
+     * Get a complete DFA for the language of this DFA, in which the missing transitions go to an added sink state.
+     * The algorithms on FSTs assume a complete DFA, so use this before toFst() on the partial result of minimize().
+     *
+     * @return This DFA if it is complete, otherwise a copy with a sink.
+     */
+    public CompactDfa complete() {
+        if (isComplete()) {
+            return this;
+        }
+        int k = symbols.length;
+        int[] completeDelta = new int[(stateCount + 1) * k];
+        Arrays.fill(completeDelta, stateCount);
+        for (int s = 0; s < stateCount; s++) {
+            for (int i = 0; i < getArcCount(s); i++) {
+                int t = getArcTarget(s, i);
+                if (t != NONE) {
+                    completeDelta[s * k + getArcLabel(s, i)] = t;
+                }
+            }
+        }
+        return new CompactDfa(stateCount + 1, start, symbols, completeDelta, Arrays.copyOf(finals, stateCount + 1));
+    }
+
+    /**
+     * Get the canonical form of this DFA: the minimal DFA with its states renumbered in breadth-first order from the
+     * start state, following symbols in lexicographic order. Two DFAs have equal canonical forms if and only if they
+     * accept the same language over the same alphabet.
+     *
+     * @return The canonical DFA, whose start state is always 0.
+     */
+    public CompactDfa canonical() {
+        CompactDfa min = minimize();
+        int n = min.stateCount;
+        int[] order = new int[n];
+        int[] newId = new int[n];
+        Arrays.fill(newId, NONE);
+        int head = 0;
+        int tail = 0;
+        int arcCount = 0;
+        newId[min.start] = tail;
+        order[tail++] = min.start;
+        while (head < tail) {
+            int s = order[head++];
+            for (int i = 0; i < min.getArcCount(s); i++) {
+                int t = min.getArcTarget(s, i);
+                if (t == NONE) {
+                    continue;
+                }
+                arcCount++;
+                if (newId[t] == NONE) {
+                    newId[t] = tail;
+                    order[tail++] = t;
+                }
+            }
+        }
+        int[] arcSources = new int[arcCount];
+        int[] arcLabels = new int[arcCount];
+        int[] arcTargets = new int[arcCount];
+        boolean[] canonFinals = new boolean[n];
+        int arc = 0;
+        for (int i = 0; i < n; i++) {
+            int s = order[i];
+            canonFinals[i] = min.finals[s];
+            for (int j = 0; j < min.getArcCount(s); j++) {
+                int t = min.getArcTarget(s, j);
+                if (t != NONE) {
+                    arcSources[arc] = i;
+                    arcLabels[arc] = min.getArcLabel(s, j);
+                    arcTargets[arc++] = newId[t];
+                }
+            }
+        }
+        return ofArcs(n, 0, symbols, canonFinals, arcSources, arcLabels, arcTargets, arcCount, null);
+    }
+
+    /**
+     * Get the 128-bit content hash of the canonical form of this DFA. Isomorphic DFAs, and more generally DFAs that
+     * accept the same language over the same alphabet, have the same hash.
+     *
+     * @return The hash of canonical().
+     */
+    public DfaHash canonicalHash() {
+        return DfaHash.of(canonical());
+    }
+
+    /**
+     * Serialize the tables of this DFA so that equal DFAs give equal bytes.
+     *
+     * @return The serialized DFA.
+     */
+    byte[] toBytes() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(stateCount).append(' ').append(start).append(' ').append(symbols.length).append('\n');
+        for (String symbol : symbols) {
+            sb.append(symbol.length()).append(':').append(symbol).append('\n');
+        }
+        for (int s = 0; s < stateCount; s++) {
+            sb.append(finals[s] ? 'F' : 'N');
+            for (int a = 0; a < symbols.length; a++) {
+                sb.append(' ').append(next(s, a));
+            }
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompactDfa)) {
+            return false;
+        }
+        CompactDfa that = (CompactDfa) o;
+        return stateCount == that.stateCount && start == that.start && Arrays.equals(symbols, that.symbols)
+                && Arrays.equals(finals, that.finals) && Arrays.equals(delta, that.delta)
+                && Arrays.equals(firstArc, that.firstArc) && Arrays.equals(labels, that.labels)
+                && Arrays.equals(targets, that.targets);
+    }
+
+    @Override
+    public int hashCode() {
+        // the layout only depends on the table, so equal DFAs have equal layouts and hash the same arrays
+        int hash = delta != null ? Arrays.hashCode(delta) : 31 * Arrays.hashCode(labels) + Arrays.hashCode(targets);
+        return 31 * hash + Arrays.hashCode(finals);
+    }
+
+    /**
+     * Wraps an int array so it can be used as a hash map key.
+     */
+    static final class IntArrayKey {
+        private final int[] values;
+        private final int hash;
+
+        IntArrayKey(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntArrayKey && Arrays.equals(values, ((IntArrayKey) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
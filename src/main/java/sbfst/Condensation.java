@@ -0,0 +1,327 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.Fst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The condensation of a graph: the DAG whose nodes are the strongly connected components of the graph, with an edge
+ * from one component to another whenever some arc leads from the first to the second. Every state belongs to exactly
+ * one component, including states on no cycle at all; isCyclic() tells the components with a cycle (the SCCs that
+ * getSCCs reports) from the rest.
+ *
+ * Components are numbered in topological order, so every edge and every ancestor relation goes from a lower to a
+ * higher number. The transitive ancestors and descendants of each component are precomputed as bitsets, which makes
+ * hasDescendants() and isAncestor() constant time. Building the condensation takes O(n + m) for the components
+ * (Tarjan's algorithm with explicit stacks) plus O(C / 64) per condensation edge for the bitsets.
+ *
+ * @author Elliot Tuck
+ */
+public final class Condensation {
+
+    private final int[] componentOf;
+    private final int[][] components;
+    private final boolean[] cyclic;
+    private final int[][] successors;
+    private final BitSet[] descendants;
+    private final BitSet[] ancestors;
+    private final boolean[] cyclicDescendants;
+    private final int cyclicCount;
+
+    private Condensation(int[] componentOf, int[][] components, boolean[] cyclic, int[][] successors) {
+        this.componentOf = componentOf;
+        this.components = components;
+        this.cyclic = cyclic;
+        this.successors = successors;
+        int c = components.length;
+
+        // sinks first, each component inherits the descendants of its successors
+        descendants = new BitSet[c];
+        for (int i = c - 1; i >= 0; i--) {
+            BitSet d = new BitSet(c);
+            for (int j : successors[i]) {
+                d.set(j);
+                d.or(descendants[j]);
+            }
+            descendants[i] = d;
+        }
+
+        // sources first, each component passes itself and its ancestors on to its successors
+        ancestors = new BitSet[c];
+        for (int i = 0; i < c; i++) {
+            ancestors[i] = new BitSet(c);
+        }
+        for (int i = 0; i < c; i++) {
+            for (int j : successors[i]) {
+                ancestors[j].set(i);
+                ancestors[j].or(ancestors[i]);
+            }
+        }
+
+        BitSet cyclicComponents = new BitSet(c);
+        int count = 0;
+        for (int i = 0; i < c; i++) {
+            if (cyclic[i]) {
+                cyclicComponents.set(i);
+                count++;
+            }
+        }
+        cyclicCount = count;
+        cyclicDescendants = new boolean[c];
+        for (int i = 0; i < c; i++) {
+            cyclicDescendants[i] = descendants[i].intersects(cyclicComponents);
+        }
+    }
+
+    /**
+     * Build the condensation of an FST, using its arcs as the edges of the graph.
+     *
+     * @param fst The FST, which is not modified.
+     * @return The condensation of fst.
+     */
+    public static Condensation of(Fst fst) {
+        return of(IntGraph.of(fst));
+    }
+
+    /**
+     * Build the condensation of a graph, which may be an implicit view such as a product graph.
+     *
+     * @param graph The graph.
+     * @return The condensation of graph.
+     */
+    public static Condensation of(IntGraph graph) {
+        int n = graph.getStateCount();
+
+        // Tarjan's algorithm, with the recursion replaced by a stack of (state, next arc) frames
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] sccStack = new int[n];
+        int sccTop = 0;
+        int[] frameState = new int[n];
+        int[] frameArc = new int[n];
+        int[] componentOf = new int[n];
+        List<int[]> found = new ArrayList<>();
+        int nextIndex = 1;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            frameState[0] = root;
+            frameArc[0] = 0;
+            index[root] = lowLink[root] = nextIndex++;
+            sccStack[sccTop++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int v = frameState[depth];
+                if (frameArc[depth] < graph.getArcCount(v)) {
+                    int w = graph.getTarget(v, frameArc[depth]++);
+                    if (w == IntGraph.NO_ARC) {
+                        continue;
+                    }
+                    if (index[w] == 0) {
+                        index[w] = lowLink[w] = nextIndex++;
+                        sccStack[sccTop++] = w;
+                        onStack[w] = true;
+                        depth++;
+                        frameState[depth] = w;
+                        frameArc[depth] = 0;
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                    continue;
+                }
+                if (lowLink[v] == index[v]) {
+                    int size = 0;
+                    while (sccStack[sccTop - 1 - size] != v) {
+                        size++;
+                    }
+                    size++;
+                    int[] component = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        int w = sccStack[--sccTop];
+                        onStack[w] = false;
+                        component[size - 1 - i] = w;
+                    }
+                    found.add(component);
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = frameState[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                }
+            }
+        }
+
+        // Tarjan finds components sinks first, so reverse them to get a topological order
+        int c = found.size();
+        int[][] components = new int[c][];
+        for (int i = 0; i < c; i++) {
+            components[i] = found.get(c - 1 - i);
+            for (int s : components[i]) {
+                componentOf[s] = i;
+            }
+        }
+
+        // collect the condensation edges and find the components with a cycle
+        boolean[] cyclic = new boolean[c];
+        int[][] successors = new int[c][];
+        int[] lastSeen = new int[c];
+        Arrays.fill(lastSeen, -1);
+        int[] buffer = new int[c];
+        for (int i = 0; i < c; i++) {
+            cyclic[i] = components[i].length > 1;
+            int count = 0;
+            for (int s : components[i]) {
+                for (int a = 0; a < graph.getArcCount(s); a++) {
+                    int t = graph.getTarget(s, a);
+                    if (t == IntGraph.NO_ARC) {
+                        continue;
+                    }
+                    int j = componentOf[t];
+                    if (j == i) {
+                        cyclic[i] = true;
+                    } else if (lastSeen[j] != i) {
+                        lastSeen[j] = i;
+                        buffer[count++] = j;
+                    }
+                }
+            }
+            successors[i] = Arrays.copyOf(buffer, count);
+        }
+        return new Condensation(componentOf, components, cyclic, successors);
+    }
+
+    /**
+     * @return The number of components, including those without a cycle.
+     */
+    public int getComponentCount() {
+        return components.length;
+    }
+
+    /**
+     * @return The number of components that contain a cycle.
+     */
+    public int getCyclicComponentCount() {
+        return cyclicCount;
+    }
+
+    /**
+     * @param state The id of a state.
+     * @return The component the state belongs to.
+     */
+    public int getComponentOf(int state) {
+        return componentOf[state];
+    }
+
+    /**
+     * @param component A component.
+     * @return The ids of the states of the component. The array must not be modified.
+     */
+    public int[] getStates(int component) {
+        return components[component];
+    }
+
+    /**
+     * @param component A component.
+     * @return true if the component has more than one state or a state with a self-loop, false otherwise.
+     */
+    public boolean isCyclic(int component) {
+        return cyclic[component];
+    }
+
+    /**
+     * @param component A component.
+     * @return The components that some arc leads to from the component, each listed once. The array must not be
+     * modified.
+     */
+    public int[] getSuccessors(int component) {
+        return successors[component];
+    }
+
+    /**
+     * @param component A component.
+     * @return true if the component has no successors, false otherwise.
+     */
+    public boolean isSink(int component) {
+        return successors[component].length == 0;
+    }
+
+    /**
+     * @return The sink components in increasing order.
+     */
+    public int[] getSinks() {
+        int count = 0;
+        for (int[] s : successors) {
+            if (s.length == 0) {
+                count++;
+            }
+        }
+        int[] sinks = new int[count];
+        count = 0;
+        for (int i = 0; i < successors.length; i++) {
+            if (successors[i].length == 0) {
+                sinks[count++] = i;
+            }
+        }
+        return sinks;
+    }
+
+    /**
+     * @param component A component.
+     * @return true if another component is reachable from the component, false otherwise.
+     */
+    public boolean hasDescendants(int component) {
+        return successors[component].length != 0;
+    }
+
+    /**
+     * @param component A component.
+     * @return true if another component with a cycle is reachable from the component, false otherwise. This is the
+     * notion of descendant used by the local testability check, which only looks at SCCs with a cycle.
+     */
+    public boolean hasCyclicDescendants(int component) {
+        return cyclicDescendants[component];
+    }
+
+    /**
+     * @param a A component.
+     * @param b A component.
+     * @return true if b is reachable from a and a != b, false otherwise.
+     */
+    public boolean isAncestor(int a, int b) {
+        return descendants[a].get(b);
+    }
+
+    /**
+     * @param s A state.
+     * @param t A state.
+     * @return true if t is reachable from s, which includes t == s, false otherwise.
+     */
+    public boolean reaches(int s, int t) {
+        int a = componentOf[s];
+        int b = componentOf[t];
+        return a == b || descendants[a].get(b);
+    }
+
+    /**
+     * @param component A component.
+     * @return The components reachable from the component, not including itself. The bitset must not be modified.
+     */
+    public BitSet getDescendants(int component) {
+        return descendants[component];
+    }
+
+    /**
+     * @param component A component.
+     * @return The components from which the component is reachable, not including itself. The bitset must not be
+     * modified.
+     */
+    public BitSet getAncestors(int component) {
+        return ancestors[component];
+    }
+}
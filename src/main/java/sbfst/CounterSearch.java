@@ -0,0 +1,312 @@
+package sbfst;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A search for counters in a DFA: a word w and distinct states q0,...,qm-1 with m >= 2 such that qi.w = qi+1 and
+ * qm-1.w = q0. A minimal DFA is counter-free iff its syntactic monoid is aperiodic, i.e. iff its language is star
+ * free, so this decides star-freeness without building the whole transition monoid.
+ *
+ * The states of a counter are mutually reachable and every path between them stays in their strongly connected
+ * component, so the search runs once per component C with at least two states, on the transformations of C alone:
+ * a transition that leaves C goes to a dead point. The transformations are found by breadth-first search through
+ * right multiplication by the letters, remembered in an open-addressing hash table so that each one is expanded once,
+ * and the search stops at the first transformation with a cycle of length at least two. A transformation with at most
+ * one live point is not expanded, since the rank never grows and a cycle needs two live points.
+ *
+ * Deciding counter-freeness is PSPACE-complete in general, so the number of transformations can still be exponential,
+ * but it is never larger than the transition monoid and is usually far smaller.
+ *
+ * @author Elliot Tuck
+ */
+public final class CounterSearch {
+
+    private static final int EMPTY = -1;
+
+    private final int c;
+    private int size;
+    // transformations[t * c + i] is the local state that transformation t takes local state i to, or c if it dies
+    private int[] transformations;
+    private int[] parent;
+    private int[] lastLetter;
+    private int[] slots;
+
+    private CounterSearch(int c) {
+        this.c = c;
+        this.transformations = new int[16 * c];
+        this.parent = new int[16];
+        this.lastLetter = new int[16];
+        this.slots = new int[64];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    /**
+     * Determine if a DFA is counter-free.
+     *
+     * @param dfa A DFA.
+     * @return true if dfa has no counter, false otherwise.
+     */
+    public static boolean isCounterFree(CompactDfa dfa) {
+        return findCounter(dfa, Budget.UNLIMITED) == null;
+    }
+
+    /**
+     * Determine if a DFA is counter-free, within a budget.
+     *
+     * @param dfa    A DFA.
+     * @param budget Limits the time and the number of transformations of a component.
+     * @return true if dfa has no counter, false otherwise.
+     * @throws BudgetExceededException if the budget runs out before the search is done.
+     */
+    public static boolean isCounterFree(CompactDfa dfa, Budget budget) {
+        return findCounter(dfa, budget) == null;
+    }
+
+    /**
+     * Find a word that is the word of a counter of a DFA.
+     *
+     * @param dfa    A DFA.
+     * @param budget Limits the time and the number of transformations of a component.
+     * @return The letter indices of a shortest counter word of the first component that has one, or null if dfa is
+     * counter-free.
+     * @throws BudgetExceededException if the budget runs out before the search is done.
+     */
+    public static int[] findCounter(CompactDfa dfa, Budget budget) {
+        Condensation condensation = Condensation.of(IntGraph.of(dfa));
+        for (int component = 0; component < condensation.getComponentCount(); component++) {
+            int[] states = condensation.getStates(component);
+            if (states.length < 2) {
+                continue;
+            }
+            budget.poll();
+            int[] word = searchComponent(dfa, states, budget);
+            if (word != null) {
+                return word;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Look for a counter by sampling random words, as a cheap pre-screen before an exact check. For each word w the
+     * transformation t of w is built by composing the letters, and w is a counter word iff t^n and t^(n+1) differ,
+     * where n is the number of states plus one for the implicit sink. The words are 1 to n letters long.
+     *
+     * @param dfa     A DFA.
+     * @param samples The number of words to try.
+     * @param random  The source of the words.
+     * @param budget  Limits the time of the screen.
+     * @return The letter indices of a counter word, or null if no sampled word is one, which proves nothing.
+     * @throws BudgetExceededException if the budget runs out before the screen is done.
+     */
+    public static int[] sampleCounter(CompactDfa dfa, int samples, Random random, Budget budget) {
+        int states = dfa.getStateCount();
+        int k = dfa.getAlphabetSize();
+        int n = states + 1;
+        int[] transformation = new int[n];
+        int[] power = new int[n];
+        int[] square = new int[n];
+        int[] next = new int[n];
+        int[] word = new int[n];
+        // without letters the only word is the empty one, whose transformation is the identity
+        for (int sample = 0; sample < samples && k > 0; sample++) {
+            budget.poll();
+            int length = 1 + random.nextInt(n);
+            for (int s = 0; s < n; s++) {
+                transformation[s] = s;
+            }
+            for (int i = 0; i < length; i++) {
+                word[i] = random.nextInt(k);
+                for (int s = 0; s < n; s++) {
+                    int t = transformation[s] < states ? dfa.next(transformation[s], word[i]) : CompactDfa.NONE;
+                    transformation[s] = t == CompactDfa.NONE ? states : t;
+                }
+            }
+            // power = t^n by repeated squaring
+            for (int s = 0; s < n; s++) {
+                power[s] = s;
+                square[s] = transformation[s];
+            }
+            for (int e = n; e > 0; e >>= 1) {
+                if ((e & 1) != 0) {
+                    for (int s = 0; s < n; s++) {
+                        power[s] = square[power[s]];
+                    }
+                }
+                for (int s = 0; s < n; s++) {
+                    next[s] = square[square[s]];
+                }
+                int[] swap = square;
+                square = next;
+                next = swap;
+            }
+            for (int s = 0; s < n; s++) {
+                if (transformation[power[s]] != power[s]) {
+                    return Arrays.copyOf(word, length);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int[] searchComponent(CompactDfa dfa, int[] states, Budget budget) {
+        int c = states.length;
+        int k = dfa.getAlphabetSize();
+        int[] local = new int[dfa.getStateCount()];
+        Arrays.fill(local, c);
+        for (int i = 0; i < c; i++) {
+            local[states[i]] = i;
+        }
+        int[] letters = new int[k * (c + 1)];
+        for (int a = 0; a < k; a++) {
+            for (int i = 0; i < c; i++) {
+                int t = dfa.next(states[i], a);
+                letters[a * (c + 1) + i] = t == CompactDfa.NONE ? c : local[t];
+            }
+            letters[a * (c + 1) + c] = c;
+        }
+
+        CounterSearch search = new CounterSearch(c);
+        int[] transformation = new int[c];
+        int[] mark = new int[c + 1];
+        for (int a = 0; a < k; a++) {
+            System.arraycopy(letters, a * (c + 1), transformation, 0, c);
+            int[] word = search.visit(transformation, EMPTY, a, mark, budget);
+            if (word != null) {
+                return word;
+            }
+        }
+        for (int t = 0; t < search.size; t++) {
+            budget.poll();
+            if (search.rank(t, mark) < 2) {
+                continue;
+            }
+            for (int a = 0; a < k; a++) {
+                for (int i = 0; i < c; i++) {
+                    transformation[i] = letters[a * (c + 1) + search.transformations[t * c + i]];
+                }
+                int[] word = search.visit(transformation, t, a, mark, budget);
+                if (word != null) {
+                    return word;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add a transformation unless it was seen before, and return its word if it has a counter.
+     */
+    private int[] visit(int[] transformation, int from, int letter, int[] mark, Budget budget) {
+        if (find(transformation) != EMPTY) {
+            return null;
+        }
+        budget.checkMonoidElements(size + 1);
+        int id = add(transformation, from, letter);
+        return hasCycle(transformation, mark) ? getWord(id) : null;
+    }
+
+    /**
+     * @return The number of live points in the image of transformation t.
+     */
+    private int rank(int t, int[] mark) {
+        Arrays.fill(mark, 0);
+        int rank = 0;
+        for (int i = 0; i < c; i++) {
+            int image = transformations[t * c + i];
+            if (image < c && mark[image] == 0) {
+                mark[image] = 1;
+                rank++;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * @return true if the functional graph of transformation has a cycle of length at least two, false otherwise.
+     */
+    private boolean hasCycle(int[] transformation, int[] mark) {
+        Arrays.fill(mark, 0);
+        for (int i = 0; i < c; i++) {
+            // mark the walk from i with i + 1; meeting that mark again closes a cycle
+            int s = i;
+            while (s < c && mark[s] == 0) {
+                mark[s] = i + 1;
+                s = transformation[s];
+            }
+            if (s < c && mark[s] == i + 1 && transformation[s] != s) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] getWord(int t) {
+        int length = 0;
+        for (int s = t; s != EMPTY; s = parent[s]) {
+            length++;
+        }
+        int[] word = new int[length];
+        for (int s = t; s != EMPTY; s = parent[s]) {
+            word[--length] = lastLetter[s];
+        }
+        return word;
+    }
+
+    private int add(int[] transformation, int from, int letter) {
+        if (size * c == transformations.length) {
+            transformations = Arrays.copyOf(transformations, 2 * transformations.length);
+            parent = Arrays.copyOf(parent, 2 * parent.length);
+            lastLetter = Arrays.copyOf(lastLetter, 2 * lastLetter.length);
+        }
+        int id = size++;
+        System.arraycopy(transformation, 0, transformations, id * c, c);
+        parent[id] = from;
+        lastLetter[id] = letter;
+        if (2 * size > slots.length) {
+            slots = new int[2 * slots.length];
+            Arrays.fill(slots, EMPTY);
+            for (int t = 0; t < size; t++) {
+                insert(t);
+            }
+        } else {
+            insert(id);
+        }
+        return id;
+    }
+
+    private void insert(int t) {
+        int mask = slots.length - 1;
+        int slot = hash(transformations, t * c) & mask;
+        while (slots[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = t;
+    }
+
+    private int find(int[] transformation) {
+        int mask = slots.length - 1;
+        int slot = hash(transformation, 0) & mask;
+        while (slots[slot] != EMPTY) {
+            int t = slots[slot];
+            boolean equal = true;
+            for (int i = 0; i < c && equal; i++) {
+                equal = transformations[t * c + i] == transformation[i];
+            }
+            if (equal) {
+                return t;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private int hash(int[] array, int offset) {
+        int h = 1;
+        for (int i = 0; i < c; i++) {
+            h = 31 * h + array[offset + i];
+        }
+        return h ^ (h >>> 16);
+    }
+}
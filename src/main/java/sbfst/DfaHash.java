@@ -0,0 +1,80 @@
+package sbfst;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A 128-bit content hash of a DFA, used as the key of the classification cache.
+ *
+ * @author Elliot Tuck
+ */
+public final class DfaHash {
+
+    private final long high;
+    private final long low;
+
+    public DfaHash(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Hash the tables of the given DFA as they are. Callers that want isomorphic DFAs to collide should pass in a
+     * canonical DFA (see CompactDfa.canonicalHash()).
+     *
+     * @param dfa The DFA to hash.
+     * @return The 128-bit hash of dfa.
+     */
+    public static DfaHash of(CompactDfa dfa) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(dfa.toBytes());
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (digest[i] & 0xff);
+            low = (low << 8) | (digest[i + 8] & 0xff);
+        }
+        return new DfaHash(high, low);
+    }
+
+    /**
+     * Parse a hash written by toString().
+     *
+     * @param hex 32 hexadecimal digits.
+     * @return The parsed hash.
+     */
+    public static DfaHash fromString(String hex) {
+        if (hex.length() != 32) {
+            throw new IllegalArgumentException("Expected 32 hex digits but got " + hex);
+        }
+        return new DfaHash(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+                Long.parseUnsignedLong(hex.substring(16), 16));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DfaHash)) {
+            return false;
+        }
+        DfaHash that = (DfaHash) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (high ^ (high >>> 32) ^ low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
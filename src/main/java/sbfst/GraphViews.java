@@ -0,0 +1,216 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.Fst;
+
+import java.util.BitSet;
+
+/**
+ * The IntGraph implementations behind the factory methods of IntGraph.
+ *
+ * @author Elliot Tuck
+ */
+final class GraphViews {
+
+    private GraphViews() {
+    }
+
+    static final class FstGraph implements IntGraph {
+
+        private final Fst fst;
+
+        FstGraph(Fst fst) {
+            this.fst = fst;
+        }
+
+        @Override
+        public int getStateCount() {
+            return fst.getStateCount();
+        }
+
+        @Override
+        public int getArcCount(int state) {
+            return fst.getState(state).getArcCount();
+        }
+
+        @Override
+        public int getTarget(int state, int arc) {
+            return fst.getState(state).getArc(arc).getNextState().getId();
+        }
+    }
+
+    static final class DfaGraph implements IntGraph {
+
+        private final CompactDfa dfa;
+
+        DfaGraph(CompactDfa dfa) {
+            this.dfa = dfa;
+        }
+
+        @Override
+        public int getStateCount() {
+            return dfa.getStateCount();
+        }
+
+        @Override
+        public int getArcCount(int state) {
+            return dfa.getArcCount(state);
+        }
+
+        @Override
+        public int getTarget(int state, int arc) {
+            return dfa.getArcTarget(state, arc);
+        }
+    }
+
+    static final class ProductGraph implements IntGraph {
+
+        private final CompactDfa dfa;
+        private final int copies;
+        private final int stateCount;
+
+        ProductGraph(CompactDfa dfa, int copies) {
+            if (copies < 1) {
+                throw new IllegalArgumentException("A product needs at least one copy, not " + copies);
+            }
+            long count = 1;
+            for (int i = 0; i < copies; i++) {
+                count *= dfa.getStateCount();
+                if (count > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("The product of " + copies + " copies of a DFA with "
+                            + dfa.getStateCount() + " states has too many states");
+                }
+            }
+            this.dfa = dfa;
+            this.copies = copies;
+            this.stateCount = (int) count;
+        }
+
+        @Override
+        public int getStateCount() {
+            return stateCount;
+        }
+
+        @Override
+        public int getArcCount(int state) {
+            return dfa.getAlphabetSize();
+        }
+
+        @Override
+        public int getTarget(int state, int arc) {
+            int n = dfa.getStateCount();
+            int target = 0;
+            int scale = 1;
+            // decode the coordinates from last to first, re-encoding their successors in the same positions
+            for (int i = 0; i < copies; i++) {
+                int next = dfa.next(state % n, arc);
+                if (next == CompactDfa.NONE) {
+                    return NO_ARC;
+                }
+                target += next * scale;
+                scale *= n;
+                state /= n;
+            }
+            return target;
+        }
+    }
+
+    static final class PairGraph implements IntGraph {
+
+        private final CompactDfa dfa;
+        private final BitSet q1;
+        private final BitSet q2;
+        private final int width;
+
+        PairGraph(CompactDfa dfa, BitSet q1, BitSet q2) {
+            this.dfa = dfa;
+            this.q1 = q1;
+            this.q2 = q2;
+            this.width = dfa.getStateCount() + 1;
+        }
+
+        @Override
+        public int getStateCount() {
+            return width * width;
+        }
+
+        @Override
+        public int getArcCount(int state) {
+            int p = state / width;
+            int q = state % width;
+            return p != q && q1.get(p) && q2.get(q) ? dfa.getAlphabetSize() : 0;
+        }
+
+        @Override
+        public int getTarget(int state, int arc) {
+            int unused = width - 1;
+            int r = dfa.next(state / width, arc);
+            int s = dfa.next(state % width, arc);
+            r = r != CompactDfa.NONE && q1.get(r) ? r : unused;
+            s = s != CompactDfa.NONE && q2.get(s) ? s : unused;
+            return r == unused && s == unused ? NO_ARC : r * width + s;
+        }
+    }
+
+    static final class TupleGraph implements IntGraph {
+
+        private final CompactDfa dfa;
+        private final Condensation gamma;
+
+        TupleGraph(CompactDfa dfa, Condensation gamma) {
+            if ((long) dfa.getStateCount() * dfa.getStateCount() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The 2-tuple graph of a DFA with " + dfa.getStateCount()
+                        + " states has too many states");
+            }
+            this.dfa = dfa;
+            this.gamma = gamma;
+        }
+
+        @Override
+        public int getStateCount() {
+            return dfa.getStateCount() * dfa.getStateCount();
+        }
+
+        @Override
+        public int getArcCount(int state) {
+            int n = dfa.getStateCount();
+            return isNode(state / n, state % n) ? dfa.getAlphabetSize() : 0;
+        }
+
+        @Override
+        public int getTarget(int state, int arc) {
+            int n = dfa.getStateCount();
+            int r = dfa.next(state / n, arc);
+            int s = dfa.next(state % n, arc);
+            return r != CompactDfa.NONE && s != CompactDfa.NONE && isNode(r, s) ? r * n + s : NO_ARC;
+        }
+
+        private boolean isNode(int p, int q) {
+            return p != q && gamma.reaches(p, q);
+        }
+    }
+
+    static final class LooplessGraph implements IntGraph {
+
+        private final IntGraph graph;
+
+        LooplessGraph(IntGraph graph) {
+            this.graph = graph;
+        }
+
+        @Override
+        public int getStateCount() {
+            return graph.getStateCount();
+        }
+
+        @Override
+        public int getArcCount(int state) {
+            return graph.getArcCount(state);
+        }
+
+        @Override
+        public int getTarget(int state, int arc) {
+            int target = graph.getTarget(state, arc);
+            return target == state ? NO_ARC : target;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package sbfst;
+
+/**
+ * Receives phase timings, counters and trace events from the classifiers. Pass NONE (the default everywhere) to turn
+ * instrumentation off; hot loops only keep local counts and report them once per phase, and trace messages are only
+ * built when isTracing() returns true, so a disabled instrumentation costs nothing measurable.
+ *
+ * @author Elliot Tuck
+ */
+public interface Instrumentation {
+
+    /**
+     * Things the classifiers count.
+     */
+    enum Counter {
+        /** (p,q,r,r1) and (p,q,r,q1,r1) tuples visited by the definition 15 and theorem 16 loops. */
+        TUPLES_EXAMINED,
+        /** Tuples skipped because a reachability condition in Γ failed. */
+        TUPLES_PRUNED_BY_REACHABILITY,
+        /** Tuples skipped because an SCC-node condition in Γ² or Γ³ failed. */
+        TUPLES_PRUNED_BY_SCC_NODES,
+        /** Tuples skipped because (q1,r1) is not reachable from (q,r) in Γ². */
+        TUPLES_PRUNED_BY_PRODUCT_REACHABILITY,
+        /** TSCCs computed from scratch. */
+        TSCC_COMPUTATIONS,
+        /** TSCCs answered from the TSCC cache. */
+        TSCC_CACHE_HITS,
+        /** TSCCs that turned out not to be well defined. */
+        TSCC_UNDEFINED,
+        /** Conditions an AnalysisSession had to check after an edit. */
+        CONDITIONS_CHECKED,
+        /** Conditions and verdicts an AnalysisSession reused because no edit touched their inputs. */
+        CONDITIONS_REUSED
+    }
+
+    /**
+     * A running phase, ended by close(). Meant to be used with try-with-resources.
+     */
+    interface Phase extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * The phase returned by disabled instrumentation.
+     */
+    Phase NO_PHASE = () -> { };
+
+    /**
+     * Instrumentation that ignores everything.
+     */
+    Instrumentation NONE = new Instrumentation() {
+        @Override
+        public Phase startPhase(String name) {
+            return NO_PHASE;
+        }
+
+        @Override
+        public void count(Counter counter, long amount) {
+        }
+
+        @Override
+        public boolean isTracing() {
+            return false;
+        }
+
+        @Override
+        public void trace(String event, String detail) {
+        }
+    };
+
+    /**
+     * Start timing a phase of a classification.
+     *
+     * @param name The name of the phase.
+     * @return The running phase, which must be closed when the phase ends.
+     */
+    Phase startPhase(String name);
+
+    /**
+     * Add to a counter.
+     *
+     * @param counter The counter.
+     * @param amount  The amount to add.
+     */
+    void count(Counter counter, long amount);
+
+    /**
+     * @return true if trace events should be built and passed to trace(), false otherwise.
+     */
+    boolean isTracing();
+
+    /**
+     * Record a trace event. Callers should check isTracing() before building the detail string.
+     *
+     * @param event  A short, fixed name for the event.
+     * @param detail A human readable description.
+     */
+    void trace(String event, String detail);
+}
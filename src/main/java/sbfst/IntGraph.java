@@ -0,0 +1,103 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.Fst;
+
+import java.util.BitSet;
+
+/**
+ * A directed graph over the states 0..getStateCount()-1, seen through integer arc iterators. Implementations can be
+ * backed by an FST or a compact DFA, or be implicit views such as a direct product or a pair graph whose states are
+ * computed on demand instead of being materialized. The traversals in Traversals work on any of them.
+ *
+ * @author Elliot Tuck
+ */
+public interface IntGraph {
+
+    /**
+     * Returned by getTarget for an arc slot that holds no arc, e.g. a missing transition of a partial DFA.
+     */
+    int NO_ARC = -1;
+
+    /**
+     * @return The number of states.
+     */
+    int getStateCount();
+
+    /**
+     * @param state A state.
+     * @return The number of arc slots of state; some of them may be empty.
+     */
+    int getArcCount(int state);
+
+    /**
+     * @param state A state.
+     * @param arc   An arc slot of state, from 0 to getArcCount(state) - 1.
+     * @return The state the arc leads to, or NO_ARC if the slot is empty.
+     */
+    int getTarget(int state, int arc);
+
+    /**
+     * @param fst An FST, read on every call, so it must not change while the view is used.
+     * @return A view of the arcs of fst.
+     */
+    static IntGraph of(Fst fst) {
+        return new GraphViews.FstGraph(fst);
+    }
+
+    /**
+     * @param dfa A DFA.
+     * @return A view of the transitions of dfa, with one arc slot per symbol.
+     */
+    static IntGraph of(CompactDfa dfa) {
+        return new GraphViews.DfaGraph(dfa);
+    }
+
+    /**
+     * Get the direct product of a DFA with itself copies - 1 times, without building it. The tuple (p1,...,pi) is
+     * the state p1 * n^(i-1) + ... + pi, and it has an arc on symbol a to (delta(p1,a),...,delta(pi,a)) if all of
+     * those transitions exist.
+     *
+     * @param dfa    A DFA.
+     * @param copies The number of copies of dfa in the product.
+     * @return A view of the product graph.
+     */
+    static IntGraph product(CompactDfa dfa, int copies) {
+        return new GraphViews.ProductGraph(dfa, copies);
+    }
+
+    /**
+     * Get the pair graph of a DFA on two sets of states (see Utils.getPairGraph), without building it. With n states,
+     * the pair (p,q) is the state p * (n + 1) + q, where n stands for the unused symbol '*'. A pair (p,q) with p != q,
+     * p in q1 and q in q2 has an arc on symbol a to (r,s), where r is delta(p,a) if that is in q1 and '*' otherwise,
+     * and likewise for s; the arc is left out if both are '*'. No other pair has arcs.
+     *
+     * @param dfa A DFA.
+     * @param q1  The first set of states.
+     * @param q2  The second set of states.
+     * @return A view of the pair graph.
+     */
+    static IntGraph pairGraph(CompactDfa dfa, BitSet q1, BitSet q2) {
+        return new GraphViews.PairGraph(dfa, q1, q2);
+    }
+
+    /**
+     * Get the 2-tuple graph ΓΓ of a DFA used by Trahtman to estimate the order of local testability, without building
+     * it. The pair (p,q) is the state p * n + q; it is a node of ΓΓ if p != q and q is reachable from p, and a node
+     * has an arc on symbol a to (delta(p,a),delta(q,a)) if that is a node too. Other pairs have no arcs.
+     *
+     * @param dfa   A DFA.
+     * @param gamma The condensation of dfa, which answers the reachability queries.
+     * @return A view of the 2-tuple graph.
+     */
+    static IntGraph tupleGraph(CompactDfa dfa, Condensation gamma) {
+        return new GraphViews.TupleGraph(dfa, gamma);
+    }
+
+    /**
+     * @param graph A graph.
+     * @return A view of graph with its self-loops left out, e.g. to test whether a DFA is partially ordered.
+     */
+    static IntGraph withoutSelfLoops(IntGraph graph) {
+        return new GraphViews.LooplessGraph(graph);
+    }
+}
@@ -0,0 +1,10 @@
+package sbfst;
+
+/**
+ * The classes of regular languages that a Classifier can test for.
+ *
+ * @author Elliot Tuck
+ */
+public enum LanguageClass {
+    STAR_FREE, LOCALLY_TESTABLE, PIECEWISE_TESTABLE, LOCALLY_THRESHOLD_TESTABLE, STRICTLY_LOCAL, STRICTLY_PIECEWISE
+}
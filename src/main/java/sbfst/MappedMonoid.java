@@ -0,0 +1,453 @@
+package sbfst;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * The transition monoid of a DFA kept in memory-mapped files instead of on the heap, for monoids bounded by disk
+ * rather than heap. The elements are numbered like those of TransitionMonoid.of, by breadth-first search from the
+ * identity (element 0), and three files hold the monoid:
+ *
+ * elements.bin holds one fixed-width record per element, the images of the states in 1, 2 or 4 bytes each depending
+ * on the number of states; index-c.bin is an open-addressing hash table of c slots holding element ids plus one (0 is
+ * an empty slot), rebuilt in a new file at twice the size when it is half full; and cayley.bin holds the Cayley edges,
+ * the int element of m followed by letter a at index m * k + a. As in TransitionMonoid, a missing transition of a
+ * partial DFA goes to an implicit sink state, numbered n.
+ *
+ * Files larger than a mapping can be are mapped in segments. The heap only ever holds a few transformations. Element
+ * ids plus one are stored as ints, so a monoid holds at most Integer.MAX_VALUE - 1 elements; building a larger one
+ * throws BudgetExceededException whatever the budget.
+ *
+ * @author Elliot Tuck
+ */
+public final class MappedMonoid implements Closeable {
+
+    // segments of at most 1 GiB, so that a segment is always addressable by a MappedByteBuffer
+    private static final int SEGMENT_BYTES = 1 << 30;
+
+    // the most elements whose ids plus one fit in an index slot
+    private static final int MAX_ELEMENTS = Integer.MAX_VALUE - 1;
+
+    private final Path directory;
+    private final int n;
+    private final int k;
+    private final int cellBytes;
+    private final int recordBytes;
+    private final int segmentBytes;
+    private final MappedFile elements;
+    private final MappedFile cayley;
+    private MappedFile index;
+    // a power of two, up to 2^32 slots for MAX_ELEMENTS elements
+    private long indexCapacity;
+    private int size;
+
+    private MappedMonoid(Path directory, int n, int k, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.n = n;
+        this.k = k;
+        this.cellBytes = n <= 1 << 8 ? 1 : n <= 1 << 16 ? 2 : 4;
+        this.recordBytes = n * cellBytes;
+        this.segmentBytes = segmentBytes;
+        this.elements = new MappedFile(directory.resolve("elements.bin"), recordBytes, segmentBytes);
+        this.cayley = new MappedFile(directory.resolve("cayley.bin"), 4, segmentBytes);
+        this.indexCapacity = 64;
+        this.index = new MappedFile(getIndexPath(), 4, segmentBytes);
+    }
+
+    /**
+     * Build the transition monoid of a DFA in the given directory.
+     *
+     * @param dfa       A DFA.
+     * @param directory An existing, empty directory for the files.
+     * @return The monoid, which must be closed.
+     * @throws IOException if the files cannot be written.
+     */
+    public static MappedMonoid build(CompactDfa dfa, Path directory) throws IOException {
+        return build(dfa, directory, Budget.UNLIMITED);
+    }
+
+    /**
+     * Build the transition monoid of a DFA in the given directory within a budget.
+     *
+     * @param dfa       A DFA.
+     * @param directory An existing, empty directory for the files.
+     * @param budget    Limits the time and the number of elements.
+     * @return The monoid, which must be closed.
+     * @throws IOException             if the files cannot be written.
+     * @throws BudgetExceededException if the budget runs out before the monoid is built.
+     */
+    public static MappedMonoid build(CompactDfa dfa, Path directory, Budget budget) throws IOException {
+        return build(dfa, directory, budget, SEGMENT_BYTES);
+    }
+
+    static MappedMonoid build(CompactDfa dfa, Path directory, Budget budget, int segmentBytes) throws IOException {
+        int states = dfa.getStateCount();
+        int k = dfa.getAlphabetSize();
+        int n = dfa.isComplete() ? states : states + 1;
+        MappedMonoid monoid = new MappedMonoid(directory, n, k, segmentBytes);
+        try {
+            int[] letters = new int[k * n];
+            for (int a = 0; a < k; a++) {
+                for (int s = 0; s < n; s++) {
+                    int t = s < states ? dfa.next(s, a) : CompactDfa.NONE;
+                    letters[a * n + s] = t == CompactDfa.NONE ? states : t;
+                }
+            }
+
+            int[] element = new int[n];
+            int[] transformation = new int[n];
+            for (int s = 0; s < n; s++) {
+                transformation[s] = s;
+            }
+            monoid.add(transformation);
+            for (int m = 0; m < monoid.size; m++) {
+                budget.poll();
+                monoid.read(m, element);
+                for (int a = 0; a < k; a++) {
+                    for (int s = 0; s < n; s++) {
+                        transformation[s] = letters[a * n + element[s]];
+                    }
+                    int id = monoid.find(transformation);
+                    if (id == -1) {
+                        budget.checkMonoidElements(monoid.size + 1L);
+                        id = monoid.add(transformation);
+                    }
+                    monoid.cayley.putInt(4L * ((long) m * k + a), id);
+                }
+            }
+            return monoid;
+        } catch (IOException | RuntimeException e) {
+            monoid.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of elements.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The number of states transformed, including the implicit sink of a partial DFA.
+     */
+    public int getStateCount() {
+        return n;
+    }
+
+    /**
+     * @return The number of letters.
+     */
+    public int getAlphabetSize() {
+        return k;
+    }
+
+    /**
+     * @param m     An element.
+     * @param state A state.
+     * @return The state m takes state to.
+     */
+    public int apply(int m, int state) {
+        return readCell((long) m * recordBytes + (long) state * cellBytes);
+    }
+
+    /**
+     * @param m An element.
+     * @param a The index of a letter.
+     * @return The element m followed by a.
+     */
+    public int rightMultiply(int m, int a) {
+        return cayley.getInt(4L * ((long) m * k + a));
+    }
+
+    /**
+     * Scan the elements for idempotents, e = ee, in increasing order.
+     *
+     * @param action Called with each idempotent.
+     */
+    public void forEachIdempotent(IntConsumer action) {
+        int[] element = new int[n];
+        for (int m = 0; m < size; m++) {
+            read(m, element);
+            boolean idempotent = true;
+            for (int s = 0; s < n && idempotent; s++) {
+                idempotent = element[element[s]] == element[s];
+            }
+            if (idempotent) {
+                action.accept(m);
+            }
+        }
+    }
+
+    /**
+     * @return The number of idempotents.
+     */
+    public int countIdempotents() {
+        int[] count = new int[1];
+        forEachIdempotent(m -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Determine the period of the monoid in the sense of Utils.isAperiodic: the powers of an element m end in a cycle
+     * whose length is the least common multiple of the lengths of the cycles of m as a transformation, and the period
+     * is the largest such length. One scan over the records finds it.
+     *
+     * @return -1 if the monoid is aperiodic, otherwise its period.
+     */
+    public int getPeriod() {
+        int[] element = new int[n];
+        int[] mark = new int[n];
+        long period = 1;
+        for (int m = 0; m < size; m++) {
+            read(m, element);
+            Arrays.fill(mark, 0);
+            long lcm = 1;
+            for (int s = 0; s < n; s++) {
+                // mark the walk from s with s + 1; meeting that mark again closes a new cycle
+                int t = s;
+                while (mark[t] == 0) {
+                    mark[t] = s + 1;
+                    t = element[t];
+                }
+                if (mark[t] == s + 1) {
+                    int length = 1;
+                    for (int u = element[t]; u != t; u = element[u]) {
+                        length++;
+                    }
+                    lcm = lcm / gcd(lcm, length) * length;
+                }
+            }
+            period = Math.max(period, lcm);
+        }
+        return period == 1 ? -1 : (int) Math.min(period, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return true if the monoid is aperiodic, i.e. the language of a minimal DFA is star free, false otherwise.
+     */
+    public boolean isAperiodic() {
+        return getPeriod() == -1;
+    }
+
+    /**
+     * @return The files of the monoid: the element records, the hash index and the Cayley edges.
+     */
+    public List<Path> getFiles() {
+        List<Path> files = new ArrayList<>();
+        files.add(elements.path);
+        files.add(index.path);
+        files.add(cayley.path);
+        return files;
+    }
+
+    /**
+     * Close the files. They are left on disk, and the monoid must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            elements.close();
+            cayley.close();
+        } finally {
+            index.close();
+        }
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long r = a % b;
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+
+    private int add(int[] transformation) throws IOException {
+        if (size == MAX_ELEMENTS) {
+            throw new BudgetExceededException("memory-mapped monoid has more than " + MAX_ELEMENTS + " elements");
+        }
+        int id = size++;
+        long offset = (long) id * recordBytes;
+        elements.ensureCapacity(offset + recordBytes);
+        for (int s = 0; s < n; s++) {
+            writeCell(offset + (long) s * cellBytes, transformation[s]);
+        }
+        cayley.ensureCapacity(4L * ((long) size * k));
+        if (2L * size > indexCapacity) {
+            rehash();
+        } else {
+            insert(id, hash(transformation));
+        }
+        return id;
+    }
+
+    /**
+     * Rebuild the index in a new file with twice the capacity, and delete the old one.
+     */
+    private void rehash() throws IOException {
+        MappedFile old = index;
+        indexCapacity *= 2;
+        index = new MappedFile(getIndexPath(), 4, segmentBytes);
+        int[] element = new int[n];
+        for (int m = 0; m < size; m++) {
+            read(m, element);
+            insert(m, hash(element));
+        }
+        old.close();
+        Files.delete(old.path);
+    }
+
+    private Path getIndexPath() {
+        return directory.resolve("index-" + indexCapacity + ".bin");
+    }
+
+    private void insert(int m, int hash) throws IOException {
+        index.ensureCapacity(4L * indexCapacity);
+        long mask = indexCapacity - 1;
+        long slot = hash & mask;
+        while (index.getInt(4L * slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.putInt(4L * slot, m + 1);
+    }
+
+    private int find(int[] transformation) throws IOException {
+        index.ensureCapacity(4L * indexCapacity);
+        long mask = indexCapacity - 1;
+        long slot = hash(transformation) & mask;
+        int value;
+        while ((value = index.getInt(4L * slot)) != 0) {
+            int m = value - 1;
+            long offset = (long) m * recordBytes;
+            boolean equal = true;
+            for (int s = 0; s < n && equal; s++) {
+                equal = readCell(offset + (long) s * cellBytes) == transformation[s];
+            }
+            if (equal) {
+                return m;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void read(int m, int[] element) {
+        long offset = (long) m * recordBytes;
+        for (int s = 0; s < n; s++) {
+            element[s] = readCell(offset + (long) s * cellBytes);
+        }
+    }
+
+    private int readCell(long position) {
+        switch (cellBytes) {
+            case 1:
+                return elements.getByte(position) & 0xff;
+            case 2:
+                return elements.getShort(position) & 0xffff;
+            default:
+                return elements.getInt(position);
+        }
+    }
+
+    private void writeCell(long position, int value) {
+        switch (cellBytes) {
+            case 1:
+                elements.putByte(position, (byte) value);
+                break;
+            case 2:
+                elements.putShort(position, (short) value);
+                break;
+            default:
+                elements.putInt(position, value);
+        }
+    }
+
+    private int hash(int[] transformation) {
+        int h = 1;
+        for (int s = 0; s < n; s++) {
+            h = 31 * h + transformation[s];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * A file mapped in segments of a fixed size. The last segment grows by doubling, and then a new segment is
+     * started. A value never straddles two segments, since every segment size is a multiple of the record size.
+     */
+    private static final class MappedFile {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final int unit;
+        private final int segmentBytes;
+        private final List<MappedByteBuffer> segments = new ArrayList<>();
+        private long capacity;
+
+        MappedFile(Path path, int unit, int segmentBytes) throws IOException {
+            this.path = path;
+            this.unit = unit;
+            this.segmentBytes = Math.max(unit, segmentBytes / unit * unit);
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void ensureCapacity(long bytes) throws IOException {
+            while (capacity < bytes) {
+                int last = segments.size() - 1;
+                long start = (long) last * segmentBytes;
+                if (last >= 0 && capacity - start < segmentBytes) {
+                    long size = Math.min(segmentBytes, Math.max(2 * (capacity - start), bytes - start));
+                    size = (size + unit - 1) / unit * unit;
+                    segments.set(last, channel.map(FileChannel.MapMode.READ_WRITE, start, size));
+                    capacity = start + size;
+                } else {
+                    start = capacity;
+                    long size = Math.min(segmentBytes, Math.max(64L * unit, bytes - start));
+                    size = (size + unit - 1) / unit * unit;
+                    segments.add(channel.map(FileChannel.MapMode.READ_WRITE, start, size));
+                    capacity = start + size;
+                }
+            }
+        }
+
+        byte getByte(long position) {
+            return segments.get((int) (position / segmentBytes)).get((int) (position % segmentBytes));
+        }
+
+        short getShort(long position) {
+            return segments.get((int) (position / segmentBytes)).getShort((int) (position % segmentBytes));
+        }
+
+        int getInt(long position) {
+            return segments.get((int) (position / segmentBytes)).getInt((int) (position % segmentBytes));
+        }
+
+        void putByte(long position, byte value) {
+            segments.get((int) (position / segmentBytes)).put((int) (position % segmentBytes), value);
+        }
+
+        void putShort(long position, short value) {
+            segments.get((int) (position / segmentBytes)).putShort((int) (position % segmentBytes), value);
+        }
+
+        void putInt(long position, int value) {
+            segments.get((int) (position / segmentBytes)).putInt((int) (position % segmentBytes), value);
+        }
+
+        void close() throws IOException {
+            segments.clear();
+            channel.close();
+        }
+    }
+}
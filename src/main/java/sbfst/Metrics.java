@@ -0,0 +1,110 @@
+package sbfst;
+
+import java.util.*;
+
+/**
+ * Instrumentation that keeps everything in memory: total time per phase, counters and (optionally) a bounded list of
+ * trace events. A Metrics instance belongs to one classification at a time and is not thread-safe.
+ *
+ * @author Elliot Tuck
+ */
+public class Metrics implements Instrumentation {
+
+    /**
+     * The number of trace events kept when tracing is enabled; later events are dropped.
+     */
+    public static final int MAX_TRACE_EVENTS = 10000;
+
+    private final boolean tracing;
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private final long[] counters = new long[Counter.values().length];
+    private final List<String> traceEvents = new ArrayList<>();
+    private long droppedTraceEvents;
+
+    /**
+     * Create metrics that collect phase timings and counters but no trace events.
+     */
+    public Metrics() {
+        this(false);
+    }
+
+    /**
+     * @param tracing Whether to also collect trace events.
+     */
+    public Metrics(boolean tracing) {
+        this.tracing = tracing;
+    }
+
+    @Override
+    public Phase startPhase(final String name) {
+        final long start = System.nanoTime();
+        return () -> {
+            long elapsed = System.nanoTime() - start;
+            Long total = phaseNanos.get(name);
+            phaseNanos.put(name, total == null ? elapsed : total + elapsed);
+        };
+    }
+
+    @Override
+    public void count(Counter counter, long amount) {
+        counters[counter.ordinal()] += amount;
+    }
+
+    @Override
+    public boolean isTracing() {
+        return tracing;
+    }
+
+    @Override
+    public void trace(String event, String detail) {
+        if (!tracing) {
+            return;
+        }
+        if (traceEvents.size() < MAX_TRACE_EVENTS) {
+            traceEvents.add(event + ": " + detail);
+        } else {
+            droppedTraceEvents++;
+        }
+    }
+
+    /**
+     * @param counter A counter.
+     * @return The current value of counter.
+     */
+    public long get(Counter counter) {
+        return counters[counter.ordinal()];
+    }
+
+    /**
+     * @return The total time spent in each phase in nanoseconds, in the order the phases first started.
+     */
+    public Map<String, Long> getPhaseNanos() {
+        return Collections.unmodifiableMap(phaseNanos);
+    }
+
+    /**
+     * @return The recorded trace events, oldest first.
+     */
+    public List<String> getTraceEvents() {
+        return Collections.unmodifiableList(traceEvents);
+    }
+
+    /**
+     * @return The number of trace events dropped after MAX_TRACE_EVENTS was reached.
+     */
+    public long getDroppedTraceEvents() {
+        return droppedTraceEvents;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            sb.append(phase.getKey()).append(": ").append(phase.getValue() / 1000000.0).append(" ms\n");
+        }
+        for (Counter counter : Counter.values()) {
+            sb.append(counter).append(": ").append(get(counter)).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package sbfst;
+
+import java.util.BitSet;
+
+/**
+ * Reachability between the pairs of states of a DFA, i.e. the states of Γ². Swapping the two coordinates of every
+ * pair is an automorphism of Γ², so (p,q) reaches (r,s) exactly when (q,p) reaches (s,r). Only the pairs with p <= q
+ * are therefore searched from, one forward BFS each over the implicit product graph, and a query from (p,q) with
+ * p > q is answered by swapping both pairs. Every pair reaches itself.
+ *
+ * @author Elliot Tuck
+ */
+public final class PairReachability {
+
+    private final int n;
+    private final BitSet[] rows;
+
+    private PairReachability(int n, BitSet[] rows) {
+        this.n = n;
+        this.rows = rows;
+    }
+
+    /**
+     * @param dfa A DFA.
+     * @return The reachability relation of the pairs of states of dfa.
+     */
+    public static PairReachability of(CompactDfa dfa) {
+        return of(dfa, Budget.UNLIMITED);
+    }
+
+    /**
+     * @param dfa    A DFA.
+     * @param budget Polled once per searched pair.
+     * @return The reachability relation of the pairs of states of dfa.
+     * @throws BudgetExceededException if the budget runs out.
+     */
+    public static PairReachability of(CompactDfa dfa, Budget budget) {
+        int n = dfa.getStateCount();
+        IntGraph gamma2 = IntGraph.product(dfa, 2);
+        BitSet[] rows = new BitSet[n * (n + 1) / 2];
+        int[] queue = new int[gamma2.getStateCount()];
+        for (int q = 0; q < n; q++) {
+            for (int p = 0; p <= q; p++) {
+                budget.poll();
+                rows[q * (q + 1) / 2 + p] = search(gamma2, p * n + q, queue);
+            }
+        }
+        return new PairReachability(n, rows);
+    }
+
+    private static BitSet search(IntGraph graph, int source, int[] queue) {
+        BitSet reached = new BitSet(graph.getStateCount());
+        reached.set(source);
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int state = queue[head++];
+            for (int arc = 0; arc < graph.getArcCount(state); arc++) {
+                int target = graph.getTarget(state, arc);
+                if (target != IntGraph.NO_ARC && !reached.get(target)) {
+                    reached.set(target);
+                    queue[tail++] = target;
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * @param p The first state of the source pair.
+     * @param q The second state of the source pair.
+     * @param r The first state of the target pair.
+     * @param s The second state of the target pair.
+     * @return true if (r,s) is reachable from (p,q) in Γ², false otherwise.
+     */
+    public boolean reaches(int p, int q, int r, int s) {
+        if (p > q) {
+            return rows[p * (p + 1) / 2 + q].get(s * n + r);
+        }
+        return rows[q * (q + 1) / 2 + p].get(r * n + s);
+    }
+}
@@ -0,0 +1,84 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.Fst;
+import com.github.steveash.jopenfst.State;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answers "which states can reach this set of states" for every state at once. Each query is one backward BFS from
+ * the whole target set over a ReverseAdjacency, and its answer is cached per target set, so asking about the same
+ * SCC or the same set of asterisk states again is free. Every state of the target set counts as reaching it. The
+ * oracle reflects the graph at construction time and is not thread-safe.
+ *
+ * @author Elliot Tuck
+ */
+public final class ReachabilityOracle {
+
+    private final ReverseAdjacency reverse;
+    private final Map<BitSet, BitSet> cache = new HashMap<>();
+
+    /**
+     * @param fst The graph to answer queries about, which is not modified.
+     */
+    public ReachabilityOracle(Fst fst) {
+        this(ReverseAdjacency.of(fst));
+    }
+
+    /**
+     * @param reverse The reverse adjacency of the graph to answer queries about.
+     */
+    public ReachabilityOracle(ReverseAdjacency reverse) {
+        this.reverse = reverse;
+    }
+
+    /**
+     * @param targets A set of states.
+     * @return The ids of the states from which some state of targets is reachable.
+     */
+    public BitSet canReach(Collection<? extends State> targets) {
+        BitSet targetIds = new BitSet(reverse.getStateCount());
+        for (State target : targets) {
+            targetIds.set(target.getId());
+        }
+        return canReach(targetIds);
+    }
+
+    /**
+     * @param targets The ids of a set of states. The bitset is not modified or kept.
+     * @return The ids of the states from which some state of targets is reachable. The result is shared with later
+     * queries for the same set, so callers must not modify it.
+     */
+    public BitSet canReach(BitSet targets) {
+        BitSet result = cache.get(targets);
+        if (result == null) {
+            result = search(targets);
+            cache.put((BitSet) targets.clone(), result);
+        }
+        return result;
+    }
+
+    private BitSet search(BitSet targets) {
+        BitSet reached = (BitSet) targets.clone();
+        int[] queue = new int[reverse.getStateCount()];
+        int head = 0;
+        int tail = 0;
+        for (int t = targets.nextSetBit(0); t >= 0; t = targets.nextSetBit(t + 1)) {
+            queue[tail++] = t;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int arc = reverse.getFirstArc(state); arc < reverse.getEndArc(state); arc++) {
+                int source = reverse.getSource(arc);
+                if (!reached.get(source)) {
+                    reached.set(source);
+                    queue[tail++] = source;
+                }
+            }
+        }
+        return reached;
+    }
+}
@@ -0,0 +1,140 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.Arc;
+import com.github.steveash.jopenfst.Fst;
+import com.github.steveash.jopenfst.State;
+
+/**
+ * The incoming arcs of every state of an automaton in compressed sparse row form. The arcs into state t are the
+ * indices getFirstArc(t) (inclusive) to getEndArc(t) (exclusive), and arc i comes from state getSource(i) and is
+ * labeled getLabel(i). Building it takes one counting pass and one filling pass over the arcs, and it uses three int
+ * arrays instead of the full reversed copy made by Reverse2.reverse, so graph algorithms should walk arcs backwards
+ * with it instead.
+ *
+ * @author Elliot Tuck
+ */
+public final class ReverseAdjacency {
+
+    private final int[] offsets;
+    private final int[] sources;
+    private final int[] labels;
+
+    private ReverseAdjacency(int[] offsets, int[] sources, int[] labels) {
+        this.offsets = offsets;
+        this.sources = sources;
+        this.labels = labels;
+    }
+
+    /**
+     * Build the reverse adjacency of an FST. Arc labels are the FST's input label ids. The FST is not modified, and
+     * later modifications of the FST are not reflected in the result.
+     *
+     * @param fst The FST.
+     * @return The reverse adjacency of fst.
+     */
+    public static ReverseAdjacency of(Fst fst) {
+        int n = fst.getStateCount();
+        int[] offsets = new int[n + 1];
+        for (int s = 0; s < n; s++) {
+            State state = fst.getState(s);
+            for (int i = 0; i < state.getArcCount(); i++) {
+                offsets[state.getArc(i).getNextState().getId() + 1]++;
+            }
+        }
+        for (int t = 0; t < n; t++) {
+            offsets[t + 1] += offsets[t];
+        }
+        int[] next = new int[n];
+        System.arraycopy(offsets, 0, next, 0, n);
+        int[] sources = new int[offsets[n]];
+        int[] labels = new int[offsets[n]];
+        for (int s = 0; s < n; s++) {
+            State state = fst.getState(s);
+            for (int i = 0; i < state.getArcCount(); i++) {
+                Arc arc = state.getArc(i);
+                int position = next[arc.getNextState().getId()]++;
+                sources[position] = s;
+                labels[position] = arc.getIlabel();
+            }
+        }
+        return new ReverseAdjacency(offsets, sources, labels);
+    }
+
+    /**
+     * Build the reverse adjacency of a compact DFA. Arc labels are symbol indices of the DFA. Missing transitions have
+     * no arc.
+     *
+     * @param dfa The DFA.
+     * @return The reverse adjacency of dfa.
+     */
+    static ReverseAdjacency of(CompactDfa dfa) {
+        int n = dfa.getStateCount();
+        int[] offsets = new int[n + 1];
+        for (int s = 0; s < n; s++) {
+            for (int i = 0; i < dfa.getArcCount(s); i++) {
+                int t = dfa.getArcTarget(s, i);
+                if (t != CompactDfa.NONE) {
+                    offsets[t + 1]++;
+                }
+            }
+        }
+        for (int t = 0; t < n; t++) {
+            offsets[t + 1] += offsets[t];
+        }
+        int[] next = new int[n];
+        System.arraycopy(offsets, 0, next, 0, n);
+        int[] sources = new int[offsets[n]];
+        int[] labels = new int[offsets[n]];
+        for (int s = 0; s < n; s++) {
+            for (int i = 0; i < dfa.getArcCount(s); i++) {
+                int t = dfa.getArcTarget(s, i);
+                if (t != CompactDfa.NONE) {
+                    int position = next[t]++;
+                    sources[position] = s;
+                    labels[position] = dfa.getArcLabel(s, i);
+                }
+            }
+        }
+        return new ReverseAdjacency(offsets, sources, labels);
+    }
+
+    public int getStateCount() {
+        return offsets.length - 1;
+    }
+
+    public int getArcCount() {
+        return sources.length;
+    }
+
+    /**
+     * @param state A state.
+     * @return The index of the first arc into state.
+     */
+    public int getFirstArc(int state) {
+        return offsets[state];
+    }
+
+    /**
+     * @param state A state.
+     * @return One past the index of the last arc into state.
+     */
+    public int getEndArc(int state) {
+        return offsets[state + 1];
+    }
+
+    /**
+     * @param arc The index of an arc.
+     * @return The state the arc comes from.
+     */
+    public int getSource(int arc) {
+        return sources[arc];
+    }
+
+    /**
+     * @param arc The index of an arc.
+     * @return The label of the arc.
+     */
+    public int getLabel(int arc) {
+        return labels[arc];
+    }
+}
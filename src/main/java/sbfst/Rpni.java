@@ -0,0 +1,491 @@
+package sbfst;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Learns a DFA from labeled strings with RPNI (Oncina and Garcia 1992), e.g. to recover an automaton from a data set
+ * and classify it. Every character of a string is one symbol, as in BatchAcceptor, and the learned DFA is consistent
+ * with every sample: it accepts the accepted strings and rejects the rejected ones. Its language is the one RPNI
+ * identifies in the limit, so a sample that contains a characteristic sample of a target language gives back the
+ * minimal DFA of that language.
+ *
+ * The samples are stored in a prefix tree acceptor kept in primitive arrays: while strings are added, the child of
+ * node p on character c is found in an open-addressing table keyed by p and c, and learning first lays the tree out
+ * as sorted rows in breadth-first order, which is the length-lexicographic order RPNI visits states in. The red-blue
+ * merging then works on a union-find over the nodes (union by size, without path compression, so that every change
+ * can be undone): merging a blue class into a red one folds their subtrees together, recording every union, label
+ * and gained transition in an undo log, and a merge that would give one class both labels is rolled back from the log.
+ *
+ * @author Elliot Tuck
+ */
+public final class Rpni {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte ACCEPTED = 1;
+    private static final byte REJECTED = 2;
+
+    private static final long EMPTY = -1;
+
+    private int nodeCount = 1;
+    private byte[] labels = new byte[16];
+    // the child of node p on character c is edgeTargets[i] where edgeKeys[i] == p << 16 | c
+    private long[] edgeKeys = newKeys(32);
+    private int[] edgeTargets = new int[32];
+    private final BitSet alphabet = new BitSet();
+    private long sampleCount;
+
+    /**
+     * Add a labeled string to the samples.
+     *
+     * @param word     A string.
+     * @param accepted true if the string belongs to the language, false if it does not.
+     * @throws IllegalArgumentException if the string was added before with the other label.
+     */
+    public void add(CharSequence word, boolean accepted) {
+        int p = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            alphabet.set(c);
+            p = getOrAddChild(p, c);
+        }
+        byte label = accepted ? ACCEPTED : REJECTED;
+        if (labels[p] != UNKNOWN && labels[p] != label) {
+            throw new IllegalArgumentException("The string \"" + word + "\" is labeled both TRUE and FALSE");
+        }
+        labels[p] = label;
+        sampleCount++;
+    }
+
+    /**
+     * Add every line of a file in the format data-gen.py writes, i.e. a string, a tab and TRUE or FALSE.
+     *
+     * @param labeled The file to read.
+     * @return The number of strings added.
+     * @throws IOException if reading fails.
+     */
+    public long addLabeledLines(Path labeled) throws IOException {
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(labeled, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                add(line.substring(0, tab), line.substring(tab + 1).trim().equals("TRUE"));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of strings added so far, counting repeats.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return The number of nodes of the prefix tree acceptor, i.e. the number of distinct prefixes of the samples.
+     */
+    public int getPrefixCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Learn a DFA from the samples added so far.
+     *
+     * @return The learned DFA, which may be partial; new Classifier(dfa) minimizes and classifies it.
+     */
+    public CompactDfa learn() {
+        return learn(Budget.UNLIMITED);
+    }
+
+    /**
+     * Learn a DFA from the samples added so far, within a budget.
+     *
+     * @param budget Limits the time of the state merging.
+     * @return The learned DFA, which may be partial; new Classifier(dfa) minimizes and classifies it.
+     * @throws BudgetExceededException if the budget runs out before learning is done.
+     */
+    public CompactDfa learn(Budget budget) {
+        String[] symbols = new String[alphabet.cardinality()];
+        int[] symbolOf = new int[alphabet.length()];
+        for (int c = alphabet.nextSetBit(0), a = 0; c >= 0; c = alphabet.nextSetBit(c + 1), a++) {
+            symbols[a] = String.valueOf((char) c);
+            symbolOf[c] = a;
+        }
+        Folding folding = new Folding(this, symbolOf);
+
+        // red-blue state merging: merge the least blue class into the first red class that takes it, or promote it
+        int[] red = new int[16];
+        int redCount = 1;
+        int[] mark = new int[nodeCount];
+        int stamp = 0;
+        while (true) {
+            budget.poll();
+            stamp++;
+            for (int i = 0; i < redCount; i++) {
+                mark[folding.find(red[i])] = stamp;
+            }
+            int blue = CompactDfa.NONE;
+            for (int i = 0; i < redCount; i++) {
+                int x = folding.find(red[i]);
+                for (int arc = folding.first[x]; arc < folding.first[x + 1]; arc++) {
+                    blue = folding.lesser(blue, folding.find(folding.targets[arc]), mark, stamp);
+                }
+                for (int e = folding.extraHead[x]; e != CompactDfa.NONE; e = folding.extraNext[e]) {
+                    blue = folding.lesser(blue, folding.find(folding.extraTarget[e]), mark, stamp);
+                }
+            }
+            if (blue == CompactDfa.NONE) {
+                break;
+            }
+            boolean merged = false;
+            for (int i = 0; i < redCount && !merged; i++) {
+                merged = folding.merge(folding.find(red[i]), blue);
+            }
+            if (!merged) {
+                if (redCount == red.length) {
+                    red = Arrays.copyOf(red, 2 * redCount);
+                }
+                red[redCount++] = blue;
+            } else {
+                // the fold may have merged red classes with each other, which leaves one of them
+                stamp++;
+                int distinct = 0;
+                for (int i = 0; i < redCount; i++) {
+                    int x = folding.find(red[i]);
+                    if (mark[x] != stamp) {
+                        mark[x] = stamp;
+                        red[distinct++] = red[i];
+                    }
+                }
+                redCount = distinct;
+            }
+        }
+
+        // the red classes are the states; unlabeled ones are not final
+        int[] state = mark;
+        int arcCount = 0;
+        boolean[] finals = new boolean[redCount];
+        for (int i = 0; i < redCount; i++) {
+            int x = folding.find(red[i]);
+            state[x] = i;
+            finals[i] = folding.labels[x] == ACCEPTED;
+            arcCount += folding.first[x + 1] - folding.first[x];
+            for (int e = folding.extraHead[x]; e != CompactDfa.NONE; e = folding.extraNext[e]) {
+                arcCount++;
+            }
+        }
+        int[] arcSources = new int[arcCount];
+        int[] arcLabels = new int[arcCount];
+        int[] arcTargets = new int[arcCount];
+        int arc = 0;
+        for (int i = 0; i < redCount; i++) {
+            int x = folding.find(red[i]);
+            for (int j = folding.first[x]; j < folding.first[x + 1]; j++, arc++) {
+                arcSources[arc] = i;
+                arcLabels[arc] = folding.symbols[j];
+                arcTargets[arc] = state[folding.find(folding.targets[j])];
+            }
+            for (int e = folding.extraHead[x]; e != CompactDfa.NONE; e = folding.extraNext[e], arc++) {
+                arcSources[arc] = i;
+                arcLabels[arc] = folding.extraSymbol[e];
+                arcTargets[arc] = state[folding.find(folding.extraTarget[e])];
+            }
+        }
+        return CompactDfa.ofArcs(redCount, state[folding.find(0)], symbols, finals, arcSources, arcLabels,
+                arcTargets, arcCount, null);
+    }
+
+    private int getOrAddChild(int p, char c) {
+        long key = (long) p << 16 | c;
+        int mask = edgeKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (edgeKeys[slot] != EMPTY) {
+            if (edgeKeys[slot] == key) {
+                return edgeTargets[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int child = nodeCount++;
+        if (child == labels.length) {
+            labels = Arrays.copyOf(labels, 2 * child);
+        }
+        edgeKeys[slot] = key;
+        edgeTargets[slot] = child;
+        // there is one edge per node apart from the root, so the table stays at most half full
+        if (2 * nodeCount > edgeKeys.length) {
+            long[] oldKeys = edgeKeys;
+            int[] oldTargets = edgeTargets;
+            edgeKeys = newKeys(2 * oldKeys.length);
+            edgeTargets = new int[2 * oldTargets.length];
+            mask = edgeKeys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    slot = hash(oldKeys[i]) & mask;
+                    while (edgeKeys[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    edgeKeys[slot] = oldKeys[i];
+                    edgeTargets[slot] = oldTargets[i];
+                }
+            }
+        }
+        return child;
+    }
+
+    private static long[] newKeys(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * The prefix tree acceptor laid out for merging, with the union-find and undo log of the red-blue merges.
+     */
+    private static final class Folding {
+
+        private static final int UNION = 0;
+        private static final int LABEL = 1;
+        private static final int EXTRA = 2;
+
+        // the children of node p, in breadth-first order, are targets[first[p]..first[p+1]-1], sorted by symbols
+        final int[] first;
+        final int[] symbols;
+        final int[] targets;
+        final byte[] labels;
+
+        final int[] parent;
+        final int[] size;
+        // the least node of each class, which orders the blue classes
+        final int[] least;
+
+        // transitions a class gained from the classes merged into it, in a list per node, newest first
+        final int[] extraHead;
+        int[] extraSymbol = new int[16];
+        int[] extraTarget = new int[16];
+        int[] extraNext = new int[16];
+        int extraCount;
+
+        // the undo log holds (type, node, old value) triples
+        int[] log = new int[48];
+        int logSize;
+        int[] pending = new int[32];
+
+        Folding(Rpni pta, int[] symbolOf) {
+            int n = pta.nodeCount;
+            int edges = n - 1;
+
+            // bucket the edges by parent and sort each row by symbol
+            int[] rowStart = new int[n + 1];
+            for (long key : pta.edgeKeys) {
+                if (key != EMPTY) {
+                    rowStart[(int) (key >>> 16) + 1]++;
+                }
+            }
+            for (int p = 0; p < n; p++) {
+                rowStart[p + 1] += rowStart[p];
+            }
+            int[] fill = Arrays.copyOf(rowStart, n);
+            long[] row = new long[edges];
+            for (int i = 0; i < pta.edgeKeys.length; i++) {
+                long key = pta.edgeKeys[i];
+                if (key != EMPTY) {
+                    row[fill[(int) (key >>> 16)]++] = (long) symbolOf[(int) (key & 0xffff)] << 32 | pta.edgeTargets[i];
+                }
+            }
+            for (int p = 0; p < n; p++) {
+                Arrays.sort(row, rowStart[p], rowStart[p + 1]);
+            }
+
+            // renumber the nodes in breadth-first order, following the children in symbol order
+            int[] order = new int[n];
+            int[] newId = new int[n];
+            int tail = 1;
+            for (int head = 0; head < tail; head++) {
+                int p = order[head];
+                for (int i = rowStart[p]; i < rowStart[p + 1]; i++) {
+                    int child = (int) row[i];
+                    newId[child] = tail;
+                    order[tail++] = child;
+                }
+            }
+            this.first = new int[n + 1];
+            this.symbols = new int[edges];
+            this.targets = new int[edges];
+            this.labels = new byte[n];
+            int arc = 0;
+            for (int x = 0; x < n; x++) {
+                int p = order[x];
+                first[x] = arc;
+                labels[x] = pta.labels[p];
+                for (int i = rowStart[p]; i < rowStart[p + 1]; i++, arc++) {
+                    symbols[arc] = (int) (row[i] >>> 32);
+                    targets[arc] = newId[(int) row[i]];
+                }
+            }
+            first[n] = arc;
+
+            this.parent = new int[n];
+            this.size = new int[n];
+            this.least = new int[n];
+            this.extraHead = new int[n];
+            for (int x = 0; x < n; x++) {
+                parent[x] = x;
+                size[x] = 1;
+                least[x] = x;
+            }
+            Arrays.fill(extraHead, CompactDfa.NONE);
+        }
+
+        int find(int x) {
+            while (parent[x] != x) {
+                x = parent[x];
+            }
+            return x;
+        }
+
+        /**
+         * @return Whichever of the blue candidates blue and x comes first, where x is skipped if it is red.
+         */
+        int lesser(int blue, int x, int[] mark, int stamp) {
+            if (mark[x] == stamp) {
+                return blue;
+            }
+            return blue == CompactDfa.NONE || least[x] < least[blue] ? x : blue;
+        }
+
+        /**
+         * @return The node that class x goes to on symbol a, or NONE.
+         */
+        int child(int x, int a) {
+            int arc = Arrays.binarySearch(symbols, first[x], first[x + 1], a);
+            if (arc >= 0) {
+                return targets[arc];
+            }
+            for (int e = extraHead[x]; e != CompactDfa.NONE; e = extraNext[e]) {
+                if (extraSymbol[e] == a) {
+                    return extraTarget[e];
+                }
+            }
+            return CompactDfa.NONE;
+        }
+
+        /**
+         * Merge two classes and fold their subtrees together, or leave everything as it was if that gives a class
+         * both labels.
+         *
+         * @return true if the classes were merged, false otherwise.
+         */
+        boolean merge(int p, int q) {
+            logSize = 0;
+            int pendingSize = 0;
+            pending[pendingSize++] = p;
+            pending[pendingSize++] = q;
+            while (pendingSize > 0) {
+                int x = find(pending[--pendingSize]);
+                int y = find(pending[--pendingSize]);
+                if (x == y) {
+                    continue;
+                }
+                if (labels[x] != UNKNOWN && labels[y] != UNKNOWN && labels[x] != labels[y]) {
+                    rollback();
+                    return false;
+                }
+                if (size[x] < size[y]) {
+                    int swap = x;
+                    x = y;
+                    y = swap;
+                }
+                // y joins x
+                log(UNION, y, least[x]);
+                parent[y] = x;
+                size[x] += size[y];
+                least[x] = Math.min(least[x], least[y]);
+                if (labels[x] == UNKNOWN && labels[y] != UNKNOWN) {
+                    log(LABEL, x, UNKNOWN);
+                    labels[x] = labels[y];
+                }
+                for (int arc = first[y]; arc < first[y + 1]; arc++) {
+                    pendingSize = fold(x, symbols[arc], targets[arc], pendingSize);
+                }
+                for (int e = extraHead[y]; e != CompactDfa.NONE; e = extraNext[e]) {
+                    pendingSize = fold(x, extraSymbol[e], extraTarget[e], pendingSize);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Give class x the transition on a to node t, queueing a merge if it already has one.
+         *
+         * @return The new number of pending nodes.
+         */
+        private int fold(int x, int a, int t, int pendingSize) {
+            int d = child(x, a);
+            if (d == CompactDfa.NONE) {
+                if (extraCount == extraNext.length) {
+                    extraSymbol = Arrays.copyOf(extraSymbol, 2 * extraCount);
+                    extraTarget = Arrays.copyOf(extraTarget, 2 * extraCount);
+                    extraNext = Arrays.copyOf(extraNext, 2 * extraCount);
+                }
+                log(EXTRA, x, 0);
+                extraSymbol[extraCount] = a;
+                extraTarget[extraCount] = t;
+                extraNext[extraCount] = extraHead[x];
+                extraHead[x] = extraCount++;
+                return pendingSize;
+            }
+            if (pendingSize + 2 > pending.length) {
+                pending = Arrays.copyOf(pending, 2 * pending.length);
+            }
+            pending[pendingSize++] = t;
+            pending[pendingSize++] = d;
+            return pendingSize;
+        }
+
+        private void log(int type, int node, int oldValue) {
+            if (logSize + 3 > log.length) {
+                log = Arrays.copyOf(log, 2 * log.length);
+            }
+            log[logSize++] = type;
+            log[logSize++] = node;
+            log[logSize++] = oldValue;
+        }
+
+        /**
+         * Undo the changes of the current merge, newest first.
+         */
+        private void rollback() {
+            while (logSize > 0) {
+                int oldValue = log[--logSize];
+                int node = log[--logSize];
+                int type = log[--logSize];
+                if (type == UNION) {
+                    int x = parent[node];
+                    size[x] -= size[node];
+                    least[x] = oldValue;
+                    parent[node] = node;
+                } else if (type == LABEL) {
+                    labels[node] = (byte) oldValue;
+                } else {
+                    extraHead[node] = extraNext[--extraCount];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.Fst;
+
+/**
+ * A running stage of a classification, recorded as a StageEvent when JDK Flight Recorder is recording. When JFR is
+ * missing from the runtime or the sbfst.Stage event is disabled, begin() returns a shared stage whose methods do
+ * nothing, so stages can be left in hot code. Meant to be used with try-with-resources, or closed just before the
+ * instrumented method returns.
+ *
+ * @author Elliot Tuck
+ */
+class Stage implements AutoCloseable {
+
+    static final String IMPORT = "import";
+    static final String MINIMIZE = "minimize";
+    static final String SCC = "scc";
+    static final String REACHABILITY = "reachability";
+    static final String PRODUCT = "product";
+    static final String MONOID = "monoid";
+
+    private static final Stage NONE = new Stage();
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    Stage() {
+    }
+
+    /**
+     * @param name The name of the stage.
+     * @return The running stage.
+     */
+    static Stage begin(String name) {
+        return JFR_AVAILABLE ? JfrStage.begin(name, NONE) : NONE;
+    }
+
+    /**
+     * @param name The name of the stage.
+     * @param dfa  The automaton the stage works on.
+     * @return The running stage.
+     */
+    static Stage begin(String name, Fst dfa) {
+        Stage stage = begin(name);
+        if (stage != NONE) {
+            stage.setDfaSize(dfa.getStateCount(), alphabetSize(dfa));
+        }
+        return stage;
+    }
+
+    /**
+     * Begin a language class check, recorded as a ClassCheckEvent instead of a StageEvent.
+     *
+     * @param languageClass The language class tested for.
+     * @param dfa           The minimal DFA under test.
+     * @return The running check, which takes its verdict through setResult().
+     */
+    static Stage beginCheck(LanguageClass languageClass, CompactDfa dfa) {
+        return JFR_AVAILABLE ? JfrCheck.begin(languageClass, dfa, NONE) : NONE;
+    }
+
+    private static int alphabetSize(Fst fst) {
+        int size = fst.getInputSymbolCount();
+        return fst.getInputSymbols().contains(Fst.EPS) ? size - 1 : size;
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param states       The number of states of the automaton the stage works on.
+     * @param alphabetSize The size of its alphabet, not counting epsilon.
+     * @return This stage.
+     */
+    Stage setDfaSize(int states, int alphabetSize) {
+        return this;
+    }
+
+    /**
+     * @param states The number of states of the product graph built or used by the stage.
+     * @return This stage.
+     */
+    Stage setProductStates(long states) {
+        return this;
+    }
+
+    /**
+     * @param elements The number of elements of the syntactic monoid built or used by the stage.
+     * @return This stage.
+     */
+    Stage setMonoidSize(long elements) {
+        return this;
+    }
+
+    /**
+     * @param verdict The verdict of a language class check.
+     * @param metrics The metrics collected by the check.
+     * @return This stage.
+     */
+    Stage setResult(Verdict verdict, Metrics metrics) {
+        return this;
+    }
+
+    /**
+     * End the stage.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * A stage backed by a StageEvent. Only loaded when JFR is available.
+     */
+    private static final class JfrStage extends Stage {
+
+        private final StageEvent event;
+
+        private JfrStage(StageEvent event) {
+            this.event = event;
+        }
+
+        static Stage begin(String name, Stage disabled) {
+            StageEvent event = new StageEvent();
+            if (!event.isEnabled()) {
+                return disabled;
+            }
+            event.stage = name;
+            event.begin();
+            return new JfrStage(event);
+        }
+
+        @Override
+        Stage setDfaSize(int states, int alphabetSize) {
+            event.dfaStates = states;
+            event.alphabetSize = alphabetSize;
+            return this;
+        }
+
+        @Override
+        Stage setProductStates(long states) {
+            event.productStates = states;
+            return this;
+        }
+
+        @Override
+        Stage setMonoidSize(long elements) {
+            event.monoidSize = elements;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            event.end();
+            if (event.shouldCommit()) {
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * A language class check backed by a ClassCheckEvent. Only loaded when JFR is available.
+     */
+    private static final class JfrCheck extends Stage {
+
+        private final ClassCheckEvent event;
+
+        private JfrCheck(ClassCheckEvent event) {
+            this.event = event;
+        }
+
+        static Stage begin(LanguageClass languageClass, CompactDfa dfa, Stage disabled) {
+            ClassCheckEvent event = new ClassCheckEvent();
+            if (!event.isEnabled()) {
+                return disabled;
+            }
+            event.languageClass = languageClass.name();
+            event.dfaStates = dfa.getStateCount();
+            event.alphabetSize = dfa.getAlphabetSize();
+            event.begin();
+            return new JfrCheck(event);
+        }
+
+        @Override
+        Stage setResult(Verdict verdict, Metrics metrics) {
+            event.verdict = verdict.name();
+            event.tuplesExamined = metrics.get(Instrumentation.Counter.TUPLES_EXAMINED);
+            event.tuplesPruned = metrics.get(Instrumentation.Counter.TUPLES_PRUNED_BY_REACHABILITY)
+                    + metrics.get(Instrumentation.Counter.TUPLES_PRUNED_BY_SCC_NODES)
+                    + metrics.get(Instrumentation.Counter.TUPLES_PRUNED_BY_PRODUCT_REACHABILITY);
+            event.tsccComputations = metrics.get(Instrumentation.Counter.TSCC_COMPUTATIONS);
+            event.tsccCacheHits = metrics.get(Instrumentation.Counter.TSCC_CACHE_HITS);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            event.end();
+            if (event.shouldCommit()) {
+                event.commit();
+            }
+        }
+    }
+}
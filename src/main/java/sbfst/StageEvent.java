@@ -0,0 +1,33 @@
+package sbfst;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event for one stage of a classification: importing or minimizing a DFA, finding SCCs,
+ * computing reachability, building a product graph or syntactic monoid, or checking a language class. Size fields that
+ * do not apply to a stage are left at 0.
+ *
+ * @author Elliot Tuck
+ */
+@Name("sbfst.Stage")
+@Label("Classification Stage")
+@Category("SBFST")
+@Description("One stage of classifying a DFA, with the sizes of the structures it worked on")
+@StackTrace(false)
+final class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("DFA States")
+    int dfaStates;
+
+    @Label("Alphabet Size")
+    int alphabetSize;
+
+    @Label("Product Graph States")
+    long productStates;
+
+    @Label("Monoid Size")
+    long monoidSize;
+}
@@ -0,0 +1,149 @@
+package sbfst;
+
+/**
+ * The direct product of a DFA with itself (Γ² or Γ³) up to permutations of the coordinates. Permuting the coordinates
+ * of every tuple is an automorphism of the product graph, so all the tuples of an orbit, e.g. (p,q) and (q,p), behave
+ * alike: a tuple lies on a cycle if and only if its orbit lies on a cycle of this quotient graph, since a cycle
+ * through an orbit lifts to a walk from a tuple to one of its permutations, and repeating that walk closes a cycle.
+ * Each orbit is represented by its sorted tuple and numbered in colexicographic order, which gives n(n+1)/2 states for
+ * two copies and n(n+1)(n+2)/6 for three instead of n² and n³.
+ *
+ * @author Elliot Tuck
+ */
+public final class SymmetricProduct implements IntGraph {
+
+    private final CompactDfa dfa;
+    private final int copies;
+    private final int orbitCount;
+    private final int[] coordinates;
+
+    private SymmetricProduct(CompactDfa dfa, int copies) {
+        if (copies != 2 && copies != 3) {
+            throw new IllegalArgumentException("Only products of 2 or 3 copies are supported, not " + copies);
+        }
+        long n = dfa.getStateCount();
+        long count = copies == 2 ? n * (n + 1) / 2 : n * (n + 1) * (n + 2) / 6;
+        if (count * copies > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The symmetric product of " + copies + " copies of a DFA with " + n
+                    + " states has too many states");
+        }
+        this.dfa = dfa;
+        this.copies = copies;
+        this.orbitCount = (int) count;
+
+        // list the sorted tuples in the order of their indices
+        this.coordinates = new int[orbitCount * copies];
+        int i = 0;
+        if (copies == 2) {
+            for (int q = 0; q < n; q++) {
+                for (int p = 0; p <= q; p++) {
+                    coordinates[i++] = p;
+                    coordinates[i++] = q;
+                }
+            }
+        } else {
+            for (int r = 0; r < n; r++) {
+                for (int q = 0; q <= r; q++) {
+                    for (int p = 0; p <= q; p++) {
+                        coordinates[i++] = p;
+                        coordinates[i++] = q;
+                        coordinates[i++] = r;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param dfa    A DFA.
+     * @param copies The number of copies of dfa in the product, 2 or 3.
+     * @return The product of copies copies of dfa, up to permutations of the coordinates.
+     */
+    public static SymmetricProduct of(CompactDfa dfa, int copies) {
+        return new SymmetricProduct(dfa, copies);
+    }
+
+    /**
+     * @return The number of copies of the DFA in the product.
+     */
+    public int getCopies() {
+        return copies;
+    }
+
+    /**
+     * @param p A state of the DFA.
+     * @param q A state of the DFA.
+     * @return The orbit of (p,q), which is also the orbit of (q,p).
+     */
+    public int indexOf(int p, int q) {
+        return p <= q ? rank(p, q) : rank(q, p);
+    }
+
+    /**
+     * @param p A state of the DFA.
+     * @param q A state of the DFA.
+     * @param r A state of the DFA.
+     * @return The orbit of (p,q,r), which is also the orbit of every permutation of it.
+     */
+    public int indexOf(int p, int q, int r) {
+        // sort the three states
+        if (p > q) {
+            int t = p;
+            p = q;
+            q = t;
+        }
+        if (q > r) {
+            int t = q;
+            q = r;
+            r = t;
+            if (p > q) {
+                t = p;
+                p = q;
+                q = t;
+            }
+        }
+        return rank(p, q, r);
+    }
+
+    /**
+     * @param orbit An orbit.
+     * @param i     A coordinate, from 0 to getCopies() - 1.
+     * @return Coordinate i of the sorted tuple that represents orbit.
+     */
+    public int getCoordinate(int orbit, int i) {
+        return coordinates[orbit * copies + i];
+    }
+
+    @Override
+    public int getStateCount() {
+        return orbitCount;
+    }
+
+    @Override
+    public int getArcCount(int state) {
+        return dfa.getAlphabetSize();
+    }
+
+    @Override
+    public int getTarget(int state, int arc) {
+        int base = state * copies;
+        int p = dfa.next(coordinates[base], arc);
+        int q = dfa.next(coordinates[base + 1], arc);
+        if (p == CompactDfa.NONE || q == CompactDfa.NONE) {
+            return NO_ARC;
+        }
+        if (copies == 2) {
+            return indexOf(p, q);
+        }
+        int r = dfa.next(coordinates[base + 2], arc);
+        return r == CompactDfa.NONE ? NO_ARC : indexOf(p, q, r);
+    }
+
+    private static int rank(int p, int q) {
+        return q * (q + 1) / 2 + p;
+    }
+
+    private static int rank(int p, int q, int r) {
+        return (int) ((long) r * (r + 1) * (r + 2) / 6) + q * (q + 1) / 2 + p;
+    }
+}
@@ -0,0 +1,310 @@
+package sbfst;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes labeled strings as NumPy arrays for the neural network, so that the Python side can np.load a data set
+ * instead of parsing and tokenizing text.
+ *
+ * Each shard of at most shardSize strings is written as three arrays of little-endian int32:
+ * tokens, of shape (rows, maxLength), holding each string one token per row and padded with 0;
+ * lengths, of shape (rows,), holding the length of each string; and
+ * labels, of shape (rows,), holding 1 for TRUE and 0 for FALSE.
+ * Tokens number the sorted alphabet from 1, the same way main.py does, so the arrays can be fed to the Predictor
+ * unchanged.
+ *
+ * The arrays are streamed to disk through buffered file channels with a header that is patched with the final row
+ * count when the shard is closed, so only one buffer per array is held in memory however large the data set is.
+ * Shard i is written to prefix-0000i-tokens.npy, prefix-0000i-lengths.npy and prefix-0000i-labels.npy, or, if npz
+ * output is chosen, packed into prefix-0000i.npz with entries tokens, lengths and labels.
+ *
+ * @author Elliot Tuck
+ */
+public final class TensorExporter implements Closeable {
+
+    /**
+     * The number of strings written to one shard by default.
+     */
+    public static final int DEFAULT_SHARD_SIZE = 1 << 20;
+
+    private static final String[] ARRAY_NAMES = {"tokens", "lengths", "labels"};
+    private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0};
+    // room for the header dictionary with any shape, so it can be rewritten in place; a multiple of 64 in total
+    private static final int HEADER_SIZE = 128;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final String prefix;
+    private final int maxLength;
+    private final int shardSize;
+    private final boolean npz;
+    private final int[] tokenOf;
+    private final List<Path> written = new ArrayList<>();
+
+    private int shard;
+    private int rows;
+    private final int[] row;
+    private NpyWriter[] arrays;
+
+    /**
+     * @param directory The directory to write the shards to.
+     * @param prefix    The start of the name of every file written.
+     * @param alphabet  The single-character symbols strings may contain.
+     * @param maxLength The width of the token matrix; no string may be longer.
+     * @param shardSize The largest number of strings in one shard.
+     * @param npz       true to pack each shard into an .npz file, false to leave three .npy files.
+     */
+    public TensorExporter(Path directory, String prefix, List<String> alphabet, int maxLength, int shardSize,
+                          boolean npz) {
+        if (maxLength < 0 || shardSize <= 0) {
+            throw new IllegalArgumentException("Bad tensor shape: maxLength " + maxLength + ", shardSize "
+                    + shardSize);
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxLength = maxLength;
+        this.shardSize = shardSize;
+        this.npz = npz;
+        this.row = new int[maxLength];
+
+        List<String> sorted = new ArrayList<>(alphabet);
+        Collections.sort(sorted);
+        int maxChar = 0;
+        for (String symbol : sorted) {
+            if (symbol.length() != 1) {
+                throw new IllegalArgumentException("Tensor export needs single-character symbols, not " + symbol);
+            }
+            maxChar = Math.max(maxChar, symbol.charAt(0));
+        }
+        this.tokenOf = new int[maxChar + 1];
+        for (int i = 0; i < sorted.size(); i++) {
+            tokenOf[sorted.get(i).charAt(0)] = i + 1;
+        }
+    }
+
+    /**
+     * Write the strings over the alphabet of a DFA, in shards of the default size.
+     *
+     * @param directory The directory to write the shards to.
+     * @param prefix    The start of the name of every file written.
+     * @param dfa       The DFA whose alphabet to number.
+     * @param maxLength The width of the token matrix; no string may be longer.
+     * @param npz       true to pack each shard into an .npz file, false to leave three .npy files.
+     */
+    public TensorExporter(Path directory, String prefix, CompactDfa dfa, int maxLength, boolean npz) {
+        this(directory, prefix, alphabetOf(dfa), maxLength, DEFAULT_SHARD_SIZE, npz);
+    }
+
+    /**
+     * Append a labeled string, starting a new shard if the current one is full.
+     *
+     * @param word  A string over the alphabet of at most maxLength characters.
+     * @param label The label of word.
+     * @throws IOException if writing fails.
+     */
+    public void add(CharSequence word, boolean label) throws IOException {
+        int length = word.length();
+        if (length > maxLength) {
+            throw new IllegalArgumentException("String of length " + length + " is longer than " + maxLength);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+            int token = c < tokenOf.length ? tokenOf[c] : 0;
+            if (token == 0) {
+                throw new IllegalArgumentException("Character " + c + " is not in the alphabet");
+            }
+            row[i] = token;
+        }
+        Arrays.fill(row, length, maxLength, 0);
+
+        if (arrays == null) {
+            openShard();
+        }
+        arrays[0].putAll(row);
+        arrays[1].put(length);
+        arrays[2].put(label ? 1 : 0);
+        if (++rows == shardSize) {
+            closeShard();
+        }
+    }
+
+    /**
+     * Append every line of a file in the format data-gen.py writes, i.e. a string, a tab and TRUE or FALSE.
+     *
+     * @param labeled The file to read.
+     * @return The number of strings appended.
+     * @throws IOException if reading or writing fails.
+     */
+    public long addLabeledLines(Path labeled) throws IOException {
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(labeled, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                add(line.substring(0, tab), line.substring(tab + 1).trim().equals("TRUE"));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The files written by completed shards so far, in order.
+     */
+    public List<Path> getWrittenFiles() {
+        return Collections.unmodifiableList(written);
+    }
+
+    /**
+     * Finish the last shard.
+     *
+     * @throws IOException if writing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (arrays != null) {
+            closeShard();
+        }
+    }
+
+    private void openShard() throws IOException {
+        arrays = new NpyWriter[ARRAY_NAMES.length];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = new NpyWriter(directory.resolve(String.format("%s-%05d-%s.npy", prefix, shard,
+                    ARRAY_NAMES[i])));
+        }
+        rows = 0;
+    }
+
+    private void closeShard() throws IOException {
+        arrays[0].close("(" + rows + ", " + maxLength + ")");
+        arrays[1].close("(" + rows + ",)");
+        arrays[2].close("(" + rows + ",)");
+        if (npz) {
+            Path archive = directory.resolve(String.format("%s-%05d.npz", prefix, shard));
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int i = 0; i < arrays.length; i++) {
+                    zip.putNextEntry(new ZipEntry(ARRAY_NAMES[i] + ".npy"));
+                    try (InputStream in = Files.newInputStream(arrays[i].path)) {
+                        int read;
+                        while ((read = in.read(buffer)) > 0) {
+                            zip.write(buffer, 0, read);
+                        }
+                    }
+                    zip.closeEntry();
+                }
+            }
+            for (NpyWriter array : arrays) {
+                Files.delete(array.path);
+            }
+            written.add(archive);
+        } else {
+            for (NpyWriter array : arrays) {
+                written.add(array.path);
+            }
+        }
+        arrays = null;
+        shard++;
+    }
+
+    private static List<String> alphabetOf(CompactDfa dfa) {
+        List<String> alphabet = new ArrayList<>();
+        for (int a = 0; a < dfa.getAlphabetSize(); a++) {
+            alphabet.add(dfa.getSymbol(a));
+        }
+        return alphabet;
+    }
+
+    /**
+     * @return The header of a little-endian int32 .npy array of the given shape, padded to HEADER_SIZE bytes.
+     */
+    private static ByteBuffer header(String shape) {
+        String dictionary = "{'descr': '<i4', 'fortran_order': False, 'shape': " + shape + ", }";
+        int dictionarySize = HEADER_SIZE - MAGIC.length - 2;
+        if (dictionary.length() + 1 > dictionarySize) {
+            throw new IllegalArgumentException("Shape " + shape + " does not fit in the header");
+        }
+        StringBuilder padded = new StringBuilder(dictionary);
+        while (padded.length() < dictionarySize - 1) {
+            padded.append(' ');
+        }
+        padded.append('\n');
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.putShort((short) dictionarySize);
+        header.put(padded.toString().getBytes(StandardCharsets.US_ASCII));
+        header.flip();
+        return header;
+    }
+
+    /**
+     * One .npy file being streamed: a placeholder header followed by int32 data, with the header rewritten on close.
+     */
+    private static final class NpyWriter {
+        private final Path path;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        NpyWriter(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_SIZE);
+        }
+
+        void put(int value) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void putAll(int[] values) throws IOException {
+            for (int value : values) {
+                put(value);
+            }
+        }
+
+        void close(String shape) throws IOException {
+            try {
+                flush();
+                ByteBuffer header = header(shape);
+                channel.position(0);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
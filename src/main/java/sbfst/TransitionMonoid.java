@@ -0,0 +1,652 @@
+package sbfst;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * The transition monoid of a DFA with its elements numbered by integers, i.e. the syntactic monoid of the language
+ * when the DFA is minimal. Every element is a transformation of the states, stored as n ints in one flat array, and
+ * the elements are found by breadth-first search from the identity (element 0) through right multiplication by the
+ * letters, so element i is the transformation of a shortest word and getParent/getLastLetter spell that word out.
+ *
+ * A missing transition of a partial DFA goes to an implicit sink state, numbered n. Products of arbitrary elements
+ * are found by composing their transformations and looking the result up in an open-addressing hash table.
+ *
+ * Green's relations R, L and J are the strongly connected components of the right, left and two-sided Cayley graphs,
+ * which give the algebraic tests for piecewise testability (J-trivial, Simon) and local testability (locally
+ * idempotent and commutative, Brzozowski and Simon).
+ *
+ * @author Elliot Tuck
+ */
+public final class TransitionMonoid {
+
+    private static final int EMPTY = -1;
+
+    // the most products a chunk of a level of ofParallel holds at once
+    private static final int CHUNK_PRODUCTS = 1 << 18;
+
+    // fewer products than this are computed on the calling thread
+    private static final int PARALLEL_PRODUCTS = 1 << 10;
+
+    private final int n;
+    private final int k;
+    private int size;
+    // elements[m * n + s] is the state that element m takes state s to
+    private int[] elements;
+    // cayley[m * k + a] is the element m followed by letter a
+    private int[] cayley;
+    private int[] parent;
+    private int[] lastLetter;
+    private int[] slots;
+
+    private TransitionMonoid(int n, int k) {
+        this.n = n;
+        this.k = k;
+        this.elements = new int[16 * n];
+        this.cayley = new int[16 * k];
+        this.parent = new int[16];
+        this.lastLetter = new int[16];
+        this.slots = new int[64];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    /**
+     * Build the transition monoid of a DFA.
+     *
+     * @param dfa A DFA.
+     * @return Its transition monoid.
+     */
+    public static TransitionMonoid of(CompactDfa dfa) {
+        return of(dfa, Budget.UNLIMITED);
+    }
+
+    /**
+     * Build the transition monoid of a DFA within a budget.
+     *
+     * @param dfa    A DFA.
+     * @param budget Limits the time and the number of elements.
+     * @return Its transition monoid.
+     * @throws BudgetExceededException if the budget runs out before the monoid is built.
+     */
+    public static TransitionMonoid of(CompactDfa dfa, Budget budget) {
+        return build(dfa, budget, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Build the transition monoid of a DFA if it is small, e.g. to decide whether an algebraic check is cheaper than
+     * a graph one.
+     *
+     * @param dfa         A DFA.
+     * @param maxElements The largest monoid worth building.
+     * @param budget      Limits the time and the number of elements.
+     * @return Its transition monoid, or null if it has more than maxElements elements.
+     * @throws BudgetExceededException if the budget runs out before the monoid is built.
+     */
+    static TransitionMonoid ofAtMost(CompactDfa dfa, int maxElements, Budget budget) {
+        return build(dfa, budget, maxElements);
+    }
+
+    /**
+     * Build the transition monoid of a DFA by a level-synchronous parallel breadth-first search. The elements of a
+     * level (in chunks, to bound memory) are multiplied by every letter in parallel, the products that are not yet
+     * elements are de-duplicated in a concurrent open-addressing table that keeps the first product of each
+     * transformation, and then the new elements are numbered in order. The result, ids included, is the same as that
+     * of of(dfa, budget).
+     *
+     * @param dfa    A DFA.
+     * @param pool   The pool that multiplies the elements.
+     * @param budget Limits the time and the number of elements.
+     * @return Its transition monoid.
+     * @throws BudgetExceededException if the budget runs out before the monoid is built.
+     */
+    public static TransitionMonoid ofParallel(CompactDfa dfa, ForkJoinPool pool, Budget budget) {
+        return ofParallel(dfa, pool, budget, Integer.MAX_VALUE, CHUNK_PRODUCTS);
+    }
+
+    /**
+     * Build the transition monoid of a DFA in parallel if it is small, like ofAtMost.
+     *
+     * @param dfa         A DFA.
+     * @param pool        The pool that multiplies the elements.
+     * @param maxElements The largest monoid worth building.
+     * @param budget      Limits the time and the number of elements.
+     * @return Its transition monoid, or null if it has more than maxElements elements.
+     * @throws BudgetExceededException if the budget runs out before the monoid is built.
+     */
+    static TransitionMonoid ofParallelAtMost(CompactDfa dfa, ForkJoinPool pool, int maxElements, Budget budget) {
+        return ofParallel(dfa, pool, budget, maxElements, CHUNK_PRODUCTS);
+    }
+
+    static TransitionMonoid ofParallel(CompactDfa dfa, ForkJoinPool pool, Budget budget, int maxElements,
+                                       int chunkProducts) {
+        try (Stage stage = Stage.begin(Stage.MONOID).setDfaSize(dfa.getStateCount(), dfa.getAlphabetSize())) {
+            TransitionMonoid monoid = buildParallel(dfa, pool, budget, maxElements, chunkProducts);
+            stage.setMonoidSize(monoid != null ? monoid.size : maxElements);
+            return monoid;
+        }
+    }
+
+    private static TransitionMonoid buildParallel(CompactDfa dfa, ForkJoinPool pool, Budget budget, int maxElements,
+                                                  int chunkProducts) {
+        int k = dfa.getAlphabetSize();
+        TransitionMonoid monoid = newMonoid(dfa);
+        int n = monoid.n;
+        int[] letters = getLetters(dfa, n);
+        int chunk = Math.max(1, chunkProducts / Math.max(1, k));
+        int[] products = new int[0];
+        int[] found = new int[0];
+        int[] first = new int[0];
+        int[] ids = new int[0];
+
+        for (int start = 0; start < monoid.size; ) {
+            budget.poll();
+            int from = start;
+            int end = Math.min(monoid.size, start + chunk);
+            int count = (end - start) * k;
+            if (found.length < count) {
+                products = new int[count * n];
+                found = new int[count];
+                first = new int[count];
+                ids = new int[count];
+            }
+            int tableSize = Integer.highestOneBit(Math.max(2, 2 * count - 1)) << 1;
+            AtomicIntegerArray table = new AtomicIntegerArray(tableSize);
+            int[] productsOf = products;
+            int[] foundOf = found;
+            int[] firstOf = first;
+
+            // product c is element from + c / k followed by letter c % k
+            forEach(pool, count, c -> {
+                int m = from + c / k;
+                int a = c % k;
+                for (int s = 0; s < n; s++) {
+                    productsOf[c * n + s] = letters[a * n + monoid.elements[m * n + s]];
+                }
+                foundOf[c] = monoid.find(productsOf, c * n);
+                if (foundOf[c] == EMPTY) {
+                    monoid.insertProduct(table, productsOf, c);
+                }
+            });
+            forEach(pool, count, c -> firstOf[c] = foundOf[c] == EMPTY ? monoid.findProduct(table, productsOf, c) : c);
+
+            for (int c = 0; c < count; c++) {
+                int m = from + c / k;
+                int a = c % k;
+                int id = found[c];
+                if (id == EMPTY && first[c] == c) {
+                    if (monoid.size == maxElements) {
+                        return null;
+                    }
+                    budget.checkMonoidElements(monoid.size + 1);
+                    id = monoid.add(products, c * n, m, a);
+                } else if (id == EMPTY) {
+                    id = ids[first[c]];
+                }
+                ids[c] = id;
+                monoid.cayley[m * k + a] = id;
+            }
+            start = end;
+        }
+        return monoid;
+    }
+
+    private static void forEach(ForkJoinPool pool, int count, IntConsumer action) {
+        if (count < PARALLEL_PRODUCTS) {
+            for (int c = 0; c < count; c++) {
+                action.accept(c);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(action)).join();
+        }
+    }
+
+    private static TransitionMonoid newMonoid(CompactDfa dfa) {
+        int states = dfa.getStateCount();
+        int n = dfa.isComplete() ? states : states + 1;
+        TransitionMonoid monoid = new TransitionMonoid(n, dfa.getAlphabetSize());
+        int[] identity = new int[n];
+        for (int s = 0; s < n; s++) {
+            identity[s] = s;
+        }
+        monoid.add(identity, 0, EMPTY, EMPTY);
+        return monoid;
+    }
+
+    /**
+     * @return The transformations of the letters, with missing transitions going to the implicit sink.
+     */
+    private static int[] getLetters(CompactDfa dfa, int n) {
+        int states = dfa.getStateCount();
+        int k = dfa.getAlphabetSize();
+        int[] letters = new int[k * n];
+        for (int a = 0; a < k; a++) {
+            for (int s = 0; s < n; s++) {
+                int t = s < states ? dfa.next(s, a) : CompactDfa.NONE;
+                letters[a * n + s] = t == CompactDfa.NONE ? states : t;
+            }
+        }
+        return letters;
+    }
+
+    private static TransitionMonoid build(CompactDfa dfa, Budget budget, int maxElements) {
+        int k = dfa.getAlphabetSize();
+        TransitionMonoid monoid = newMonoid(dfa);
+        int n = monoid.n;
+        int[] letters = getLetters(dfa, n);
+
+        int[] transformation = new int[n];
+        try (Stage stage = Stage.begin(Stage.MONOID).setDfaSize(dfa.getStateCount(), k)) {
+            for (int m = 0; m < monoid.size; m++) {
+                budget.poll();
+                for (int a = 0; a < k; a++) {
+                    for (int s = 0; s < n; s++) {
+                        transformation[s] = letters[a * n + monoid.elements[m * n + s]];
+                    }
+                    int id = monoid.find(transformation, 0);
+                    if (id == EMPTY) {
+                        if (monoid.size == maxElements) {
+                            stage.setMonoidSize(monoid.size);
+                            return null;
+                        }
+                        budget.checkMonoidElements(monoid.size + 1);
+                        id = monoid.add(transformation, 0, m, a);
+                    }
+                    monoid.cayley[m * k + a] = id;
+                }
+            }
+            stage.setMonoidSize(monoid.size);
+        }
+        return monoid;
+    }
+
+    /**
+     * @return The number of elements.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The number of states transformed, including the implicit sink of a partial DFA.
+     */
+    public int getStateCount() {
+        return n;
+    }
+
+    /**
+     * @return The number of letters.
+     */
+    public int getAlphabetSize() {
+        return k;
+    }
+
+    /**
+     * @return The identity element, i.e. the transformation of the empty word.
+     */
+    public int getIdentity() {
+        return 0;
+    }
+
+    /**
+     * @param a The index of a letter.
+     * @return The element of the one-letter word a.
+     */
+    public int getGenerator(int a) {
+        return cayley[a];
+    }
+
+    /**
+     * @param m An element.
+     * @param a The index of a letter.
+     * @return The element m followed by a.
+     */
+    public int rightMultiply(int m, int a) {
+        return cayley[m * k + a];
+    }
+
+    /**
+     * @param x An element.
+     * @param y An element.
+     * @return The element x followed by y.
+     */
+    public int multiply(int x, int y) {
+        int[] product = new int[n];
+        for (int s = 0; s < n; s++) {
+            product[s] = elements[y * n + elements[x * n + s]];
+        }
+        return find(product, 0);
+    }
+
+    /**
+     * @param m     An element.
+     * @param state A state.
+     * @return The state m takes state to.
+     */
+    public int apply(int m, int state) {
+        return elements[m * n + state];
+    }
+
+    /**
+     * @param m An element other than the identity.
+     * @return The element of the shortest word of m without its last letter.
+     */
+    public int getParent(int m) {
+        return parent[m];
+    }
+
+    /**
+     * @param m An element other than the identity.
+     * @return The last letter of the shortest word of m.
+     */
+    public int getLastLetter(int m) {
+        return lastLetter[m];
+    }
+
+    /**
+     * @param m An element.
+     * @return true if m m = m, false otherwise.
+     */
+    public boolean isIdempotent(int m) {
+        for (int s = 0; s < n; s++) {
+            int t = elements[m * n + s];
+            if (elements[m * n + t] != t) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The idempotent elements in increasing order; the identity is always one of them.
+     */
+    public int[] getIdempotents() {
+        int[] idempotents = new int[size];
+        int count = 0;
+        for (int m = 0; m < size; m++) {
+            if (isIdempotent(m)) {
+                idempotents[count++] = m;
+            }
+        }
+        return Arrays.copyOf(idempotents, count);
+    }
+
+    /**
+     * Determine the period of the monoid in the sense of Utils.isAperiodic: the powers of an element m end in a cycle
+     * whose length is the least common multiple of the lengths of the cycles of m as a transformation, and the period
+     * is the largest such length.
+     *
+     * @return -1 if the monoid is aperiodic, otherwise its period.
+     */
+    public int getPeriod() {
+        int[] mark = new int[n];
+        long period = 1;
+        for (int m = 0; m < size; m++) {
+            Arrays.fill(mark, 0);
+            long lcm = 1;
+            for (int s = 0; s < n; s++) {
+                // mark the walk from s with s + 1; meeting that mark again closes a new cycle
+                int t = s;
+                while (mark[t] == 0) {
+                    mark[t] = s + 1;
+                    t = elements[m * n + t];
+                }
+                if (mark[t] == s + 1) {
+                    int length = 1;
+                    for (int u = elements[m * n + t]; u != t; u = elements[m * n + u]) {
+                        length++;
+                    }
+                    lcm = lcm / gcd(lcm, length) * length;
+                }
+            }
+            period = Math.max(period, lcm);
+        }
+        return period == 1 ? -1 : (int) Math.min(period, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return true if the monoid is aperiodic, i.e. the language of a minimal DFA is star free, false otherwise.
+     */
+    public boolean isAperiodic() {
+        return getPeriod() == -1;
+    }
+
+    /**
+     * Get the R-classes, i.e. the strongly connected components of the right Cayley graph, where x R y iff xM = yM.
+     *
+     * @return The condensation of the right Cayley graph; its components are the R-classes.
+     */
+    public Condensation getRClasses() {
+        return Condensation.of(new CayleyGraph(true, false));
+    }
+
+    /**
+     * Get the L-classes, i.e. the strongly connected components of the left Cayley graph, where x L y iff Mx = My.
+     *
+     * @return The condensation of the left Cayley graph; its components are the L-classes.
+     */
+    public Condensation getLClasses() {
+        return Condensation.of(new CayleyGraph(false, true));
+    }
+
+    /**
+     * Get the J-classes, i.e. the strongly connected components of the union of both Cayley graphs, where x J y iff
+     * MxM = MyM. The components are in topological order, so the J-classes below a J-class come after it.
+     *
+     * @return The condensation of the two-sided Cayley graph; its components are the J-classes.
+     */
+    public Condensation getJClasses() {
+        return Condensation.of(new CayleyGraph(true, true));
+    }
+
+    /**
+     * @return true if every J-class has one element, i.e. the language of a minimal DFA is piecewise testable.
+     */
+    public boolean isJTrivial() {
+        return getJClasses().getComponentCount() == size;
+    }
+
+    /**
+     * Test the syntactic semigroup S (the elements of nonempty words) for local idempotency and commutativity: eSe is
+     * an idempotent and commutative monoid for every idempotent e of S. For a minimal DFA this holds iff its language
+     * is locally testable (Brzozowski and Simon, McNaughton).
+     *
+     * @return true if S is locally idempotent and commutative, false otherwise.
+     */
+    public boolean isLocallyIdempotentAndCommutative() {
+        return isLocallyIdempotentAndCommutative(Budget.UNLIMITED);
+    }
+
+    /**
+     * The check of isLocallyIdempotentAndCommutative() within a budget.
+     *
+     * @param budget Limits the time of the check.
+     * @return true if S is locally idempotent and commutative, false otherwise.
+     * @throws BudgetExceededException if the budget runs out before the check is done.
+     */
+    public boolean isLocallyIdempotentAndCommutative(Budget budget) {
+        // every element but the identity has a nonempty shortest word, and the identity is in S iff some arc reaches it
+        boolean identityInSemigroup = false;
+        for (int i = 0; i < size * k && !identityInSemigroup; i++) {
+            identityInSemigroup = cayley[i] == 0;
+        }
+        int first = identityInSemigroup ? 0 : 1;
+        int[] local = new int[size];
+        boolean[] inLocal = new boolean[size];
+        for (int e = first; e < size; e++) {
+            if (!isIdempotent(e)) {
+                continue;
+            }
+            budget.poll();
+            int count = 0;
+            for (int x = first; x < size; x++) {
+                int exe = multiply(multiply(e, x), e);
+                if (!inLocal[exe]) {
+                    inLocal[exe] = true;
+                    local[count++] = exe;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                inLocal[local[i]] = false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (!isIdempotent(local[i])) {
+                    return false;
+                }
+                for (int j = i + 1; j < count; j++) {
+                    if (multiply(local[i], local[j]) != multiply(local[j], local[i])) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private int add(int[] transformation, int offset, int from, int letter) {
+        if (size * n == elements.length) {
+            elements = Arrays.copyOf(elements, 2 * elements.length);
+            cayley = Arrays.copyOf(cayley, 2 * cayley.length);
+            parent = Arrays.copyOf(parent, 2 * parent.length);
+            lastLetter = Arrays.copyOf(lastLetter, 2 * lastLetter.length);
+        }
+        int id = size++;
+        System.arraycopy(transformation, offset, elements, id * n, n);
+        parent[id] = from;
+        lastLetter[id] = letter;
+        if (2 * size > slots.length) {
+            slots = new int[2 * slots.length];
+            Arrays.fill(slots, EMPTY);
+            for (int m = 0; m < size; m++) {
+                insert(m);
+            }
+        } else {
+            insert(id);
+        }
+        return id;
+    }
+
+    private void insert(int m) {
+        int mask = slots.length - 1;
+        int slot = hash(elements, m * n) & mask;
+        while (slots[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = m;
+    }
+
+    private int find(int[] transformation, int offset) {
+        int mask = slots.length - 1;
+        int slot = hash(transformation, offset) & mask;
+        while (slots[slot] != EMPTY) {
+            int m = slots[slot];
+            if (equal(elements, m * n, transformation, offset)) {
+                return m;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Insert product c into a table of products, where slot values are product indices plus one and 0 is empty. Of
+     * equal products the table keeps the smallest index, whatever the order of the insertions.
+     */
+    private void insertProduct(AtomicIntegerArray table, int[] products, int c) {
+        int mask = table.length() - 1;
+        int slot = hash(products, c * n) & mask;
+        while (true) {
+            int current = table.get(slot);
+            if (current == 0) {
+                if (table.compareAndSet(slot, 0, c + 1)) {
+                    return;
+                }
+            } else if (equal(products, (current - 1) * n, products, c * n)) {
+                if (current - 1 <= c || table.compareAndSet(slot, current, c + 1)) {
+                    return;
+                }
+            } else {
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    /**
+     * @return The smallest index of a product equal to product c, which must have been inserted.
+     */
+    private int findProduct(AtomicIntegerArray table, int[] products, int c) {
+        int mask = table.length() - 1;
+        int slot = hash(products, c * n) & mask;
+        while (!equal(products, (table.get(slot) - 1) * n, products, c * n)) {
+            slot = (slot + 1) & mask;
+        }
+        return table.get(slot) - 1;
+    }
+
+    private boolean equal(int[] x, int xOffset, int[] y, int yOffset) {
+        for (int s = 0; s < n; s++) {
+            if (x[xOffset + s] != y[yOffset + s]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int hash(int[] array, int offset) {
+        int h = 1;
+        for (int s = 0; s < n; s++) {
+            h = 31 * h + array[offset + s];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long r = a % b;
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+
+    /**
+     * The right Cayley graph (x to xa), the left Cayley graph (x to ax) or their union, over the elements.
+     */
+    private final class CayleyGraph implements IntGraph {
+
+        private final boolean right;
+        private final int[] left;
+
+        CayleyGraph(boolean right, boolean left) {
+            this.right = right;
+            this.left = left ? new int[size * k] : null;
+            if (left) {
+                for (int m = 0; m < size; m++) {
+                    for (int a = 0; a < k; a++) {
+                        this.left[m * k + a] = multiply(getGenerator(a), m);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int getStateCount() {
+            return size;
+        }
+
+        @Override
+        public int getArcCount(int state) {
+            return (right ? k : 0) + (left != null ? k : 0);
+        }
+
+        @Override
+        public int getTarget(int state, int arc) {
+            if (right && arc < k) {
+                return cayley[state * k + arc];
+            }
+            return left[state * k + arc % k];
+        }
+    }
+}
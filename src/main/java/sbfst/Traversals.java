@@ -0,0 +1,298 @@
+package sbfst;
+
+import java.util.Arrays;
+
+/**
+ * Depth-first traversals of an IntGraph with an explicit stack instead of recursion, so that they work on graphs of
+ * any depth without a large thread stack. Each keeps one int array for the colour or visited mark of every state and
+ * two for the stack of (state, next arc slot) frames, and examines every arc slot at most once.
+ *
+ * @author Elliot Tuck
+ */
+public final class Traversals {
+
+    private static final int UNDISCOVERED = 0;
+    private static final int DISCOVERED = 1;
+    private static final int PROCESSED = 2;
+
+    private Traversals() {
+    }
+
+    /**
+     * Determine if a graph is acyclic by looking for a back edge.
+     *
+     * @param graph The graph to check.
+     * @return true if graph has no cycle (self-loops included), false otherwise.
+     */
+    public static boolean isAcyclic(IntGraph graph) {
+        int n = graph.getStateCount();
+        int[] colour = new int[n];
+        int[] stackState = new int[n];
+        int[] stackArc = new int[n];
+        for (int root = 0; root < n; root++) {
+            if (colour[root] != UNDISCOVERED) {
+                continue;
+            }
+            int depth = 0;
+            stackState[0] = root;
+            stackArc[0] = 0;
+            colour[root] = DISCOVERED;
+            while (depth >= 0) {
+                int s = stackState[depth];
+                if (stackArc[depth] == graph.getArcCount(s)) {
+                    colour[s] = PROCESSED;
+                    depth--;
+                    continue;
+                }
+                int t = graph.getTarget(s, stackArc[depth]++);
+                if (t == IntGraph.NO_ARC) {
+                    continue;
+                }
+                if (colour[t] == DISCOVERED) {   // found a back edge, thus there is a cycle
+                    return false;
+                }
+                if (colour[t] == UNDISCOVERED) {
+                    colour[t] = DISCOVERED;
+                    depth++;
+                    stackState[depth] = t;
+                    stackArc[depth] = 0;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * List the states of a graph in the order a depth-first search finishes them, starting a new search from each
+     * undiscovered state in increasing order. The reverse of this order is the order in which Kosaraju's algorithm
+     * visits the states of the transposed graph.
+     *
+     * @param graph The graph to search.
+     * @return Every state of graph, in order of finishing.
+     */
+    public static int[] postOrder(IntGraph graph) {
+        int n = graph.getStateCount();
+        int[] order = new int[n];
+        int finished = 0;
+        boolean[] visited = new boolean[n];
+        int[] stackState = new int[n];
+        int[] stackArc = new int[n];
+        for (int root = 0; root < n; root++) {
+            if (visited[root]) {
+                continue;
+            }
+            int depth = 0;
+            stackState[0] = root;
+            stackArc[0] = 0;
+            visited[root] = true;
+            while (depth >= 0) {
+                int s = stackState[depth];
+                if (stackArc[depth] == graph.getArcCount(s)) {
+                    order[finished++] = s;
+                    depth--;
+                    continue;
+                }
+                int t = graph.getTarget(s, stackArc[depth]++);
+                if (t != IntGraph.NO_ARC && !visited[t]) {
+                    visited[t] = true;
+                    depth++;
+                    stackState[depth] = t;
+                    stackArc[depth] = 0;
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * List the states reachable from a start state in depth-first preorder, skipping states already marked visited
+     * and marking the ones found.
+     *
+     * @param graph   The graph to search.
+     * @param start   The state to start from; it must not be marked visited.
+     * @param visited The visited marks, updated in place.
+     * @return The states found, in order of discovery.
+     */
+    public static int[] preOrder(IntGraph graph, int start, boolean[] visited) {
+        int n = graph.getStateCount();
+        int[] found = new int[n];
+        int count = 0;
+        int[] stackState = new int[n];
+        int[] stackArc = new int[n];
+        int depth = 0;
+        stackState[0] = start;
+        stackArc[0] = 0;
+        visited[start] = true;
+        found[count++] = start;
+        while (depth >= 0) {
+            int s = stackState[depth];
+            if (stackArc[depth] == graph.getArcCount(s)) {
+                depth--;
+                continue;
+            }
+            int t = graph.getTarget(s, stackArc[depth]++);
+            if (t != IntGraph.NO_ARC && !visited[t]) {
+                visited[t] = true;
+                found[count++] = t;
+                depth++;
+                stackState[depth] = t;
+                stackArc[depth] = 0;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Mark the SCC nodes of a graph, i.e. the states that lie on a cycle: the states of every strongly connected
+     * component with more than one state, and the states with a self-loop. The marks come straight out of one pass of
+     * Tarjan's algorithm, which notices self-loops while it scans the arcs, so no list of components is built.
+     *
+     * @param graph The graph to search.
+     * @return A bitset over the states of graph, where bit s of word s / 64 is set if s is an SCC node; see isMarked.
+     */
+    public static long[] markSCCNodes(IntGraph graph) {
+        int n = graph.getStateCount();
+        long[] marks = new long[(n + 63) >>> 6];
+        long[] onStack = new long[(n + 63) >>> 6];
+        int[] index = new int[n];   // 0 while undiscovered, otherwise the discovery time plus one
+        int[] lowLink = new int[n];
+        int[] component = new int[n];
+        int componentTop = 0;
+        int[] stackState = new int[n];
+        int[] stackArc = new int[n];
+        int time = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            stackState[0] = root;
+            stackArc[0] = 0;
+            index[root] = lowLink[root] = ++time;
+            component[componentTop++] = root;
+            onStack[root >>> 6] |= 1L << root;
+            while (depth >= 0) {
+                int s = stackState[depth];
+                if (stackArc[depth] < graph.getArcCount(s)) {
+                    int t = graph.getTarget(s, stackArc[depth]++);
+                    if (t == IntGraph.NO_ARC) {
+                        continue;
+                    }
+                    if (t == s) {
+                        marks[s >>> 6] |= 1L << s;
+                    } else if (index[t] == 0) {
+                        index[t] = lowLink[t] = ++time;
+                        component[componentTop++] = t;
+                        onStack[t >>> 6] |= 1L << t;
+                        depth++;
+                        stackState[depth] = t;
+                        stackArc[depth] = 0;
+                    } else if (isMarked(onStack, t)) {
+                        lowLink[s] = Math.min(lowLink[s], index[t]);
+                    }
+                    continue;
+                }
+
+                // s is finished; if it is the root of a component, pop the component and mark it if it is a cycle
+                if (lowLink[s] == index[s]) {
+                    int bottom = componentTop - 1;
+                    while (component[bottom] != s) {
+                        bottom--;
+                    }
+                    boolean cyclic = componentTop - bottom > 1;
+                    for (int i = bottom; i < componentTop; i++) {
+                        int t = component[i];
+                        onStack[t >>> 6] &= ~(1L << t);
+                        if (cyclic) {
+                            marks[t >>> 6] |= 1L << t;
+                        }
+                    }
+                    componentTop = bottom;
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = stackState[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[s]);
+                }
+            }
+        }
+        return marks;
+    }
+
+    /**
+     * Number the strongly connected components of a graph in the order Tarjan's algorithm pops them, so that every
+     * arc between two components leads to a lower number and visiting the components in increasing order visits the
+     * successors of each before the component itself. Unlike Condensation, neither the edges nor the ancestors of the
+     * components are built, which keeps this linear on implicit graphs with millions of states.
+     *
+     * @param graph The graph to search.
+     * @return The number of the component of every state of graph.
+     */
+    public static int[] componentIds(IntGraph graph) {
+        int n = graph.getStateCount();
+        int[] ids = new int[n];
+        int[] index = new int[n];   // 0 while undiscovered, -1 once the component is popped, otherwise discovery time
+        int[] lowLink = new int[n];
+        int[] component = new int[n];
+        int componentTop = 0;
+        int[] stackState = new int[n];
+        int[] stackArc = new int[n];
+        int time = 0;
+        int count = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            stackState[0] = root;
+            stackArc[0] = 0;
+            index[root] = lowLink[root] = ++time;
+            component[componentTop++] = root;
+            while (depth >= 0) {
+                int s = stackState[depth];
+                if (stackArc[depth] < graph.getArcCount(s)) {
+                    int t = graph.getTarget(s, stackArc[depth]++);
+                    if (t == IntGraph.NO_ARC) {
+                        continue;
+                    }
+                    if (index[t] == 0) {
+                        index[t] = lowLink[t] = ++time;
+                        component[componentTop++] = t;
+                        depth++;
+                        stackState[depth] = t;
+                        stackArc[depth] = 0;
+                    } else if (index[t] > 0) {
+                        lowLink[s] = Math.min(lowLink[s], index[t]);
+                    }
+                    continue;
+                }
+
+                // s is finished; if it is the root of a component, pop the component and number it
+                if (lowLink[s] == index[s]) {
+                    int t;
+                    do {
+                        t = component[--componentTop];
+                        index[t] = -1;
+                        ids[t] = count;
+                    } while (t != s);
+                    count++;
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = stackState[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[s]);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @param marks A bitset as returned by markSCCNodes.
+     * @param state A state.
+     * @return true if state is marked, false otherwise.
+     */
+    public static boolean isMarked(long[] marks, int state) {
+        return (marks[state >>> 6] & (1L << state)) != 0;
+    }
+}
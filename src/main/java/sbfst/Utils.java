@@ -13,6 +13,12 @@ public class Utils {
 
     public static final String FINAL_SYMBOL = ".";
 
+    // the TSCC of a tuple that is not well defined
+    private static final int UNDEFINED_TSCC = -1;
+
+    // DFAs with more states than this are checked for piecewise testability by the compact backend
+    static final int PT_COMPACT_THRESHOLD = 32;
+
     /**
      * Determine if the given syntactic monoid is aperiodic or not.
      * Indicate aperiodicity by returning -1, otherwise return the
@@ -22,6 +28,8 @@ public class Utils {
      * @return -1 if sm is aperiodic, otherwise the period.
      */
     public static int isAperiodic(Fst sm) {
+        Stage stage = Stage.begin("aperiodicity").setMonoidSize(sm.getStateCount());
+
         // get a map from state to a shortest sequence of input symbols
         // that can be used to represent it
         Map<State, String> shortestStateLabels = getShortestStateLabels(sm);
@@ -57,56 +65,73 @@ public class Utils {
                 prev = next;
             }
         }
+        stage.close();
         return periods.isEmpty() ? -1 : Collections.max(periods);
     }
 
     /**
      * Determine if the given fst is locally testable or not. For now it is assumed that the input automaton is a dfa,
-     * although future versions could be altered to allow for a broader set of inputs.
+     * although future versions could be altered to allow for a broader set of inputs. The input is not modified.
      *
      * @param dfa The input dfa to test, assumed to be minimized.
      * @return true if dfa is locally testable, false otherwise.
      */
     public static boolean isLocallyTestable(Fst dfa) {
-        // check s-locality of dfa's SCCs
+        return isLocallyTestable(dfa, Budget.UNLIMITED);
+    }
+
+    /**
+     * Determine if the given fst is locally testable or not, within the given budget. The input is not modified.
+     *
+     * @param dfa    The input dfa to test, assumed to be minimized.
+     * @param budget Limits the time and pair graph size of the check.
+     * @return true if dfa is locally testable, false otherwise.
+     * @throws BudgetExceededException if the budget runs out before the check is done.
+     */
+    public static boolean isLocallyTestable(Fst dfa, Budget budget) {
+        // check s-locality of dfa's SCCs on implicit pair graphs
+        CompactDfa compact = CompactDfa.fromFst(dfa);
         ArrayList<ArrayList<State>> SCCs = getSCCs(dfa);
         for (ArrayList<State> SCC : SCCs) {
-            Set<State> component = new HashSet<>(SCC);
-            if (!isPairwiseSLocal(dfa, component, component)) {
+            BitSet component = stateIds(SCC);
+            if (!isPairwiseSLocal(compact, component, component, budget)) {
                 return false;
             }
         }
 
-        // check that graph is TS-local
+        // check that graph is TS-local, peeling off SCCs without descendants from a private copy of dfa
+        MutableFst graph = deletableCopy(dfa);
         while (true) {
-            ArrayList<ArrayList<State>> graphSCCs = getSCCs(dfa);
-            if (graphSCCs.size() == 0) {
+            budget.poll();
+            Condensation condensation = getCondensation(graph);
+            if (condensation.getCyclicComponentCount() == 0) {
                 return true;
             }
-            for (ArrayList<State> graphSCC : graphSCCs) {
-                // TODO: comment about always having an SCC with no descendants
-                if (hasDescendants(graphSCC, dfa)) {
+            for (int c = 0; c < condensation.getComponentCount(); c++) {
+                // a finite DAG always has an SCC with a cycle but no such descendants, so one is peeled every round
+                if (!condensation.isCyclic(c) || condensation.hasCyclicDescendants(c)) {
                     continue;
                 }
-                ArrayList<State> m0 = getM0(graphSCC, dfa);
-                Fst pairGraph = getPairGraph(dfa, new HashSet<>(m0), new HashSet<>(graphSCC));
-                ((MutableFst) pairGraph).setStart(((MutableFst) pairGraph).getState(0));
-                if (isTSLocalWRT(graphSCC, dfa)) {
+                ArrayList<State> graphSCC = new ArrayList<>();
+                for (int s : condensation.getStates(c)) {
+                    graphSCC.add(graph.getState(s));
+                }
+                if (isTSLocalWRT(graphSCC, graph, budget)) {
                     // if about to delete all the state, just return true (because there will be no SCCs in the next round)
-                    if (dfa.getStateCount() == graphSCC.size()) {
+                    if (graph.getStateCount() == graphSCC.size()) {
                         return true;
                     }
                     // JOpenFST prevents deleting start state, so change the start state to a state that isn't going to be deleted
-                    if (graphSCC.contains(dfa.getStartState())) {
-                        for (int i = 0; i < dfa.getStateCount(); i++) {
-                            State s = dfa.getState(i);
+                    if (graphSCC.contains(graph.getStartState())) {
+                        for (int i = 0; i < graph.getStateCount(); i++) {
+                            MutableState s = graph.getState(i);
                             if (!graphSCC.contains(s)) {
-                                ((MutableFst) dfa).setStart((MutableState) s);
+                                graph.setStart(s);
                                 break;
                             }
                         }
                     }
-                    ((MutableFst) dfa).deleteStates((Collection) graphSCC);
+                    graph.deleteStates((Collection) graphSCC);
                     break;
                 } else {
                     return false;
@@ -115,6 +140,28 @@ public class Utils {
         }
     }
 
+    /**
+     * Copy an FST so that states can be deleted from the copy. MutableFst.copyFrom does not record the incoming arcs
+     * of each state, so deleting states from its result would leave arcs pointing at the deleted states.
+     *
+     * @param fst The FST to copy.
+     * @return A copy of fst that supports deleteStates.
+     */
+    private static MutableFst deletableCopy(Fst fst) {
+        MutableFst copy = MutableFst.emptyWithCopyOfSymbols(fst);
+        for (int i = 0; i < fst.getStateCount(); i++) {
+            copy.setState(i, new MutableState(fst.getState(i).getFinalWeight()));
+        }
+        for (int i = 0; i < fst.getStateCount(); i++) {
+            for (Arc arc : fst.getState(i).getArcs()) {
+                copy.addArc(copy.getState(i), arc.getIlabel(), arc.getOlabel(),
+                        copy.getState(arc.getNextState().getId()), arc.getWeight());
+            }
+        }
+        copy.setStart(copy.getState(fst.getStartState().getId()));
+        return copy;
+    }
+
     /**
      * Determine if the given FST is piecewise testable or not. For now it is assumed that the input automaton is a
      * minimized DFA although future versions could be altered to allows fro a broader set of inputs.
@@ -122,6 +169,44 @@ public class Utils {
      * @return true if dfa is piecewise testable, false otherwise
      */
     public static boolean isPiecewiseTestable(Fst dfa) {
+        return isPiecewiseTestable(dfa, Budget.UNLIMITED);
+    }
+
+    /**
+     * Determine if the given FST is piecewise testable or not, within the given budget.
+     * @param dfa The input DFA to test, assumed to be minimized.
+     * @param budget Limits the time of the check.
+     * @return true if dfa is piecewise testable, false otherwise
+     * @throws BudgetExceededException if the budget runs out before the check is done.
+     */
+    public static boolean isPiecewiseTestable(Fst dfa, Budget budget) {
+        if (dfa.getStateCount() > PT_COMPACT_THRESHOLD) {
+            return isPiecewiseTestable(CompactDfa.fromFst(dfa), budget);
+        }
+        return isPiecewiseTestableFst(dfa, budget);
+    }
+
+    /**
+     * Run both piecewise testability backends on the given FST and check that they agree.
+     * @param dfa The input DFA to test, assumed to be minimized.
+     * @return true if dfa is piecewise testable, false otherwise
+     * @throws IllegalStateException if the backends disagree.
+     */
+    public static boolean crossCheckPiecewiseTestable(Fst dfa) {
+        boolean fst = isPiecewiseTestableFst(dfa, Budget.UNLIMITED);
+        boolean compact = isPiecewiseTestable(CompactDfa.fromFst(dfa), Budget.UNLIMITED);
+        if (fst != compact) {
+            throw new IllegalStateException("The piecewise testability backends disagree: the FST backend says "
+                    + fst + " and the compact backend says " + compact);
+        }
+        return fst;
+    }
+
+    /**
+     * The FST backend of isPiecewiseTestable, which copies the FST once per state.
+     */
+    private static boolean isPiecewiseTestableFst(Fst dfa, Budget budget) {
+        budget.poll();
         // NOTE: it seemed wrong to care about self-loops when checking acyclicity here
 //        if (!isAcyclic(dfa)) {
 //            return false;
@@ -130,40 +215,128 @@ public class Utils {
             return false;
         }
         for (int i = 0; i < dfa.getStateCount(); i++) {
-            State p = dfa.getState(i);
-            Set<Integer> stabilizer = computeStabilizer(p);
-            Fst stabilizerGraph = computeStabilizerFst(dfa, stabilizer);
-            Fst N = nonOrientedCopy(stabilizerGraph);
-            ArrayList<ArrayList<State>> nonOrientedSCCs = getSCCs(N);
-            ArrayList<State> C = null;
-            for (ArrayList<State> SCC : nonOrientedSCCs) {
-                for (State s : SCC) {
-                    if (s.getId() == p.getId()) {
-                        C = SCC;
-                        break;
-                    }
+            budget.poll();
+            if (!isPiecewiseTestableAt(dfa, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check the condition isPiecewiseTestable places on a single state p: every other state in the component of p in
+     * the non-oriented graph of p's stabilizer has an arc to a different state. The condition only depends on the
+     * arcs labeled by letters that p is stable under.
+     * @param dfa The input DFA, assumed to be minimized.
+     * @param i The index of p.
+     * @return true if the condition holds at p, false otherwise
+     */
+    static boolean isPiecewiseTestableAt(Fst dfa, int i) {
+        State p = dfa.getState(i);
+        Set<Integer> stabilizer = computeStabilizer(p);
+        Fst stabilizerGraph = computeStabilizerFst(dfa, stabilizer);
+        Fst N = nonOrientedCopy(stabilizerGraph);
+        ArrayList<ArrayList<State>> nonOrientedSCCs = getSCCs(N);
+        ArrayList<State> C = null;
+        for (ArrayList<State> SCC : nonOrientedSCCs) {
+            for (State s : SCC) {
+                if (s.getId() == p.getId()) {
+                    C = SCC;
+                    break;
                 }
             }
-            for (State rInC : C) {
-                if (rInC.getId() == p.getId()) {
-                    continue;
+        }
+        // getSCCs leaves out single states without a self-loop, so p is alone in its component
+        if (C == null) {
+            return true;
+        }
+        for (State rInC : C) {
+            if (rInC.getId() == p.getId()) {
+                continue;
+            }
+            // the arcs of N go both ways, so look for an outgoing arc in the oriented graph
+            State r = stabilizerGraph.getState(rInC.getId());
+            boolean checkNextState = false;
+            for (Arc rArc : r.getArcs()) {
+                if (rArc.getNextState().getId() != r.getId()) {
+                    checkNextState = true;
+                    break;
                 }
-                State rInN = N.getState(rInC.getId());
-                boolean checkNextState = false;
-                for (Arc rArc : rInN.getArcs()) {
-                    if (!rArc.getNextState().equals(rInN)) {
-                        checkNextState = true;
-                        break;
+            }
+            if (!checkNextState) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The compact backend of isPiecewiseTestable, after Cho and Huynh: a minimal DFA is piecewise testable iff it is
+     * partially ordered (acyclic apart from self-loops) and every state p is the only maximal state of its component
+     * in the non-oriented graph of the arcs labeled by the stabilizer of p, where a state is maximal if none of those
+     * arcs leads from it to another state. States with the same stabilizer share one union-find pass.
+     */
+    static boolean isPiecewiseTestable(CompactDfa dfa, Budget budget) {
+        budget.poll();
+        if (!Traversals.isAcyclic(IntGraph.withoutSelfLoops(IntGraph.of(dfa)))) {
+            return false;
+        }
+        int n = dfa.getStateCount();
+        int k = dfa.getAlphabetSize();
+        // maps a stabilizer to the number of maximal states in the component of each state
+        Map<BitSet, int[]> maximalCounts = new HashMap<>();
+        int[] root = new int[n];
+        for (int p = 0; p < n; p++) {
+            budget.poll();
+            BitSet stabilizer = new BitSet(k);
+            for (int a = 0; a < k; a++) {
+                if (dfa.next(p, a) == p) {
+                    stabilizer.set(a);
+                }
+            }
+            int[] counts = maximalCounts.get(stabilizer);
+            if (counts == null) {
+                counts = new int[n];
+                for (int s = 0; s < n; s++) {
+                    root[s] = s;
+                }
+                boolean[] maximal = new boolean[n];
+                Arrays.fill(maximal, true);
+                for (int s = 0; s < n; s++) {
+                    for (int a = stabilizer.nextSetBit(0); a >= 0; a = stabilizer.nextSetBit(a + 1)) {
+                        int t = dfa.next(s, a);
+                        if (t != CompactDfa.NONE && t != s) {
+                            maximal[s] = false;
+                            root[findRoot(root, s)] = findRoot(root, t);
+                        }
                     }
                 }
-                if (!checkNextState) {
-                    return false;
+                for (int s = 0; s < n; s++) {
+                    if (maximal[s]) {
+                        counts[findRoot(root, s)]++;
+                    }
+                }
+                for (int s = 0; s < n; s++) {
+                    counts[s] = counts[findRoot(root, s)];
                 }
+                maximalCounts.put(stabilizer, counts);
+            }
+            // p itself is maximal, since every letter of its stabilizer loops on it
+            if (counts[p] != 1) {
+                return false;
             }
         }
         return true;
     }
 
+    private static int findRoot(int[] root, int s) {
+        while (root[s] != s) {
+            root[s] = root[root[s]];
+            s = root[s];
+        }
+        return s;
+    }
+
     /**
      * Determine if the given FST is locally threshold testable. It is assumed that the input automaton is a minimized
      * DFA.
@@ -171,51 +344,684 @@ public class Utils {
      * @return true if dfa is locally threshold testable, false otherwise
      */
     public static boolean isLocallyThresholdTestable(Fst dfa) {
-        // get direct product graphs
-        Fst gamma2 = directProduct(dfa, 2);
-        Fst gamma3 = directProduct(dfa, 3);
+        return isLocallyThresholdTestable(dfa, Instrumentation.NONE);
+    }
+
+    /**
+     * Determine if the given FST is locally threshold testable, reporting phase timings, counters and trace events to
+     * the given instrumentation. It is assumed that the input automaton is a minimized DFA.
+     * @param dfa The input DFA test test, assumed to be minimized.
+     * @param instrumentation Receives the metrics of the check.
+     * @return true if dfa is locally threshold testable, false otherwise
+     */
+    public static boolean isLocallyThresholdTestable(Fst dfa, Instrumentation instrumentation) {
+        return isLocallyThresholdTestable(dfa, instrumentation, Budget.UNLIMITED);
+    }
 
-        // get SCCs of Γ
-        ArrayList<ArrayList<State>> gammaSCCs = getSCCs(dfa);
+    /**
+     * Determine if the given FST is locally threshold testable within the given budget, reporting phase timings,
+     * counters and trace events to the given instrumentation. It is assumed that the input automaton is a minimized
+     * DFA.
+     * @param dfa The input DFA test test, assumed to be minimized.
+     * @param instrumentation Receives the metrics of the check.
+     * @param budget Limits the time and product graph size of the check.
+     * @return true if dfa is locally threshold testable, false otherwise
+     * @throws BudgetExceededException if the budget runs out before the check is done.
+     */
+    public static boolean isLocallyThresholdTestable(Fst dfa, Instrumentation instrumentation, Budget budget) {
+        // get the direct product graphs up to permutations of their coordinates, which is all the checks below need
+        CompactDfa compactDfa = CompactDfa.fromFst(dfa);
+        int n = compactDfa.getStateCount();
+        SymmetricProduct gamma2;
+        SymmetricProduct gamma3;
+        try (Instrumentation.Phase phase = startPhase(instrumentation, "directProduct", dfa)) {
+            gamma2 = symmetricProduct(compactDfa, 2, dfa, budget);
+            gamma3 = symmetricProduct(compactDfa, 3, dfa, budget);
+        }
 
-        // mark SCC nodes in Γ, Γ², Γ³
-        boolean[] gammaSCCNodes = markSCCNodes(dfa);
-        boolean[] gamma2SCCNodes = markSCCNodes(gamma2);
-        boolean[] gamma3SCCNodes = markSCCNodes(gamma3);
+        // get SCCs of Γ and mark SCC nodes in Γ², Γ³
+        ArrayList<ArrayList<State>> gammaSCCs;
+        int[] gammaSCCOf = new int[n];
+        long[] gamma2SCCNodes;
+        long[] gamma3SCCNodes;
+        try (Instrumentation.Phase phase = startPhase(instrumentation, "markSCCNodes", dfa)) {
+            gammaSCCs = getSCCs(dfa);
+            Arrays.fill(gammaSCCOf, -1);
+            for (int i = 0; i < gammaSCCs.size(); i++) {
+                for (State state : gammaSCCs.get(i)) {
+                    gammaSCCOf[state.getId()] = i;
+                }
+            }
+            gamma2SCCNodes = Traversals.markSCCNodes(gamma2);
+            gamma3SCCNodes = Traversals.markSCCNodes(gamma3);
+        }
 
-        // generate reachability matrices for Γ and Γ²
-        boolean[][] gammaReachabilityMatrix = getReachabilityMatrix(dfa);
-        boolean[][] gamma2ReachabilityMatrix = getReachabilityMatrix(gamma2);
+        // generate reachability relations for Γ and Γ²
+        boolean[][] gammaReachabilityMatrix;
+        PairReachability gamma2Reachability;
+        try (Instrumentation.Phase phase = startPhase(instrumentation, "getReachabilityMatrix", dfa)) {
+            gammaReachabilityMatrix = getReachabilityMatrix(dfa);
+            gamma2Reachability = PairReachability.of(compactDfa, budget);
+        }
 
         // check lemma 12
-        if (!checkPQReachability(dfa, gamma2, gammaReachabilityMatrix, gamma2SCCNodes)) {
-            return false;
+        try (Instrumentation.Phase phase = startPhase(instrumentation, "lemma12", dfa)) {
+            if (!checkPQReachability(gamma2, gammaReachabilityMatrix, gamma2SCCNodes)) {
+                instrumentation.trace("lemma12", "failed");
+                return false;
+            }
         }
+        instrumentation.trace("lemma12", "passed");
 
-        // debugging printout
-        System.out.println("passed lemma 12");
+        // TSCC(p,q,r,r1) is needed by both definition 15 and theorem 16, so share the results between them
+        Map<Long, Integer> tsccCache = new HashMap<>();
 
         // check definition 15
-        if (!checkDefinition15(dfa, gamma2, gamma3, gammaReachabilityMatrix, gamma2ReachabilityMatrix, gamma2SCCNodes,
-                gamma3SCCNodes, gammaSCCs)) {
-            return false;
+        try (Instrumentation.Phase phase = startPhase(instrumentation, "definition15", dfa)) {
+            if (!checkDefinition15(n, gamma2, gamma3, gammaReachabilityMatrix, gamma2Reachability, gamma2SCCNodes,
+                    gamma3SCCNodes, gammaSCCOf, gammaSCCs.size(), tsccCache, instrumentation, budget)) {
+                instrumentation.trace("definition15", "failed");
+                return false;
+            }
         }
-
-        // debugging printout
-        System.out.println("passed definition 15");
+        instrumentation.trace("definition15", "passed");
 
         // check theorem 16
-        if (!checkTheorem16(dfa, gamma2, gamma3, gammaReachabilityMatrix, gamma2ReachabilityMatrix, gamma2SCCNodes,
-                gamma3SCCNodes, gammaSCCs)) {
-            return false;
+        try (Instrumentation.Phase phase = startPhase(instrumentation, "theorem16", dfa)) {
+            if (!checkTheorem16(n, gamma2, gamma3, gammaReachabilityMatrix, gamma2Reachability, gamma2SCCNodes,
+                    gamma3SCCNodes, gammaSCCOf, gammaSCCs.size(), tsccCache, instrumentation, budget)) {
+                instrumentation.trace("theorem16", "failed");
+                return false;
+            }
+        }
+        instrumentation.trace("theorem16", "passed");
+
+        return true;
+    }
+
+    /**
+     * Get the order of local testability of the language of the given FST, i.e. the smallest k such that membership
+     * of a word only depends on its prefix and suffix of length k - 1 and its set of factors of length k. The input
+     * is minimized first, so it need not be minimal.
+     *
+     * @param dfa The input DFA.
+     * @return The order of local testability, or -1 if the language is not locally testable.
+     */
+    public static int localTestabilityOrder(Fst dfa) {
+        return localTestabilityOrder(dfa, Budget.UNLIMITED);
+    }
+
+    /**
+     * Get the order of local testability of the language of the given FST, within the given budget.
+     *
+     * @param dfa    The input DFA.
+     * @param budget Limits the time, pair graph size and monoid size of the computation.
+     * @return The order of local testability, or -1 if the language is not locally testable.
+     * @throws BudgetExceededException if the budget runs out before the order is found.
+     */
+    public static int localTestabilityOrder(Fst dfa, Budget budget) {
+        return localTestabilityOrder(CompactDfa.fromFst(dfa), budget);
+    }
+
+    /**
+     * Get the order of local testability of the language of the given DFA, within the given budget. The order is
+     * bounded from both sides by the paths of the 2-tuple graph (see localTestabilityOrderBounds), which takes
+     * polynomial time and settles it whenever the bounds meet, e.g. whenever the DFA is strongly connected. Finding
+     * the order is NP-hard in general, so only when the bounds differ is the syntactic monoid built, and its loop
+     * identities are then only checked for the orders between the bounds.
+     *
+     * @param dfa    The input DFA; it is minimized, so it need not be minimal.
+     * @param budget Limits the time, pair graph size and monoid size of the computation.
+     * @return The order of local testability, or -1 if the language is not locally testable.
+     * @throws BudgetExceededException if the budget runs out before the order is found.
+     */
+    public static int localTestabilityOrder(CompactDfa dfa, Budget budget) {
+        CompactDfa minimal = dfa.minimize().complete();
+        if (!isLocallyTestable(minimal.toFst(), budget)) {
+            return -1;
+        }
+        int[] bounds = localTestabilityOrderBounds(minimal, budget);
+        if (bounds[0] == bounds[1]) {
+            return bounds[0];
+        }
+        return localTestabilityOrder(TransitionMonoid.of(minimal, budget), bounds[0], bounds[1], budget);
+    }
+
+    /**
+     * Bound the order of local testability of a minimal complete locally testable DFA by the paths of its 2-tuple
+     * graph ΓΓ (see IntGraph.tupleGraph), following Trahtman, "Optimal estimation on the order of local testability
+     * of finite automata" (1998). By its theorem 17 the order is max(K, l, m) + 2, where l and m are the longest
+     * SCC-restricted and SCC-semirestricted paths and K + r is the longest r-periodic path. A path is SCC-restricted if
+     * all its pairs lie in one SCC of Γ, and (p1,q1)...(pk,qk) is SCC-semirestricted if it avoids the SCCs of ΓΓ and
+     * some symbol a leads qk to a state that is not reachable from pk a and from which q1 is reachable (the second
+     * states then all lie in one SCC of Γ, and the proof of lemma 7 only needs q1 = qk a c for a word a c, so qk a may
+     * be q1 itself). An r-periodic path follows a word u^i from some state s and pairs the states s' and s' u' on it,
+     * where u' is the next r letters. l and m are longest paths in the acyclic part of ΓΓ, so they give the lower
+     * bound.
+     *
+     * K is NP-hard to find, so it is only bounded from above. A periodic path that avoids the SCCs of ΓΓ is strongly
+     * simple. Otherwise, let its first pair in an SCC of ΓΓ be (s', s' u'). By lemma 2 of the paper, every state s' u'^j
+     * then reaches s' u', so from the r-th pair on the path is SCC-restricted within the SCC Y of Γ that holds s' u'.
+     * Hence K is at most the longest strongly simple path minus one, or the longest strongly simple path into an SCC
+     * of ΓΓ plus the longest SCC-restricted path within Y (minus one if Y has none). The order is also at most the
+     * longest simple path plus two (theorem 11), which the heaviest path through the SCCs of ΓΓ bounds when it counts
+     * every pair of each SCC, and at most (n^2 - n) / 2 + 1. When Γ is strongly connected, ΓΓ is acyclic and every
+     * path is SCC-restricted, so the bounds meet (theorem 13).
+     *
+     * The SCCs of ΓΓ are numbered with successors first, so each quantity is one pass of dynamic programming over
+     * them, backwards for the paths from a pair and forwards for the paths into it, with reachability in Γ answered
+     * by the bitsets of its condensation.
+     *
+     * @param dfa    A minimal complete locally testable DFA.
+     * @param budget Polled once per SCC of ΓΓ.
+     * @return The lower and the upper bound on the order, in that order.
+     * @throws BudgetExceededException if the budget runs out.
+     */
+    static int[] localTestabilityOrderBounds(CompactDfa dfa, Budget budget) {
+        int n = dfa.getStateCount();
+        int k = dfa.getAlphabetSize();
+        Condensation gamma = Condensation.of(IntGraph.of(dfa));
+        IntGraph tupleGraph = IntGraph.tupleGraph(dfa, gamma);
+        budget.checkProductStates((long) n * n);
+        int[] ids = Traversals.componentIds(tupleGraph);
+
+        // list the pairs component by component, successors first
+        int pairs = n * n;
+        int componentCount = 0;
+        for (int id : ids) {
+            componentCount = Math.max(componentCount, id + 1);
+        }
+        int[] first = new int[componentCount + 1];
+        for (int id : ids) {
+            first[id + 1]++;
+        }
+        for (int c = 0; c < componentCount; c++) {
+            first[c + 1] += first[c];
+        }
+        int[] members = new int[pairs];
+        int[] fill = Arrays.copyOf(first, componentCount);
+        for (int v = 0; v < pairs; v++) {
+            members[fill[ids[v]]++] = v;
+        }
+
+        // backwards: the heaviest path from each component, the restricted and semirestricted paths from each pair
+        boolean[] cyclic = new boolean[componentCount];
+        int[] heaviest = new int[componentCount];
+        int[] restricted = new int[pairs];
+        int[] semirestricted = new int[pairs];
+        int[] restrictedWithin = new int[gamma.getComponentCount()];
+        Arrays.fill(restricted, -1);
+        Arrays.fill(semirestricted, -1);
+        Arrays.fill(restrictedWithin, -1);
+        int simple = -1;
+        int lower = -1;
+        for (int c = 0; c < componentCount; c++) {
+            budget.poll();
+            int size = first[c + 1] - first[c];
+            int v = members[first[c]];
+            if (tupleGraph.getArcCount(v) == 0) {
+                continue;   // not a node of ΓΓ
+            }
+            cyclic[c] = size > 1;
+            int longest = 0;
+            for (int i = first[c]; i < first[c + 1]; i++) {
+                for (int a = 0; a < k; a++) {
+                    int t = tupleGraph.getTarget(members[i], a);
+                    if (t == members[i]) {
+                        cyclic[c] = true;
+                    } else if (t != IntGraph.NO_ARC && ids[t] != c) {
+                        longest = Math.max(longest, heaviest[ids[t]] + 1);
+                    }
+                }
+            }
+            heaviest[c] = size - 1 + longest;
+            simple = Math.max(simple, heaviest[c]);
+            if (cyclic[c]) {
+                continue;
+            }
+
+            int p = v / n;
+            int q = v % n;
+            int x = gamma.getComponentOf(q);
+            if (gamma.getComponentOf(p) == x) {
+                restricted[v] = 0;
+            }
+            for (int a = 0; a < k; a++) {
+                int r = dfa.next(p, a);
+                int s = dfa.next(q, a);
+                if (gamma.getComponentOf(s) != x) {
+                    continue;
+                }
+                if (!gamma.reaches(r, s)) {
+                    semirestricted[v] = Math.max(semirestricted[v], 0);
+                    continue;
+                }
+                int t = r * n + s;
+                if (restricted[v] >= 0 && restricted[t] >= 0 && gamma.getComponentOf(r) == x) {
+                    restricted[v] = Math.max(restricted[v], restricted[t] + 1);
+                }
+                if (semirestricted[t] >= 0) {
+                    semirestricted[v] = Math.max(semirestricted[v], semirestricted[t] + 1);
+                }
+            }
+            if (restricted[v] >= 0) {
+                restrictedWithin[x] = Math.max(restrictedWithin[x], restricted[v]);
+            }
+            lower = Math.max(lower, Math.max(restricted[v], semirestricted[v]));
+        }
+
+        // forwards: the longest strongly simple path into each pair, which ends there for the pairs off the SCCs
+        int[] into = restricted;
+        Arrays.fill(into, 0);
+        int periodic = -1;
+        for (int c = componentCount - 1; c >= 0; c--) {
+            budget.poll();
+            for (int i = first[c]; i < first[c + 1]; i++) {
+                int v = members[i];
+                if (tupleGraph.getArcCount(v) == 0) {
+                    continue;
+                }
+                if (cyclic[c]) {
+                    int withinY = restrictedWithin[gamma.getComponentOf(v % n)];
+                    periodic = Math.max(periodic, into[v] + withinY);
+                    continue;
+                }
+                periodic = Math.max(periodic, into[v] - 1);
+                for (int a = 0; a < k; a++) {
+                    int t = tupleGraph.getTarget(v, a);
+                    if (t != IntGraph.NO_ARC) {
+                        into[t] = Math.max(into[t], into[v] + 1);
+                    }
+                }
+            }
         }
 
-        // debugging printout
-        System.out.println("passed theorem 16");
+        int upper = Math.max(periodic, lower) + 2;
+        upper = (int) Math.min(upper, Math.min(simple + 2, ((long) n * n - n) / 2 + 1));
+        return new int[]{lower + 2, Math.max(lower + 2, upper)};
+    }
 
+    /**
+     * Find the order of local testability of a locally testable language from its syntactic monoid, given that it
+     * lies between the given bounds. Words with the same prefix and suffix of length N = k - 1 and the same factors
+     * of length k are the paths with the same ends and the same edges in the de Bruijn graph of order N, and by
+     * Simon's theorem on locally idempotent and commutative categories those are exactly the paths identified by the
+     * loop identities e e = e and e f = f e for loops e, f at a common vertex x. So the language is k-testable iff
+     * the transformations t satisfy, for every word x of length N and all loops w1, w2 at x (words such that x w ends
+     * with x): t(x w1 w1) = t(x w1) and t(x w1 w2) = t(x w2 w1).
+     *
+     * A loop of length at least N is y x for any y, so with a = t(x) and s, r ranging over the monoid these read
+     * a s a s a = a s a and a s a r a = a r a s a. A shorter loop w exists iff x has period d = |w|, and then
+     * x = (u' u'')^m u' and w = u'' u' for words u' of length N mod d and u'' of length d - |u'|; with g = t(u'),
+     * h = t(u'') and c = g h, the identities with w read c^(m+2) g = c^(m+1) g and c^(m+1) g s a = a s c^(m+1) g. Two
+     * short loops commute by the other identities. Every k-testable language is (k + 1)-testable, so the order is the
+     * first k from the lower bound on whose identities hold, with the sets t(Sigma^N) built by right multiplication,
+     * and the upper bound if none below it does.
+     */
+    static int localTestabilityOrder(TransitionMonoid monoid, int lower, int upper, Budget budget) {
+        int size = monoid.getSize();
+        List<BitSet> wordsOfLength = new ArrayList<>();
+        BitSet current = new BitSet(size);
+        current.set(monoid.getIdentity());
+        wordsOfLength.add(current);
+        for (int N = 0; N < upper - 1; N++) {
+            budget.poll();
+            if (N > 0) {
+                BitSet next = new BitSet(size);
+                for (int m = current.nextSetBit(0); m >= 0; m = current.nextSetBit(m + 1)) {
+                    for (int a = 0; a < monoid.getAlphabetSize(); a++) {
+                        next.set(monoid.rightMultiply(m, a));
+                    }
+                }
+                current = next;
+                wordsOfLength.add(current);
+            }
+            if (N >= lower - 1 && satisfiesLongLoopIdentities(monoid, current, budget)
+                    && satisfiesShortLoopIdentities(monoid, wordsOfLength, N, budget)) {
+                return N + 1;
+            }
+        }
+        return upper;
+    }
+
+    /**
+     * Check a s a s a = a s a and a s a r a = a r a s a for every a in the given set and all s, r.
+     */
+    private static boolean satisfiesLongLoopIdentities(TransitionMonoid monoid, BitSet as, Budget budget) {
+        int size = monoid.getSize();
+        int[] right = new int[size];
+        int[] rightA = new int[size];
+        boolean[] seen = new boolean[size];
+        for (int a = as.nextSetBit(0); a >= 0; a = as.nextSetBit(a + 1)) {
+            budget.poll();
+            // the distinct elements a s, and a s a for each
+            int count = 0;
+            Arrays.fill(seen, false);
+            for (int s = 0; s < size; s++) {
+                int u = monoid.multiply(a, s);
+                if (!seen[u]) {
+                    seen[u] = true;
+                    right[count] = u;
+                    rightA[count] = monoid.multiply(u, a);
+                    count++;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (monoid.multiply(right[i], rightA[i]) != rightA[i]) {
+                    return false;
+                }
+                for (int j = i + 1; j < count; j++) {
+                    if (monoid.multiply(right[i], rightA[j]) != monoid.multiply(right[j], rightA[i])) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check the identities of the loops shorter than N at the words of length N with a period below N.
+     */
+    private static boolean satisfiesShortLoopIdentities(TransitionMonoid monoid, List<BitSet> wordsOfLength, int N,
+                                                        Budget budget) {
+        int size = monoid.getSize();
+        for (int d = 1; d < N; d++) {
+            int i = N % d;
+            int m = N / d;
+            BitSet gs = wordsOfLength.get(i);
+            BitSet hs = wordsOfLength.get(d - i);
+            for (int g = gs.nextSetBit(0); g >= 0; g = gs.nextSetBit(g + 1)) {
+                budget.poll();
+                for (int h = hs.nextSetBit(0); h >= 0; h = hs.nextSetBit(h + 1)) {
+                    int c = monoid.multiply(g, h);
+                    int a = g;
+                    for (int j = 0; j < m; j++) {
+                        a = monoid.multiply(c, a);
+                    }
+                    int loop = monoid.multiply(c, a);
+                    if (monoid.multiply(c, loop) != loop) {
+                        return false;
+                    }
+                    for (int s = 0; s < size; s++) {
+                        if (monoid.multiply(monoid.multiply(loop, s), a)
+                                != monoid.multiply(monoid.multiply(a, s), loop)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
         return true;
     }
 
+    /**
+     * Determine if the language of the given FST is strictly k-local, i.e. closed under suffix substitution: whenever
+     * u1 x v1 and u2 x v2 are in the language and x has length k - 1, so is u1 x v2. The input is minimized first,
+     * so it need not be minimal.
+     *
+     * @param dfa The input DFA.
+     * @param k   The length of the factors, at least 1.
+     * @return true if the language of dfa is SL-k, false otherwise.
+     */
+    public static boolean isStrictlyLocal(Fst dfa, int k) {
+        return isStrictlyLocal(dfa, k, Budget.UNLIMITED);
+    }
+
+    /**
+     * Determine if the language of the given FST is strictly k-local, within the given budget.
+     *
+     * @param dfa    The input DFA.
+     * @param k      The length of the factors, at least 1.
+     * @param budget Limits the time and pair graph size of the check.
+     * @return true if the language of dfa is SL-k, false otherwise.
+     * @throws BudgetExceededException if the budget runs out before the check is done.
+     */
+    public static boolean isStrictlyLocal(Fst dfa, int k, Budget budget) {
+        if (k < 1) {
+            throw new IllegalArgumentException("The factor length must be positive, but was " + k);
+        }
+        int order = getStrictlyLocalOrder(dfa, budget);
+        return order != -1 && order <= k;
+    }
+
+    /**
+     * Get the smallest k for which the language of the given FST is strictly k-local.
+     *
+     * @param dfa The input DFA.
+     * @return The smallest such k, or -1 if the language is not strictly local.
+     */
+    public static int getStrictlyLocalOrder(Fst dfa) {
+        return getStrictlyLocalOrder(dfa, Budget.UNLIMITED);
+    }
+
+    /**
+     * Get the smallest k for which the language of the given FST is strictly k-local, within the given budget.
+     *
+     * @param dfa    The input DFA.
+     * @param budget Limits the time and pair graph size of the check.
+     * @return The smallest such k, or -1 if the language is not strictly local.
+     * @throws BudgetExceededException if the budget runs out before the check is done.
+     */
+    public static int getStrictlyLocalOrder(Fst dfa, Budget budget) {
+        return getStrictlyLocalOrder(CompactDfa.fromFst(dfa).minimize(), budget);
+    }
+
+    /**
+     * In the minimal DFA, reading the same x of length k - 1 from two useful states must lead to the same state (or
+     * to a useless one), since otherwise u1 x v2 would separate the two targets. So the language is SL-k iff every
+     * path of the pair graph on the useful states that avoids the diagonal has fewer than k - 1 arcs, and the
+     * smallest k is the length of the longest such path plus 2 (or 1 if there is at most one useful state).
+     */
+    static int getStrictlyLocalOrder(CompactDfa dfa, Budget budget) {
+        int n = dfa.getStateCount();
+        BitSet useful = getCoaccessibleStates(dfa);
+        budget.checkProductStates((long) (n + 1) * (n + 1));
+        IntGraph pairGraph = IntGraph.pairGraph(dfa, useful, useful);
+        if (!Traversals.isAcyclic(pairGraph)) {
+            return -1;
+        }
+        budget.poll();
+
+        // the longest path out of each off-diagonal pair, in the post order of the pair graph
+        int[] longest = new int[pairGraph.getStateCount()];
+        boolean anyPair = false;
+        int maxLongest = 0;
+        for (int pair : Traversals.postOrder(pairGraph)) {
+            if (pairGraph.getArcCount(pair) == 0) {
+                continue;
+            }
+            anyPair = true;
+            for (int a = 0; a < pairGraph.getArcCount(pair); a++) {
+                int target = pairGraph.getTarget(pair, a);
+                if (target != IntGraph.NO_ARC && pairGraph.getArcCount(target) > 0) {
+                    longest[pair] = Math.max(longest[pair], longest[target] + 1);
+                }
+            }
+            maxLongest = Math.max(maxLongest, longest[pair]);
+        }
+        return anyPair ? maxLongest + 2 : 1;
+    }
+
+    /**
+     * Determine if the language of the given FST is strictly piecewise, i.e. closed under taking subsequences. By
+     * Higman's lemma such a language is defined by finitely many forbidden subsequences, so it is SP-k for some k.
+     * The input is minimized first, so it need not be minimal.
+     *
+     * @param dfa The input DFA.
+     * @return true if the language of dfa is strictly piecewise, false otherwise.
+     */
+    public static boolean isStrictlyPiecewise(Fst dfa) {
+        return isStrictlyPiecewise(dfa, Budget.UNLIMITED);
+    }
+
+    /**
+     * Determine if the language of the given FST is strictly piecewise, within the given budget.
+     *
+     * @param dfa    The input DFA.
+     * @param budget Limits the time and pair graph size of the check.
+     * @return true if the language of dfa is strictly piecewise, false otherwise.
+     * @throws BudgetExceededException if the budget runs out before the check is done.
+     */
+    public static boolean isStrictlyPiecewise(Fst dfa, Budget budget) {
+        return isStrictlyPiecewise(CompactDfa.fromFst(dfa).minimize(), budget);
+    }
+
+    /**
+     * The language is closed under deleting a letter iff, for every arc p -a-> q of the minimal DFA, the
+     * right language of q is included in that of p. Inclusion fails iff the pair (q,p) of the pair graph reaches a
+     * pair (f,g) where f is final and g is not. Those pairs are found for all (q,p) at once by a breadth-first search
+     * backwards from the pairs (f,g), one level at a time with a bitset per level: the predecessors of (f,g) on a
+     * letter a are the sources of the arcs into f and into g labeled a, which a merge of the incoming arcs of f and g
+     * sorted by label lists in O(n^2 k) over the whole search. Arcs on letters in the stabilizer of p (self-loops)
+     * need no check.
+     */
+    static boolean isStrictlyPiecewise(CompactDfa dfa, Budget budget) {
+        int n = dfa.getStateCount();
+        budget.checkProductStates((long) n * n);
+
+        // the arcs into each state as label << 32 | source, sorted by label
+        ReverseAdjacency reverse = dfa.getReverseAdjacency();
+        long[] arcs = new long[reverse.getArcCount()];
+        for (int t = 0; t < n; t++) {
+            for (int i = reverse.getFirstArc(t); i < reverse.getEndArc(t); i++) {
+                arcs[i] = (long) reverse.getLabel(i) << 32 | reverse.getSource(i);
+            }
+            Arrays.sort(arcs, reverse.getFirstArc(t), reverse.getEndArc(t));
+        }
+
+        // notIncluded holds the pairs (q,p) with a word accepted from q but not from p
+        BitSet notIncluded = new BitSet(n * n);
+        BitSet frontier = new BitSet(n * n);
+        for (int f = 0; f < n; f++) {
+            for (int g = 0; g < n; g++) {
+                if (dfa.isFinal(f) && !dfa.isFinal(g)) {
+                    notIncluded.set(f * n + g);
+                    frontier.set(f * n + g);
+                }
+            }
+        }
+
+        // a missing transition goes to an implicit sink with an empty right language, so (q,p) is not included either
+        // if q has a transition into a coaccessible state on a letter that p has no transition on
+        if (!dfa.isComplete()) {
+            BitSet useful = getCoaccessibleStates(dfa);
+            for (int q = 0; q < n; q++) {
+                budget.poll();
+                for (int arc = 0; arc < dfa.getArcCount(q); arc++) {
+                    int t = dfa.getArcTarget(q, arc);
+                    if (t == CompactDfa.NONE || !useful.get(t)) {
+                        continue;
+                    }
+                    int a = dfa.getArcLabel(q, arc);
+                    for (int p = 0; p < n; p++) {
+                        if (p != q && dfa.next(p, a) == CompactDfa.NONE && !notIncluded.get(q * n + p)) {
+                            notIncluded.set(q * n + p);
+                            frontier.set(q * n + p);
+                        }
+                    }
+                }
+            }
+        }
+        while (!frontier.isEmpty()) {
+            BitSet next = new BitSet(n * n);
+            for (int pair = frontier.nextSetBit(0); pair >= 0; pair = frontier.nextSetBit(pair + 1)) {
+                budget.poll();
+                int i = reverse.getFirstArc(pair / n);
+                int iEnd = reverse.getEndArc(pair / n);
+                int j = reverse.getFirstArc(pair % n);
+                int jEnd = reverse.getEndArc(pair % n);
+                while (i < iEnd && j < jEnd) {
+                    long label = arcs[i] >>> 32;
+                    long other = arcs[j] >>> 32;
+                    if (label < other) {
+                        i++;
+                    } else if (label > other) {
+                        j++;
+                    } else {
+                        int jStart = j;
+                        for (; i < iEnd && arcs[i] >>> 32 == label; i++) {
+                            int q = (int) arcs[i];
+                            for (j = jStart; j < jEnd && arcs[j] >>> 32 == label; j++) {
+                                int p = (int) arcs[j];
+                                if (q != p && !notIncluded.get(q * n + p)) {
+                                    notIncluded.set(q * n + p);
+                                    next.set(q * n + p);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            frontier = next;
+        }
+
+        for (int p = 0; p < n; p++) {
+            for (int arc = 0; arc < dfa.getArcCount(p); arc++) {
+                int q = dfa.getArcTarget(p, arc);
+                if (q != CompactDfa.NONE && q != p && notIncluded.get(q * n + p)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The states of dfa from which a final state can be reached.
+     */
+    private static BitSet getCoaccessibleStates(CompactDfa dfa) {
+        ReverseAdjacency reverse = dfa.getReverseAdjacency();
+        BitSet coaccessible = new BitSet(dfa.getStateCount());
+        int[] queue = new int[dfa.getStateCount()];
+        int tail = 0;
+        for (int s = 0; s < dfa.getStateCount(); s++) {
+            if (dfa.isFinal(s)) {
+                coaccessible.set(s);
+                queue[tail++] = s;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int t = queue[head];
+            for (int arc = reverse.getFirstArc(t); arc < reverse.getEndArc(t); arc++) {
+                int s = reverse.getSource(arc);
+                if (!coaccessible.get(s)) {
+                    coaccessible.set(s);
+                    queue[tail++] = s;
+                }
+            }
+        }
+        return coaccessible;
+    }
+
+    /**
+     * Get the product of copies copies of a DFA up to permutations of the coordinates, refusing products whose full
+     * tuple space is over budget.
+     */
+    private static SymmetricProduct symmetricProduct(CompactDfa compactDfa, int copies, Fst dfa, Budget budget) {
+        long productStates = 1;
+        for (int m = 0; m < copies; m++) {
+            productStates *= compactDfa.getStateCount();
+            budget.checkProductStates(productStates);
+        }
+        Stage stage = Stage.begin(Stage.PRODUCT, dfa);
+        SymmetricProduct product = SymmetricProduct.of(compactDfa, copies);
+        stage.setProductStates(product.getStateCount()).close();
+        return product;
+    }
+
+    /**
+     * Start a phase of the given instrumentation that is also recorded as a JFR stage.
+     */
+    private static Instrumentation.Phase startPhase(Instrumentation instrumentation, String name, Fst dfa) {
+        Instrumentation.Phase phase = instrumentation.startPhase(name);
+        Stage stage = Stage.begin(name, dfa);
+        return () -> {
+            stage.close();
+            phase.close();
+        };
+    }
+
     /**
      * Given a syntactic monoid and the mapping from state labels to
      * associated index values, as well as the mapping from states to
@@ -332,6 +1138,22 @@ public class Utils {
      * @return The syntactic monoid.
      */
     public static Fst getSM(MutableFst originalFst) {
+        return getSM(originalFst, Budget.UNLIMITED);
+    }
+
+    /**
+     * Given a complete and deterministic FST, return its syntacic
+     * monoid, giving up if the budget runs out.
+     *
+     * @param originalFst The input FST.
+     * @param budget      Limits the time and number of elements of the
+     *                    monoid construction.
+     * @return The syntactic monoid.
+     * @throws BudgetExceededException if the budget runs out before the
+     * monoid is complete.
+     */
+    public static Fst getSM(MutableFst originalFst, Budget budget) {
+        Stage stage = Stage.begin(Stage.MONOID, originalFst);
         HashMap<Integer, MutableState> idToStateOrig = new HashMap<Integer, MutableState>();
 
         String newStateName = "";
@@ -363,6 +1185,8 @@ public class Utils {
         synMonoid.setStart(newState);
         // outline of algorithm to implement
         while (statesToProcess.size() != 0) {
+            budget.poll();
+            budget.checkMonoidElements(synMonoid.getStateCount());
             MutableState stateToProcess = statesToProcess.get(0);
             String label = idToLabel.get(stateToProcess.getId());
             ArrayList<String> newStates = new ArrayList<String>();
@@ -429,6 +1253,7 @@ public class Utils {
             // add this state to our synMonoid
 
         }
+        stage.setMonoidSize(synMonoid.getStateCount()).close();
         return synMonoid;
     }
 
@@ -442,11 +1267,26 @@ public class Utils {
      * @return true if m1 and m2 are pairwise s-local, false otherwise.
      */
     public static boolean isPairwiseSLocal(Fst dfa, Set<State> m1, Set<State> m2) {
-        // construct the pair graph on m1 and m2
-        Fst pairGraph = getPairGraph(dfa, m1, m2);
+        return isPairwiseSLocal(dfa, m1, m2, Budget.UNLIMITED);
+    }
+
+    private static boolean isPairwiseSLocal(Fst dfa, Set<State> m1, Set<State> m2, Budget budget) {
+        return isPairwiseSLocal(CompactDfa.fromFst(dfa), stateIds(m1), stateIds(m2), budget);
+    }
+
+    static boolean isPairwiseSLocal(CompactDfa dfa, BitSet m1, BitSet m2, Budget budget) {
+        budget.checkProductStates((long) (m1.cardinality() + 1) * (m2.cardinality() + 1));
+
+        // check if the pair graph on m1 and m2 is acyclic, without building it
+        return Traversals.isAcyclic(IntGraph.pairGraph(dfa, m1, m2));
+    }
 
-        // check if the pair graph is acyclic
-        return isAcyclic(pairGraph);
+    private static BitSet stateIds(Collection<State> states) {
+        BitSet ids = new BitSet();
+        for (State state : states) {
+            ids.set(state.getId());
+        }
+        return ids;
     }
 
     /**
@@ -465,8 +1305,13 @@ public class Utils {
      * @return The pair graph of dfa.
      */
     public static Fst getPairGraph(Fst dfa, Set<State> q1, Set<State> q2) {
+        return getPairGraph(dfa, q1, q2, Budget.UNLIMITED);
+    }
+
+    private static Fst getPairGraph(Fst dfa, Set<State> q1, Set<State> q2, Budget budget) {
         // TODO: check that the given fst is in fact a DFA
         // TODO: check that q1/q2 are actually subsets of dfa's states
+        budget.checkProductStates((long) (q1.size() + 1) * (q2.size() + 1));
 
         MutableFst pairGraph = new MutableFst();
 
@@ -492,28 +1337,45 @@ public class Utils {
             pairGraph.addState(new MutableState(), newStateSymbol);
         }
 
-        // create the edges of the pair graph
-        for (String stateName : pairGraph.getStateSymbols().symbols()) {
-            String[] substateNames = stateName.split(DELIMITER);
-            String pName = substateNames[0];
-            String qName = substateNames[1];
-            if (pName.equals(UNUSED_SYMBOL) || qName.equals(UNUSED_SYMBOL)) {
-                continue;
-            }
-            State p = dfa.getState(pName);
-            State q = dfa.getState(qName);
-
-            if (!p.equals(q) && q1.contains(p) && q2.contains(q)) {
-                for (String a : dfa.getInputSymbols().symbols()) {
-                    String r = deltaI(dfa, q1, pName, a);
-                    String s = deltaI(dfa, q2, qName, a);
-                    if (r != UNUSED_SYMBOL || s != UNUSED_SYMBOL) { // valid transition in pair graph
-                        pairGraph.addArc(stateName, a, a, r + DELIMITER + s, 0);
+        // create the edges of the pair graph, visiting only the symbols that p or q has a transition on
+        CompactDfa compactDfa = CompactDfa.fromFst(dfa);
+        SymbolTable.InvertedSymbolTable stateSymbols = stateSymbolTable.invert();
+        BitSet q1Ids = new BitSet();
+        BitSet q2Ids = new BitSet();
+        for (State p : q1) {
+            q1Ids.set(p.getId());
+        }
+        for (State q : q2) {
+            q2Ids.set(q.getId());
+        }
+        for (State p : q1) {
+            String pName = stateSymbols.keyForId(p.getId());
+            for (State q : q2) {
+                budget.poll();
+                if (p.equals(q)) {
+                    continue;
+                }
+                String stateName = pName + DELIMITER + stateSymbols.keyForId(q.getId());
+                int a = nextSymbolOfEither(compactDfa, p.getId(), q.getId(), 0);
+                while (a != CompactDfa.NONE) {
+                    int r = deltaI(compactDfa, q1Ids, p.getId(), a);
+                    int s = deltaI(compactDfa, q2Ids, q.getId(), a);
+                    if (r != CompactDfa.NONE || s != CompactDfa.NONE) { // valid transition in pair graph
+                        String rName = r != CompactDfa.NONE ? stateSymbols.keyForId(r) : UNUSED_SYMBOL;
+                        String sName = s != CompactDfa.NONE ? stateSymbols.keyForId(s) : UNUSED_SYMBOL;
+                        String symbol = compactDfa.getSymbol(a);
+                        pairGraph.addArc(stateName, symbol, symbol, rName + DELIMITER + sName, 0);
                     }
+                    a = nextSymbolOfEither(compactDfa, p.getId(), q.getId(), a + 1);
                 }
             }
         }
 
+        // the pair graph has no natural start state, but FST operations such as reversal require one
+        if (pairGraph.getStateCount() > 0) {
+            pairGraph.setStart(pairGraph.getState(0));
+        }
+
         return pairGraph;
     }
 
@@ -529,24 +1391,66 @@ public class Utils {
      * delta(p, a) if q is an element of q_i, otherwise the unused symbol '*'.
      */
     public static String deltaI(Fst dfa, Set<State> q_i, String p, String a) {
-        SymbolTable.InvertedSymbolTable inverseStateSymbols = dfa.getStateSymbols().invert();
-        SymbolTable.InvertedSymbolTable inverseInputSymbols = dfa.getInputSymbols().invert();
-        // get the state with label p
+        // look up the label of a once and compare ids, instead of comparing names arc by arc
+        int label = dfa.getInputSymbols().contains(a) ? dfa.getInputSymbols().get(a) : -1;
         State stateP = dfa.getState(p);
-        // look through stateP's arcs to find one with label a
-        for (Arc arc : stateP.getArcs()) {
-            if (inverseInputSymbols.keyForId(arc.getIlabel()).equals(a)) {
+        for (int i = 0; i < stateP.getArcCount(); i++) {
+            Arc arc = stateP.getArc(i);
+            if (arc.getIlabel() == label) {
                 State stateQ = arc.getNextState();
-                if (q_i.contains(stateQ)) {
-                    return inverseStateSymbols.keyForId(stateQ.getId());
-                } else {
-                    return UNUSED_SYMBOL;
-                }
+                return q_i.contains(stateQ) ? dfa.getStateSymbols().invert().keyForId(stateQ.getId()) : UNUSED_SYMBOL;
             }
         }
         return UNUSED_SYMBOL;
     }
 
+    /**
+     * The delta_i transition function (see deltaI(Fst, Set, String, String)) on a compact DFA, which finds the
+     * transition by binary search instead of scanning the arcs of p.
+     *
+     * @param dfa The DFA to use as a basis for looking up transitions.
+     * @param q_i A subset of states from dfa.
+     * @param p   A state from q_i.
+     * @param a   The index of a symbol from the alphabet of dfa.
+     * @return The state q = delta(p, a) if q is an element of q_i, otherwise CompactDfa.NONE.
+     */
+    static int deltaI(CompactDfa dfa, BitSet q_i, int p, int a) {
+        int q = dfa.next(p, a);
+        return q != CompactDfa.NONE && q_i.get(q) ? q : CompactDfa.NONE;
+    }
+
+    /**
+     * @return The smallest symbol index b >= a such that p or q has a transition on b, or CompactDfa.NONE.
+     */
+    private static int nextSymbolOfEither(CompactDfa dfa, int p, int q, int a) {
+        int b = dfa.nextSymbol(p, a);
+        int c = dfa.nextSymbol(q, a);
+        return b == CompactDfa.NONE ? c : c == CompactDfa.NONE ? b : Math.min(b, c);
+    }
+
+    /**
+     * Leapfrog from state to state to the next symbol they all have a transition on.
+     *
+     * @return The smallest symbol index b >= a such that every state of states has a transition on b, or
+     * CompactDfa.NONE.
+     */
+    private static int nextCommonSymbol(CompactDfa dfa, int[] states, int a) {
+        int agreeing = 0;
+        for (int m = 0; agreeing < states.length; m = (m + 1) % states.length) {
+            int b = dfa.nextSymbol(states[m], a);
+            if (b == CompactDfa.NONE) {
+                return CompactDfa.NONE;
+            }
+            if (b == a) {
+                agreeing++;
+            } else {
+                a = b;
+                agreeing = 1;
+            }
+        }
+        return a;
+    }
+
     /**
      * Determine if the given dfa is acyclic.
      *
@@ -555,34 +1459,7 @@ public class Utils {
      */
     public static boolean isAcyclic(Fst dfa) {
         // perform DFS and check for back edges
-        StateState[] stateStates = new StateState[dfa.getStateCount()];
-        for (int i = 0; i < dfa.getStateCount(); i++) {
-            stateStates[i] = StateState.UNDISCOVERED;
-        }
-        for (int i = 0; i < dfa.getStateCount(); i++) {
-            if (stateStates[i] == StateState.UNDISCOVERED) {
-                if (!isAcyclicHelper(dfa.getState(i), stateStates)) {
-                    return false;
-                }
-            }
-        }
-        return true;
-    }
-
-    private static boolean isAcyclicHelper(State s, StateState[] stateStates) {
-        stateStates[s.getId()] = StateState.DISCOVERED;
-        for (Arc a : s.getArcs()) {
-            State t = a.getNextState();
-            if (stateStates[t.getId()] == StateState.DISCOVERED) {   // found a back edge, thus there is a cycle
-                return false;
-            } else if (stateStates[t.getId()] == StateState.UNDISCOVERED) {
-                if (!isAcyclicHelper(t, stateStates)) {
-                    return false;
-                }
-            }
-        }
-        stateStates[s.getId()] = StateState.PROCESSED;
-        return true;
+        return Traversals.isAcyclic(IntGraph.of(dfa));
     }
 
     /**
@@ -594,61 +1471,30 @@ public class Utils {
      * list contains all of the states from a single SCC
      */
     public static ArrayList<ArrayList<State>> getSCCs(Fst dfa) {
-        // stack to hold order that states were finished being
-        // processed in DFS
-        Stack stack = new Stack();
+        Stage stage = Stage.begin(Stage.SCC, dfa);
+
+        // order in which states were finished being processed in DFS
+        int[] finished = Traversals.postOrder(IntGraph.of(dfa));
 
         // arraylist of SCCs that we will be building up to return
         ArrayList<ArrayList<State>> SCCs = new ArrayList<>();
 
-        // initialize visited array
-        boolean[] visited = new boolean[dfa.getStateCount()];
-        for (int i = 0; i < dfa.getStateCount(); i++) {
-            visited[i] = false;
-        }
-
-        // while there are states that still haven't been seen by DFS,
-        // start a DFS from unvisited state
-        for (int i = 0; i < dfa.getStateCount(); i++) {
-            if (visited[i] == false) {
-                stack = orderProcessed(dfa.getState(i), visited, stack);
-            }
-
-        }
-
-        // transpose dfa
-        Fst transposed = Reverse2.reverse(dfa);
+        // walk the arcs of dfa backwards instead of transposing it
+        ReverseAdjacency reverse = ReverseAdjacency.of(dfa);
 
-        // reset visited array to do dfs from each state of transposed dfa
-        for (int i = 0; i < dfa.getStateCount(); i++) {
-            visited[i] = false;
-        }
+        // visited array to do dfs from each state of transposed dfa
+        boolean[] visited = new boolean[dfa.getStateCount()];
 
-        // Now process all states in order defined by Stack
-        while (stack.empty() == false) {
-            // Pop a vertex from stack
-            State state = (State) stack.pop();
-            State tState = null;
-            for (int i = 0; i < transposed.getStateCount(); i++) {
-                tState = transposed.getState(i);
-                if (tState.getId() == state.getId()) {
-                    break;
-                }
-            }
+        // Now process all states, last finished first
+        int[] dfsStack = new int[dfa.getStateCount()];
+        int[] dfsArcs = new int[dfa.getStateCount()];
+        for (int f = finished.length - 1; f >= 0; f--) {
+            State state = dfa.getState(finished[f]);
             ArrayList<State> result = new ArrayList<>();
 
-            // Print Strongly connected component of the popped vertex
+            // collect the strongly connected component of the state
             if (visited[state.getId()] == false) {
-                SCCs.add(DFS(tState, visited, result));
-            }
-
-            // states returned in SCC were from the transposed dfa
-            // this will exchanged the states from the transposed dfa
-            // for their original state from the original dfa
-            for (ArrayList<State> scc : SCCs) {
-                for (int i = 0; i < scc.size(); i++) {
-                    scc.set(i, dfa.getState(scc.get(i).getId()));
-                }
+                SCCs.add(reverseDFS(state.getId(), visited, result, dfa, reverse, dfsStack, dfsArcs));
             }
         }
 
@@ -673,6 +1519,7 @@ public class Utils {
         }
 
 //        return SCCs;
+        stage.close();
         return tmp;
     }
 
@@ -686,15 +1533,26 @@ public class Utils {
      * in order of discovery
      */
     public static ArrayList<State> DFS(State startState, boolean visited[], ArrayList<State> result) {
-        // Mark the current node as visited and print it
+        // keep the path from startState on an explicit stack, with the next arc to follow from each state on it
+        State[] stack = new State[visited.length];
+        int[] arcs = new int[visited.length];
+        int depth = 0;
+        stack[0] = startState;
         visited[startState.getId()] = true;
         result.add(startState);
-
-        // Recur for all the vertices adjacent to this vertex
-        for (Arc arc : startState.getArcs()) {
-            State adjState = arc.getNextState();
+        while (depth >= 0) {
+            State state = stack[depth];
+            if (arcs[depth] == state.getArcCount()) {
+                depth--;
+                continue;
+            }
+            State adjState = state.getArc(arcs[depth]++).getNextState();
             if (!visited[adjState.getId()]) {
-                DFS(adjState, visited, result);
+                visited[adjState.getId()] = true;
+                result.add(adjState);
+                depth++;
+                stack[depth] = adjState;
+                arcs[depth] = 0;
             }
         }
         return result;
@@ -702,34 +1560,41 @@ public class Utils {
 
 
     /**
-     * Do a DFS of the given dfa starting at state "start",
-     * but we are adding states to our result stack only
-     * once all states reachable from that state are processed
+     * Do a DFS of the transpose of the given dfa starting at state "start",
+     * visiting states in the same order as DFS would on a reversed copy
      *
-     * @param startState The state to start the DFS from
-     * @param visited    array to keep track of the states we've seen so far
-     * @param stack      stack of states in order of when processing of the reachable
-     *                   states from that state is finished
-     * @return An arrayList containing the states reached from the DFA,
-     * in order of discovery
+     * @param start    The state to start the DFS from
+     * @param visited  array to keep track of the states we've seen so far
+     * @param result   arraylist to add found states of dfa to
+     * @param dfa      dfa the states belong to
+     * @param reverse  the reverse adjacency of dfa
+     * @param stack    scratch space for the DFS path, at least as long as dfa has states
+     * @param arcs     scratch space for the next incoming arc of each state on the path
+     * @return result, with the states reached added in order of discovery
      */
-    private static Stack orderProcessed(State startState, boolean visited[], Stack stack) {
-
-        // Mark the current state as visited
-        visited[startState.getId()] = true;
-
-        // Recur for all the states adjacent to this vertex
-        for (Arc arc : startState.getArcs()) {
-            State adjState = arc.getNextState();
-            if (!visited[adjState.getId()]) {
-                stack = orderProcessed(adjState, visited, stack);
+    private static ArrayList<State> reverseDFS(int start, boolean[] visited, ArrayList<State> result, Fst dfa,
+                                               ReverseAdjacency reverse, int[] stack, int[] arcs) {
+        int depth = 0;
+        visited[start] = true;
+        result.add(dfa.getState(start));
+        stack[0] = start;
+        arcs[0] = reverse.getFirstArc(start);
+        while (depth >= 0) {
+            int state = stack[depth];
+            if (arcs[depth] == reverse.getEndArc(state)) {
+                depth--;
+                continue;
+            }
+            int adjState = reverse.getSource(arcs[depth]++);
+            if (!visited[adjState]) {
+                visited[adjState] = true;
+                result.add(dfa.getState(adjState));
+                depth++;
+                stack[depth] = adjState;
+                arcs[depth] = reverse.getFirstArc(adjState);
             }
         }
-
-        // All vertices reachable from v are processed by now,
-        // push state to Stack
-        stack.push(startState);
-        return stack;
+        return result;
     }
 
     /**
@@ -744,14 +1609,17 @@ public class Utils {
      */
     public static ArrayList<ArrayList<Integer>> getAncestors(ArrayList<ArrayList<State>> SCCs, Fst dfa) {
         ArrayList<ArrayList<Integer>> solution = new ArrayList<>();
+        Condensation condensation = getCondensation(dfa);
 
         for (int i = 0; i < SCCs.size(); i++) {
+            int iComponent = condensation.getComponentOf(SCCs.get(i).get(0).getId());
             ArrayList<Integer> ancestors = new ArrayList<>();
             for (int j = 0; j < SCCs.size(); j++) {
                 if (i == j) {
                     continue;
                 }
-                if (isPath(SCCs.get(j).get(0), SCCs.get(i).get(0), dfa)) {
+                int jComponent = condensation.getComponentOf(SCCs.get(j).get(0).getId());
+                if (condensation.isAncestor(jComponent, iComponent)) {
                     ancestors.add(j);
                 }
             }
@@ -761,6 +1629,19 @@ public class Utils {
         return solution;
     }
 
+    /**
+     * Get the condensation of the given dfa: its SCCs (including those without a cycle) arranged as a DAG, with
+     * constant-time ancestor and descendant queries.
+     *
+     * @param dfa The dfa to condense
+     * @return The condensation of dfa
+     */
+    public static Condensation getCondensation(Fst dfa) {
+        try (Stage stage = Stage.begin(Stage.SCC, dfa)) {
+            return Condensation.of(dfa);
+        }
+    }
+
     /**
      * Do a bidirectional BFS from startState and endState looking for
      * a collision in the search (return true if found)
@@ -771,76 +1652,68 @@ public class Utils {
      * false otherwise
      */
     public static boolean isPath(State startState, State endState, Fst dfa) {
-        Fst transposed = Reverse2.reverse(dfa);
-
-        int endId = endState.getId();
-        State endStateTransposed = transposed.getState(endId);
-
-        boolean[] sIsVisited = new boolean[dfa.getStateCount()];
-        boolean[] eIsVisited = new boolean[dfa.getStateCount()];
-
-        ArrayList<State> sQueue = new ArrayList<>();
-        ArrayList<State> eQueue = new ArrayList<>();
-
-        int collision = -1;
-
-        sQueue.add(startState);
-        eQueue.add(endStateTransposed);
-
-        sIsVisited[startState.getId()] = true;
-        eIsVisited[endStateTransposed.getId()] = true;
-
-        while ((sQueue.size() != 0) && (eQueue.size() != 0)) {
-            BFS(sQueue, sIsVisited, dfa);
-            BFS(eQueue, eIsVisited, transposed);
-
-            collision = isCollision(sIsVisited, eIsVisited);
-
-            if (collision != -1) {
-                return true;
-            }
-
-        }
-        return false;
+        return isPath(startState, endState, dfa, ReverseAdjacency.of(dfa));
     }
 
     /**
-     * Do one step of a BFS (add the not yet visited neighbors of the
-     * first state on our queue to our queue and mark them as visited)
+     * Do a bidirectional BFS from startState and endState looking for
+     * a collision in the search, searching backwards from endState with
+     * a reverse adjacency that callers can share between queries
      *
-     * @param queue     the current BFS queue
-     * @param isVisited boolean array representing the states that have been
-     *                  visited so far
-     * @param dfa       dfa we are traversing
-     * @return void
+     * @param startState the state to start the search from
+     * @param endState   the state to look for a path to
+     * @param dfa        the dfa the states belong to
+     * @param reverse    the reverse adjacency of dfa
+     * @return true if there exists a path from startState to endState,
+     * false otherwise
      */
-    private static void BFS(ArrayList<State> queue, boolean[] isVisited, Fst dfa) {
-        State state = queue.get(0);
-        queue.remove(state);
+    static boolean isPath(State startState, State endState, Fst dfa, ReverseAdjacency reverse) {
+        int n = dfa.getStateCount();
+        if (startState.getId() == endState.getId()) {
+            return true;
+        }
 
-        for (Arc arc : state.getArcs()) {
-            State adjState = arc.getNextState();
-            if (!isVisited[adjState.getId()]) {
-                queue.add(adjState);
-                isVisited[adjState.getId()] = true;
+        boolean[] sIsVisited = new boolean[n];
+        boolean[] eIsVisited = new boolean[n];
+        int[] sQueue = new int[n];
+        int[] eQueue = new int[n];
+        int sHead = 0;
+        int sTail = 0;
+        int eHead = 0;
+        int eTail = 0;
+
+        sQueue[sTail++] = startState.getId();
+        eQueue[eTail++] = endState.getId();
+        sIsVisited[startState.getId()] = true;
+        eIsVisited[endState.getId()] = true;
+
+        // alternate one forward and one backward expansion until the searches meet or one runs out
+        while (sHead < sTail && eHead < eTail) {
+            State state = dfa.getState(sQueue[sHead++]);
+            for (int i = 0; i < state.getArcCount(); i++) {
+                int adj = state.getArc(i).getNextState().getId();
+                if (eIsVisited[adj]) {
+                    return true;
+                }
+                if (!sIsVisited[adj]) {
+                    sIsVisited[adj] = true;
+                    sQueue[sTail++] = adj;
+                }
             }
-        }
-    }
 
-    /**
-     * Check if there is an index from array1 == array2 == 1
-     *
-     * @param array1 first array to check
-     * @param array2 array to check against
-     * @return returns index of collision if occurred, -1 otherwise
-     */
-    private static int isCollision(boolean[] array1, boolean[] array2) {
-        for (int i = 0; i < array1.length; i++) {
-            if (array1[i] == true && array2[i] == true) {
-                return i;
+            int target = eQueue[eHead++];
+            for (int arc = reverse.getFirstArc(target); arc < reverse.getEndArc(target); arc++) {
+                int adj = reverse.getSource(arc);
+                if (sIsVisited[adj]) {
+                    return true;
+                }
+                if (!eIsVisited[adj]) {
+                    eIsVisited[adj] = true;
+                    eQueue[eTail++] = adj;
+                }
             }
         }
-        return -1;
+        return false;
     }
 
     /**
@@ -852,30 +1725,9 @@ public class Utils {
      * @throws Exception if scc is not an SCC
      */
     public static boolean hasDescendants(ArrayList<State> scc, Fst dfa) {
-        // get the SCCs of dfa
-        ArrayList<ArrayList<State>> SCCs = getSCCs(dfa);
-
-//        // TODO: make sure scc is an actual SCC
-//        if (!SCCs.contains(scc)) {
-//            throw new Exception("Given component is not an SCC!");
-//        }
-
-        // get all ancestors SCCs of all SCCs in dfa
-        Set<Integer> allAncestors = new HashSet<>();
-        ArrayList<ArrayList<Integer>> ancestors = getAncestors(SCCs, dfa);
-        for (ArrayList<Integer> ancestorIndices : ancestors) {
-            for (Integer i : ancestorIndices) {
-                allAncestors.add(i);
-            }
-        }
-
-        // check if scc is contained in the set of all ancestors
-        for (Integer i : allAncestors) {
-            if (scc.equals(SCCs.get(i))) {
-                return true;
-            }
-        }
-        return false;
+        // TODO: make sure scc is an actual SCC
+        Condensation condensation = getCondensation(dfa);
+        return condensation.hasCyclicDescendants(condensation.getComponentOf(scc.get(0).getId()));
     }
 
     /**
@@ -886,12 +1738,7 @@ public class Utils {
      * @return true if comp is reachable from s, false otherwise
      */
     public static boolean componentIsReachable(State s, ArrayList<State> comp, Fst dfa) {
-        for (State q : comp) {
-            if (isPath(s, q, dfa)) {
-                return true;
-            }
-        }
-        return false;
+        return new ReachabilityOracle(dfa).canReach(comp).get(s.getId());
     }
 
     /**
@@ -901,12 +1748,11 @@ public class Utils {
      * @return m0
      */
     public static ArrayList<State> getM0(ArrayList<State> scc, Fst dfa) {
+        // one backward search from the whole SCC finds every state that can reach it
+        BitSet reachesScc = new ReachabilityOracle(dfa).canReach(scc);
         ArrayList<State> m0 = new ArrayList<>();
-        for (int i = 0; i < dfa.getStateCount(); i++) {
-            State s = dfa.getState(i);
-            if (componentIsReachable(s, scc, dfa)) {
-                m0.add(s);
-            }
+        for (int i = reachesScc.nextSetBit(0); i >= 0; i = reachesScc.nextSetBit(i + 1)) {
+            m0.add(dfa.getState(i));
         }
         return m0;
     }
@@ -936,12 +1782,14 @@ public class Utils {
      * @return true if there is a path, false otherwise
      */
     public static boolean isPathFromComponentToAsteriskState(ArrayList<State> comp, Fst pairGraph) {
-        ArrayList<State> asteriskStates = getAsteriskStates(pairGraph);
+        BitSet reachesAsteriskState = new ReachabilityOracle(pairGraph).canReach(getAsteriskStates(pairGraph));
+        return isPathFromComponentToAsteriskState(comp, reachesAsteriskState);
+    }
+
+    private static boolean isPathFromComponentToAsteriskState(ArrayList<State> comp, BitSet reachesAsteriskState) {
         for (State componentState : comp) {
-            for (State asteriskState : asteriskStates) {
-                if (isPath(componentState, asteriskState, pairGraph)) {
-                    return true;
-                }
+            if (reachesAsteriskState.get(componentState.getId())) {
+                return true;
             }
         }
         return false;
@@ -954,29 +1802,35 @@ public class Utils {
      * @return true if dfa is TS-local w.r.t. scc, false otherwise
      */
     public static boolean isTSLocalWRT(ArrayList<State> scc, Fst dfa) {
+        return isTSLocalWRT(scc, dfa, Budget.UNLIMITED);
+    }
+
+    static boolean isTSLocalWRT(ArrayList<State> scc, Fst dfa, Budget budget) {
         // find m0
         ArrayList<State> m0 = getM0(scc, dfa);
 
         // find the pair graph on m0's set of states and scc's set of states
-        Fst pairGraph = getPairGraph(dfa, new HashSet<>(m0), new HashSet<>(scc));
+        Fst pairGraph = getPairGraph(dfa, new HashSet<>(m0), new HashSet<>(scc), budget);
 
         // get SCCs of pairGraph
-        ((MutableFst) pairGraph).setStart(((MutableFst) pairGraph).getState(0));   // this is a bit of a hack
         ArrayList<ArrayList<State>> pairGraphSCCs = getSCCs(pairGraph);
 
+        // find every state that can reach a state of the form (t,*) or (*,t) with one backward search
+        BitSet reachesAsteriskState = new ReachabilityOracle(pairGraph).canReach(getAsteriskStates(pairGraph));
+
         // check if there is a path from an SCC in the pair graph to a state of the form (t,*) or (*,t)
         for (ArrayList<State> pairGraphSCC : pairGraphSCCs) {
             if (pairGraphSCC.size() == 1) {
                 State s = pairGraphSCC.get(0);
                 for (Arc arc : s.getArcs()) {
                     if (arc.getNextState().equals(s)) {
-                        if (isPathFromComponentToAsteriskState(pairGraphSCC, pairGraph)) {
+                        if (isPathFromComponentToAsteriskState(pairGraphSCC, reachesAsteriskState)) {
                             return false;
                         }
                     }
                 }
             }
-            if (pairGraphSCC.size() > 1 && isPathFromComponentToAsteriskState(pairGraphSCC, pairGraph)) {
+            if (pairGraphSCC.size() > 1 && isPathFromComponentToAsteriskState(pairGraphSCC, reachesAsteriskState)) {
                 return false;
             }
         }
@@ -1096,6 +1950,8 @@ public class Utils {
      * @return The reachability matrix for dfa, as a 2D array
      */
     public static boolean[][] getReachabilityMatrix(Fst dfa) {
+        Stage stage = Stage.begin(Stage.REACHABILITY, dfa);
+        ReverseAdjacency reverse = ReverseAdjacency.of(dfa);
         int n = dfa.getStateCount();
         boolean[][] reachabilityMatrix = new boolean[n][n];
 
@@ -1108,10 +1964,11 @@ public class Utils {
                 }
                 State p = dfa.getState(i);
                 State q = dfa.getState(j);
-                reachabilityMatrix[i][j] = isPath(p, q, dfa);
+                reachabilityMatrix[i][j] = isPath(p, q, dfa, reverse);
             }
         }
 
+        stage.close();
         return reachabilityMatrix;
     }
 
@@ -1122,6 +1979,18 @@ public class Utils {
      * @return The direct product of dfa with itself i-1 times.
      */
     public static Fst directProduct(Fst gamma, int i) {
+        return directProduct(gamma, i, Budget.UNLIMITED);
+    }
+
+    /**
+     * Get the direct product of a state transition graph with itself i-1 times, giving up if the budget runs out.
+     * @param gamma The input state transition graph.
+     * @param i The number of copies of dfa to include in the product.
+     * @param budget Limits the time and number of states of the construction.
+     * @return The direct product of dfa with itself i-1 times.
+     * @throws BudgetExceededException if the product is too large or the budget runs out while building it.
+     */
+    public static Fst directProduct(Fst gamma, int i, Budget budget) {
         if (i < 1) {
             return null;   // TODO: handle the invalid input in a better way
         }
@@ -1130,6 +1999,15 @@ public class Utils {
             return gamma;
         }
 
+        // refuse to allocate a product that is over budget
+        long productStates = 1;
+        for (int m = 0; m < i; m++) {
+            productStates *= gamma.getStateCount();
+            budget.checkProductStates(productStates);
+        }
+
+        Stage stage = Stage.begin(Stage.PRODUCT, gamma);
+
         // create an empty product graph
         MutableFst productGraph = new MutableFst();
         productGraph.useStateSymbols();
@@ -1145,53 +2023,40 @@ public class Utils {
             productGraph.addState(new MutableState(), stateSym);
         }
 
-        // add transitions to the product graph by adding the appropriate transitions between each pair of states
-        SymbolTable.InvertedSymbolTable gammaInputSyms = gamma.getInputSymbols().invert();
-        SymbolTable.InvertedSymbolTable productGraphStateSyms = productGraph.getStateSymbols().invert();
+        // add the transitions of each product state (p1,p2,...,pi): on every symbol sigma that all of p1,...,pi have a
+        // transition on, it goes to (delta(p1,sigma),...,delta(pi,sigma)); product states are numbered in the order of
+        // their symbols, i.e. by the positions of their coordinates among the state symbols of gamma
+        CompactDfa compactGamma = CompactDfa.fromFst(gamma);
+        int n = gamma.getStateCount();
+        int[] stateAt = new int[n];
+        int[] position = new int[n];
+        for (int p = 0; p < n; p++) {
+            stateAt[p] = gamma.getState(gammaStateSymsList.get(p)).getId();
+            position[stateAt[p]] = p;
+        }
+        int[] states = new int[i];
         for (int j = 0; j < productGraph.getStateCount(); j++) {
-            for (int k = 0; k < productGraph.getStateCount(); k++) {
-                String startStateSym = productGraphStateSyms.keyForId(j);
-                String[] originalStartStateSyms = startStateSym.split(DELIMITER);
-
-                String endStateSym = productGraphStateSyms.keyForId(k);
-                String[] originalEndStateSyms = endStateSym.split(DELIMITER);
-
-                // for the current two product graph states (p1,p2,...,pn) and (q1,q2,...,qn), add a transition from
-                // (p1,p2,...,pn) -> (q1,q2,...,qn) labeled by sigma iff the transitions p1 -> q1, p2 -> q2, ...,
-                // pn -> qn all exist in the original state transition graph and are labeled by sigma
-                for (String transitionSym : gamma.getInputSymbols().symbols()) {
-                    boolean shouldAddArc = true;
-                    for (int m = 0; m < i; m++) {
-                        State originalGraphP = gamma.getState(originalStartStateSyms[m]);
-                        State originalGraphQ = gamma.getState(originalEndStateSyms[m]);
-
-                        boolean foundArcWithTransitionSym = false;
-                        for (Arc arc : originalGraphP.getArcs()) {
-                            if (arc.getNextState().equals(originalGraphQ) &&
-                                    gammaInputSyms.keyForId(arc.getIlabel()).equals(transitionSym)) {
-                                foundArcWithTransitionSym = true;
-                                break;
-                            }
-                        }
-
-                        if (!foundArcWithTransitionSym) {
-                            // did not find transition p_i -> q_i labeled by transitionSym, so we should
-                            // not add the corresponding arc in the product graph
-                            shouldAddArc = false;
-                            break;
-                        }
-                    }
-                    if (shouldAddArc) {
-                        productGraph.addArc(productGraph.getState(j), transitionSym, transitionSym,
-                                productGraph.getState(k), 0);
-                    }
+            budget.poll();
+            for (int m = i - 1, rest = j; m >= 0; m--, rest /= n) {
+                states[m] = stateAt[rest % n];
+            }
+            int sigma = nextCommonSymbol(compactGamma, states, 0);
+            while (sigma != CompactDfa.NONE) {
+                int k = 0;
+                for (int m = 0; m < i; m++) {
+                    k = k * n + position[compactGamma.next(states[m], sigma)];
                 }
+                String transitionSym = compactGamma.getSymbol(sigma);
+                productGraph.addArc(productGraph.getState(j), transitionSym, transitionSym,
+                        productGraph.getState(k), 0);
+                sigma = nextCommonSymbol(compactGamma, states, sigma + 1);
             }
         }
 
         // here's that hack again
         productGraph.setStart(productGraph.getState(0));
 
+        stage.setProductStates(productGraph.getStateCount()).close();
         return productGraph;
     }
 
@@ -1253,58 +2118,94 @@ public class Utils {
     }
 
 
+    /**
+     * Check if for every SCC node (p, q) of Γ^2 with p != q, p and q are not mutually reachable in Γ. Only one pair of
+     * each orbit {(p,q), (q,p)} is looked at, since both are SCC nodes or neither is and the condition is symmetric.
+     * @param gamma2 Γ² up to swapping the two coordinates
+     * @param g1Reachability reachability matrix for Γ
+     * @param gamma2SCCNodes Marks which orbits of Γ² are SCC nodes
+     * @return true if no such p and q are found, false otherwise
+     */
+    private static boolean checkPQReachability(SymmetricProduct gamma2, boolean[][] g1Reachability,
+                                               long[] gamma2SCCNodes) {
+        for (int i = 0; i < gamma2.getStateCount(); i++) {
+            int p = gamma2.getCoordinate(i, 0);
+            int q = gamma2.getCoordinate(i, 1);
+            if (p != q && Traversals.isMarked(gamma2SCCNodes, i) && g1Reachability[p][q] && g1Reachability[q][p]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * For every four nodes p, q, r, r1 of gamma, check
      * r1 reachable from r reachable from p and q reachable from p
      * if true, make TSCC(p, q, r, r1)
      * if TSCC is not well defined return false
-     * @param gamma FST of Γ
-     * @param gamma2 FST of Γ​​²
-     * @param gamma3 FST of Γ³
+     * @param n The number of states of Γ
+     * @param gamma2 Γ² up to permutations of the coordinates
+     * @param gamma3 Γ³ up to permutations of the coordinates
      * @param g1Reachability reachability matrix for Γ
-     * @param g2Reachability reachability matrix for Γ²
-     * @param gamma2SCCNodes Marks which nodes in Γ² are SCC nodes
-     * @param gamma3SCCNodes Marks which nodes in Γ³ are SCC nodes
-     * @param gammaSCCs The SCCs of Γ
+     * @param g2Reachability reachability relation of Γ²
+     * @param gamma2SCCNodes Marks which orbits of Γ² are SCC nodes
+     * @param gamma3SCCNodes Marks which orbits of Γ³ are SCC nodes
+     * @param gammaSCCOf The index of the SCC of Γ each state belongs to, or -1 for states on no cycle
+     * @param gammaSCCCount The number of SCCs of Γ
+     * @param tsccCache Previously computed TSCCs, see getCachedTSCC
+     * @param instrumentation Receives the counters of the check
+     * @param budget Polled once per (p,q)
      * @return true if we find no reason to return false as defined above, false otherwise
      */
-    private static boolean checkDefinition15(Fst gamma, Fst gamma2, Fst gamma3, boolean[][] g1Reachability,
-                                             boolean[][] g2Reachability, boolean[] gamma2SCCNodes,
-                                             boolean[] gamma3SCCNodes, ArrayList<ArrayList<State>> gammaSCCs){
-        final int n = gamma.getStateCount();
-        for (int p = 0; p < n; p++){
-            for (int q = 0; q < n; q++){
-                for (int r = 0; r < n; r++){
-                    for (int r1 = 0; r1 < n; r1++){
-                        // ensure reachability from p to r, r to r1, and p to q before finding TSCC(p,q,r,r1)
-                        boolean pathFromPtoR = g1Reachability[p][r];
-                        boolean pathFromRtoR1 = g1Reachability[r][r1];
-                        boolean pathFromPtoQ = g1Reachability[p][q];
-                        if (!pathFromPtoR || !pathFromRtoR1 || !pathFromPtoQ) {
-                            continue;
-                        }
+    private static boolean checkDefinition15(int n, SymmetricProduct gamma2, SymmetricProduct gamma3,
+                                             boolean[][] g1Reachability, PairReachability g2Reachability,
+                                             long[] gamma2SCCNodes, long[] gamma3SCCNodes, int[] gammaSCCOf,
+                                             int gammaSCCCount, Map<Long, Integer> tsccCache,
+                                             Instrumentation instrumentation, Budget budget){
+        long examined = 0;
+        long prunedByReachability = 0;
+        long prunedBySCCNodes = 0;
+        try {
+            for (int p = 0; p < n; p++){
+                for (int q = 0; q < n; q++){
+                    budget.poll();
+                    for (int r = 0; r < n; r++){
+                        for (int r1 = 0; r1 < n; r1++){
+                            examined++;
+
+                            // ensure reachability from p to r, r to r1, and p to q before finding TSCC(p,q,r,r1)
+                            boolean pathFromPtoR = g1Reachability[p][r];
+                            boolean pathFromRtoR1 = g1Reachability[r][r1];
+                            boolean pathFromPtoQ = g1Reachability[p][q];
+                            if (!pathFromPtoR || !pathFromRtoR1 || !pathFromPtoQ) {
+                                prunedByReachability++;
+                                continue;
+                            }
 
-                        // ensure (p,r1) and (q,r) are SCC-nodes
-                        SymbolTable.InvertedSymbolTable gammaStateSyms = gamma.getStateSymbols().invert();
-                        String pAndr1Sym = gammaStateSyms.keyForId(p) + DELIMITER + gammaStateSyms.keyForId(r1);
-                        String qAndrSym = gammaStateSyms.keyForId(q) + DELIMITER + gammaStateSyms.keyForId(r);
-                        int pAndr1Index = gamma2.getState(pAndr1Sym).getId();
-                        int qAndrIndex = gamma2.getState(qAndrSym).getId();
-                        if (!gamma2SCCNodes[pAndr1Index] || !gamma2SCCNodes[qAndrIndex]) {
-                            continue;
-                        }
+                            // ensure (p,r1) and (q,r) are SCC-nodes
+                            if (!Traversals.isMarked(gamma2SCCNodes, gamma2.indexOf(p, r1))
+                                    || !Traversals.isMarked(gamma2SCCNodes, gamma2.indexOf(q, r))) {
+                                prunedBySCCNodes++;
+                                continue;
+                            }
 
-                        // find TSCC(p,q,r,r1) and ensure that it is well defined
-                        ArrayList<State> TSCC = getTSCC(p, q, r, r1, gamma, gamma2, gamma3, g1Reachability,
-                                g2Reachability, gamma2SCCNodes, gamma3SCCNodes, gammaSCCs);
-                        if (TSCC == null) {
-                            return false;
-                        }
+                            // find TSCC(p,q,r,r1) and ensure that it is well defined
+                            int TSCC = getCachedTSCC(p, q, r, r1, n, gamma2, gamma3, g1Reachability,
+                                    g2Reachability, gamma2SCCNodes, gamma3SCCNodes, gammaSCCOf, gammaSCCCount,
+                                    tsccCache, instrumentation);
+                            if (TSCC == UNDEFINED_TSCC) {
+                                return false;
+                            }
 
-                        // check the next set of states
+                            // check the next set of states
+                        }
                     }
                 }
             }
+        } finally {
+            instrumentation.count(Instrumentation.Counter.TUPLES_EXAMINED, examined);
+            instrumentation.count(Instrumentation.Counter.TUPLES_PRUNED_BY_REACHABILITY, prunedByReachability);
+            instrumentation.count(Instrumentation.Counter.TUPLES_PRUNED_BY_SCC_NODES, prunedBySCCNodes);
         }
 
         return true;
@@ -1314,109 +2215,155 @@ public class Utils {
      * Check second condition of Theorem 16. For every 5 nodes p, q, r, q1, r1 of Γ, the three conditions that
      * TSCC(p,q,r,r1) and TSCC(p,r,q,q1) are non-empty, (p,q1,r1) is an SCC node, and (q1,r1) is reachable from (q,r)
      * imply that TSCC(p,q,r,r1) = TSCC(p,r,q,q1).
-     * @param gamma The FST of Γ
-     * @param gamma2 The FST of Γ²
-     * @param gamma3 The FST of Γ³
+     * @param n The number of states of Γ
+     * @param gamma2 Γ² up to permutations of the coordinates
+     * @param gamma3 Γ³ up to permutations of the coordinates
      * @param g1Reachability The reachability matrix of Γ
-     * @param g2Reachability The reachability matrix of Γ²
-     * @param gamma2SCCNodes Marks which nodes in Γ² are SCC nodes
-     * @param gamma3SCCNodes Marks which nodes in Γ³ are SCC nodes
-     * @param gammaSCCs The SCCs of Γ
+     * @param g2Reachability The reachability relation of Γ²
+     * @param gamma2SCCNodes Marks which orbits of Γ² are SCC nodes
+     * @param gamma3SCCNodes Marks which orbits of Γ³ are SCC nodes
+     * @param gammaSCCOf The index of the SCC of Γ each state belongs to, or -1 for states on no cycle
+     * @param gammaSCCCount The number of SCCs of Γ
+     * @param tsccCache Previously computed TSCCs, see getCachedTSCC
+     * @param instrumentation Receives the counters and trace events of the check
+     * @param budget Polled once per (p,q,r)
      * @return true if the second condition of Theorem 16 holds, false otherwise
      */
-    private static boolean checkTheorem16(Fst gamma, Fst gamma2, Fst gamma3, boolean[][] g1Reachability,
-                                          boolean[][] g2Reachability, boolean[] gamma2SCCNodes,
-                                          boolean[] gamma3SCCNodes, ArrayList<ArrayList<State>> gammaSCCs) {
-        int n = gamma.getStateCount();
-        for (int p = 0; p < n; p++) {
-            for (int q = 0; q < n; q++) {
-                for (int r = 0; r < n; r++) {
-                    for (int q1 = 0; q1 < n; q1++) {
-                        for (int r1 = 0; r1 < n; r1++) {
-                            // ensure reachability from p to r, r to r1, and p to q (necessary for TSCC(p,q,r,r1))
-                            boolean pathFromPtoR = g1Reachability[p][r];
-                            boolean pathFromRtoR1 = g1Reachability[r][r1];
-                            boolean pathFromPtoQ = g1Reachability[p][q];
-                            if (!pathFromPtoR || !pathFromRtoR1 || !pathFromPtoQ) {
-                                continue;
-                            }
-
-                            // ensure reachability from p to q, q to q1, and p to r (necessary for TSCC(p,r,q,q1))
-                            boolean pathFromQtoQ1 = g1Reachability[q][q1];
-                            if (!pathFromPtoQ || !pathFromQtoQ1 || !pathFromPtoR) {
-                                continue;
-                            }
-
-                            // make sure (p,r1) and (q,r) are SCC-nodes
-                            SymbolTable.InvertedSymbolTable gammaStateSyms = gamma.getStateSymbols().invert();
-                            String pAndr1Sym = gammaStateSyms.keyForId(p) + DELIMITER + gammaStateSyms.keyForId(r1);
-                            String qAndrSym_test = gammaStateSyms.keyForId(q) + DELIMITER + gammaStateSyms.keyForId(r);
-                            int pAndr1Index = gamma2.getState(pAndr1Sym).getId();
-                            int qAndrIndex = gamma2.getState(qAndrSym_test).getId();
-                            if (!gamma2SCCNodes[pAndr1Index] || !gamma2SCCNodes[qAndrIndex]) {
-                                continue;
-                            }
-
-                            // make sure (p,q1) and (r,q) are SCC-nodes
-                            String pAndq1Sym = gammaStateSyms.keyForId(p) + DELIMITER + gammaStateSyms.keyForId(q1);
-                            String rAndqSym = gammaStateSyms.keyForId(r) + DELIMITER + gammaStateSyms.keyForId(q);
-                            int pAndq1Index = gamma2.getState(pAndq1Sym).getId();
-                            int rAndqIndex = gamma2.getState(rAndqSym).getId();
-                            if (!gamma2SCCNodes[pAndq1Index] || !gamma2SCCNodes[rAndqIndex]) {
-                                continue;
-                            }
-
-                            // only continue checking if TSCC(p,q,r,r1) and TSCC(p,r,q,q1) are well defined
-                            ArrayList<State> TSCCpqrr1 = getTSCC(p, q, r, r1, gamma, gamma2, gamma3, g1Reachability,
-                                    g2Reachability, gamma2SCCNodes, gamma3SCCNodes, gammaSCCs);
-                            ArrayList<State> TSCCprqq1 = getTSCC(p, r, q, q1, gamma, gamma2, gamma3, g1Reachability,
-                                    g2Reachability, gamma2SCCNodes, gamma3SCCNodes, gammaSCCs);
-                            if (TSCCpqrr1 == null || TSCCprqq1 == null) {
-                                // debugging printout
-                                System.out.println("TSCC(p,q,r,r1) and/or TSCC(p,r,q,q1) is null");
-
-                                continue;
-                            }
-
-                            // only continue checking if (p,q1,r1) is an SCC-node
-                            String pAndq1Andr1Sym = gammaStateSyms.keyForId(p) + DELIMITER +
-                                    gammaStateSyms.keyForId(q1) + DELIMITER + gammaStateSyms.keyForId(r1);
-                            int pAndq1Andr1Index = gamma3.getState(pAndq1Andr1Sym).getId();
-                            if (!gamma3SCCNodes[pAndq1Andr1Index]) {
-                                // debugging printout
-                                System.out.println("(p,q,r1) is not an SCC-node");
-
-                                continue;
-                            }
-
-                            // only continue checking if (q1,r1) is reachable from (q,r)
-                            String q1Andr1Sym = gammaStateSyms.keyForId(q1) + DELIMITER + gammaStateSyms.keyForId(r1);
-                            int q1Andr1Index = gamma2.getState(q1Andr1Sym).getId();
-                            if (!g2Reachability[qAndrIndex][q1Andr1Index]) {
-                                // debugging printout
-                                System.out.println("(q1,r1) is not reachable from (q,r)");
-
-                                continue;
-                            }
-
-                            // in the case that the above three conditions hold, check that TSCC(p,q,r,r1) = TSCC(p,r,q,q1)
-                            Set<State> TSCCpqrr1Set = new HashSet<>(TSCCpqrr1);
-                            Set<State> TSCCprqq1Set = new HashSet<>(TSCCprqq1);
-                            if (!TSCCpqrr1Set.equals(TSCCprqq1Set)) {
-                                // debugging printout
-                                System.out.println("TSCC(p,q,r,r1) != TSCC(p,r,q,q1)");
-
-                                return false;
+    private static boolean checkTheorem16(int n, SymmetricProduct gamma2, SymmetricProduct gamma3,
+                                          boolean[][] g1Reachability, PairReachability g2Reachability,
+                                          long[] gamma2SCCNodes, long[] gamma3SCCNodes, int[] gammaSCCOf,
+                                          int gammaSCCCount, Map<Long, Integer> tsccCache,
+                                          Instrumentation instrumentation, Budget budget) {
+        boolean tracing = instrumentation.isTracing();
+        long examined = 0;
+        long prunedByReachability = 0;
+        long prunedBySCCNodes = 0;
+        long prunedByProductReachability = 0;
+        try {
+            for (int p = 0; p < n; p++) {
+                for (int q = 0; q < n; q++) {
+                    for (int r = 0; r < n; r++) {
+                        budget.poll();
+                        for (int q1 = 0; q1 < n; q1++) {
+                            for (int r1 = 0; r1 < n; r1++) {
+                                examined++;
+
+                                // ensure reachability from p to r, r to r1, and p to q (necessary for TSCC(p,q,r,r1))
+                                boolean pathFromPtoR = g1Reachability[p][r];
+                                boolean pathFromRtoR1 = g1Reachability[r][r1];
+                                boolean pathFromPtoQ = g1Reachability[p][q];
+                                if (!pathFromPtoR || !pathFromRtoR1 || !pathFromPtoQ) {
+                                    prunedByReachability++;
+                                    continue;
+                                }
+
+                                // ensure reachability from p to q, q to q1, and p to r (necessary for TSCC(p,r,q,q1))
+                                boolean pathFromQtoQ1 = g1Reachability[q][q1];
+                                if (!pathFromPtoQ || !pathFromQtoQ1 || !pathFromPtoR) {
+                                    prunedByReachability++;
+                                    continue;
+                                }
+
+                                // make sure (p,r1) and (q,r) are SCC-nodes; (r,q) is then one too
+                                if (!Traversals.isMarked(gamma2SCCNodes, gamma2.indexOf(p, r1))
+                                        || !Traversals.isMarked(gamma2SCCNodes, gamma2.indexOf(q, r))) {
+                                    prunedBySCCNodes++;
+                                    continue;
+                                }
+
+                                // make sure (p,q1) is an SCC-node
+                                if (!Traversals.isMarked(gamma2SCCNodes, gamma2.indexOf(p, q1))) {
+                                    prunedBySCCNodes++;
+                                    continue;
+                                }
+
+                                // only continue checking if TSCC(p,q,r,r1) and TSCC(p,r,q,q1) are well defined
+                                int TSCCpqrr1 = getCachedTSCC(p, q, r, r1, n, gamma2, gamma3, g1Reachability,
+                                        g2Reachability, gamma2SCCNodes, gamma3SCCNodes, gammaSCCOf, gammaSCCCount,
+                                        tsccCache, instrumentation);
+                                int TSCCprqq1 = getCachedTSCC(p, r, q, q1, n, gamma2, gamma3, g1Reachability,
+                                        g2Reachability, gamma2SCCNodes, gamma3SCCNodes, gammaSCCOf, gammaSCCCount,
+                                        tsccCache, instrumentation);
+                                if (TSCCpqrr1 == UNDEFINED_TSCC || TSCCprqq1 == UNDEFINED_TSCC) {
+                                    if (tracing) {
+                                        instrumentation.trace("theorem16", "TSCC(p,q,r,r1) and/or TSCC(p,r,q,q1) is "
+                                                + "not well defined for " + tuple(p, q, r, q1, r1));
+                                    }
+                                    continue;
+                                }
+
+                                // only continue checking if (p,q1,r1) is an SCC-node
+                                if (!Traversals.isMarked(gamma3SCCNodes, gamma3.indexOf(p, q1, r1))) {
+                                    prunedBySCCNodes++;
+                                    continue;
+                                }
+
+                                // only continue checking if (q1,r1) is reachable from (q,r)
+                                if (!g2Reachability.reaches(q, r, q1, r1)) {
+                                    prunedByProductReachability++;
+                                    continue;
+                                }
+
+                                // in the case that the above three conditions hold, check that TSCC(p,q,r,r1) = TSCC(p,r,q,q1)
+                                if (TSCCpqrr1 != TSCCprqq1) {
+                                    if (tracing) {
+                                        instrumentation.trace("theorem16", "TSCC(p,q,r,r1) != TSCC(p,r,q,q1) for "
+                                                + tuple(p, q, r, q1, r1));
+                                    }
+                                    return false;
+                                }
                             }
                         }
                     }
                 }
             }
+        } finally {
+            instrumentation.count(Instrumentation.Counter.TUPLES_EXAMINED, examined);
+            instrumentation.count(Instrumentation.Counter.TUPLES_PRUNED_BY_REACHABILITY, prunedByReachability);
+            instrumentation.count(Instrumentation.Counter.TUPLES_PRUNED_BY_SCC_NODES, prunedBySCCNodes);
+            instrumentation.count(Instrumentation.Counter.TUPLES_PRUNED_BY_PRODUCT_REACHABILITY,
+                    prunedByProductReachability);
         }
 
         return true;
     }
 
+    /**
+     * Format state indices as a tuple for trace events.
+     */
+    private static String tuple(int... states) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < states.length; i++) {
+            if (i > 0) {
+                sb.append(DELIMITER);
+            }
+            sb.append(states[i]);
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Get TSCC(p,q,r,r1), computing it with getTSCC only the first time it is asked for.
+     * @param tsccCache Maps p, q, r, r1 (packed into a single long) to TSCC(p,q,r,r1)
+     * @return The index of TSCC(p,q,r,r1) among the SCCs of Γ, or UNDEFINED_TSCC if it is not well defined
+     */
+    private static int getCachedTSCC(int p, int q, int r, int r1, int n, SymmetricProduct gamma2,
+                                     SymmetricProduct gamma3, boolean[][] g1Reachability,
+                                     PairReachability g2Reachability, long[] gamma2SCCNodes, long[] gamma3SCCNodes,
+                                     int[] gammaSCCOf, int gammaSCCCount, Map<Long, Integer> tsccCache,
+                                     Instrumentation instrumentation) {
+        long key = (((long) p * n + q) * n + r) * n + r1;
+        Integer cached = tsccCache.get(key);
+        if (cached != null) {
+            instrumentation.count(Instrumentation.Counter.TSCC_CACHE_HITS, 1);
+            return cached;
+        }
+        int TSCC = getTSCC(p, q, r, r1, n, gamma2, gamma3, g1Reachability, g2Reachability, gamma2SCCNodes,
+                gamma3SCCNodes, gammaSCCOf, gammaSCCCount, instrumentation);
+        tsccCache.put(key, TSCC);
+        return TSCC;
+    }
+
     /**
      * Make TSCC of all nodes t in gamma such that
      * (q, t) is reachable from (p,r1) and (q, r, t) and (p, r1) are SCC nodes
@@ -1424,79 +2371,74 @@ public class Utils {
      * @param q Index of state q
      * @param r Index of state r
      * @param r1 Index of state r1
-     * @param gamma FST of Γ
-     * @param gamma2 FST of Γ²
-     * @param gamma3 FST of Γ³
+     * @param n The number of states of Γ
+     * @param gamma2 Γ² up to permutations of the coordinates
+     * @param gamma3 Γ³ up to permutations of the coordinates
      * @param g1Reachability Reachability matrix for Γ
-     * @param g2Reachability Reachability matrix for Γ²
-     * @param gamma2SCCNodes Marks which nodes in Γ² are SCC-nodes
-     * @param gamma3SCCNodes Marks which nodes in Γ³ are SCC-nodes
-     * @param gammaSCCs The SCCs of Γ
-     * @return TSCC(p,q,r,r1) as a list of states, or null if it is not well defined
-     */
-    private static ArrayList<State> getTSCC(int p, int q, int r, int r1, Fst gamma, Fst gamma2, Fst gamma3,
-                                            boolean[][] g1Reachability, boolean[][] g2Reachability,
-                                            boolean[] gamma2SCCNodes, boolean[] gamma3SCCNodes,
-                                            ArrayList<ArrayList<State>> gammaSCCs){
+     * @param g2Reachability Reachability relation of Γ²
+     * @param gamma2SCCNodes Marks which orbits of Γ² are SCC-nodes
+     * @param gamma3SCCNodes Marks which orbits of Γ³ are SCC-nodes
+     * @param gammaSCCOf The index of the SCC of Γ each state belongs to, or -1 for states on no cycle
+     * @param gammaSCCCount The number of SCCs of Γ
+     * @param instrumentation Receives the counters and trace events of the computation
+     * @return The index of TSCC(p,q,r,r1) among the SCCs of Γ, or UNDEFINED_TSCC if it is not well defined
+     */
+    private static int getTSCC(int p, int q, int r, int r1, int n, SymmetricProduct gamma2, SymmetricProduct gamma3,
+                               boolean[][] g1Reachability, PairReachability g2Reachability, long[] gamma2SCCNodes,
+                               long[] gamma3SCCNodes, int[] gammaSCCOf, int gammaSCCCount,
+                               Instrumentation instrumentation){
+        instrumentation.count(Instrumentation.Counter.TSCC_COMPUTATIONS, 1);
+
         // ensure reachability from p to r, r to r1, and p to q
         boolean pathFromPtoR = g1Reachability[p][r];
         boolean pathFromRtoR1 = g1Reachability[r][r1];
         boolean pathFromPtoQ = g1Reachability[p][q];
         if (!pathFromPtoR || !pathFromRtoR1 || !pathFromPtoQ) {
-            // debugging printout
-            System.out.println("reachability condition failed in getTSCC");
-
-            return null;
+            instrumentation.count(Instrumentation.Counter.TSCC_UNDEFINED, 1);
+            if (instrumentation.isTracing()) {
+                instrumentation.trace("getTSCC", "reachability condition failed for " + tuple(p, q, r, r1));
+            }
+            return UNDEFINED_TSCC;
         }
 
         // make sure (p,r1) and (q,r) are SCC-nodes
-        SymbolTable.InvertedSymbolTable gammaStateSyms = gamma.getStateSymbols().invert();
-        String pAndr1Sym = gammaStateSyms.keyForId(p) + DELIMITER + gammaStateSyms.keyForId(r1);
-        String qAndrSym = gammaStateSyms.keyForId(q) + DELIMITER + gammaStateSyms.keyForId(r);
-        int pAndr1Index = gamma2.getState(pAndr1Sym).getId();
-        int qAndrIndex = gamma2.getState(qAndrSym).getId();
-        if (!gamma2SCCNodes[pAndr1Index] || !gamma2SCCNodes[qAndrIndex]) {
-            // debugging printout
-            System.out.println("SCC-node condition failed in getTSCC");
-            System.out.println("p: " + p);
-            System.out.println("q: " + q);
-            System.out.println("r: " + r);
-            System.out.println("r1: " + r1);
-            System.out.println("(p,r1): " + pAndr1Sym);
-            System.out.println("(q,r): " + qAndrSym);
-
-            return null;
-        }
-
-        // find the valid states t s.t. (p,r1) -> (q,t) and (q,r,t) is an SCC-node
-        Set<State> validTStates = new HashSet<>();
-        for (int t = 0; t < gamma.getStateCount(); t++){
-            // id1 =  q,t id from statesymbols
-            // id2 =  p,r1 id from statesymbols
-            String gamma2StartStateSym = gammaStateSyms.keyForId(p) + DELIMITER + gammaStateSyms.keyForId(r1);
-            String gamma2EndStateSym = gammaStateSyms.keyForId(q) + DELIMITER + gammaStateSyms.keyForId(t);
-            int id2 = gamma2.getState(gamma2StartStateSym).getId();
-            int id1 = gamma2.getState(gamma2EndStateSym).getId();
-
-            String gamma3StateSym = gammaStateSyms.keyForId(q) + DELIMITER + gammaStateSyms.keyForId(r) + DELIMITER +
-                    gammaStateSyms.keyForId(t);
-            int gamma3StateIndex = gamma3.getState(gamma3StateSym).getId();
-
-            if (g2Reachability[id2][id1] && gamma3SCCNodes[gamma3StateIndex]) {
-                validTStates.add(gamma.getState(t));
+        if (!Traversals.isMarked(gamma2SCCNodes, gamma2.indexOf(p, r1))
+                || !Traversals.isMarked(gamma2SCCNodes, gamma2.indexOf(q, r))) {
+            instrumentation.count(Instrumentation.Counter.TSCC_UNDEFINED, 1);
+            if (instrumentation.isTracing()) {
+                instrumentation.trace("getTSCC", "SCC-node condition failed for " + tuple(p, q, r, r1)
+                        + ": (p,r1) = " + tuple(p, r1) + ", (q,r) = " + tuple(q, r));
             }
+            return UNDEFINED_TSCC;
         }
 
-        // check if there is an SCC of Γ that contains all states t computed above
-        for (ArrayList<State> gammaSCC : gammaSCCs) {
-            if (gammaSCC.containsAll(validTStates)) {
-                return gammaSCC;
+        // find the valid states t s.t. (p,r1) -> (q,t) and (q,r,t) is an SCC-node, and check if there is an SCC of
+        // Γ that contains all of them; with no valid states at all, the first SCC does
+        int TSCC = gammaSCCCount > 0 ? 0 : UNDEFINED_TSCC;
+        boolean foundT = false;
+        for (int t = 0; t < n; t++){
+            if (g2Reachability.reaches(p, r1, q, t) && Traversals.isMarked(gamma3SCCNodes, gamma3.indexOf(q, r, t))) {
+                if (!foundT) {
+                    TSCC = gammaSCCOf[t];
+                    foundT = true;
+                } else if (gammaSCCOf[t] != TSCC) {
+                    TSCC = UNDEFINED_TSCC;
+                }
+                if (TSCC == UNDEFINED_TSCC) {
+                    break;
+                }
             }
         }
+        if (TSCC != UNDEFINED_TSCC) {
+            return TSCC;
+        }
 
-        System.out.println("couldn't find SCC that contained all states t in getTSCC");
+        instrumentation.count(Instrumentation.Counter.TSCC_UNDEFINED, 1);
+        if (instrumentation.isTracing()) {
+            instrumentation.trace("getTSCC", "no SCC contains all states t for " + tuple(p, q, r, r1));
+        }
 
-        return null;
+        return UNDEFINED_TSCC;
     }
 
     /**
@@ -1505,24 +2447,10 @@ public class Utils {
      * @return A boolean array where each element indicates whether the node with that index in dfa is an SCC node.
      */
     public static boolean[] markSCCNodes(Fst dfa) {
+        long[] marks = Traversals.markSCCNodes(IntGraph.of(dfa));
         boolean[] ans = new boolean[dfa.getStateCount()];
-
-        // start by assuming none of the nodes are SCC-nodes
         for (int i = 0; i < ans.length; i++) {
-            ans[i] = false;
-        }
-
-        // figure out which nodes actually are SCC-nodes
-        ArrayList<ArrayList<State>> SCCs = getSCCs(dfa);
-        for (int i = 0; i < ans.length; i++) {
-            State s = dfa.getState(i);
-
-            for (ArrayList<State> SCC : SCCs) {
-                if (SCC.contains(s)) {
-                    ans[i] = true;
-                    break;
-                }
-            }
+            ans[i] = Traversals.isMarked(marks, i);
         }
         return ans;
     }
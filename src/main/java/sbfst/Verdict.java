@@ -0,0 +1,12 @@
+package sbfst;
+
+/**
+ * The answer to a membership test: TRUE or FALSE, or UNKNOWN if the test was stopped by its budget.
+ *
+ * @author Elliot Tuck
+ */
+public enum Verdict {
+    TRUE,
+    FALSE,
+    UNKNOWN
+}
@@ -0,0 +1,275 @@
+package sbfst;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Counts, samples and enumerates the words of each length that a DFA accepts or rejects, e.g. to build balanced data
+ * sets without listing every string of a length.
+ *
+ * The sampler precomputes, for every state s and length l up to a maximum, the exact number of words of length l that
+ * lead from s to a final state, by dynamic programming over the transition table (missing transitions go to a dead
+ * state). The number of rejected words is k^l minus that. A uniformly random word of length l is then drawn one symbol
+ * at a time, choosing each symbol with probability proportional to the number of completions it leaves. For every
+ * length, state and symbol, long tables keep the number of completions left by that symbol and all smaller ones,
+ * saturated at Long.MAX_VALUE, so that while the number of words to choose from fits in a long each symbol is found
+ * by a binary search of one row and a word takes O(l * log k) steps, without BigInteger arithmetic. Longer counts fall
+ * back to scanning the symbols with BigIntegers, in O(l * k) steps.
+ * A sampler is immutable and can be shared between threads, given one Random per thread.
+ *
+ * @author Elliot Tuck
+ */
+public final class WordSampler {
+
+    private final String[] symbols;
+    private final int k;
+    private final int start;
+    private final int[] delta;
+    private final int maxLength;
+    // accepted[l][s] is the number of words of length l accepted from state s; the last state is the dead state
+    private final BigInteger[][] accepted;
+    private final BigInteger[] powers;
+    // the number of accepted and rejected words of length l - 1 from the targets of the symbols 0..a of state s,
+    // indexed by ((l - 1) * (n + 1) + s) * k + a and saturated at Long.MAX_VALUE
+    private final long[] acceptedPrefixes;
+    private final long[] rejectedPrefixes;
+
+    /**
+     * @param dfa       The DFA whose words to count.
+     * @param maxLength The longest length that will be asked about.
+     */
+    public WordSampler(CompactDfa dfa, int maxLength) {
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("The maximum length must not be negative, but was " + maxLength);
+        }
+        int n = dfa.getStateCount();
+        this.k = dfa.getAlphabetSize();
+        this.symbols = new String[k];
+        for (int a = 0; a < k; a++) {
+            symbols[a] = dfa.getSymbol(a);
+        }
+        this.start = n == 0 ? 0 : dfa.getStart();
+        this.maxLength = maxLength;
+
+        int dead = n;
+        this.delta = new int[(n + 1) * k];
+        for (int s = 0; s <= n; s++) {
+            for (int a = 0; a < k; a++) {
+                int t = s == dead ? CompactDfa.NONE : dfa.next(s, a);
+                delta[s * k + a] = t == CompactDfa.NONE ? dead : t;
+            }
+        }
+
+        this.accepted = new BigInteger[maxLength + 1][n + 1];
+        this.powers = new BigInteger[maxLength + 1];
+        powers[0] = BigInteger.ONE;
+        for (int s = 0; s <= n; s++) {
+            accepted[0][s] = s != dead && dfa.isFinal(s) ? BigInteger.ONE : BigInteger.ZERO;
+        }
+        for (int l = 1; l <= maxLength; l++) {
+            powers[l] = powers[l - 1].multiply(BigInteger.valueOf(k));
+            for (int s = 0; s <= n; s++) {
+                BigInteger count = BigInteger.ZERO;
+                for (int a = 0; a < k; a++) {
+                    count = count.add(accepted[l - 1][delta[s * k + a]]);
+                }
+                accepted[l][s] = count;
+            }
+        }
+
+        this.acceptedPrefixes = new long[Math.toIntExact((long) maxLength * (n + 1) * k)];
+        this.rejectedPrefixes = new long[acceptedPrefixes.length];
+        long[] acceptedCounts = new long[n + 1];
+        long[] rejectedCounts = new long[n + 1];
+        for (int l = 1; l <= maxLength; l++) {
+            for (int s = 0; s <= n; s++) {
+                acceptedCounts[s] = saturate(accepted[l - 1][s]);
+                rejectedCounts[s] = saturate(powers[l - 1].subtract(accepted[l - 1][s]));
+            }
+            for (int s = 0; s <= n; s++) {
+                int row = ((l - 1) * (n + 1) + s) * k;
+                long acceptedSum = 0;
+                long rejectedSum = 0;
+                for (int a = 0; a < k; a++) {
+                    acceptedSum = saturatedAdd(acceptedSum, acceptedCounts[delta[s * k + a]]);
+                    rejectedSum = saturatedAdd(rejectedSum, rejectedCounts[delta[s * k + a]]);
+                    acceptedPrefixes[row + a] = acceptedSum;
+                    rejectedPrefixes[row + a] = rejectedSum;
+                }
+            }
+        }
+    }
+
+    private static long saturate(BigInteger count) {
+        return count.bitLength() < Long.SIZE ? count.longValue() : Long.MAX_VALUE;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * @return The longest length this sampler can count, sample and enumerate.
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @param length A length up to getMaxLength().
+     * @return The number of words of the given length that the DFA accepts.
+     */
+    public BigInteger countAccepted(int length) {
+        return count(start, length, true);
+    }
+
+    /**
+     * @param length A length up to getMaxLength().
+     * @return The number of words of the given length that the DFA rejects.
+     */
+    public BigInteger countRejected(int length) {
+        return count(start, length, false);
+    }
+
+    /**
+     * Draw a word of the given length uniformly at random from the words the DFA accepts, or from those it rejects.
+     *
+     * @param length   A length up to getMaxLength().
+     * @param accept   true to draw an accepted word, false to draw a rejected one.
+     * @param random   The source of randomness.
+     * @return The symbols of the word, concatenated, or null if there is no such word.
+     */
+    public String sample(int length, boolean accept, Random random) {
+        BigInteger total = count(start, length, accept);
+        if (total.signum() == 0) {
+            return null;
+        }
+        StringBuilder word = new StringBuilder(length);
+        int s = start;
+        if (total.bitLength() < Long.SIZE - 1) {
+            // every sum below is at most total, so none of them is saturated; the symbol is the first whose prefix
+            // sum exceeds r
+            long[] prefixes = accept ? acceptedPrefixes : rejectedPrefixes;
+            int rows = accepted[0].length;
+            long r = nextLong(random, total.longValue());
+            for (int l = length; l > 0; l--) {
+                int row = ((l - 1) * rows + s) * k;
+                int low = row;
+                int high = row + k - 1;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (prefixes[middle] > r) {
+                        high = middle;
+                    } else {
+                        low = middle + 1;
+                    }
+                }
+                if (low > row) {
+                    r -= prefixes[low - 1];
+                }
+                word.append(symbols[low - row]);
+                s = delta[s * k + low - row];
+            }
+        } else {
+            BigInteger r = nextBigInteger(random, total);
+            for (int l = length; l > 0; l--) {
+                for (int a = 0; a < k; a++) {
+                    int t = delta[s * k + a];
+                    BigInteger c = count(t, l - 1, accept);
+                    if (r.compareTo(c) < 0) {
+                        word.append(symbols[a]);
+                        s = t;
+                        break;
+                    }
+                    r = r.subtract(c);
+                }
+            }
+        }
+        return word.toString();
+    }
+
+    /**
+     * Pass every word up to a length that the DFA accepts (or rejects) to an action, shortest first and in
+     * lexicographic order of the symbols within a length. Symbols that leave no completions are never tried, so the
+     * time spent is proportional to the length of the output.
+     *
+     * @param maxLength The longest length to enumerate, up to getMaxLength().
+     * @param accept    true to enumerate accepted words, false to enumerate rejected ones.
+     * @param action    Receives the words.
+     */
+    public void enumerate(int maxLength, boolean accept, Consumer<String> action) {
+        checkLength(maxLength);
+        int[] stackState = new int[maxLength + 1];
+        int[] stackSymbol = new int[maxLength + 1];
+        StringBuilder word = new StringBuilder();
+        int[] wordLength = new int[maxLength + 1];
+        for (int length = 0; length <= maxLength; length++) {
+            if (count(start, length, accept).signum() == 0) {
+                continue;
+            }
+            int depth = 0;
+            stackState[0] = start;
+            stackSymbol[0] = 0;
+            word.setLength(0);
+            while (depth >= 0) {
+                if (depth == length) {
+                    action.accept(word.toString());
+                    depth--;
+                    continue;
+                }
+                int s = stackState[depth];
+                int a = stackSymbol[depth];
+                while (a < k && count(delta[s * k + a], length - depth - 1, accept).signum() == 0) {
+                    a++;
+                }
+                if (a == k) {
+                    depth--;
+                    continue;
+                }
+                stackSymbol[depth] = a + 1;
+                word.setLength(wordLength[depth]);
+                word.append(symbols[a]);
+                depth++;
+                wordLength[depth] = word.length();
+                stackState[depth] = delta[s * k + a];
+                stackSymbol[depth] = 0;
+            }
+        }
+    }
+
+    private BigInteger count(int s, int length, boolean accept) {
+        checkLength(length);
+        return accept ? accepted[length][s] : powers[length].subtract(accepted[length][s]);
+    }
+
+    private void checkLength(int length) {
+        if (length < 0 || length > maxLength) {
+            throw new IllegalArgumentException("Length " + length + " is outside 0.." + maxLength);
+        }
+    }
+
+    /**
+     * @return A uniformly random long in [0, bound).
+     */
+    private static long nextLong(Random random, long bound) {
+        long limit = Long.MAX_VALUE - Long.MAX_VALUE % bound;
+        long r;
+        do {
+            r = random.nextLong() & Long.MAX_VALUE;
+        } while (r >= limit);
+        return r % bound;
+    }
+
+    /**
+     * @return A uniformly random BigInteger in [0, bound).
+     */
+    private static BigInteger nextBigInteger(Random random, BigInteger bound) {
+        BigInteger r;
+        do {
+            r = new BigInteger(bound.bitLength(), random);
+        } while (r.compareTo(bound) >= 0);
+        return r;
+    }
+}
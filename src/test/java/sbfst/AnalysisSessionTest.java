@@ -0,0 +1,88 @@
+package sbfst;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.AnalysisSession.java.
+ */
+public class AnalysisSessionTest {
+
+    /**
+     * Test that reachability, SCC nodes and verdicts stay the same as from-scratch results through random edits.
+     */
+    @Test
+    public void testRandomEdits() {
+        Random random = new Random(37);
+        for (String name : new String[]{"lt2", "pt1", "lt0"}) {
+            CompactDfa dfa = Classifier.importDfa(name).getDfa();
+            AnalysisSession session = new AnalysisSession(dfa);
+            int n = dfa.getStateCount();
+            for (int edit = 0; edit < 40; edit++) {
+                int state = random.nextInt(n);
+                String symbol = dfa.getSymbol(random.nextInt(dfa.getAlphabetSize()));
+                int kind = random.nextInt(10);
+                if (kind == 0) {
+                    session.removeArc(state, symbol);
+                } else if (kind == 1) {
+                    session.setFinal(state, random.nextBoolean());
+                } else {
+                    session.setArc(state, symbol, random.nextInt(n));
+                }
+                assertAgrees(session);
+            }
+        }
+    }
+
+    /**
+     * Test that undoing an edit reuses the verdict for the original language, and that an edit only rechecks the
+     * conditions it touched.
+     */
+    @Test
+    public void testReuse() {
+        CompactDfa dfa = Classifier.importDfa("lt2").getDfa();
+        AnalysisSession session = new AnalysisSession(dfa);
+        ClassificationResult result = session.classify(LanguageClass.LOCALLY_TESTABLE);
+        assertTrue(result.isMember());
+        long checkedFirst = result.getMetrics().get(Instrumentation.Counter.CONDITIONS_CHECKED);
+        assertTrue(checkedFirst > 0);
+
+        // retarget an arc and put it back: the second classification of the original language is free
+        String symbol = dfa.getSymbol(0);
+        int target = dfa.next(0, 0);
+        session.setArc(0, symbol, (target + 1) % dfa.getStateCount());
+        session.classify(LanguageClass.LOCALLY_TESTABLE);
+        session.setArc(0, symbol, target);
+        result = session.classify(LanguageClass.LOCALLY_TESTABLE);
+        assertTrue(result.isMember());
+        assertTrue(result.getMetrics().get(Instrumentation.Counter.CONDITIONS_CHECKED) == 0);
+        assertTrue(result.getMetrics().get(Instrumentation.Counter.CONDITIONS_REUSED) == 1);
+
+        // a final state change keeps the graph but may change the language
+        session.setFinal(dfa.getStart(), !dfa.isFinal(dfa.getStart()));
+        result = session.classify(LanguageClass.PIECEWISE_TESTABLE);
+        assertTrue(result.isMember() == new Classifier(session.getDfa()).isPiecewiseTestable());
+    }
+
+    private static void assertAgrees(AnalysisSession session) {
+        CompactDfa dfa = session.getDfa();
+        int n = dfa.getStateCount();
+        long[] sccNodes = Traversals.markSCCNodes(IntGraph.of(dfa));
+        for (int p = 0; p < n; p++) {
+            assertTrue(session.isSCCNode(p) == Traversals.isMarked(sccNodes, p));
+            boolean[] visited = new boolean[n];
+            Traversals.preOrder(IntGraph.of(dfa), p, visited);
+            for (int q = 0; q < n; q++) {
+                assertTrue(session.canReach(p, q) == visited[q]);
+                boolean sameComponent = session.getComponentOf(p) == session.getComponentOf(q);
+                assertTrue(sameComponent == (visited[q] && session.canReach(q, p)));
+            }
+        }
+        Classifier classifier = new Classifier(dfa);
+        assertTrue(session.classify(LanguageClass.LOCALLY_TESTABLE).isMember() == classifier.isLocallyTestable());
+        assertTrue(session.classify(LanguageClass.PIECEWISE_TESTABLE).isMember() == classifier.isPiecewiseTestable());
+    }
+}
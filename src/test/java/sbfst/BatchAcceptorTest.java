@@ -0,0 +1,95 @@
+package sbfst;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.BatchAcceptor.java.
+ */
+public class BatchAcceptorTest {
+
+    /**
+     * Test that batches of bytes and strings get the same answers as running the DFA one transition at a time.
+     */
+    @Test
+    public void testAcceptAll() {
+        CompactDfa pt1 = CompactDfa.importDfa("pt1");
+        BatchAcceptor acceptor = new BatchAcceptor(pt1);
+        List<String> words = randomWords(new Random(38), 2000, "abcde");
+        boolean[] fromStrings = acceptor.acceptAll(words);
+        byte[][] bytes = new byte[words.size()][];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = words.get(i).getBytes(StandardCharsets.ISO_8859_1);
+        }
+        boolean[] fromBytes = acceptor.acceptAll(bytes);
+        for (int i = 0; i < words.size(); i++) {
+            boolean expected = accepts(pt1, words.get(i));
+            assertTrue(fromStrings[i] == expected);
+            assertTrue(fromBytes[i] == expected);
+        }
+    }
+
+    /**
+     * Test that a file labeled in many small chunks comes out in order, in the format data-gen.py writes.
+     */
+    @Test
+    public void testLabelFile() throws Exception {
+        CompactDfa lt0 = CompactDfa.importDfa("lt0");
+        BatchAcceptor acceptor = new BatchAcceptor(lt0);
+        List<String> words = randomWords(new Random(39), 5000, "abcd");
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            input.append(word).append(i % 7 == 0 ? "\r\n" : "\n");
+            expected.append(word).append(accepts(lt0, word) ? "\tTRUE\n" : "\tFALSE\n");
+        }
+        // the last line has no newline
+        input.append("ab");
+        expected.append("ab").append(accepts(lt0, "ab") ? "\tTRUE\n" : "\tFALSE\n");
+
+        File file = File.createTempFile("sbfst", ".txt");
+        try {
+            Files.write(file.toPath(), input.toString().getBytes(StandardCharsets.ISO_8859_1));
+            for (int chunkSize : new int[]{1, 64, 1 << 20}) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                long lines = acceptor.labelFile(file.toPath(), output, chunkSize);
+                assertTrue(lines == words.size() + 1);
+                assertTrue(new String(output.toByteArray(), StandardCharsets.ISO_8859_1).equals(expected.toString()));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static List<String> randomWords(Random random, int count, String letters) {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+                word.append(letters.charAt(random.nextInt(letters.length())));
+            }
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static boolean accepts(CompactDfa dfa, String word) {
+        int s = dfa.getStart();
+        for (int i = 0; i < word.length() && s != CompactDfa.NONE; i++) {
+            int a = dfa.getSymbolIndex(word.substring(i, i + 1));
+            s = a == CompactDfa.NONE ? CompactDfa.NONE : dfa.next(s, a);
+        }
+        return s != CompactDfa.NONE && dfa.isFinal(s);
+    }
+}
@@ -0,0 +1,259 @@
+package sbfst;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.Classifier.java.
+ */
+public class ClassifierTest {
+
+    /**
+     * Test that the classifier agrees with the expected classes of the test automata.
+     */
+    @Test
+    public void testClassify() {
+        // Convert is never configured here, since the classifier reads the text format itself
+        Classifier lt1 = Classifier.importDfa("lt1");
+        assertTrue(lt1.isLocallyTestable());
+        assertTrue(!lt1.isPiecewiseTestable());
+
+        Classifier pt1 = Classifier.importDfa("pt1");
+        assertTrue(!pt1.isLocallyTestable());
+        assertTrue(pt1.isPiecewiseTestable());
+        assertTrue(pt1.isStarFree());
+
+        Classifier tomita2 = Classifier.importDfa("tomita2");
+        assertTrue(tomita2.isStarFree());
+    }
+
+    /**
+     * Test that the monoid backend is picked for a small monoid, the graph or counter search backend for a large one,
+     * and that a monoid size limit in the budget makes the classifier fall back to the graph backend.
+     */
+    @Test
+    public void testBackendSelection() {
+        Classifier lt1 = Classifier.importDfa("lt1");
+        ClassificationResult result = lt1.classify(LanguageClass.LOCALLY_TESTABLE, new Metrics(true));
+        assertTrue(result.isMember());
+        assertTrue(result.getMetrics().getTraceEvents().get(0).startsWith("backend: monoid"));
+
+        result = lt1.classify(LanguageClass.LOCALLY_TESTABLE, new Metrics(true),
+                Budget.UNLIMITED.withMaxMonoidElements(1));
+        assertTrue(result.isMember());
+        assertTrue(result.getMetrics().getTraceEvents().get(0).equals("backend: graph"));
+
+        // the monoid of pt1 has as many elements as its DFA has states, that of pt4 has more but fewer than n^2
+        Classifier pt1 = Classifier.importDfa("pt1");
+        result = pt1.classify(LanguageClass.PIECEWISE_TESTABLE, new Metrics(true));
+        assertTrue(result.isMember());
+        assertTrue(result.getMetrics().getTraceEvents().get(0).startsWith("backend: monoid"));
+
+        Classifier pt4 = Classifier.importDfa("pt4");
+        result = pt4.classify(LanguageClass.PIECEWISE_TESTABLE, new Metrics(true));
+        assertTrue(result.isMember());
+        assertTrue(result.getMetrics().getTraceEvents().get(0).equals("backend: monoid with 8 elements"));
+
+        // a cycle, a transposition and a merge of six states generate all 6^6 transformations
+        int n = 6;
+        int[] delta = new int[3 * n];
+        for (int s = 0; s < n; s++) {
+            delta[3 * s] = (s + 1) % n;
+            delta[3 * s + 1] = s < 2 ? 1 - s : s;
+            delta[3 * s + 2] = s == 0 ? 1 : s;
+        }
+        boolean[] finals = new boolean[n];
+        finals[0] = true;
+        Classifier full = new Classifier(new CompactDfa(n, 0, new String[]{"a", "b", "c"}, delta, finals));
+        result = full.classify(LanguageClass.STAR_FREE, new Metrics(true));
+        assertTrue(!result.isMember());
+        assertTrue(result.getMetrics().getTraceEvents().get(0).equals("backend: counter search"));
+
+        result = full.classify(LanguageClass.PIECEWISE_TESTABLE, new Metrics(true));
+        assertTrue(!result.isMember());
+        assertTrue(result.getMetrics().getTraceEvents().get(0).equals("backend: graph"));
+    }
+
+    /**
+     * Test that the star-free screen refutes a language with a short counter word and leaves other verdicts alone.
+     */
+    @Test
+    public void testStarFreeScreen() {
+        Classifier sf3 = Classifier.importDfa("sf3").withStarFreeScreen(100);
+        ClassificationResult result = sf3.classify(LanguageClass.STAR_FREE, new Metrics(true));
+        assertTrue(result.getVerdict() == Verdict.FALSE);
+        assertTrue(result.getWitness() != null);
+        assertTrue(result.getMetrics().getPhaseNanos().containsKey("starFreeScreen"));
+        assertTrue(result.getMetrics().getTraceEvents().get(0).startsWith("starFreeScreen: counter word"));
+
+        Classifier tomita2 = Classifier.importDfa("tomita2").withStarFreeScreen(100);
+        result = tomita2.classify(LanguageClass.STAR_FREE);
+        assertTrue(result.getVerdict() == Verdict.TRUE);
+        assertTrue(result.getWitness() == null);
+
+        // symbols of more than one character stay apart in the witness
+        Classifier parity = new Classifier(new CompactDfa(2, 0, new String[]{"ab", "a"}, new int[]{1, 0, 0, 1},
+                new boolean[]{true, false})).withStarFreeScreen(100);
+        result = parity.classify(LanguageClass.STAR_FREE);
+        assertTrue(result.getVerdict() == Verdict.FALSE);
+        for (String symbol : result.getWitness().split(Utils.DELIMITER)) {
+            assertTrue(symbol.equals("ab") || symbol.equals("a"));
+        }
+
+        // without the screen the exact check reaches the same verdict, without a witness
+        result = Classifier.importDfa("sf3").classify(LanguageClass.STAR_FREE);
+        assertTrue(result.getVerdict() == Verdict.FALSE);
+        assertTrue(result.getWitness() == null);
+    }
+
+    /**
+     * Test that one classifier can be shared by many threads.
+     */
+    @Test
+    public void testConcurrentCallers() throws Exception {
+        final Classifier lt2 = Classifier.importDfa("lt2");
+        final int statesBefore = lt2.getDfa().getStateCount();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> lt2.isLocallyTestable() && !lt2.isPiecewiseTestable()));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(lt2.getDfa().getStateCount() == statesBefore);
+    }
+
+    /**
+     * Test that building the monoids on a pool gives the same verdicts and backends as building them on the caller.
+     */
+    @Test
+    public void testPool() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String name : new String[]{"lt0", "lt1", "pt4", "sf3", "tomita2"}) {
+                Classifier sequential = Classifier.importDfa(name);
+                Classifier parallel = sequential.withPool(pool);
+                for (LanguageClass languageClass : new LanguageClass[]{LanguageClass.STAR_FREE,
+                        LanguageClass.LOCALLY_TESTABLE, LanguageClass.PIECEWISE_TESTABLE}) {
+                    ClassificationResult expected = sequential.classify(languageClass, new Metrics(true));
+                    ClassificationResult actual = parallel.classify(languageClass, new Metrics(true));
+                    assertTrue(actual.getVerdict() == expected.getVerdict());
+                    assertTrue(actual.getMetrics().getTraceEvents().get(0)
+                            .equals(expected.getMetrics().getTraceEvents().get(0)));
+                }
+                assertTrue(parallel.getPeriod() == sequential.getPeriod());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test that the locally threshold testable check reports its metrics instead of printing them.
+     */
+    @Test
+    public void testMetrics() {
+        Classifier lt0 = Classifier.importDfa("lt0");
+        ClassificationResult result = lt0.classify(LanguageClass.LOCALLY_THRESHOLD_TESTABLE, new Metrics(true));
+        Metrics metrics = result.getMetrics();
+        assertTrue(result.toString().startsWith("LOCALLY_THRESHOLD_TESTABLE: " + result.getVerdict() + "\n"));
+        assertTrue(result.toString().contains("directProduct: "));
+        assertTrue(metrics.getPhaseNanos().containsKey("directProduct"));
+        assertTrue(metrics.getPhaseNanos().containsKey("lemma12"));
+        assertTrue(!metrics.getTraceEvents().isEmpty());
+
+        // without tracing only timings and counters are kept
+        result = lt0.classify(LanguageClass.LOCALLY_THRESHOLD_TESTABLE);
+        assertTrue(result.getMetrics().getTraceEvents().isEmpty());
+    }
+
+    /**
+     * Test that the stages of a classification and the check itself are recorded as JFR events.
+     */
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        File file = File.createTempFile("sbfst", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("sbfst.Stage").withThreshold(Duration.ZERO);
+            recording.enable("sbfst.ClassCheck").withThreshold(Duration.ZERO);
+            recording.start();
+            Classifier lt0 = Classifier.importDfa("lt0");
+            lt0.classify(LanguageClass.LOCALLY_THRESHOLD_TESTABLE);
+            lt0.classify(LanguageClass.STAR_FREE);
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        Set<String> stages = new HashSet<>();
+        Set<String> checks = new HashSet<>();
+        long productStates = 0;
+        long monoidSize = 0;
+        try {
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                if (event.getEventType().getName().equals("sbfst.Stage")) {
+                    stages.add(event.getString("stage"));
+                    productStates = Math.max(productStates, event.getLong("productStates"));
+                    monoidSize = Math.max(monoidSize, event.getLong("monoidSize"));
+                } else if (event.getEventType().getName().equals("sbfst.ClassCheck")) {
+                    checks.add(event.getString("languageClass"));
+                    assertTrue(event.getInt("dfaStates") > 0);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+        assertTrue(stages.containsAll(Arrays.asList("import", "minimize", "scc", "reachability",
+                "product", "monoid", "theorem16")));
+        assertTrue(checks.contains("LOCALLY_THRESHOLD_TESTABLE") && checks.contains("STAR_FREE"));
+        assertTrue(productStates > 0 && monoidSize > 0);
+    }
+
+    /**
+     * Test that a classification that runs out of budget returns UNKNOWN instead of running on.
+     */
+    @Test
+    public void testBudget() {
+        Classifier lt0 = Classifier.importDfa("lt0");
+        ClassificationResult result = lt0.classify(LanguageClass.LOCALLY_THRESHOLD_TESTABLE,
+                Budget.UNLIMITED.withMaxProductStates(10));
+        assertTrue(result.getVerdict() == Verdict.UNKNOWN);
+        assertTrue(!result.isMember());
+        assertTrue(result.getReason().contains("product graph"));
+
+        result = lt0.classify(LanguageClass.STAR_FREE, Budget.UNLIMITED.withMaxMonoidElements(1));
+        assertTrue(result.getVerdict() == Verdict.UNKNOWN);
+
+        result = lt0.classify(LanguageClass.PIECEWISE_TESTABLE, Budget.UNLIMITED.withTimeout(0, TimeUnit.SECONDS));
+        assertTrue(result.getVerdict() == Verdict.UNKNOWN);
+        assertTrue(result.getReason().equals("deadline exceeded"));
+
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        result = lt0.classify(LanguageClass.LOCALLY_TESTABLE, Budget.UNLIMITED.withCancellation(token));
+        assertTrue(result.getVerdict() == Verdict.UNKNOWN);
+        assertTrue(result.getReason().equals("cancelled"));
+
+        // a generous budget gives the same verdicts as no budget at all
+        Budget generous = Budget.UNLIMITED.withTimeout(1, TimeUnit.MINUTES).withMaxProductStates(1000000)
+                .withMaxMonoidElements(1000000);
+        assertTrue(lt0.classify(LanguageClass.LOCALLY_TESTABLE, generous).getVerdict() == Verdict.TRUE);
+        assertTrue(lt0.classify(LanguageClass.PIECEWISE_TESTABLE, generous).getVerdict() == Verdict.FALSE);
+    }
+}
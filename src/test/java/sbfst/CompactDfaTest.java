@@ -0,0 +1,361 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.*;
+import com.github.steveash.jopenfst.io.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.CompactDfa.java and sbfst.ClassificationCache.java.
+ */
+public class CompactDfaTest {
+
+    Fst lt0;
+    Fst pt0;
+
+    /**
+     * Run before each test case to initialize the testing environment.
+     */
+    @Before
+    public void initialize() {
+        Convert.setRegexToSplitOn("\\s+");
+        lt0 = Convert.importFst("lt0");
+        pt0 = Convert.importFst("pt0");
+    }
+
+    /**
+     * Get a copy of the given FST with its states renumbered in reverse order.
+     */
+    private static Fst reversedNumbering(Fst fst) {
+        int n = fst.getStateCount();
+        MutableFst copy = MutableFst.emptyWithCopyOfSymbols(fst);
+        for (int i = 0; i < n; i++) {
+            copy.addState(new MutableState(fst.getState(n - 1 - i).getFinalWeight()), Integer.toString(i));
+        }
+        for (int i = 0; i < n; i++) {
+            State state = fst.getState(i);
+            for (Arc arc : state.getArcs()) {
+                copy.addArc(copy.getState(n - 1 - i), arc.getIlabel(), arc.getOlabel(),
+                        copy.getState(n - 1 - arc.getNextState().getId()), arc.getWeight());
+            }
+        }
+        copy.setStart(copy.getState(n - 1 - fst.getStartState().getId()));
+        return copy;
+    }
+
+    /**
+     * Test that converting to and from an FST keeps the DFA intact.
+     */
+    @Test
+    public void testFromFst() {
+        CompactDfa dfa = CompactDfa.fromFst(lt0);
+        assertTrue(dfa.getStateCount() == 3);
+        assertTrue(dfa.getAlphabetSize() == 4);
+        assertTrue(dfa.isComplete());
+        assertTrue(dfa.isFinal(2));
+        assertTrue(dfa.next(1, dfa.getSymbolIndex("b")) == 2);
+        assertTrue(CompactDfa.fromFst(dfa.toFst()).equals(dfa));
+    }
+
+    /**
+     * Test that a DFA written by Convert.export reads back with the same final states, since Convert.export lists the
+     * non-final states with an infinite weight.
+     */
+    @Test
+    public void testReadExported() throws Exception {
+        // (a|b)+
+        CompactDfa plus = new CompactDfa(2, 0, new String[]{"a", "b"}, new int[]{1, 1, 1, 1},
+                new boolean[]{false, true});
+        String baseName = new File(Files.createTempDirectory("sbfst-export").toFile(), "plus").getPath();
+        Convert.export(plus.toFst(), baseName);
+        CompactDfa read = CompactDfa.importDfa(baseName);
+        assertTrue(!read.isFinal(read.getStart()));
+        assertTrue(read.minimize().getStateCount() == 2);
+        assertTrue(read.canonical().equals(plus.canonical()));
+        assertTrue(Classifier.importDfa(baseName).getDfa().getStateCount() == 2);
+
+        // the same holds for the fixtures
+        Convert.export(lt0, baseName);
+        assertTrue(CompactDfa.importDfa(baseName).canonical().equals(CompactDfa.fromFst(lt0).canonical()));
+    }
+
+    /**
+     * Test minimization of a partial DFA and of a DFA that is already minimal.
+     */
+    @Test
+    public void testMinimize() {
+        // sl0.fst.txt is partial, so minimization adds a sink
+        CompactDfa sl0 = CompactDfa.fromFst(Convert.importFst("sl0")).minimize();
+        assertTrue(sl0.getStateCount() == 3);
+        assertTrue(sl0.isComplete());
+
+        // lt1.fst.txt is minimal already
+        assertTrue(CompactDfa.fromFst(Convert.importFst("lt1")).minimize().getStateCount() == 8);
+
+        // a chain over 2^16 symbols and its copy, where state s and its copy n + s are equivalent, stays sparse with
+        // the sink left implicit
+        int n = 2000;
+        int k = 1 << 16;
+        String[] symbols = new String[k];
+        for (int a = 0; a < k; a++) {
+            symbols[a] = String.format("%05d", a);
+        }
+        int[] sources = new int[4 * n];
+        int[] labels = new int[4 * n];
+        int[] targets = new int[4 * n];
+        int arcCount = 0;
+        boolean[] finals = new boolean[2 * n];
+        for (int s = 0; s < n - 1; s++) {
+            for (int copy = 0; copy < 2; copy++) {
+                sources[arcCount] = copy * n + s;
+                labels[arcCount] = 2 + s;
+                targets[arcCount++] = s + 1;
+                sources[arcCount] = copy * n + s;
+                labels[arcCount] = 1;
+                targets[arcCount++] = n + s + 1;
+            }
+        }
+        finals[n - 1] = true;
+        finals[2 * n - 1] = true;
+        CompactDfa chain = CompactDfa.ofArcs(2 * n, 0, symbols, finals, sources, labels, targets, arcCount, null);
+        CompactDfa min = chain.minimize();
+        assertTrue(min.getStateCount() == n);
+        assertTrue(min.isSparse() && !min.isComplete());
+        assertTrue(min.canonical().equals(chain.canonical()));
+        assertTrue(min.complete().getStateCount() == n + 1 && min.complete().isComplete());
+    }
+
+    /**
+     * Test that the sparse layout is picked for large, sparsely filled alphabets and behaves like a dense table.
+     */
+    @Test
+    public void testSparseLayout() throws Exception {
+        Random random = new Random(49);
+        int k = 64;
+        String[] symbols = new String[k];
+        for (int a = 0; a < k; a++) {
+            symbols[a] = String.format("s%02d", a);
+        }
+        for (int trial = 0; trial < 50; trial++) {
+            int n = 1 + random.nextInt(30);
+            int[] delta = new int[n * k];
+            Arrays.fill(delta, CompactDfa.NONE);
+            boolean[] finals = new boolean[n];
+            StringBuilder text = new StringBuilder();
+            for (int s = 0; s < n; s++) {
+                finals[s] = random.nextBoolean();
+                for (int arc = random.nextInt(6); arc > 0; arc--) {
+                    delta[s * k + random.nextInt(k)] = random.nextInt(n);
+                }
+                for (int a = 0; a < k; a++) {
+                    if (delta[s * k + a] != CompactDfa.NONE) {
+                        text.append(s).append(' ').append(delta[s * k + a]).append(' ').append(symbols[a]).append('\n');
+                    }
+                }
+            }
+            CompactDfa dfa = new CompactDfa(n, 0, symbols, delta.clone(), finals);
+            assertTrue(dfa.isSparse());
+            for (int s = 0; s < n; s++) {
+                int degree = 0;
+                for (int a = 0; a < k; a++) {
+                    assertTrue(dfa.next(s, a) == delta[s * k + a]);
+                    int expected = CompactDfa.NONE;
+                    for (int b = k - 1; b >= a; b--) {
+                        expected = delta[s * k + b] != CompactDfa.NONE ? b : expected;
+                    }
+                    assertTrue(dfa.nextSymbol(s, a) == expected);
+                    degree += delta[s * k + a] != CompactDfa.NONE ? 1 : 0;
+                }
+                assertTrue(dfa.nextSymbol(s, k) == CompactDfa.NONE);
+                assertTrue(dfa.getOutDegree(s) == degree);
+            }
+
+            // every way of building the DFA agrees with the raw table
+            assertTrue(CompactDfa.fromFst(dfa.toFst()).equals(dfa));
+            assertTrue(CompactDfa.fromFst(dfa.toFst()).hashCode() == dfa.hashCode());
+            if (text.length() > 0 && delta[0] != CompactDfa.NONE) {
+                assertTrue(CompactDfa.read(new BufferedReader(new StringReader(text.toString()))).next(0, 0)
+                        == delta[0]);
+            }
+            assertTrue(dfa.getReverseAdjacency().getArcCount() == ReverseAdjacency.of(dfa.toFst()).getArcCount());
+
+            // the minimal DFA keeps the sink implicit, so it stays sparse unless the language is empty
+            CompactDfa min = dfa.minimize();
+            assertTrue(min.isSparse() != (min.getStateCount() == 1 && min.isComplete()));
+            assertTrue(min.canonical().equals(CompactDfa.fromFst(dfa.toFst()).minimize().canonical()));
+        }
+
+        // a byte-level alphabet that is fully used stays dense
+        int n = 3;
+        int[] delta = new int[n * 256];
+        String[] bytes = new String[256];
+        for (int a = 0; a < 256; a++) {
+            bytes[a] = String.format("%02x", a);
+            for (int s = 0; s < n; s++) {
+                delta[s * 256 + a] = (s + a) % n;
+            }
+        }
+        CompactDfa full = new CompactDfa(n, 0, bytes, delta, new boolean[n]);
+        assertTrue(!full.isSparse() && full.isComplete());
+        assertTrue(full.nextSymbol(1, 7) == 7);
+    }
+
+    /**
+     * Test that the products built on a sparse DFA have exactly the transitions that all coordinates share.
+     */
+    @Test
+    public void testSparseProducts() {
+        Random random = new Random(490);
+        int k = 32;
+        String[] symbols = new String[k];
+        for (int a = 0; a < k; a++) {
+            symbols[a] = String.format("s%02d", a);
+        }
+        int n = 6;
+        int[] delta = new int[n * k];
+        Arrays.fill(delta, CompactDfa.NONE);
+        for (int s = 0; s < n; s++) {
+            for (int arc = 0; arc < 5; arc++) {
+                delta[s * k + random.nextInt(k / 2)] = random.nextInt(n);
+            }
+        }
+        CompactDfa dfa = new CompactDfa(n, 0, symbols, delta, new boolean[n]);
+        assertTrue(dfa.isSparse());
+        Fst gamma = dfa.toFst();
+        Fst gamma2 = Utils.directProduct(gamma, 2);
+        int arcs = 0;
+        for (int p = 0; p < n; p++) {
+            for (int q = 0; q < n; q++) {
+                State pq = gamma2.getState(p + Utils.DELIMITER + q);
+                for (int a = 0; a < k; a++) {
+                    if (dfa.next(p, a) != CompactDfa.NONE && dfa.next(q, a) != CompactDfa.NONE) {
+                        arcs++;
+                    }
+                }
+                for (Arc arc : pq.getArcs()) {
+                    int a = dfa.getSymbolIndex(gamma2.getInputSymbols().invert().keyForId(arc.getIlabel()));
+                    String target = dfa.next(p, a) + Utils.DELIMITER + dfa.next(q, a);
+                    assertTrue(arc.getNextState().getId() == gamma2.getState(target).getId());
+                }
+            }
+        }
+        int productArcs = 0;
+        for (int s = 0; s < gamma2.getStateCount(); s++) {
+            productArcs += gamma2.getState(s).getArcCount();
+        }
+        assertTrue(productArcs == arcs);
+    }
+
+    /**
+     * Test that the reverse adjacency lists every transition once and is cached with the DFA.
+     */
+    @Test
+    public void testReverseAdjacency() {
+        CompactDfa dfa = CompactDfa.fromFst(lt0);
+        ReverseAdjacency reverse = dfa.getReverseAdjacency();
+        assertTrue(reverse == dfa.getReverseAdjacency());
+        assertTrue(reverse.getStateCount() == dfa.getStateCount());
+
+        // every transition appears exactly once among the incoming arcs of its target
+        int transitions = 0;
+        for (int s = 0; s < dfa.getStateCount(); s++) {
+            for (int a = 0; a < dfa.getAlphabetSize(); a++) {
+                int t = dfa.next(s, a);
+                int found = 0;
+                for (int arc = reverse.getFirstArc(t); arc < reverse.getEndArc(t); arc++) {
+                    if (reverse.getSource(arc) == s && reverse.getLabel(arc) == a) {
+                        found++;
+                    }
+                }
+                assertTrue(found == 1);
+                transitions++;
+            }
+        }
+        assertTrue(reverse.getArcCount() == transitions);
+        assertTrue(ReverseAdjacency.of(lt0).getArcCount() == transitions);
+    }
+
+    /**
+     * Test that isomorphic DFAs have the same canonical form and hash, and different languages do not.
+     */
+    @Test
+    public void testCanonicalHash() {
+        CompactDfa a = CompactDfa.fromFst(lt0);
+        CompactDfa b = CompactDfa.fromFst(reversedNumbering(lt0));
+        assertTrue(!a.equals(b));
+        assertTrue(a.canonical().equals(b.canonical()));
+        assertTrue(a.canonicalHash().equals(b.canonicalHash()));
+        assertTrue(!a.canonicalHash().equals(CompactDfa.fromFst(pt0).canonicalHash()));
+        DfaHash hash = a.canonicalHash();
+        assertTrue(DfaHash.fromString(hash.toString()).equals(hash));
+    }
+
+    /**
+     * Test that isomorphic inputs are answered from the cache, in memory and on disk.
+     */
+    @Test
+    public void testClassificationCache() throws Exception {
+        File directory = Files.createTempDirectory("sbfst-cache").toFile();
+        ClassificationCache cache = new ClassificationCache(4, directory);
+        assertTrue(!cache.isPiecewiseTestable(lt0));
+        assertTrue(cache.getMisses() == 1);
+        assertTrue(!cache.isPiecewiseTestable(reversedNumbering(lt0)));
+        assertTrue(cache.getHits() == 1);
+        assertTrue(cache.isPiecewiseTestable(pt0));
+        assertTrue(cache.size() == 2);
+
+        // a fresh cache over the same directory starts out with the persisted results
+        ClassificationCache reopened = new ClassificationCache(4, directory);
+        assertTrue(reopened.isPiecewiseTestable(pt0));
+        assertTrue(reopened.getHits() == 1);
+        assertTrue(reopened.getMisses() == 0);
+    }
+
+    /**
+     * Test that a result stored after its entry was evicted keeps the other persisted results, and that files of an
+     * older format are not reused.
+     */
+    @Test
+    public void testClassificationCacheEviction() throws Exception {
+        File directory = Files.createTempDirectory("sbfst-cache").toFile();
+        ClassificationCache cache = new ClassificationCache(1, directory);
+        assertTrue(!cache.isPiecewiseTestable(lt0));
+        assertTrue(cache.isPiecewiseTestable(pt0));
+        // lt0 was evicted by pt0, so this stores into a fresh in-memory entry
+        assertTrue(cache.isLocallyTestable(lt0));
+
+        ClassificationCache reopened = new ClassificationCache(4, directory);
+        assertTrue(!reopened.isPiecewiseTestable(lt0));
+        assertTrue(reopened.isLocallyTestable(lt0));
+        assertTrue(reopened.getHits() == 2 && reopened.getMisses() == 0);
+
+        // drop the format key from every file, as a cache written before it had one
+        for (File file : directory.listFiles()) {
+            Properties entry = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                entry.load(in);
+            }
+            entry.remove(ClassificationCache.FORMAT);
+            try (OutputStream out = new FileOutputStream(file)) {
+                entry.store(out, null);
+            }
+        }
+        ClassificationCache stale = new ClassificationCache(4, directory);
+        assertTrue(!stale.isPiecewiseTestable(lt0));
+        assertTrue(stale.getHits() == 0 && stale.getMisses() == 1);
+    }
+}
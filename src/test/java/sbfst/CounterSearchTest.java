@@ -0,0 +1,140 @@
+package sbfst;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.CounterSearch.java.
+ */
+public class CounterSearchTest {
+
+    /**
+     * Test the counter search on fixtures, and that a counter word found is the word of a counter.
+     */
+    @Test
+    public void testFindCounter() {
+        for (String name : new String[]{"sf0", "sf1", "sf2", "tomita2", "lt0", "pt1", "sl1"}) {
+            assertTrue(CounterSearch.isCounterFree(CompactDfa.importDfa(name).minimize()));
+        }
+        // the syntactic monoid of sf3 has period 2
+        CompactDfa sf3 = CompactDfa.importDfa("sf3").minimize();
+        int[] word = CounterSearch.findCounter(sf3, Budget.UNLIMITED);
+        assertTrue(word != null && isCounterWord(sf3, word));
+
+        // an even number of a's: a swaps the two states
+        CompactDfa even = new CompactDfa(2, 0, new String[]{"a", "b"}, new int[]{1, 0, 0, 1},
+                new boolean[]{true, false});
+        word = CounterSearch.findCounter(even, Budget.UNLIMITED);
+        assertTrue(word != null && word.length == 1 && word[0] == 0);
+
+        // (ab)* with a partial DFA has no counter, but (aab)* counts to three with a b at 0 only
+        CompactDfa abStar = new CompactDfa(2, 0, new String[]{"a", "b"},
+                new int[]{1, CompactDfa.NONE, CompactDfa.NONE, 0}, new boolean[]{true, false});
+        assertTrue(CounterSearch.isCounterFree(abStar));
+        CompactDfa aCount = new CompactDfa(3, 0, new String[]{"a", "b"},
+                new int[]{1, 0, 2, CompactDfa.NONE, 0, CompactDfa.NONE}, new boolean[]{true, false, false});
+        word = CounterSearch.findCounter(aCount, Budget.UNLIMITED);
+        assertTrue(word != null && isCounterWord(aCount, word));
+    }
+
+    /**
+     * Test the counter search against aperiodicity of the transition monoid on random minimal DFAs.
+     */
+    @Test
+    public void testAgainstMonoid() {
+        Random random = new Random(45);
+        for (int trial = 0; trial < 500; trial++) {
+            int n = 1 + random.nextInt(6);
+            int[] delta = new int[2 * n];
+            boolean[] finals = new boolean[n];
+            for (int s = 0; s < n; s++) {
+                delta[2 * s] = random.nextInt(4) == 0 ? CompactDfa.NONE : random.nextInt(n);
+                delta[2 * s + 1] = random.nextInt(4) == 0 ? CompactDfa.NONE : random.nextInt(n);
+                finals[s] = random.nextBoolean();
+            }
+            CompactDfa dfa = new CompactDfa(n, 0, new String[]{"a", "b"}, delta, finals).minimize();
+            int[] word = CounterSearch.findCounter(dfa, Budget.UNLIMITED);
+            assertTrue((word == null) == isAperiodic(TransitionMonoid.of(dfa)));
+            assertTrue(word == null || isCounterWord(dfa, word));
+        }
+    }
+
+    /**
+     * Test that sampled counter words are counter words, and that counter-free DFAs give none.
+     */
+    @Test
+    public void testSampleCounter() {
+        Random random = new Random(46);
+        for (String name : new String[]{"sf0", "sf1", "sf2", "tomita2", "lt0"}) {
+            assertTrue(CounterSearch.sampleCounter(CompactDfa.importDfa(name).minimize(), 200, random,
+                    Budget.UNLIMITED) == null);
+        }
+        CompactDfa sf3 = CompactDfa.importDfa("sf3").minimize();
+        int[] word = CounterSearch.sampleCounter(sf3, 200, random, Budget.UNLIMITED);
+        assertTrue(word != null && isCounterWord(sf3, word));
+
+        for (int trial = 0; trial < 300; trial++) {
+            int n = 1 + random.nextInt(6);
+            int[] delta = new int[2 * n];
+            boolean[] finals = new boolean[n];
+            for (int s = 0; s < n; s++) {
+                delta[2 * s] = random.nextInt(4) == 0 ? CompactDfa.NONE : random.nextInt(n);
+                delta[2 * s + 1] = random.nextInt(n);
+                finals[s] = random.nextBoolean();
+            }
+            CompactDfa dfa = new CompactDfa(n, 0, new String[]{"a", "b"}, delta, finals).minimize();
+            word = CounterSearch.sampleCounter(dfa, 20, random, Budget.UNLIMITED);
+            assertTrue(word == null || isCounterWord(dfa, word) && !CounterSearch.isCounterFree(dfa));
+        }
+    }
+
+    /**
+     * @return true if some state returns to itself after reading word at least twice, but not after reading it once.
+     */
+    private static boolean isCounterWord(CompactDfa dfa, int[] word) {
+        for (int q = 0; q < dfa.getStateCount(); q++) {
+            int s = q;
+            for (int i = 0; i <= dfa.getStateCount() && s != CompactDfa.NONE; i++) {
+                s = read(dfa, s, word);
+                if (s == q) {
+                    if (i > 0) {
+                        return true;
+                    }
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int read(CompactDfa dfa, int state, int[] word) {
+        for (int a : word) {
+            if (state == CompactDfa.NONE) {
+                break;
+            }
+            state = dfa.next(state, a);
+        }
+        return state;
+    }
+
+    /**
+     * @return true if every element m has m^i = m^(i+1) for some i.
+     */
+    private static boolean isAperiodic(TransitionMonoid monoid) {
+        for (int m = 0; m < monoid.getSize(); m++) {
+            int power = m;
+            int next = monoid.multiply(power, m);
+            for (int i = 0; i < monoid.getSize() && next != power; i++) {
+                power = next;
+                next = monoid.multiply(power, m);
+            }
+            if (next != power) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
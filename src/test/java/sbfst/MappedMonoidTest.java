@@ -0,0 +1,99 @@
+package sbfst;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.MappedMonoid.java.
+ */
+public class MappedMonoidTest {
+
+    /**
+     * Test that the mapped monoid numbers its elements like TransitionMonoid, also with segments small enough that
+     * every file spans many of them and the index is rebuilt many times.
+     */
+    @Test
+    public void testBuild() throws IOException {
+        // a cycle, a transposition and a merge of five states generate all 5^5 transformations
+        int n = 5;
+        int[] delta = new int[3 * n];
+        for (int s = 0; s < n; s++) {
+            delta[3 * s] = (s + 1) % n;
+            delta[3 * s + 1] = s < 2 ? 1 - s : s;
+            delta[3 * s + 2] = s == 0 ? 1 : s;
+        }
+        CompactDfa full = new CompactDfa(n, 0, new String[]{"a", "b", "c"}, delta, new boolean[n]);
+        for (int segmentBytes : new int[]{1 << 30, 100}) {
+            Path directory = Files.createTempDirectory("sbfst");
+            try (MappedMonoid mapped = MappedMonoid.build(full, directory, Budget.UNLIMITED, segmentBytes)) {
+                assertTrue(isSame(TransitionMonoid.of(full), mapped));
+                assertTrue(mapped.getFiles().size() == 3);
+                assertTrue(mapped.getFiles().get(1).getFileName().toString().equals("index-8192.bin"));
+            } finally {
+                deleteAll(directory);
+            }
+        }
+    }
+
+    /**
+     * Test the period and idempotent scans against the heap implementations.
+     */
+    @Test
+    public void testScans() throws IOException {
+        for (String name : new String[]{"lt0", "lt1", "pt3", "sf0", "sf3", "tomita2"}) {
+            CompactDfa dfa = CompactDfa.importDfa(name).minimize();
+            Path directory = Files.createTempDirectory("sbfst");
+            try (MappedMonoid mapped = MappedMonoid.build(dfa, directory)) {
+                TransitionMonoid monoid = TransitionMonoid.of(dfa);
+                assertTrue(mapped.getSize() == monoid.getSize());
+                assertTrue(mapped.getPeriod() == Utils.isAperiodic(Utils.getSM(dfa.toFst())));
+                assertTrue(mapped.isAperiodic() == CounterSearch.isCounterFree(dfa));
+                List<Integer> idempotents = new ArrayList<>();
+                mapped.forEachIdempotent(idempotents::add);
+                assertTrue(idempotents.size() == mapped.countIdempotents());
+                int[] expected = monoid.getIdempotents();
+                assertTrue(idempotents.size() == expected.length);
+                for (int i = 0; i < expected.length; i++) {
+                    assertTrue(idempotents.get(i) == expected[i]);
+                }
+            } finally {
+                deleteAll(directory);
+            }
+        }
+    }
+
+    private static boolean isSame(TransitionMonoid monoid, MappedMonoid mapped) {
+        if (monoid.getSize() != mapped.getSize() || monoid.getStateCount() != mapped.getStateCount()) {
+            return false;
+        }
+        for (int m = 0; m < monoid.getSize(); m++) {
+            for (int s = 0; s < monoid.getStateCount(); s++) {
+                if (monoid.apply(m, s) != mapped.apply(m, s)) {
+                    return false;
+                }
+            }
+            for (int a = 0; a < monoid.getAlphabetSize(); a++) {
+                if (monoid.rightMultiply(m, a) != mapped.rightMultiply(m, a)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void deleteAll(Path directory) throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
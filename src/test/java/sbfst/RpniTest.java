@@ -0,0 +1,99 @@
+package sbfst;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.Rpni.java.
+ */
+public class RpniTest {
+
+    /**
+     * Test that every word up to a length identifies the target language, and that the learned DFA feeds straight into
+     * the classifiers.
+     */
+    @Test
+    public void testIdentify() {
+        for (String name : new String[]{"lt0", "pt0", "sl0", "sp0"}) {
+            CompactDfa target = CompactDfa.importDfa(name);
+            WordSampler sampler = new WordSampler(target, 6);
+            Rpni rpni = new Rpni();
+            sampler.enumerate(6, true, word -> rpni.add(word, true));
+            sampler.enumerate(6, false, word -> rpni.add(word, false));
+            CompactDfa learned = rpni.learn();
+            assertTrue(learned.canonical().equals(target.canonical()));
+
+            Classifier expected = new Classifier(target);
+            Classifier actual = new Classifier(learned);
+            for (LanguageClass languageClass : LanguageClass.values()) {
+                assertTrue(actual.classify(languageClass).getVerdict()
+                        == expected.classify(languageClass).getVerdict());
+            }
+        }
+    }
+
+    /**
+     * Test that the learned DFA agrees with every sample of random targets, including on repeated strings.
+     */
+    @Test
+    public void testConsistency() {
+        Random random = new Random(50);
+        for (int trial = 0; trial < 100; trial++) {
+            int n = 1 + random.nextInt(8);
+            int[] delta = new int[n * 3];
+            boolean[] finals = new boolean[n];
+            for (int s = 0; s < n; s++) {
+                finals[s] = random.nextBoolean();
+                for (int a = 0; a < 3; a++) {
+                    delta[s * 3 + a] = random.nextInt(4) == 0 ? CompactDfa.NONE : random.nextInt(n);
+                }
+            }
+            BatchAcceptor target = new BatchAcceptor(new CompactDfa(n, 0, new String[]{"a", "b", "c"}, delta, finals));
+            String[] words = new String[300];
+            Rpni rpni = new Rpni();
+            for (int i = 0; i < words.length; i++) {
+                StringBuilder word = new StringBuilder();
+                for (int length = random.nextInt(12); length > 0; length--) {
+                    word.append("abc".charAt(random.nextInt(3)));
+                }
+                words[i] = word.toString();
+                rpni.add(words[i], target.accepts(words[i]));
+            }
+            assertTrue(rpni.getSampleCount() == words.length);
+            BatchAcceptor learned = new BatchAcceptor(rpni.learn());
+            for (String word : words) {
+                assertTrue(learned.accepts(word) == target.accepts(word));
+            }
+        }
+    }
+
+    /**
+     * Test reading samples in the format data-gen.py writes, and that contradicting labels are refused.
+     */
+    @Test
+    public void testAddLabeledLines() throws Exception {
+        File file = File.createTempFile("sbfst", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "\tFALSE\na\tTRUE\r\naa\tFALSE\nab\tTRUE\nb\tFALSE\n".getBytes(StandardCharsets.ISO_8859_1));
+        Rpni rpni = new Rpni();
+        assertTrue(rpni.addLabeledLines(file.toPath()) == 5);
+        assertTrue(rpni.getPrefixCount() == 5);
+        BatchAcceptor learned = new BatchAcceptor(rpni.learn());
+        assertTrue(!learned.accepts("") && learned.accepts("a") && !learned.accepts("aa") && learned.accepts("ab"));
+        assertTrue(!learned.accepts("b"));
+
+        boolean refused = false;
+        try {
+            rpni.add("ab", false);
+        } catch (IllegalArgumentException e) {
+            refused = true;
+        }
+        assertTrue(refused);
+    }
+}
@@ -0,0 +1,144 @@
+package sbfst;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.TensorExporter.java.
+ */
+public class TensorExporterTest {
+
+    private static final String[] WORDS = {"ba", "", "abcd", "d", "cc", "dcba", "a"};
+
+    /**
+     * Test that strings are split into shards of .npy files with patched shapes, sorted-alphabet tokens and padding.
+     */
+    @Test
+    public void testNpy() throws IOException {
+        Path directory = Files.createTempDirectory("sbfst");
+        try {
+            TensorExporter exporter = new TensorExporter(directory, "lt0", Arrays.asList("d", "c", "b", "a"), 4, 3,
+                    false);
+            for (int i = 0; i < WORDS.length; i++) {
+                exporter.add(WORDS[i], i % 2 == 0);
+            }
+            exporter.close();
+            List<Path> files = exporter.getWrittenFiles();
+            assertTrue(files.size() == 9);
+            assertTrue(files.get(3).getFileName().toString().equals("lt0-00001-tokens.npy"));
+
+            int[][] shard = {
+                    readNpy(Files.readAllBytes(files.get(0)), "(3, 4)"),
+                    readNpy(Files.readAllBytes(files.get(1)), "(3,)"),
+                    readNpy(Files.readAllBytes(files.get(2)), "(3,)")};
+            assertTrue(Arrays.equals(shard[0], new int[]{2, 1, 0, 0, 0, 0, 0, 0, 1, 2, 3, 4}));
+            assertTrue(Arrays.equals(shard[1], new int[]{2, 0, 4}));
+            assertTrue(Arrays.equals(shard[2], new int[]{1, 0, 1}));
+            int[] lastTokens = readNpy(Files.readAllBytes(files.get(6)), "(1, 4)");
+            assertTrue(Arrays.equals(lastTokens, new int[]{1, 0, 0, 0}));
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    /**
+     * Test that shards packed as .npz hold the same arrays, and that labeled text lines are read back in.
+     */
+    @Test
+    public void testNpz() throws IOException {
+        Path directory = Files.createTempDirectory("sbfst");
+        try {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < WORDS.length; i++) {
+                text.append(WORDS[i]).append(i % 2 == 0 ? "\tTRUE\n" : "\tFALSE\n");
+            }
+            Path labeled = directory.resolve("Train.txt");
+            Files.write(labeled, text.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+            TensorExporter exporter = new TensorExporter(directory, "lt0", Arrays.asList("a", "b", "c", "d"), 5,
+                    100, true);
+            assertTrue(exporter.addLabeledLines(labeled) == WORDS.length);
+            exporter.close();
+            List<Path> files = exporter.getWrittenFiles();
+            assertTrue(files.size() == 1);
+            assertTrue(!Files.exists(directory.resolve("lt0-00000-tokens.npy")));
+
+            Map<String, byte[]> entries = new HashMap<>();
+            try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(files.get(0)))) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    entries.put(entry.getName(), readAll(zip));
+                }
+            }
+            assertTrue(entries.size() == 3);
+            int[] tokens = readNpy(entries.get("tokens.npy"), "(7, 5)");
+            assertTrue(tokens.length == 35);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(tokens, 25, 30), new int[]{4, 3, 2, 1, 0}));
+            assertTrue(Arrays.equals(readNpy(entries.get("lengths.npy"), "(7,)"), new int[]{2, 0, 4, 1, 2, 4, 1}));
+            assertTrue(Arrays.equals(readNpy(entries.get("labels.npy"), "(7,)"), new int[]{1, 0, 1, 0, 1, 0, 1}));
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    /**
+     * Parse a little-endian int32 .npy array, checking its header the way np.load would.
+     */
+    private static int[] readNpy(byte[] bytes, String shape) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertTrue((buffer.get() & 0xff) == 0x93);
+        byte[] magic = new byte[5];
+        buffer.get(magic);
+        assertTrue(new String(magic, StandardCharsets.US_ASCII).equals("NUMPY"));
+        assertTrue(buffer.get() == 1 && buffer.get() == 0);
+        int headerLength = buffer.getShort() & 0xffff;
+        byte[] header = new byte[headerLength];
+        buffer.get(header);
+        String dictionary = new String(header, StandardCharsets.US_ASCII);
+        assertTrue((10 + headerLength) % 64 == 0);
+        assertTrue(dictionary.endsWith("\n"));
+        assertTrue(dictionary.contains("'descr': '<i4'"));
+        assertTrue(dictionary.contains("'fortran_order': False"));
+        assertTrue(dictionary.contains("'shape': " + shape + ","));
+        int[] values = new int[buffer.remaining() / 4];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getInt();
+        }
+        return values;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void deleteAll(Path directory) throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
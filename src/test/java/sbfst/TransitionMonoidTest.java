@@ -0,0 +1,145 @@
+package sbfst;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.TransitionMonoid.java.
+ */
+public class TransitionMonoidTest {
+
+    /**
+     * Test idempotents and Green's relations on a group and on an aperiodic monoid.
+     */
+    @Test
+    public void testGreensRelations() {
+        // counting a's modulo 3 gives the cyclic group of order 3
+        CompactDfa mod3 = new CompactDfa(3, 0, new String[]{"a"}, new int[]{1, 2, 0},
+                new boolean[]{true, false, false});
+        TransitionMonoid group = TransitionMonoid.of(mod3);
+        assertTrue(group.getSize() == 3);
+        assertTrue(Arrays.equals(group.getIdempotents(), new int[]{0}));
+        assertTrue(group.getRClasses().getComponentCount() == 1);
+        assertTrue(group.getLClasses().getComponentCount() == 1);
+        assertTrue(group.getJClasses().getComponentCount() == 1);
+        assertTrue(!group.isJTrivial());
+
+        // a*, whose partial DFA gets an implicit sink: the monoid is {1, b} with b a zero
+        CompactDfa aStar = new CompactDfa(1, 0, new String[]{"a", "b"}, new int[]{0, CompactDfa.NONE},
+                new boolean[]{true});
+        TransitionMonoid monoid = TransitionMonoid.of(aStar);
+        assertTrue(monoid.getSize() == 2);
+        assertTrue(monoid.getIdempotents().length == 2);
+        assertTrue(monoid.isJTrivial());
+        assertTrue(monoid.isLocallyIdempotentAndCommutative());
+
+        // the J-classes are in topological order, so the zero comes last
+        int zero = monoid.getGenerator(1);
+        Condensation jClasses = monoid.getJClasses();
+        assertTrue(jClasses.getComponentOf(zero) == jClasses.getComponentCount() - 1);
+    }
+
+    /**
+     * Test that the algebraic checks agree with the graph checks on fixtures and random DFAs.
+     */
+    @Test
+    public void testAlgebraicChecks() {
+        String[] names = {"pt0", "pt1", "pt2", "pt3", "pt4", "pt5", "sp0", "sp1", "sp2", "sl0", "sl1", "sl2", "lt0",
+                "lt1", "lt2", "lt4", "sf3", "tomita2"};
+        for (String name : names) {
+            CompactDfa dfa = CompactDfa.importDfa(name).minimize();
+            TransitionMonoid monoid = TransitionMonoid.of(dfa);
+            assertTrue(monoid.isJTrivial() == Utils.isPiecewiseTestable(dfa.toFst()));
+            assertTrue(monoid.isLocallyIdempotentAndCommutative() == Utils.isLocallyTestable(dfa.toFst()));
+            assertTrue(monoid.getPeriod() == Utils.isAperiodic(Utils.getSM(dfa.toFst())));
+        }
+
+        Random random = new Random(44);
+        for (int trial = 0; trial < 300; trial++) {
+            int n = 1 + random.nextInt(5);
+            int[] delta = new int[2 * n];
+            boolean[] finals = new boolean[n];
+            for (int s = 0; s < n; s++) {
+                delta[2 * s] = random.nextInt(n);
+                delta[2 * s + 1] = random.nextInt(n);
+                finals[s] = random.nextBoolean();
+            }
+            CompactDfa dfa = new CompactDfa(n, 0, new String[]{"a", "b"}, delta, finals).minimize();
+            TransitionMonoid monoid = TransitionMonoid.of(dfa);
+            assertTrue(monoid.isJTrivial() == Utils.isPiecewiseTestable(dfa.toFst()));
+            assertTrue(monoid.isLocallyIdempotentAndCommutative() == Utils.isLocallyTestable(dfa.toFst()));
+            assertTrue(monoid.getPeriod() == Utils.isAperiodic(Utils.getSM(dfa.toFst())));
+        }
+
+        // a monoid over the size limit is not built
+        CompactDfa lt0 = CompactDfa.importDfa("lt0").minimize();
+        int size = TransitionMonoid.of(lt0).getSize();
+        assertTrue(TransitionMonoid.ofAtMost(lt0, size - 1, Budget.UNLIMITED) == null);
+        assertTrue(TransitionMonoid.ofAtMost(lt0, size, Budget.UNLIMITED).getSize() == size);
+    }
+
+    /**
+     * Test that the parallel construction numbers the elements exactly like the sequential one, also when its levels
+     * are split into small chunks.
+     */
+    @Test
+    public void testParallel() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // a cycle, a transposition and a merge of five states generate all 5^5 transformations
+            int n = 5;
+            int[] delta = new int[3 * n];
+            for (int s = 0; s < n; s++) {
+                delta[3 * s] = (s + 1) % n;
+                delta[3 * s + 1] = s < 2 ? 1 - s : s;
+                delta[3 * s + 2] = s == 0 ? 1 : s;
+            }
+            CompactDfa full = new CompactDfa(n, 0, new String[]{"a", "b", "c"}, delta, new boolean[n]);
+            TransitionMonoid sequential = TransitionMonoid.of(full);
+            assertTrue(sequential.getSize() == 3125);
+            assertTrue(isSame(sequential, TransitionMonoid.ofParallel(full, pool, Budget.UNLIMITED)));
+            assertTrue(isSame(sequential, TransitionMonoid.ofParallel(full, pool, Budget.UNLIMITED,
+                    Integer.MAX_VALUE, 1500)));
+
+            for (String name : new String[]{"lt0", "lt1", "pt3", "sf3"}) {
+                CompactDfa dfa = CompactDfa.importDfa(name);
+                assertTrue(isSame(TransitionMonoid.of(dfa), TransitionMonoid.ofParallel(dfa, pool, Budget.UNLIMITED,
+                        Integer.MAX_VALUE, 7)));
+            }
+
+            // a monoid over the size limit is not built, however its levels are chunked
+            assertTrue(TransitionMonoid.ofParallelAtMost(full, pool, 3124, Budget.UNLIMITED) == null);
+            assertTrue(TransitionMonoid.ofParallel(full, pool, Budget.UNLIMITED, 3124, 1500) == null);
+            assertTrue(isSame(sequential, TransitionMonoid.ofParallelAtMost(full, pool, 3125, Budget.UNLIMITED)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static boolean isSame(TransitionMonoid x, TransitionMonoid y) {
+        if (x.getSize() != y.getSize() || x.getStateCount() != y.getStateCount()) {
+            return false;
+        }
+        for (int m = 1; m < x.getSize(); m++) {
+            if (x.getParent(m) != y.getParent(m) || x.getLastLetter(m) != y.getLastLetter(m)) {
+                return false;
+            }
+            for (int s = 0; s < x.getStateCount(); s++) {
+                if (x.apply(m, s) != y.apply(m, s)) {
+                    return false;
+                }
+            }
+            for (int a = 0; a < x.getAlphabetSize(); a++) {
+                if (x.rightMultiply(m, a) != y.rightMultiply(m, a)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+package sbfst;
+
+import com.github.steveash.jopenfst.*;
+import com.github.steveash.jopenfst.io.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.Traversals.java and the IntGraph views.
+ */
+public class TraversalsTest {
+
+    Fst fig3A;
+
+    /**
+     * Run before each test case to initialize the testing environment.
+     */
+    @Before
+    public void initialize() {
+        Convert.setRegexToSplitOn("\\s+");
+        fig3A = Convert.importFst("test_pairgraph_1");
+    }
+
+    /**
+     * Build a DFA over {a} that is a chain of n states, optionally looping back from the last state to the first.
+     */
+    private static CompactDfa chain(int n, boolean loop) {
+        int[] delta = new int[n];
+        for (int s = 0; s < n - 1; s++) {
+            delta[s] = s + 1;
+        }
+        delta[n - 1] = loop ? 0 : CompactDfa.NONE;
+        return new CompactDfa(n, 0, new String[]{"a"}, delta, new boolean[n]);
+    }
+
+    /**
+     * Test that the traversals handle chains far deeper than a recursive DFS could.
+     */
+    @Test
+    public void testLongChains() {
+        int n = 200000;
+        assertTrue(Traversals.isAcyclic(IntGraph.of(chain(n, false))));
+        assertTrue(!Traversals.isAcyclic(IntGraph.of(chain(n, true))));
+
+        int[] order = Traversals.postOrder(IntGraph.of(chain(n, false)));
+        assertTrue(order.length == n && order[0] == n - 1 && order[n - 1] == 0);
+
+        int[] found = Traversals.preOrder(IntGraph.of(chain(n, true)), 0, new boolean[n]);
+        assertTrue(found.length == n && found[n - 1] == n - 1);
+    }
+
+    /**
+     * Test that getSCCs() works on a long cycle without recursion.
+     */
+    @Test
+    public void testSCCsOfLongCycle() {
+        int n = 100000;
+        Fst cycle = chain(n, true).toFst();
+        ArrayList<ArrayList<State>> SCCs = Utils.getSCCs(cycle);
+        assertTrue(SCCs.size() == 1 && SCCs.get(0).size() == n);
+    }
+
+    /**
+     * Test that markSCCNodes marks exactly the states in the SCCs found by getSCCs, self-loops included.
+     */
+    @Test
+    public void testMarkSCCNodes() {
+        // the chain has no cycles until its last state gets a self-loop
+        int n = 100000;
+        CompactDfa chain = chain(n, false);
+        long[] marks = Traversals.markSCCNodes(IntGraph.of(chain));
+        for (int s = 0; s < n; s++) {
+            assertTrue(!Traversals.isMarked(marks, s));
+        }
+        int[] delta = new int[n];
+        for (int s = 0; s < n; s++) {
+            delta[s] = s < n - 1 ? s + 1 : s;
+        }
+        marks = Traversals.markSCCNodes(IntGraph.of(new CompactDfa(n, 0, new String[]{"a"}, delta, new boolean[n])));
+        for (int s = 0; s < n; s++) {
+            assertTrue(Traversals.isMarked(marks, s) == (s == n - 1));
+        }
+
+        for (String name : new String[]{"test_pairgraph_1", "test_acyclic_1", "lt2", "pt1"}) {
+            Fst fst = Convert.importFst(name);
+            Set<Integer> sccNodes = new HashSet<>();
+            for (ArrayList<State> scc : Utils.getSCCs(fst)) {
+                for (State state : scc) {
+                    sccNodes.add(state.getId());
+                }
+            }
+            marks = Traversals.markSCCNodes(IntGraph.of(fst));
+            for (int s = 0; s < fst.getStateCount(); s++) {
+                assertTrue(Traversals.isMarked(marks, s) == sccNodes.contains(s));
+            }
+        }
+    }
+
+    /**
+     * Test that the implicit product view has the arcs of the materialized direct product.
+     */
+    @Test
+    public void testProductView() {
+        CompactDfa dfa = CompactDfa.fromFst(fig3A);
+        int n = dfa.getStateCount();
+        IntGraph product = IntGraph.product(dfa, 2);
+        assertTrue(product.getStateCount() == n * n);
+        for (int p = 0; p < n; p++) {
+            for (int q = 0; q < n; q++) {
+                for (int a = 0; a < dfa.getAlphabetSize(); a++) {
+                    int r = dfa.next(p, a);
+                    int s = dfa.next(q, a);
+                    int expected = r == CompactDfa.NONE || s == CompactDfa.NONE ? IntGraph.NO_ARC : r * n + s;
+                    assertTrue(product.getTarget(p * n + q, a) == expected);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that the implicit pair graph view agrees with the materialized pair graph on acyclicity.
+     */
+    @Test
+    public void testPairGraphView() {
+        CompactDfa dfa = CompactDfa.fromFst(fig3A);
+        BitSet q1 = new BitSet();
+        BitSet q2 = new BitSet();
+        Set<State> q1States = new HashSet<>();
+        Set<State> q2States = new HashSet<>();
+        for (String name : new String[]{"1", "2", "3", "4", "5"}) {
+            q1.set(fig3A.getState(name).getId());
+            q1States.add(fig3A.getState(name));
+        }
+        for (String name : new String[]{"3", "4", "5"}) {
+            q2.set(fig3A.getState(name).getId());
+            q2States.add(fig3A.getState(name));
+        }
+        boolean materialized = Utils.isAcyclic(Utils.getPairGraph(fig3A, q1States, q2States));
+        assertTrue(Traversals.isAcyclic(IntGraph.pairGraph(dfa, q1, q2)) == materialized);
+        assertTrue(Utils.isPairwiseSLocal(fig3A, q1States, q2States) == materialized);
+    }
+}
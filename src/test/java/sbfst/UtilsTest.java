@@ -167,6 +167,76 @@ public class UtilsTest {
         assertTrue(Utils.hasDescendants(scc, fig2M2_altered));
     }
 
+    /**
+     * Test getCondensation().
+     */
+    @Test
+    public void testCondensation() {
+        // fig3A has the SCCs {1,2} and {3,4,5}, with arcs from the first to the second only
+        Condensation condensation = Utils.getCondensation(fig3A);
+        assertTrue(condensation.getComponentCount() == 2);
+        assertTrue(condensation.getCyclicComponentCount() == 2);
+        int first = condensation.getComponentOf(fig3A.getState("1").getId());
+        int second = condensation.getComponentOf(fig3A.getState("5").getId());
+        assertTrue(first == condensation.getComponentOf(fig3A.getState("2").getId()));
+        assertTrue(second == condensation.getComponentOf(fig3A.getState("3").getId()));
+        assertTrue(first < second);
+        assertTrue(condensation.isAncestor(first, second));
+        assertTrue(!condensation.isAncestor(second, first));
+        assertTrue(condensation.hasCyclicDescendants(first));
+        assertTrue(!condensation.hasDescendants(second));
+        assertTrue(condensation.getSinks().length == 1 && condensation.getSinks()[0] == second);
+        assertTrue(condensation.getAncestors(second).get(first));
+
+        // states on no cycle get components of their own, which are not cyclic
+        condensation = Utils.getCondensation(acyclic1);
+        assertTrue(condensation.getComponentCount() == acyclic1.getStateCount());
+        assertTrue(condensation.getCyclicComponentCount() == 0);
+    }
+
+    /**
+     * Test that the orbits of the symmetric products give the same SCC nodes as the full products, and that pair
+     * reachability agrees with the reachability matrix of Γ².
+     */
+    @Test
+    public void testSymmetricProduct() {
+        for (String name : new String[]{"lt0", "pt0", "sl1", "pt4"}) {
+            Fst gamma = Convert.importFst(name);
+            CompactDfa dfa = CompactDfa.fromFst(gamma);
+            int n = gamma.getStateCount();
+            SymmetricProduct gamma2Orbits = SymmetricProduct.of(dfa, 2);
+            SymmetricProduct gamma3Orbits = SymmetricProduct.of(dfa, 3);
+            assertTrue(gamma2Orbits.getStateCount() == n * (n + 1) / 2);
+            assertTrue(gamma3Orbits.getStateCount() == n * (n + 1) * (n + 2) / 6);
+
+            Fst gamma2 = Utils.directProduct(gamma, 2);
+            Fst gamma3 = Utils.directProduct(gamma, 3);
+            boolean[] gamma2SCCNodes = Utils.markSCCNodes(gamma2);
+            boolean[] gamma3SCCNodes = Utils.markSCCNodes(gamma3);
+            Condensation condensation2 = Condensation.of(gamma2Orbits);
+            Condensation condensation3 = Condensation.of(gamma3Orbits);
+            boolean[][] gamma2Reachability = Utils.getReachabilityMatrix(gamma2);
+            PairReachability pairReachability = PairReachability.of(dfa);
+            SymbolTable.InvertedSymbolTable syms = gamma.getStateSymbols().invert();
+            for (int p = 0; p < n; p++) {
+                for (int q = 0; q < n; q++) {
+                    int pq = gamma2.getState(syms.keyForId(p) + "," + syms.keyForId(q)).getId();
+                    int orbit = gamma2Orbits.indexOf(q, p);
+                    assertTrue(gamma2SCCNodes[pq] == condensation2.isCyclic(condensation2.getComponentOf(orbit)));
+                    for (int r = 0; r < n; r++) {
+                        int pqr = gamma3.getState(syms.keyForId(p) + "," + syms.keyForId(q) + "," + syms.keyForId(r)).getId();
+                        orbit = gamma3Orbits.indexOf(r, p, q);
+                        assertTrue(gamma3SCCNodes[pqr] == condensation3.isCyclic(condensation3.getComponentOf(orbit)));
+                        for (int s = 0; s < n; s++) {
+                            int rs = gamma2.getState(syms.keyForId(r) + "," + syms.keyForId(s)).getId();
+                            assertTrue(gamma2Reachability[pq][rs] == pairReachability.reaches(p, q, r, s));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Test componentIsReachable().
      */
@@ -182,6 +252,22 @@ public class UtilsTest {
         assertTrue(!Utils.componentIsReachable(fig3A.getState("5"), scc, fig3A));
     }
 
+    /**
+     * Test that ReachabilityOracle agrees with isPath() and caches its answers per target set.
+     */
+    @Test
+    public void testReachabilityOracle() {
+        ReachabilityOracle oracle = new ReachabilityOracle(fig3A);
+        for (int i = 0; i < fig3A.getStateCount(); i++) {
+            State target = fig3A.getState(i);
+            BitSet canReach = oracle.canReach(Collections.singletonList(target));
+            for (int j = 0; j < fig3A.getStateCount(); j++) {
+                assertTrue(canReach.get(j) == Utils.isPath(fig3A.getState(j), target, fig3A));
+            }
+            assertTrue(canReach == oracle.canReach(Collections.singletonList(target)));
+        }
+    }
+
     /**
      * Test getM0().
      */
@@ -360,6 +446,19 @@ public class UtilsTest {
         assertTrue(!Utils.isLocallyTestable(pt4));
     }
 
+    /**
+     * Test that isLocallyTestable() leaves its input untouched.
+     */
+    @Test
+    public void testIsLocallyTestableDoesNotModifyInput() {
+        Fst lt2 = Convert.importFst("lt2");
+        int n = lt2.getStateCount();
+        State start = lt2.getStartState();
+        assertTrue(Utils.isLocallyTestable(lt2));
+        assertTrue(lt2.getStateCount() == n);
+        assertTrue(lt2.getStartState() == start);
+    }
+
     /**
      * Test isPiecewiseTestable().
      */
@@ -430,6 +529,234 @@ public class UtilsTest {
         assertTrue(!Utils.isPiecewiseTestable(lt4));
     }
 
+    /**
+     * Test that the FST and compact piecewise testability backends agree on fixtures and random DFAs, including ones
+     * large enough for isPiecewiseTestable() to pick the compact backend.
+     */
+    @Test
+    public void testCrossCheckPiecewiseTestable() {
+        for (String name : new String[]{"pt0", "pt1", "pt2", "pt3", "pt4", "pt5", "sp0", "sp1", "sp2"}) {
+            Fst dfa = CompactDfa.fromFst(Convert.importFst(name)).minimize().toFst();
+            assertTrue(Utils.crossCheckPiecewiseTestable(dfa));
+        }
+        for (String name : new String[]{"sl0", "sl1", "sl2", "lt0", "lt1", "lt2", "lt4"}) {
+            Fst dfa = CompactDfa.fromFst(Convert.importFst(name)).minimize().toFst();
+            assertTrue(!Utils.crossCheckPiecewiseTestable(dfa));
+        }
+        // partially ordered, but the states for a* and b* both stabilize under a and b
+        CompactDfa startsWithA = new CompactDfa(3, 0, new String[]{"a", "b"}, new int[]{1, 2, 1, 1, 2, 2},
+                new boolean[]{false, true, false}).minimize();
+        assertTrue(!Utils.crossCheckPiecewiseTestable(startsWithA.toFst()));
+
+        Random random = new Random(43);
+        for (int trial = 0; trial < 400; trial++) {
+            int n = trial % 4 == 0 ? 40 + random.nextInt(20) : 1 + random.nextInt(6);
+            int[] delta = new int[2 * n];
+            boolean[] finals = new boolean[n];
+            for (int s = 0; s < n; s++) {
+                // mostly forward arcs and self-loops, so that many of the DFAs are partially ordered
+                for (int a = 0; a < 2; a++) {
+                    delta[2 * s + a] = random.nextInt(3) == 0 ? s : Math.min(n - 1, s + random.nextInt(n));
+                }
+                finals[s] = random.nextBoolean();
+            }
+            Fst dfa = new CompactDfa(n, 0, new String[]{"a", "b"}, delta, finals).minimize().toFst();
+            assertTrue(Utils.crossCheckPiecewiseTestable(dfa) == Utils.isPiecewiseTestable(dfa));
+        }
+    }
+
+    /**
+     * Test localTestabilityOrder() on fixtures, and against brute force on random DFAs over two letters.
+     */
+    @Test
+    public void testLocalTestabilityOrder() {
+        // an SL-k language is k-testable, and these are not (k - 1)-testable
+        assertTrue(Utils.localTestabilityOrder(Convert.importFst("sl0")) == 2);
+        assertTrue(Utils.localTestabilityOrder(Convert.importFst("sl1")) == 4);
+        assertTrue(Utils.localTestabilityOrder(Convert.importFst("sl2")) == 8);
+        // counting up to one b is not locally testable
+        assertTrue(Utils.localTestabilityOrder(Convert.importFst("sp0")) == -1);
+        assertTrue(Utils.localTestabilityOrder(Convert.importFst("lt0")) > 0);
+
+        Random random = new Random(42);
+        for (int trial = 0; trial < 300; trial++) {
+            int n = 1 + random.nextInt(5);
+            int[] delta = new int[2 * n];
+            boolean[] finals = new boolean[n];
+            for (int s = 0; s < n; s++) {
+                delta[2 * s] = random.nextInt(n);
+                delta[2 * s + 1] = random.nextInt(n);
+                finals[s] = random.nextBoolean();
+            }
+            CompactDfa dfa = new CompactDfa(n, 0, new String[]{"a", "b"}, delta, finals).minimize();
+            int order = Utils.localTestabilityOrder(dfa.toFst());
+            for (int k = 1; k <= 3; k++) {
+                boolean testable = order != -1 && order <= k;
+                assertTrue(isKTestable(dfa, k) == testable);
+            }
+        }
+    }
+
+    /**
+     * Test that the bounds of localTestabilityOrderBounds() enclose the order found from the monoid alone, that they
+     * meet on strongly connected DFAs, and that the DFAs of "contains the factor w" need no monoid at all.
+     */
+    @Test
+    public void testLocalTestabilityOrderBounds() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 3000; trial++) {
+            int n = 1 + random.nextInt(7);
+            int[] delta = new int[2 * n];
+            boolean[] finals = new boolean[n];
+            for (int s = 0; s < n; s++) {
+                delta[2 * s] = random.nextInt(n);
+                delta[2 * s + 1] = random.nextInt(n);
+                finals[s] = random.nextBoolean();
+            }
+            CompactDfa dfa = new CompactDfa(n, 0, new String[]{"a", "b"}, delta, finals).minimize();
+            if (!Utils.isLocallyTestable(dfa.toFst())) {
+                continue;
+            }
+            int order = Utils.localTestabilityOrder(TransitionMonoid.of(dfa), 1, Integer.MAX_VALUE,
+                    Budget.UNLIMITED);
+            int[] bounds = Utils.localTestabilityOrderBounds(dfa, Budget.UNLIMITED);
+            assertTrue(bounds[0] <= order && order <= bounds[1]);
+            if (Condensation.of(IntGraph.of(dfa)).getComponentCount() == 1) {
+                assertTrue(bounds[0] == bounds[1]);
+            }
+        }
+
+        // the KMP automaton of a random word w, whose language is exactly |w|-testable
+        for (int m = 1; m <= 60; m++) {
+            String w = "";
+            for (int i = 0; i < m; i++) {
+                w += "ab".charAt(random.nextInt(2));
+            }
+            int[] delta = new int[2 * (m + 1)];
+            boolean[] finals = new boolean[m + 1];
+            finals[m] = true;
+            for (int s = 0; s <= m; s++) {
+                for (int a = 0; a < 2; a++) {
+                    String read = s == m ? w : w.substring(0, s) + "ab".charAt(a);
+                    int matched = Math.min(read.length(), m);
+                    while (!w.startsWith(read.substring(read.length() - matched))) {
+                        matched--;
+                    }
+                    delta[2 * s + a] = matched;
+                }
+            }
+            Classifier classifier = new Classifier(new CompactDfa(m + 1, 0, new String[]{"a", "b"}, delta, finals));
+            assertTrue(classifier.getLocalTestabilityOrder(Budget.UNLIMITED.withMaxMonoidElements(1)) == m);
+        }
+    }
+
+    /**
+     * Decide k-testability by brute force: explore every reachable pair of a word's prefix, suffix and k-factors and
+     * its transformation of the states, and check that each of the former has only one of the latter.
+     */
+    private static boolean isKTestable(CompactDfa dfa, int k) {
+        int n = dfa.getStateCount();
+        Map<String, String> transformationOf = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        Deque<Object[]> queue = new ArrayDeque<>();
+        int[] identity = new int[n];
+        for (int s = 0; s < n; s++) {
+            identity[s] = s;
+        }
+        queue.add(new Object[]{"", new TreeSet<String>(), identity});
+        while (!queue.isEmpty()) {
+            Object[] entry = queue.poll();
+            String word = (String) entry[0];
+            @SuppressWarnings("unchecked")
+            TreeSet<String> factors = (TreeSet<String>) entry[1];
+            int[] transformation = (int[]) entry[2];
+            // words shorter than k - 1 are only equivalent to themselves
+            String key = word.length() < k - 1 ? word
+                    : word.substring(0, k - 1) + "|" + word.substring(word.length() - (k - 1)) + "|" + factors;
+            String value = Arrays.toString(transformation);
+            if (!seen.add(key + "|" + value)) {
+                continue;
+            }
+            if (!value.equals(transformationOf.computeIfAbsent(key, x -> value))) {
+                return false;
+            }
+            for (int a = 0; a < 2; a++) {
+                String longer = word + dfa.getSymbol(a);
+                TreeSet<String> moreFactors = new TreeSet<>(factors);
+                if (longer.length() >= k) {
+                    moreFactors.add(longer.substring(longer.length() - k));
+                }
+                // only the first and last k - 1 letters matter from here on
+                if (longer.length() > 2 * k) {
+                    longer = longer.substring(0, k - 1) + "#" + longer.substring(longer.length() - (k - 1));
+                }
+                int[] next = new int[n];
+                for (int s = 0; s < n; s++) {
+                    next[s] = dfa.next(transformation[s], a);
+                }
+                queue.add(new Object[]{longer, moreFactors, next});
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test isStrictlyLocal() and getStrictlyLocalOrder().
+     */
+    @Test
+    public void testIsStrictlyLocal() {
+        // sl0.fst.txt forbids bb, sl1.fst.txt forbids bbbb and sl2.fst.txt forbids b^8
+        Fst sl0 = Convert.importFst("sl0");
+        assertTrue(Utils.getStrictlyLocalOrder(sl0) == 2);
+        assertTrue(!Utils.isStrictlyLocal(sl0, 1));
+        assertTrue(Utils.isStrictlyLocal(sl0, 2));
+
+        Fst sl1 = Convert.importFst("sl1");
+        assertTrue(Utils.getStrictlyLocalOrder(sl1) == 4);
+        assertTrue(!Utils.isStrictlyLocal(sl1, 3));
+        assertTrue(Utils.isStrictlyLocal(sl1, 4));
+        assertTrue(Utils.isStrictlyLocal(sl1, 5));
+
+        Fst sl2 = Convert.importFst("sl2");
+        assertTrue(Utils.getStrictlyLocalOrder(sl2) == 8);
+
+        // sp0.fst.txt allows at most one b, which needs unbounded factors
+        for (String name : new String[]{"sp0", "sp1", "sp2"}) {
+            assertTrue(Utils.getStrictlyLocalOrder(Convert.importFst(name)) == -1);
+        }
+    }
+
+    /**
+     * Test isStrictlyPiecewise().
+     */
+    @Test
+    public void testIsStrictlyPiecewise() {
+        // sp0.fst.txt forbids the subsequence bb, sp1.fst.txt forbids bbbb and sp2.fst.txt forbids b^8
+        for (String name : new String[]{"sp0", "sp1", "sp2"}) {
+            assertTrue(Utils.isStrictlyPiecewise(Convert.importFst(name)));
+        }
+
+        // sl0.fst.txt has bab but not its subsequence bb
+        for (String name : new String[]{"sl0", "sl1", "sl2", "lt0"}) {
+            assertTrue(!Utils.isStrictlyPiecewise(Convert.importFst(name)));
+        }
+
+        // at most n - 2 a's is closed under deleting a letter, at least n - 1 a's is not; 160000 pairs each
+        int n = 400;
+        int[] delta = new int[2 * n];
+        boolean[] atMost = new boolean[n];
+        boolean[] atLeast = new boolean[n];
+        for (int s = 0; s < n; s++) {
+            delta[2 * s] = Math.min(s + 1, n - 1);
+            delta[2 * s + 1] = s;
+            atMost[s] = s < n - 1;
+            atLeast[s] = s == n - 1;
+        }
+        String[] symbols = new String[]{"a", "b"};
+        assertTrue(Utils.isStrictlyPiecewise(new CompactDfa(n, 0, symbols, delta, atMost), Budget.UNLIMITED));
+        assertTrue(!Utils.isStrictlyPiecewise(new CompactDfa(n, 0, symbols, delta, atLeast), Budget.UNLIMITED));
+    }
+
     /**
      * Test withoutSelfLoops().
      */
@@ -0,0 +1,110 @@
+package sbfst;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Unit tests for sbfst.WordSampler.java.
+ */
+public class WordSamplerTest {
+
+    /**
+     * Test that counts and enumerations agree with listing every word of each length by brute force.
+     */
+    @Test
+    public void testCountAndEnumerate() {
+        for (String name : new String[]{"lt0", "pt1", "sl1"}) {
+            CompactDfa dfa = CompactDfa.importDfa(name);
+            WordSampler sampler = new WordSampler(dfa, 6);
+            List<String> accepted = new ArrayList<>();
+            List<String> rejected = new ArrayList<>();
+            for (int length = 0; length <= 6; length++) {
+                List<String> words = allWords(dfa, length);
+                long accepts = 0;
+                for (String word : words) {
+                    if (accepts(dfa, word)) {
+                        accepted.add(word);
+                        accepts++;
+                    } else {
+                        rejected.add(word);
+                    }
+                }
+                assertTrue(sampler.countAccepted(length).equals(BigInteger.valueOf(accepts)));
+                assertTrue(sampler.countRejected(length).equals(BigInteger.valueOf(words.size() - accepts)));
+            }
+            List<String> enumerated = new ArrayList<>();
+            sampler.enumerate(6, true, enumerated::add);
+            assertTrue(enumerated.equals(accepted));
+            enumerated.clear();
+            sampler.enumerate(6, false, enumerated::add);
+            assertTrue(enumerated.equals(rejected));
+        }
+    }
+
+    /**
+     * Test that samples have the asked-for length and label, and that every word turns up about equally often.
+     */
+    @Test
+    public void testSample() {
+        CompactDfa dfa = CompactDfa.importDfa("lt0");
+        WordSampler sampler = new WordSampler(dfa, 100);
+        Random random = new Random(39);
+        for (boolean accept : new boolean[]{true, false}) {
+            int total = sampler.countAccepted(4).intValue();
+            if (!accept) {
+                total = sampler.countRejected(4).intValue();
+            }
+            Map<String, Integer> seen = new HashMap<>();
+            int draws = 400 * total;
+            for (int i = 0; i < draws; i++) {
+                String word = sampler.sample(4, accept, random);
+                assertTrue(word.length() == 4);
+                assertTrue(accepts(dfa, word) == accept);
+                seen.merge(word, 1, Integer::sum);
+            }
+            assertTrue(seen.size() == total);
+            for (int count : seen.values()) {
+                assertTrue(count > 300 && count < 500);
+            }
+        }
+
+        // long words go through BigInteger arithmetic
+        for (int i = 0; i < 100; i++) {
+            String word = sampler.sample(100, i % 2 == 0, random);
+            assertTrue(word.length() == 100);
+            assertTrue(accepts(dfa, word) == (i % 2 == 0));
+        }
+    }
+
+    private static List<String> allWords(CompactDfa dfa, int length) {
+        List<String> words = new ArrayList<>();
+        words.add("");
+        for (int i = 0; i < length; i++) {
+            List<String> longer = new ArrayList<>();
+            for (String word : words) {
+                for (int a = 0; a < dfa.getAlphabetSize(); a++) {
+                    longer.add(word + dfa.getSymbol(a));
+                }
+            }
+            words = longer;
+        }
+        return words;
+    }
+
+    private static boolean accepts(CompactDfa dfa, String word) {
+        int s = dfa.getStart();
+        for (int i = 0; i < word.length() && s != CompactDfa.NONE; i++) {
+            int a = dfa.getSymbolIndex(word.substring(i, i + 1));
+            s = a == CompactDfa.NONE ? CompactDfa.NONE : dfa.next(s, a);
+        }
+        return s != CompactDfa.NONE && dfa.isFinal(s);
+    }
+}